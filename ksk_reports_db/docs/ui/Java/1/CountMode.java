@@ -0,0 +1,34 @@
+package ru.example.ksk.dto;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Режим подсчёта pagination.total_records для data-эндпоинтов
+ *
+ * - NONE      — не считать (total_records = null), клиенту достаточно has_more
+ * - CACHED    — ksk_report_header.row_count; если кэша ещё нет — точный COUNT(*) (по умолчанию)
+ * - ESTIMATED — ksk_report_header.row_count; если кэша нет — оценка планировщика, без COUNT(*)
+ *
+ * has_more во всех режимах точный (запрос limit+1 строк)
+ */
+public enum CountMode {
+    NONE,
+    CACHED,
+    ESTIMATED;
+
+    /**
+     * @throws ResponseStatusException 400 — неизвестное значение параметра countMode
+     */
+    public static CountMode parse(String value) {
+        if (value == null || value.isBlank()) {
+            return CACHED;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "Недопустимое значение countMode: " + value + ". Допустимые значения: none, cached, estimated", e);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package ru.example.ksk.service.export;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * CSV писатель строк отчёта.
+ *
+ * ФОРМАТ:
+ * - UTF-8 с BOM — иначе Excel открывает кириллицу в cp1251
+ * - Разделитель ';' — стандарт для русской локали Excel
+ * - Значения с разделителем, кавычками или переводом строки берутся в кавычки (RFC 4180)
+ * - NULL → пустое поле
+ */
+public class CsvReportRowWriter implements ReportRowWriter {
+
+    private static final char SEPARATOR = ';';
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Writer writer;
+    private int columnCount;
+
+    public CsvReportRowWriter(OutputStream out) {
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    @Override
+    public void writeHeader(ResultSetMetaData metaData) throws SQLException, IOException {
+        columnCount = metaData.getColumnCount();
+        writer.write('\uFEFF');
+        for (int i = 1; i <= columnCount; i++) {
+            if (i > 1) {
+                writer.write(SEPARATOR);
+            }
+            writeValue(metaData.getColumnLabel(i));
+        }
+        writer.write("\r\n");
+    }
+
+    @Override
+    public void writeRow(ResultSet rs) throws SQLException, IOException {
+        for (int i = 1; i <= columnCount; i++) {
+            if (i > 1) {
+                writer.write(SEPARATOR);
+            }
+            writeValue(rs.getString(i));
+        }
+        writer.write("\r\n");
+    }
+
+    @Override
+    public void finish() throws IOException {
+        writer.flush();
+    }
+
+    private void writeValue(String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        boolean needsQuotes = false;
+        for (int i = 0; i < value.length() && !needsQuotes; i++) {
+            char c = value.charAt(i);
+            needsQuotes = c == SEPARATOR || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!needsQuotes) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+}
@@ -0,0 +1,31 @@
+package ru.example.ksk.dto;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Форма поля данных в ответе data-эндпоинтов
+ *
+ * - ROWS     — data: [{"column": value, ...}, ...] (по умолчанию, совместимо со старыми клиентами)
+ * - COLUMNAR — columns: ["column", ...] + rows: [[value, ...], ...]
+ *              имена колонок передаются один раз, ответ для таблиц UI в разы меньше
+ */
+public enum DataShape {
+    ROWS,
+    COLUMNAR;
+
+    /**
+     * @throws ResponseStatusException 400 — неизвестное значение параметра shape
+     */
+    public static DataShape parse(String value) {
+        if (value == null || value.isBlank()) {
+            return ROWS;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "Недопустимое значение shape: " + value + ". Допустимые значения: rows, columnar", e);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package ru.example.ksk.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 🆕 Метрики выгрузок: длительность и объём тела ответа по формату
+ *
+ * МЕТРИКИ:
+ * - ksk.report.export.duration{format, source, outcome} — от первого до последнего байта тела
+ * - ksk.report.export.bytes{format, source} — байт отдано клиенту (после gzip)
+ *
+ * source: db (потоково из таблиц данных), cache (ReportResponseCache), file (ksk_report_files),
+ *         memory (pdf: документ собирается ExportService целиком до ответа — время сборки входит)
+ * outcome: success | error (в т.ч. клиент оборвал соединение)
+ */
+@Component
+public class ExportMetrics {
+
+    private final MeterRegistry meterRegistry;
+
+    public ExportMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Тело ответа, которое при записи меряет себя
+     */
+    public StreamingResponseBody measure(String format, String source, StreamingResponseBody body) {
+        return measure(format, source, null, body);
+    }
+
+    /**
+     * @param startNanos начало выгрузки (System.nanoTime()), если работа началась до записи тела;
+     *                   null — от начала записи
+     */
+    public StreamingResponseBody measure(String format, String source, Long startNanos, StreamingResponseBody body) {
+        return out -> {
+            CountingOutputStream counting = new CountingOutputStream(out);
+            long fromNanos = startNanos != null ? startNanos : System.nanoTime();
+            String outcome = "error";
+            try {
+                body.writeTo(counting);
+                outcome = "success";
+            } finally {
+                timer(format, source, outcome).record(System.nanoTime() - fromNanos, TimeUnit.NANOSECONDS);
+                bytes(format, source).record(counting.count);
+            }
+        };
+    }
+
+    private Timer timer(String format, String source, String outcome) {
+        return Timer.builder("ksk.report.export.duration")
+            .description("Report export response body duration")
+            .tag("format", format)
+            .tag("source", source)
+            .tag("outcome", outcome)
+            .publishPercentiles(0.5, 0.95, 0.99)
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+    }
+
+    private DistributionSummary bytes(String format, String source) {
+        return DistributionSummary.builder("ksk.report.export.bytes")
+            .description("Report export response body size")
+            .baseUnit("bytes")
+            .tag("format", format)
+            .tag("source", source)
+            .publishPercentiles(0.5, 0.95, 0.99)
+            .register(meterRegistry);
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package ru.example.ksk.service.ingest;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 🆕 Источник сообщений КСК в памяти — для стендов, отладки и нагрузочных прогонов KskJoinEngine
+ *
+ * Не бин: создаётся явно и регистрируется как KskMessageSource в конфигурации стенда.
+ * Одна партиция (0) на тему, offset'ы — сквозные по теме.
+ *
+ * fromSamples() — пары из docs/json (input.json + output.json). corrId в образцах различаются,
+ * поэтому у каждой пары headerInfo.corrId подменяется на общий UUID.
+ */
+public class InMemoryKskMessageSource implements KskMessageSource {
+
+    private static final int MAX_POLL_RECORDS = 500;
+
+    private final LinkedBlockingQueue<SourceRecord> queue = new LinkedBlockingQueue<>();
+    private final Map<Topic, Long> nextOffset = new EnumMap<>(Topic.class);
+    private final Map<SourcePartition, Long> committed = new ConcurrentHashMap<>();
+    private final ObjectMapper objectMapper;
+
+    public InMemoryKskMessageSource(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Источник с pairs парами из образцов: сначала все входящие, затем все результаты
+     *
+     * @param jsonDir каталог с input.json и output.json
+     */
+    public static InMemoryKskMessageSource fromSamples(Path jsonDir, ObjectMapper objectMapper, int pairs) {
+        InMemoryKskMessageSource source = new InMemoryKskMessageSource(objectMapper);
+        String input = readSample(jsonDir.resolve("input.json"));
+        String output = readSample(jsonDir.resolve("output.json"));
+        List<String> corrIds = new ArrayList<>(pairs);
+        for (int i = 0; i < pairs; i++) {
+            String corrId = UUID.randomUUID().toString();
+            corrIds.add(corrId);
+            source.offer(Topic.INPUT, source.withCorrId(input, corrId));
+        }
+        for (String corrId : corrIds) {
+            source.offer(Topic.OUTPUT, source.withCorrId(output, corrId));
+        }
+        return source;
+    }
+
+    /**
+     * Пара сообщений с общим corrId
+     */
+    public void offerPair(String inputTemplate, String outputTemplate, String corrId) {
+        offer(Topic.INPUT, withCorrId(inputTemplate, corrId));
+        offer(Topic.OUTPUT, withCorrId(outputTemplate, corrId));
+    }
+
+    public void offer(Topic topic, String value) {
+        offer(topic, value, System.currentTimeMillis());
+    }
+
+    public synchronized void offer(Topic topic, String value, long timestamp) {
+        long offset = nextOffset.merge(topic, 1L, Long::sum) - 1;
+        queue.add(new SourceRecord(topic, 0, offset, timestamp, value, null));
+    }
+
+    @Override
+    public List<SourceRecord> poll(Duration timeout) {
+        List<SourceRecord> records = new ArrayList<>();
+        try {
+            SourceRecord first = queue.poll(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            if (first == null) {
+                return records;
+            }
+            records.add(first);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return records;
+        }
+        queue.drainTo(records, MAX_POLL_RECORDS - 1);
+        return records;
+    }
+
+    @Override
+    public void commit(Map<SourcePartition, Long> nextOffsets) {
+        nextOffsets.forEach((partition, offset) -> committed.merge(partition, offset, Math::max));
+    }
+
+    /**
+     * Подтверждённые offset'ы (следующие к чтению)
+     */
+    public Map<SourcePartition, Long> committed() {
+        return Map.copyOf(committed);
+    }
+
+    private String withCorrId(String template, String corrId) {
+        try {
+            ObjectNode root = (ObjectNode) objectMapper.readTree(template);
+            root.withObject("/headerInfo").put("corrId", corrId);
+            return objectMapper.writeValueAsString(root);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Образец сообщения КСК — не JSON-объект", e);
+        }
+    }
+
+    /**
+     * Образцы в docs/json сохранены в разных кодировках: UTF-8 или windows-1251
+     */
+    static String readSample(Path path) {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            return StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT)
+                .decode(ByteBuffer.wrap(bytes))
+                .toString();
+        } catch (CharacterCodingException e) {
+            return new String(bytes, Charset.forName("windows-1251"));
+        }
+    }
+}
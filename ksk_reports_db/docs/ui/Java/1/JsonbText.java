@@ -0,0 +1,142 @@
+package ru.example.ksk.service.ingest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Текстовые значения JSONB так, как их отдаёт PostgreSQL
+ *
+ * - text(node, key)  — node->>'key'
+ * - render(node)     — node::text (jsonb_out): ключи по (длина, байты), ", " и ": ",
+ *                      экранирование как escape_json, числа в записи numeric
+ *
+ * Дерево должно быть разобрано с точными BigDecimal (KskResultMapper) — иначе
+ * 1.50 превратится в 1.5, а в БД останется 1.50.
+ */
+final class JsonbText {
+
+    /**
+     * Порядок ключей объекта jsonb: сначала короче (в байтах UTF-8), затем memcmp
+     */
+    private static final Comparator<String> KEY_ORDER = Comparator
+        .comparingInt((String key) -> utf8(key).length)
+        .thenComparing((a, b) -> Arrays.compareUnsigned(utf8(a), utf8(b)));
+
+    private JsonbText() {
+    }
+
+    /**
+     * parent->>'key': NULL — нет родителя-объекта, нет ключа или JSON null
+     */
+    static String text(JsonNode parent, String key) {
+        if (parent == null || !parent.isObject()) {
+            return null;
+        }
+        return value(parent.get(key));
+    }
+
+    /**
+     * Значение элемента как ->> / jsonb_array_elements_text
+     */
+    static String value(JsonNode node) {
+        if (node == null || node.isNull()) {
+            return null;
+        }
+        if (node.isTextual()) {
+            return node.textValue();
+        }
+        return render(node);
+    }
+
+    /**
+     * node::text
+     */
+    static String render(JsonNode node) {
+        StringBuilder sb = new StringBuilder();
+        append(sb, node);
+        return sb.toString();
+    }
+
+    /**
+     * Число в записи numeric_out: без экспоненты, масштаб сохраняется (1.50 → 1.50, 1e3 → 1000)
+     */
+    static String number(JsonNode node) {
+        if (node.isIntegralNumber()) {
+            return node.bigIntegerValue().toString();
+        }
+        return node.decimalValue().toPlainString();
+    }
+
+    private static void append(StringBuilder sb, JsonNode node) {
+        switch (node.getNodeType()) {
+            case OBJECT -> {
+                List<String> keys = new ArrayList<>(node.size());
+                node.fieldNames().forEachRemaining(keys::add);
+                keys.sort(KEY_ORDER);
+                sb.append('{');
+                for (int i = 0; i < keys.size(); i++) {
+                    if (i > 0) {
+                        sb.append(", ");
+                    }
+                    appendString(sb, keys.get(i));
+                    sb.append(": ");
+                    append(sb, node.get(keys.get(i)));
+                }
+                sb.append('}');
+            }
+            case ARRAY -> {
+                sb.append('[');
+                Iterator<JsonNode> elements = node.elements();
+                for (int i = 0; elements.hasNext(); i++) {
+                    if (i > 0) {
+                        sb.append(", ");
+                    }
+                    append(sb, elements.next());
+                }
+                sb.append(']');
+            }
+            case STRING -> appendString(sb, node.textValue());
+            case NUMBER -> sb.append(number(node));
+            case BOOLEAN -> sb.append(node.booleanValue());
+            case NULL -> sb.append("null");
+            default -> throw new KskResultMapper.NotCopyable("неподдерживаемый узел JSON: " + node.getNodeType());
+        }
+    }
+
+    /**
+     * escape_json(): \" \\ \b \f \n \r \t, прочие управляющие — \\u00XX, остальное как есть
+     */
+    private static void appendString(StringBuilder sb, String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\b' -> sb.append("\\b");
+                case '\f' -> sb.append("\\f");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                default -> {
+                    if (c < ' ') {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        sb.append('"');
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
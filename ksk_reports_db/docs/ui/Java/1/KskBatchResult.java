@@ -0,0 +1,25 @@
+package ru.example.ksk.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Итог пакета — те же колонки, что возвращает put_ksk_result_batch
+ *
+ * @param errorIds ID записей ksk_result_error по ошибочным записям пакета
+ */
+public record KskBatchResult(int totalRecords, int successCount, int errorCount, List<Integer> errorIds) {
+
+    public static KskBatchResult copied(int count) {
+        return new KskBatchResult(count, count, 0, List.of());
+    }
+
+    public KskBatchResult plus(KskBatchResult other) {
+        List<Integer> ids = new ArrayList<>(errorIds);
+        ids.addAll(other.errorIds);
+        return new KskBatchResult(totalRecords + other.totalRecords,
+                                  successCount + other.successCount,
+                                  errorCount + other.errorCount,
+                                  ids);
+    }
+}
@@ -0,0 +1,289 @@
+package ru.example.ksk.service.ingest;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import ru.example.ksk.dto.KskBatchResult;
+import ru.example.ksk.dto.KskResultMessage;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 🆕 Адаптивные пакеты загрузки КСК с ограничением параллелизма
+ *
+ * ЗАМЕНЯЕТ: один пакет = один poll() источника, запись синхронно в потоке чтения
+ *
+ * ЛОГИКА:
+ * - submit() копит пары в буфере; пакет отрезается, когда набрано target записей,
+ *   max-bytes тел сообщений или самая старая запись ждёт дольше linger
+ * - Пакет пишется KskResultIngestService.ingest() в пуле из max-in-flight потоков
+ * - BACKPRESSURE: все max-in-flight пакетов в работе → submit() блокируется,
+ *   поток чтения перестаёт вызывать poll() — растёт лаг Kafka, а не память
+ * - flush() отрезает остаток и ждёт записи всех пакетов: после него можно подтверждать offset'ы
+ *
+ * РАЗМЕР ПАКЕТА (AIMD по задержке БД):
+ * - пакет записан быстрее target-latency → target × 1.25 (до max-records)
+ * - медленнее target-latency → target × 0.5 (до min-records)
+ * - отказ БД → min-records
+ *
+ * ОШИБКИ:
+ * - плохие записи изолирует KskResultIngestService (деление пакета); запись, отклонённая
+ *   и put_ksk_result_batch, уходит в ksk_result_error — повтором она не станет
+ * - отказ БД (временная ошибка: соединение, deadlock, нехватка ресурсов) → остаток пакета (IngestInterruptedException.remaining) повторяется
+ *   после retry-backoff до успеха; записанное не повторяется
+ *
+ * НАСТРОЙКИ (ksk.ingest.batch.*): min-records (50), max-records (5000), initial-records (500),
+ * max-bytes (16MB), linger (PT0.05S), target-latency (PT0.5S), max-in-flight (2), retry-backoff (PT5S)
+ */
+@Slf4j
+@Component
+public class KskIngestBatcher {
+
+    private final KskResultIngestService ingestService;
+    private final int minRecords;
+    private final int maxRecords;
+    private final long maxBytes;
+    private final Duration linger;
+    private final Duration targetLatency;
+    private final int maxInFlight;
+    private final Duration retryBackoff;
+
+    private final Semaphore inFlight;
+    private final AtomicInteger targetRecords;
+
+    private final Object bufferLock = new Object();
+    private List<KskResultMessage> buffer = new ArrayList<>();
+    private long bufferBytes;
+    private long bufferSince;
+
+    private final Timer batchLatency;
+    private final DistributionSummary batchSize;
+    private final Counter isolatedRecords;
+    private final Counter retries;
+
+    private volatile boolean running;
+    private ExecutorService writers;
+    private ScheduledExecutorService lingerScheduler;
+
+    public KskIngestBatcher(KskResultIngestService ingestService,
+                            MeterRegistry meterRegistry,
+                            @Value("${ksk.ingest.batch.min-records:50}") int minRecords,
+                            @Value("${ksk.ingest.batch.max-records:5000}") int maxRecords,
+                            @Value("${ksk.ingest.batch.initial-records:500}") int initialRecords,
+                            @Value("${ksk.ingest.batch.max-bytes:16MB}") DataSize maxBytes,
+                            @Value("${ksk.ingest.batch.linger:PT0.05S}") Duration linger,
+                            @Value("${ksk.ingest.batch.target-latency:PT0.5S}") Duration targetLatency,
+                            @Value("${ksk.ingest.batch.max-in-flight:2}") int maxInFlight,
+                            @Value("${ksk.ingest.batch.retry-backoff:PT5S}") Duration retryBackoff) {
+        if (minRecords < 1 || minRecords > maxRecords) {
+            throw new IllegalArgumentException("ksk.ingest.batch: нужно 1 <= min-records <= max-records");
+        }
+        this.ingestService = ingestService;
+        this.minRecords = minRecords;
+        this.maxRecords = maxRecords;
+        this.maxBytes = maxBytes.toBytes();
+        this.linger = linger;
+        this.targetLatency = targetLatency;
+        this.maxInFlight = maxInFlight;
+        this.retryBackoff = retryBackoff;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.targetRecords = new AtomicInteger(Math.max(minRecords, Math.min(maxRecords, initialRecords)));
+
+        this.batchLatency = Timer.builder("ksk.ingest.batch.latency")
+            .description("Time to write one ingestion batch")
+            .publishPercentiles(0.5, 0.95, 0.99)
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+        this.batchSize = DistributionSummary.builder("ksk.ingest.batch.size")
+            .description("Records per ingestion batch")
+            .publishPercentiles(0.5, 0.95, 0.99)
+            .register(meterRegistry);
+        this.isolatedRecords = Counter.builder("ksk.ingest.batch.isolated")
+            .description("Records isolated into ksk_result_error")
+            .register(meterRegistry);
+        this.retries = Counter.builder("ksk.ingest.batch.retries")
+            .description("Batch writes retried after database failure")
+            .register(meterRegistry);
+        Gauge.builder("ksk.ingest.batch.target", targetRecords, AtomicInteger::get)
+            .description("Current adaptive batch size")
+            .register(meterRegistry);
+        Gauge.builder("ksk.ingest.batch.in.flight", inFlight, semaphore -> maxInFlight - semaphore.availablePermits())
+            .description("Batches being written")
+            .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        AtomicInteger writerNumber = new AtomicInteger();
+        writers = Executors.newFixedThreadPool(maxInFlight,
+                task -> daemon(task, "ksk-ingest-writer-" + writerNumber.incrementAndGet()));
+        lingerScheduler = Executors.newSingleThreadScheduledExecutor(task -> daemon(task, "ksk-ingest-linger"));
+        long period = Math.max(1, linger.toMillis() / 2);
+        lingerScheduler.scheduleWithFixedDelay(this::flushLingering, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        lingerScheduler.shutdownNow();
+        writers.shutdownNow();
+    }
+
+    /**
+     * Добавить пары; блокируется, пока все пакеты в работе (backpressure)
+     */
+    public void submit(List<KskResultMessage> messages) throws InterruptedException {
+        for (KskResultMessage message : messages) {
+            List<KskResultMessage> batch;
+            synchronized (bufferLock) {
+                if (buffer.isEmpty()) {
+                    bufferSince = System.nanoTime();
+                }
+                buffer.add(message);
+                bufferBytes += sizeOf(message);
+                batch = buffer.size() >= targetRecords.get() || bufferBytes >= maxBytes ? cut() : null;
+            }
+            if (batch != null) {
+                dispatch(batch);
+            }
+        }
+    }
+
+    /**
+     * Записать всё принятое: по возвращении каждая пара из submit() в БД или в ksk_result_error
+     */
+    public void flush() throws InterruptedException {
+        List<KskResultMessage> batch;
+        synchronized (bufferLock) {
+            batch = buffer.isEmpty() ? null : cut();
+        }
+        if (batch != null) {
+            dispatch(batch);
+        }
+        inFlight.acquire(maxInFlight);
+        inFlight.release(maxInFlight);
+        if (!running) {
+            // Пакеты, брошенные при остановке, не записаны — offset'ы подтверждать нельзя
+            throw new InterruptedException("Загрузка КСК остановлена");
+        }
+    }
+
+    private void flushLingering() {
+        List<KskResultMessage> batch;
+        synchronized (bufferLock) {
+            boolean lingered = !buffer.isEmpty() && System.nanoTime() - bufferSince >= linger.toNanos();
+            batch = lingered ? cut() : null;
+        }
+        if (batch == null) {
+            return;
+        }
+        try {
+            dispatch(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private List<KskResultMessage> cut() {
+        List<KskResultMessage> batch = buffer;
+        buffer = new ArrayList<>(targetRecords.get());
+        bufferBytes = 0;
+        return batch;
+    }
+
+    private void dispatch(List<KskResultMessage> batch) throws InterruptedException {
+        inFlight.acquire();
+        try {
+            writers.execute(() -> {
+                try {
+                    write(batch);
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    private void write(List<KskResultMessage> batch) {
+        List<KskResultMessage> remaining = batch;
+        while (running) {
+            long started = System.nanoTime();
+            try {
+                KskBatchResult result = ingestService.ingest(remaining);
+                long elapsed = System.nanoTime() - started;
+                batchLatency.record(elapsed, TimeUnit.NANOSECONDS);
+                batchSize.record(remaining.size());
+                if (result.errorCount() > 0) {
+                    isolatedRecords.increment(result.errorCount());
+                    log.warn("Загрузка КСК: {} из {} записей — в ksk_result_error",
+                             result.errorCount(), result.totalRecords());
+                } else {
+                    adapt(remaining.size(), elapsed);
+                }
+                return;
+            } catch (KskResultIngestService.IngestInterruptedException e) {
+                remaining = e.getRemaining();
+                targetRecords.set(minRecords);
+                retries.increment();
+                log.error("Загрузка КСК: отказ БД, {} записей повтор через {}: {}",
+                          remaining.size(), retryBackoff, e.getMessage());
+            } catch (RuntimeException e) {
+                targetRecords.set(minRecords);
+                retries.increment();
+                log.error("Загрузка КСК: пакет из {} записей не записан, повтор через {}",
+                          remaining.size(), retryBackoff, e);
+            }
+            try {
+                Thread.sleep(retryBackoff.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * AIMD: рост — только по полным пакетам (короткий пакет по linger ничего не говорит о пределе)
+     */
+    private void adapt(int size, long elapsedNanos) {
+        int target = targetRecords.get();
+        if (elapsedNanos > targetLatency.toNanos()) {
+            targetRecords.set(Math.max(minRecords, target / 2));
+        } else if (size >= target) {
+            targetRecords.set(Math.min(maxRecords, target + Math.max(1, target / 4)));
+        }
+    }
+
+    /**
+     * Оценка размера: длина тел в символах (для кириллицы UTF-8 до 2 байт на символ)
+     */
+    private static long sizeOf(KskResultMessage message) {
+        return (long) message.inputJson().length() + message.outputJson().length();
+    }
+
+    private static Thread daemon(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
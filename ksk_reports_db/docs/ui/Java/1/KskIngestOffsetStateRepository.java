@@ -0,0 +1,70 @@
+package ru.example.ksk.repository;
+
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * 🆕 Состояние защиты от повторной загрузки (ksk_ingest_offset_state)
+ */
+@Repository
+public class KskIngestOffsetStateRepository {
+
+    /**
+     * @param seenOffsets BitSet.toByteArray(): бит i — offset watermark + i обработан
+     */
+    public record OffsetState(long watermark, byte[] seenOffsets) {
+    }
+
+    private static final String UPSERT_STATE = """
+        INSERT INTO upoa_ksk_reports.ksk_ingest_offset_state (kafka_partition, watermark, seen_offsets, updated_datetime)
+        VALUES (:partition, :watermark, :seenOffsets, NOW())
+        ON CONFLICT (kafka_partition) DO UPDATE
+        SET watermark = GREATEST(ksk_ingest_offset_state.watermark, EXCLUDED.watermark),
+            seen_offsets = CASE
+                WHEN EXCLUDED.watermark > ksk_ingest_offset_state.watermark THEN EXCLUDED.seen_offsets
+                WHEN EXCLUDED.watermark = ksk_ingest_offset_state.watermark
+                    THEN upoa_ksk_reports.ksk_bytea_or(ksk_ingest_offset_state.seen_offsets, EXCLUDED.seen_offsets)
+                ELSE ksk_ingest_offset_state.seen_offsets
+            END,
+            updated_datetime = NOW()
+        """;
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    public KskIngestOffsetStateRepository(NamedParameterJdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public Optional<OffsetState> load(int partition) {
+        List<OffsetState> states = jdbcTemplate.query(
+            "SELECT watermark, seen_offsets FROM upoa_ksk_reports.ksk_ingest_offset_state WHERE kafka_partition = :partition",
+            Map.of("partition", partition),
+            (rs, rowNum) -> new OffsetState(rs.getLong("watermark"), rs.getBytes("seen_offsets"))
+        );
+        return states.stream().findFirst();
+    }
+
+    /**
+     * Watermark не откатывается: состояние узла, отставшего после rebalance, не затирает более новое.
+     * При равном watermark биты объединяются (ksk_bytea_or) — отставший узел не стирает
+     * offset'ы, отмеченные другим
+     */
+    public void save(Map<Integer, OffsetState> states) {
+        if (states.isEmpty()) {
+            return;
+        }
+        SqlParameterSource[] params = states.entrySet().stream()
+            .map(entry -> new MapSqlParameterSource()
+                .addValue("partition", entry.getKey())
+                .addValue("watermark", entry.getValue().watermark())
+                .addValue("seenOffsets", entry.getValue().seenOffsets()))
+            .toArray(SqlParameterSource[]::new);
+        jdbcTemplate.batchUpdate(UPSERT_STATE, params);
+    }
+}
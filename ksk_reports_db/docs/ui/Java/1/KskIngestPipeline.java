@@ -0,0 +1,261 @@
+package ru.example.ksk.service.ingest;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.example.ksk.dto.KskResultMessage;
+import ru.example.ksk.dto.KskUnmatchedHalf;
+import ru.example.ksk.repository.KskResultErrorRepository;
+import ru.example.ksk.service.ingest.KskJoinEngine.JoinResult;
+import ru.example.ksk.service.ingest.KskMessageSource.SourcePartition;
+import ru.example.ksk.service.ingest.KskMessageSource.SourceRecord;
+import ru.example.ksk.service.ingest.KskMessageSource.Topic;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 🆕 Поток загрузки результатов КСК: источник → join по corrId → COPY
+ *
+ * ЦИКЛ (один поток):
+ * ШАГ 1. poll() источника
+ * ШАГ 2. KskJoinEngine.accept(): пары + непарные половины (timeout / overflow / без corrId);
+ *        🆕 KskReplayFilter отбрасывает уже загруженные (повторное чтение после rebalance/рестарта)
+ * ШАГ 3. 🔄 Пары — KskIngestBatcher.submit(): адаптивные пакеты, блокируется при заполнении (backpressure)
+ * ШАГ 4. Непарные — KskResultErrorRepository (ksk_result_error); при ошибке БД повтор после
+ *        retry-backoff до успеха: половины уже извлечены из буфера, offset'ы ещё не подтверждены
+ * ШАГ 5. Раз в commit-interval: KskIngestBatcher.flush(), KskReplayFilter.checkpoint(),
+ *        затем commit() offset'ов, которые больше не нужны буферу join
+ * 🆕 REBALANCE (в потоке poll(), KskMessageSource.RebalanceListener): перед отдачей партиций —
+ *        flush() и сохранение их окон отсева (KskReplayFilter.revoked()); назначенные партиции
+ *        перечитывают окна из БД (KskReplayFilter.assigned())
+ *
+ * НАСТРОЙКИ (ksk.ingest.*):
+ * - enabled (false): без бина KskMessageSource поток не запускается в любом случае
+ * - poll-timeout (PT1S), retry-backoff (PT5S), commit-interval (PT5S)
+ *
+ * 🆕 МЕТРИКИ: ksk.kafka.messages.processed{topic=input|output} — прочитано из источника
+ * (скорость — sum(rate(...)), см. KSK_Consumer_Monitoring.md); join — KskJoinEngine,
+ * пакеты — KskIngestBatcher, запись — KskResultIngestService (ksk.db.put_result.*)
+ */
+@Slf4j
+@Component
+public class KskIngestPipeline {
+
+    private final ObjectProvider<KskMessageSource> sourceProvider;
+    private final KskJoinEngine joinEngine;
+    private final KskIngestBatcher batcher;
+    private final KskResultErrorRepository errorRepository;
+    private final KskReplayFilter replayFilter;
+    private final boolean enabled;
+    private final Duration pollTimeout;
+    private final Duration retryBackoff;
+    private final Duration commitInterval;
+    private final Counter processedInputs;
+    private final Counter processedOutputs;
+
+    private volatile boolean running;
+    private KskMessageSource source;
+    private Thread thread;
+
+    public KskIngestPipeline(ObjectProvider<KskMessageSource> sourceProvider,
+                             KskJoinEngine joinEngine,
+                             KskIngestBatcher batcher,
+                             KskResultErrorRepository errorRepository,
+                             KskReplayFilter replayFilter,
+                             MeterRegistry meterRegistry,
+                             @Value("${ksk.ingest.enabled:false}") boolean enabled,
+                             @Value("${ksk.ingest.poll-timeout:PT1S}") Duration pollTimeout,
+                             @Value("${ksk.ingest.retry-backoff:PT5S}") Duration retryBackoff,
+                             @Value("${ksk.ingest.commit-interval:PT5S}") Duration commitInterval) {
+        this.sourceProvider = sourceProvider;
+        this.joinEngine = joinEngine;
+        this.batcher = batcher;
+        this.errorRepository = errorRepository;
+        this.replayFilter = replayFilter;
+        this.enabled = enabled;
+        this.pollTimeout = pollTimeout;
+        this.retryBackoff = retryBackoff;
+        this.commitInterval = commitInterval;
+        this.processedInputs = processedCounter(meterRegistry, "input");
+        this.processedOutputs = processedCounter(meterRegistry, "output");
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            log.info("Загрузка КСК: выключена (ksk.ingest.enabled=false)");
+            return;
+        }
+        source = sourceProvider.getIfAvailable();
+        if (source == null) {
+            log.warn("Загрузка КСК: ksk.ingest.enabled=true, но нет бина KskMessageSource — поток не запущен");
+            return;
+        }
+        source.setRebalanceListener(new KskMessageSource.RebalanceListener() {
+            @Override
+            public void revoked(Collection<SourcePartition> partitions) {
+                onRevoked(partitions);
+            }
+
+            @Override
+            public void assigned(Collection<SourcePartition> partitions) {
+                replayFilter.assigned(inputPartitions(partitions));
+            }
+        });
+        running = true;
+        thread = new Thread(this::run, "ksk-ingest");
+        thread.setDaemon(true);
+        thread.start();
+        log.info("Загрузка КСК: запущена, источник {}", source.getClass().getSimpleName());
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join(pollTimeout.plus(retryBackoff).toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        source.close();
+    }
+
+    private void run() {
+        long lastCommit = System.nanoTime();
+        while (running) {
+            try {
+                // ШАГ 1
+                List<SourceRecord> records = source.poll(pollTimeout);
+                countProcessed(records);
+
+                // ШАГ 2 (пустой poll тоже нужен — вытеснение по окну)
+                JoinResult result = joinEngine.accept(records, System.currentTimeMillis());
+                List<KskResultMessage> joined = replayFilter.dropReplayed(result.joined());
+                List<KskUnmatchedHalf> unmatched = replayFilter.dropReplayedHalves(result.unmatched());
+
+                // ШАГ 3
+                batcher.submit(joined);
+
+                // ШАГ 4
+                if (!unmatched.isEmpty() && !untilDone(unmatched.size() + " сообщений без пары",
+                        () -> errorRepository.logUnmatched(unmatched, joinEngine.window()))) {
+                    return;
+                }
+
+                // ШАГ 5
+                if (System.nanoTime() - lastCommit >= commitInterval.toNanos()) {
+                    batcher.flush();
+                    Map<SourcePartition, Long> offsets = joinEngine.committableOffsets();
+                    replayFilter.checkpoint(inputOffsets(offsets));
+                    source.commit(offsets);
+                    lastCommit = System.nanoTime();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Загрузка КСК: ошибка цикла, повтор через {}", retryBackoff, e);
+                if (!sleep(retryBackoff)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Отмеченное в окнах отсева должно быть в БД до их сохранения — иначе новый владелец
+     * отбросил бы ещё не записанные пары
+     */
+    private void onRevoked(Collection<SourcePartition> partitions) {
+        try {
+            batcher.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Загрузка КСК: остановка во время rebalance, окна отсева {} не сохранены", partitions);
+            return;
+        }
+        replayFilter.revoked(inputPartitions(partitions));
+    }
+
+    private static List<Integer> inputPartitions(Collection<SourcePartition> partitions) {
+        List<Integer> input = new ArrayList<>();
+        for (SourcePartition partition : partitions) {
+            if (partition.topic() == Topic.INPUT) {
+                input.add(partition.partition());
+            }
+        }
+        return input;
+    }
+
+    private void countProcessed(List<SourceRecord> records) {
+        int inputs = 0;
+        for (SourceRecord record : records) {
+            if (record.topic() == Topic.INPUT) {
+                inputs++;
+            }
+        }
+        processedInputs.increment(inputs);
+        processedOutputs.increment(records.size() - inputs);
+    }
+
+    private static Counter processedCounter(MeterRegistry registry, String topic) {
+        return Counter.builder("ksk.kafka.messages.processed")
+            .description("Messages read from the KSK topics")
+            .tag("topic", topic)
+            .register(registry);
+    }
+
+    private static Map<Integer, Long> inputOffsets(Map<SourcePartition, Long> offsets) {
+        Map<Integer, Long> input = new HashMap<>();
+        offsets.forEach((partition, offset) -> {
+            if (partition.topic() == Topic.INPUT) {
+                input.put(partition.partition(), offset);
+            }
+        });
+        return input;
+    }
+
+    /**
+     * Записать до успеха: половины уже извлечены из буфера join, повтор — единственный способ их не потерять
+     *
+     * @return false — поток остановлен до успешной записи
+     */
+    private boolean untilDone(String what, Runnable write) {
+        while (running) {
+            try {
+                write.run();
+                return true;
+            } catch (RuntimeException e) {
+                log.error("Загрузка КСК: {} не записано, повтор через {}", what, retryBackoff, e);
+                if (!sleep(retryBackoff)) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean sleep(Duration duration) {
+        try {
+            Thread.sleep(duration.toMillis());
+            return running;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
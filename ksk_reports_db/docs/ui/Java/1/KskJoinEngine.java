@@ -0,0 +1,394 @@
+package ru.example.ksk.service.ingest;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.node.TextNode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import ru.example.ksk.dto.KskResultMessage;
+import ru.example.ksk.dto.KskUnmatchedHalf;
+import ru.example.ksk.service.ingest.KskMessageSource.SourcePartition;
+import ru.example.ksk.service.ingest.KskMessageSource.SourceRecord;
+import ru.example.ksk.service.ingest.KskMessageSource.Topic;
+import ru.example.ksk.service.ingest.PendingHalves.Half;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * 🆕 Join входящих платежей и результатов КСК по corrId
+ *
+ * ЗАМЕНЯЕТ: join в consumer на HashMap<String, сообщение> — под лагом он занимал большую часть heap
+ *
+ * ЛОГИКА accept():
+ * 1. corrId — потоковым разбором headerInfo.corrId (без построения дерева); нет corrId → JOIN_NO_CORR_ID
+ * 2. Пара уже ждёт в буфере другой темы → KskResultMessage (формат записи put_ksk_result_batch)
+ * 3. Иначе половина сохраняется в PendingHalves своей темы (тело — вне heap).
+ *    Повтор той же половины (повторная доставка) не сохраняется — ждёт первая
+ * 4. Нет места (слоты или арена) → вытесняется самая старая ждущая: JOIN_OVERFLOW
+ * 5. Ждущие дольше window → JOIN_TIMEOUT
+ * Непарные половины возвращаются вызывающему для записи в ksk_result_error.
+ *
+ * Подтверждаемый offset партиции — самый ранний offset ждущей в ней половины
+ * (или следующий за последним прочитанным): после рестарта ждущие половины будут прочитаны заново.
+ *
+ * НАСТРОЙКИ (ksk.ingest.join.*):
+ * - window (PT10M), orphan-age (PT5M — порог метрики orphan), max-pending (200 000 на тему),
+ *   arena-size (256MB на тему)
+ *
+ * МЕТРИКИ:
+ * - ksk.kafka.join.success, ksk.kafka.join.failure{reason=timeout|overflow|no_corr_id},
+ *   ksk.kafka.join.duplicates{topic}, ksk.kafka.join.delay
+ * - ksk.kafka.orphan.messages — ждут пары дольше orphan-age
+ * - ksk.kafka.join.pending{topic}, ksk.kafka.join.capacity{topic},
+ *   ksk.kafka.join.arena.used{topic}, ksk.kafka.join.arena.capacity{topic} (байт),
+ *   ksk.kafka.join.oldest.age{topic} (секунд)
+ */
+@Slf4j
+@Component
+public class KskJoinEngine {
+
+    public static final String JOIN_TIMEOUT = "JOIN_TIMEOUT";
+    public static final String JOIN_OVERFLOW = "JOIN_OVERFLOW";
+    public static final String JOIN_NO_CORR_ID = "JOIN_NO_CORR_ID";
+
+    /**
+     * @param joined    пары для KskResultIngestService
+     * @param unmatched половины без пары для ksk_result_error
+     */
+    public record JoinResult(List<KskResultMessage> joined, List<KskUnmatchedHalf> unmatched) {
+    }
+
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS");
+
+    private final PendingHalves inputs;
+    private final PendingHalves outputs;
+    private final Duration window;
+    private final Duration orphanAge;
+    private final ZoneId zone = ZoneId.systemDefault();
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final Map<SourcePartition, Long> nextOffsets = new HashMap<>();
+
+    private final Counter joinSuccess;
+    private final Counter timeoutFailures;
+    private final Counter overflowFailures;
+    private final Counter noCorrIdFailures;
+    private final Counter inputDuplicates;
+    private final Counter outputDuplicates;
+    private final Timer joinDelay;
+
+    /**
+     * Снимок для метрик — обновляется в конце accept(), читается потоком Prometheus
+     */
+    private volatile Snapshot snapshot = new Snapshot(0, 0, 0, 0, -1, -1, 0);
+
+    private record Snapshot(int pendingInputs, int pendingOutputs, long arenaInputs, long arenaOutputs,
+                            long oldestInput, long oldestOutput, int orphans) {
+    }
+
+    public KskJoinEngine(MeterRegistry meterRegistry,
+                         @Value("${ksk.ingest.join.window:PT10M}") Duration window,
+                         @Value("${ksk.ingest.join.orphan-age:PT5M}") Duration orphanAge,
+                         @Value("${ksk.ingest.join.max-pending:200000}") int maxPending,
+                         @Value("${ksk.ingest.join.arena-size:256MB}") DataSize arenaSize) {
+        if (arenaSize.toBytes() > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("ksk.ingest.join.arena-size не больше 2GB на тему");
+        }
+        this.window = window;
+        this.orphanAge = orphanAge;
+        this.inputs = new PendingHalves(maxPending, (int) arenaSize.toBytes());
+        this.outputs = new PendingHalves(maxPending, (int) arenaSize.toBytes());
+
+        this.joinSuccess = Counter.builder("ksk.kafka.join.success")
+            .description("Successful corrId joins")
+            .register(meterRegistry);
+        this.timeoutFailures = failureCounter(meterRegistry, "timeout");
+        this.overflowFailures = failureCounter(meterRegistry, "overflow");
+        this.noCorrIdFailures = failureCounter(meterRegistry, "no_corr_id");
+        this.inputDuplicates = duplicateCounter(meterRegistry, "input");
+        this.outputDuplicates = duplicateCounter(meterRegistry, "output");
+        this.joinDelay = Timer.builder("ksk.kafka.join.delay")
+            .description("Time waiting for message pair")
+            .publishPercentiles(0.5, 0.95, 0.99)
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+
+        Gauge.builder("ksk.kafka.orphan.messages", this, engine -> engine.snapshot.orphans())
+            .description("Messages without pair for longer than orphan-age")
+            .register(meterRegistry);
+        registerTopicGauges(meterRegistry, "input", inputs, Snapshot::pendingInputs, Snapshot::arenaInputs, Snapshot::oldestInput);
+        registerTopicGauges(meterRegistry, "output", outputs, Snapshot::pendingOutputs, Snapshot::arenaOutputs, Snapshot::oldestOutput);
+
+        log.info("Join КСК: окно {}, до {} ждущих и {} арены на тему", window, maxPending, arenaSize);
+    }
+
+    /**
+     * Принять прочитанные сообщения и вытеснить просроченные
+     *
+     * @param now часы узла, epoch millis
+     */
+    public synchronized JoinResult accept(List<SourceRecord> records, long now) {
+        List<KskResultMessage> joined = new ArrayList<>();
+        List<KskUnmatchedHalf> unmatched = new ArrayList<>();
+
+        for (SourceRecord record : records) {
+            nextOffsets.merge(new SourcePartition(record.topic(), record.partition()), record.offset() + 1, Math::max);
+            boolean input = record.topic() == Topic.INPUT;
+
+            String corrId = corrId(record.value());
+            if (corrId == null) {
+                noCorrIdFailures.increment();
+                unmatched.add(unmatched(JOIN_NO_CORR_ID, input, toHalf(record, null, now)));
+                continue;
+            }
+
+            byte[] key = PendingHalves.utf8(corrId);
+            long hash = PendingHalves.hash(key);
+            PendingHalves own = input ? inputs : outputs;
+            PendingHalves other = input ? outputs : inputs;
+
+            Half pair = other.take(key, hash);
+            if (pair != null) {
+                Half half = toHalf(record, corrId, now);
+                joined.add(input ? join(half, pair) : join(pair, half));
+                joinSuccess.increment();
+                joinDelay.record(now - pair.arrivedAt(), TimeUnit.MILLISECONDS);
+                continue;
+            }
+            if (own.contains(key, hash)) {
+                (input ? inputDuplicates : outputDuplicates).increment();
+                continue;
+            }
+
+            byte[] value = PendingHalves.utf8(record.value());
+            byte[] headers = PendingHalves.utf8(record.headers());
+            int length = PendingHalves.recordLength(key, value, headers);
+            if (!own.fits(length)) {
+                overflowFailures.increment();
+                unmatched.add(unmatched(JOIN_OVERFLOW, input, toHalf(record, corrId, now)));
+                continue;
+            }
+            while (!own.canPut(length)) {
+                overflowFailures.increment();
+                unmatched.add(unmatched(JOIN_OVERFLOW, input, own.evictOldest()));
+            }
+            own.put(key, hash, value, headers, record.partition(), record.offset(), record.timestamp(), now);
+        }
+
+        evictExpired(now, unmatched);
+        refreshSnapshot(now);
+        return new JoinResult(joined, unmatched);
+    }
+
+    public Duration window() {
+        return window;
+    }
+
+    /**
+     * Offset'ы, которые можно подтвердить источнику: всё до них уже не нужно буферу
+     */
+    public synchronized Map<SourcePartition, Long> committableOffsets() {
+        Map<SourcePartition, Long> offsets = new HashMap<>(nextOffsets);
+        inputs.forEachPending((partition, offset) ->
+            offsets.merge(new SourcePartition(Topic.INPUT, partition), offset, Math::min));
+        outputs.forEachPending((partition, offset) ->
+            offsets.merge(new SourcePartition(Topic.OUTPUT, partition), offset, Math::min));
+        return offsets;
+    }
+
+    private void evictExpired(long now, List<KskUnmatchedHalf> unmatched) {
+        long arrivedBefore = now - window.toMillis();
+        List<Half> expired = new ArrayList<>();
+        inputs.evictArrivedBefore(arrivedBefore, expired);
+        for (Half half : expired) {
+            unmatched.add(unmatched(JOIN_TIMEOUT, true, half));
+        }
+        int inputCount = expired.size();
+        outputs.evictArrivedBefore(arrivedBefore, expired);
+        for (Half half : expired.subList(inputCount, expired.size())) {
+            unmatched.add(unmatched(JOIN_TIMEOUT, false, half));
+        }
+        timeoutFailures.increment(expired.size());
+        if (!expired.isEmpty()) {
+            log.warn("Join КСК: {} сообщений без пары дольше {} — в ksk_result_error", expired.size(), window);
+        }
+    }
+
+    /**
+     * headerInfo.corrId потоковым разбором; заодно проверяется, что тело — целый JSON
+     *
+     * @return null — corrId нет, он пустой или тело не JSON
+     */
+    private String corrId(String json) {
+        if (json == null) {
+            return null;
+        }
+        String corrId = null;
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if ("headerInfo".equals(field) && token == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String headerField = parser.getCurrentName();
+                        JsonToken headerToken = parser.nextToken();
+                        if ("corrId".equals(headerField) && headerToken == JsonToken.VALUE_STRING) {
+                            corrId = parser.getText();
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (parser.nextToken() != null) {
+                return null;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        if (corrId == null || corrId.isEmpty() || corrId.length() > Short.MAX_VALUE / 4) {
+            return null;
+        }
+        return corrId;
+    }
+
+    private KskResultMessage join(Half input, Half output) {
+        return new KskResultMessage(
+            timestamp(input.timestamp()),
+            timestamp(output.timestamp()),
+            input.value(),
+            output.value(),
+            input.partition(),
+            input.offset(),
+            input.headers(),
+            output.headers()
+        );
+    }
+
+    private KskUnmatchedHalf unmatched(String errorCode, boolean input, Half half) {
+        String json = half.value();
+        if (JOIN_NO_CORR_ID.equals(errorCode) && notJsonObject(json)) {
+            // Нечитаемое тело сохраняется JSON-строкой — jsonb-колонка его примет
+            json = TextNode.valueOf(json == null ? "" : json).toString();
+        }
+        return new KskUnmatchedHalf(
+            errorCode,
+            input,
+            half.corrId(),
+            json,
+            half.headers(),
+            half.partition(),
+            half.offset(),
+            LocalDateTime.ofInstant(Instant.ofEpochMilli(half.timestamp()), zone)
+        );
+    }
+
+    /**
+     * Тело без corrId: true — это вообще не JSON-объект (jsonb его не примет)
+     */
+    private boolean notJsonObject(String json) {
+        if (json == null) {
+            return true;
+        }
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return true;
+            }
+            parser.skipChildren();
+            return parser.nextToken() != null;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private static Half toHalf(SourceRecord record, String corrId, long now) {
+        return new Half(corrId, record.value(), record.headers(), record.partition(), record.offset(),
+                        record.timestamp(), now);
+    }
+
+    private String timestamp(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), zone).format(TIMESTAMP_FORMAT);
+    }
+
+    private void refreshSnapshot(long now) {
+        long orphansBefore = now - orphanAge.toMillis();
+        snapshot = new Snapshot(
+            inputs.pending(),
+            outputs.pending(),
+            inputs.arenaUsed(),
+            outputs.arenaUsed(),
+            inputs.oldestArrivedAt(),
+            outputs.oldestArrivedAt(),
+            inputs.countArrivedBefore(orphansBefore) + outputs.countArrivedBefore(orphansBefore)
+        );
+    }
+
+    private void registerTopicGauges(MeterRegistry registry, String topic, PendingHalves halves,
+                                     ToDoubleFunction<Snapshot> pending,
+                                     ToDoubleFunction<Snapshot> arenaUsed,
+                                     ToLongFunction<Snapshot> oldestArrivedAt) {
+        Gauge.builder("ksk.kafka.join.pending", this, engine -> pending.applyAsDouble(engine.snapshot))
+            .description("Messages waiting for their pair")
+            .tag("topic", topic)
+            .register(registry);
+        Gauge.builder("ksk.kafka.join.capacity", halves, PendingHalves::capacity)
+            .description("Join buffer slots")
+            .tag("topic", topic)
+            .register(registry);
+        Gauge.builder("ksk.kafka.join.arena.used", this, engine -> arenaUsed.applyAsDouble(engine.snapshot))
+            .description("Off-heap bytes held by waiting messages")
+            .baseUnit("bytes")
+            .tag("topic", topic)
+            .register(registry);
+        Gauge.builder("ksk.kafka.join.arena.capacity", halves, PendingHalves::arenaCapacity)
+            .description("Off-heap join buffer size")
+            .baseUnit("bytes")
+            .tag("topic", topic)
+            .register(registry);
+        Gauge.builder("ksk.kafka.join.oldest.age", this, engine -> {
+                long oldest = oldestArrivedAt.applyAsLong(engine.snapshot);
+                return oldest < 0 ? 0 : (System.currentTimeMillis() - oldest) / 1000.0;
+            })
+            .description("Age of the oldest message waiting for its pair")
+            .baseUnit("seconds")
+            .tag("topic", topic)
+            .register(registry);
+    }
+
+    private static Counter failureCounter(MeterRegistry registry, String reason) {
+        return Counter.builder("ksk.kafka.join.failure")
+            .description("Failed corrId joins")
+            .tag("reason", reason)
+            .register(registry);
+    }
+
+    private static Counter duplicateCounter(MeterRegistry registry, String topic) {
+        return Counter.builder("ksk.kafka.join.duplicates")
+            .description("Repeated deliveries of a message already waiting for its pair")
+            .tag("topic", topic)
+            .register(registry);
+    }
+}
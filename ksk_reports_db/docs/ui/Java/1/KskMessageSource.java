@@ -0,0 +1,67 @@
+package ru.example.ksk.service.ingest;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Источник сообщений КСК для KskIngestPipeline
+ *
+ * Две темы: входящие платежи (upoa_enriched_transactions) и результаты проверки (upoa_ksk_results).
+ * Боевая реализация — адаптер Kafka consumer; InMemoryKskMessageSource — для стендов и отладки.
+ *
+ * КОНТРАКТ:
+ * - poll() вызывается из одного потока
+ * - commit() получает следующие к чтению offset'ы (семантика Kafka): всё до них записано в БД
+ *   или в ksk_result_error. Половины, ждущие пары в KskJoinEngine, не подтверждаются
+ * - 🆕 RebalanceListener вызывается в потоке poll() (адаптер Kafka — из ConsumerRebalanceListener
+ *   внутри KafkaConsumer.poll()); источник с постоянным набором партиций его не вызывает
+ */
+public interface KskMessageSource extends AutoCloseable {
+
+    enum Topic {
+        INPUT,
+        OUTPUT
+    }
+
+    record SourcePartition(Topic topic, int partition) {
+    }
+
+    /**
+     * @param timestamp время записи Kafka, epoch millis
+     * @param headers   заголовки Kafka одним JSON-объектом или null
+     */
+    record SourceRecord(Topic topic, int partition, long offset, long timestamp, String value, String headers) {
+    }
+
+    /**
+     * 🆕 Смена назначенных партиций (onPartitionsRevoked / onPartitionsAssigned)
+     */
+    interface RebalanceListener {
+
+        /**
+         * Партиции уходят другому узлу; после возврата offset'ы по ним ещё можно подтвердить
+         */
+        void revoked(Collection<SourcePartition> partitions);
+
+        void assigned(Collection<SourcePartition> partitions);
+    }
+
+    /**
+     * @return пустой список, если за timeout ничего не пришло
+     */
+    List<SourceRecord> poll(Duration timeout);
+
+    void commit(Map<SourcePartition, Long> nextOffsets);
+
+    /**
+     * 🆕 Вызывать до первого poll(); по умолчанию — партиции не меняются, уведомлений нет
+     */
+    default void setRebalanceListener(RebalanceListener listener) {
+    }
+
+    @Override
+    default void close() {
+    }
+}
@@ -0,0 +1,161 @@
+package ru.example.ksk.service.ingest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Результат KskOutputScanner — поля output_json, нужные ksk_result / ksk_figurant / ksk_figurant_match
+ *
+ * Буфер многоразовый: массивы фигурантов и совпадений растут до максимума встреченного
+ * и переиспользуются следующим scan(). Значения действительны до следующего scan() в тот же буфер —
+ * поэтому один буфер на поток (KskResultMapper держит его в ThreadLocal).
+ */
+public final class KskOutputScan {
+
+    /**
+     * headerInfo->>'corrId'
+     */
+    String corrId;
+
+    int figurantCount;
+    FigurantScan[] figurants = new FigurantScan[4];
+
+    public String corrId() {
+        return corrId;
+    }
+
+    public int figurantCount() {
+        return figurantCount;
+    }
+
+    void reset() {
+        corrId = null;
+        figurantCount = 0;
+    }
+
+    FigurantScan nextFigurant() {
+        if (figurantCount == figurants.length) {
+            FigurantScan[] grown = new FigurantScan[figurants.length * 2];
+            System.arraycopy(figurants, 0, grown, 0, figurants.length);
+            figurants = grown;
+        }
+        FigurantScan figurant = figurants[figurantCount];
+        if (figurant == null) {
+            figurant = new FigurantScan();
+            figurants[figurantCount] = figurant;
+        }
+        figurantCount++;
+        figurant.reset();
+        return figurant;
+    }
+
+    /**
+     * Один элемент searchCheckResultKCKH; строки — значения ->>
+     */
+    static final class FigurantScan {
+
+        /**
+         * Текст объекта фигуранта из исходного JSON (для колонки figurant jsonb)
+         */
+        String json;
+        String presidentGroup;
+        String listCode;
+        String nameFigurant;
+        String bypassName;
+
+        /**
+         * autoLogin: null — ключа нет или JSON null; autoLoginInvalid — значение, которое ::BOOLEAN не примет однозначно
+         */
+        Boolean autoLogin;
+        String autoLoginInvalid;
+
+        /**
+         * searchCheckResultsExclusionList — непустой объект
+         */
+        boolean hasExclusions;
+        /**
+         * phrasesToExclude: -1 — ключа нет; иначе число элементов (с null)
+         */
+        int phraseCount;
+        boolean phrasesInvalid;
+        final List<String> phrases = new ArrayList<>();
+        /**
+         * nameList::text или null — ключа нет
+         */
+        String nameList;
+
+        /**
+         * match: -1 — ключа нет
+         */
+        int matchCount;
+        boolean matchesInvalid;
+        MatchScan[] matches = new MatchScan[4];
+
+        void reset() {
+            json = null;
+            presidentGroup = null;
+            listCode = null;
+            nameFigurant = null;
+            bypassName = null;
+            autoLogin = null;
+            autoLoginInvalid = null;
+            resetExclusions();
+            resetMatches();
+        }
+
+        void resetExclusions() {
+            hasExclusions = false;
+            nameList = null;
+            resetPhrases();
+        }
+
+        void resetPhrases() {
+            phraseCount = -1;
+            phrasesInvalid = false;
+            phrases.clear();
+        }
+
+        void resetMatches() {
+            matchCount = -1;
+            matchesInvalid = false;
+        }
+
+        MatchScan nextMatch() {
+            if (matchCount < 0) {
+                matchCount = 0;
+            }
+            if (matchCount == matches.length) {
+                MatchScan[] grown = new MatchScan[matches.length * 2];
+                System.arraycopy(matches, 0, grown, 0, matches.length);
+                matches = grown;
+            }
+            MatchScan match = matches[matchCount];
+            if (match == null) {
+                match = new MatchScan();
+                matches[matchCount] = match;
+            }
+            matchCount++;
+            match.reset();
+            return match;
+        }
+    }
+
+    /**
+     * Один элемент match фигуранта
+     */
+    static final class MatchScan {
+        String json;
+        String algorithm;
+        String value;
+        String paymentField;
+        String paymentValue;
+
+        void reset() {
+            json = null;
+            algorithm = null;
+            value = null;
+            paymentField = null;
+            paymentValue = null;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package ru.example.ksk.service.ingest;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ru.example.ksk.service.ingest.KskOutputScan.FigurantScan;
+import ru.example.ksk.service.ingest.KskOutputScan.MatchScan;
+
+import java.io.IOException;
+
+/**
+ * 🆕 Потоковый разбор output_json — один проход по токенам без дерева документа
+ *
+ * ЗАМЕНЯЕТ: readTree(output_json) + обход searchCheckResultKCKH в KskResultMapper
+ * (дерево всего ответа, затем повторная сериализация каждого фигуранта и совпадения)
+ *
+ * ЛОГИКА:
+ * - headerInfo.corrId, searchCheckResultKCKH[]: скалярные поля фигурантов и совпадений
+ *   читаются сразу из токенов, остальное пропускается skipChildren()
+ * - Колонки figurant / match (jsonb) — подстрока исходного текста по позициям токенов;
+ *   БД нормализует jsonb так же, как из сериализованного дерева
+ * - Дерево строится только там, где нужен node::text: nameList и нестроковые значения ->>
+ * - Повтор ключа — побеждает последний (как в jsonb)
+ *
+ * Семантика значений — та же, что у KskResultMapper на дереве (JsonbText, KskResolutionRules);
+ * что не воспроизводится — KskResultMapper.NotCopyable.
+ */
+public final class KskOutputScanner {
+
+    private final ObjectMapper objectMapper;
+
+    public KskOutputScanner() {
+        this(KskResultMapper.exactMapper());
+    }
+
+    KskOutputScanner(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Разобрать output_json в многоразовый буфер
+     *
+     * @throws KskResultMapper.NotCopyable не JSON-объект, неожиданный тип массива/фигуранта
+     */
+    public KskOutputScan scan(String json, KskOutputScan into) {
+        into.reset();
+        try (JsonParser parser = objectMapper.getFactory().createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new KskResultMapper.NotCopyable("output_json не объект");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                switch (field) {
+                    case "headerInfo" -> headerInfo(parser, token, into);
+                    case "searchCheckResultKCKH" -> searchResults(parser, token, json, into);
+                    default -> parser.skipChildren();
+                }
+            }
+            if (parser.nextToken() != null) {
+                throw new KskResultMapper.NotCopyable("output_json: данные после объекта");
+            }
+        } catch (JsonProcessingException e) {
+            throw new KskResultMapper.NotCopyable("output_json: " + e.getOriginalMessage());
+        } catch (IOException e) {
+            throw new KskResultMapper.NotCopyable("output_json: " + e.getMessage());
+        }
+        return into;
+    }
+
+    private void headerInfo(JsonParser parser, JsonToken token, KskOutputScan into) throws IOException {
+        into.corrId = null;
+        if (token != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("corrId".equals(field)) {
+                into.corrId = text(parser, value);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private void searchResults(JsonParser parser, JsonToken token, String json, KskOutputScan into) throws IOException {
+        into.figurantCount = 0;
+        if (token != JsonToken.START_ARRAY) {
+            throw new KskResultMapper.NotCopyable("searchCheckResultKCKH не массив");
+        }
+        JsonToken element;
+        while ((element = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (element != JsonToken.START_OBJECT) {
+                throw new KskResultMapper.NotCopyable("фигурант " + into.figurantCount + " не объект");
+            }
+            figurant(parser, json, into.nextFigurant());
+        }
+    }
+
+    private void figurant(JsonParser parser, String json, FigurantScan figurant) throws IOException {
+        int start = (int) parser.getTokenLocation().getCharOffset();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "presidentGroup" -> figurant.presidentGroup = text(parser, value);
+                case "listCode" -> figurant.listCode = text(parser, value);
+                case "nameFigurant" -> figurant.nameFigurant = text(parser, value);
+                case "bypassName" -> figurant.bypassName = text(parser, value);
+                case "autoLogin" -> autoLogin(parser, value, figurant);
+                case "searchCheckResultsExclusionList" -> exclusions(parser, value, figurant);
+                case "match" -> matches(parser, value, json, figurant);
+                default -> parser.skipChildren();
+            }
+        }
+        figurant.json = json.substring(start, (int) parser.getCurrentLocation().getCharOffset());
+    }
+
+    /**
+     * KskResolutionRules.autoLogin: только JSON bool или строка "true"/"false"
+     */
+    private static void autoLogin(JsonParser parser, JsonToken token, FigurantScan figurant) throws IOException {
+        figurant.autoLogin = null;
+        figurant.autoLoginInvalid = null;
+        switch (token) {
+            case VALUE_NULL -> {
+            }
+            case VALUE_TRUE -> figurant.autoLogin = Boolean.TRUE;
+            case VALUE_FALSE -> figurant.autoLogin = Boolean.FALSE;
+            case VALUE_STRING -> {
+                String value = parser.getText();
+                if ("true".equals(value) || "false".equals(value)) {
+                    figurant.autoLogin = Boolean.valueOf(value);
+                } else {
+                    figurant.autoLoginInvalid = value;
+                }
+            }
+            default -> {
+                figurant.autoLoginInvalid = token.name();
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private void exclusions(JsonParser parser, JsonToken token, FigurantScan figurant) throws IOException {
+        figurant.resetExclusions();
+        if (token != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            figurant.hasExclusions = true;
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "phrasesToExclude" -> phrases(parser, value, figurant);
+                case "nameList" -> figurant.nameList = JsonbText.render(tree(parser, value));
+                default -> parser.skipChildren();
+            }
+        }
+    }
+
+    private void phrases(JsonParser parser, JsonToken token, FigurantScan figurant) throws IOException {
+        figurant.resetPhrases();
+        if (token != JsonToken.START_ARRAY) {
+            figurant.phrasesInvalid = true;
+            parser.skipChildren();
+            return;
+        }
+        int count = 0;
+        JsonToken element;
+        while ((element = parser.nextToken()) != JsonToken.END_ARRAY) {
+            count++;
+            String value = text(parser, element);
+            if (value != null) {
+                figurant.phrases.add(value);
+            }
+        }
+        figurant.phraseCount = count;
+    }
+
+    private void matches(JsonParser parser, JsonToken token, String json, FigurantScan figurant) throws IOException {
+        figurant.resetMatches();
+        if (token != JsonToken.START_ARRAY) {
+            figurant.matchesInvalid = true;
+            parser.skipChildren();
+            return;
+        }
+        figurant.matchCount = 0;
+        JsonToken element;
+        while ((element = parser.nextToken()) != JsonToken.END_ARRAY) {
+            MatchScan match = figurant.nextMatch();
+            int start = (int) parser.getTokenLocation().getCharOffset();
+            if (element == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    JsonToken value = parser.nextToken();
+                    switch (field) {
+                        case "algorithm" -> match.algorithm = text(parser, value);
+                        case "value" -> match.value = text(parser, value);
+                        case "paymentField" -> match.paymentField = text(parser, value);
+                        case "paymentValue" -> match.paymentValue = text(parser, value);
+                        default -> parser.skipChildren();
+                    }
+                }
+            } else {
+                // Не объект: ->> по нему даёт NULL, в match пишется как есть
+                parser.skipChildren();
+            }
+            match.json = json.substring(start, (int) parser.getCurrentLocation().getCharOffset());
+        }
+    }
+
+    /**
+     * Значение текущего токена как ->> (JsonbText.value)
+     */
+    private String text(JsonParser parser, JsonToken token) throws IOException {
+        return switch (token) {
+            case VALUE_NULL -> null;
+            case VALUE_STRING -> parser.getText();
+            case VALUE_NUMBER_INT -> parser.getBigIntegerValue().toString();
+            case VALUE_NUMBER_FLOAT -> parser.getDecimalValue().toPlainString();
+            case VALUE_TRUE -> "true";
+            case VALUE_FALSE -> "false";
+            default -> JsonbText.render(tree(parser, token));
+        };
+    }
+
+    /**
+     * Поддерево с текущего токена — с точными BigDecimal (для JsonbText.render)
+     */
+    private JsonNode tree(JsonParser parser, JsonToken token) throws IOException {
+        JsonNode node = objectMapper.readTree(parser);
+        if (node == null) {
+            throw new KskResultMapper.NotCopyable("пустое значение " + token);
+        }
+        return node;
+    }
+}
@@ -0,0 +1,248 @@
+package ru.example.ksk.service.ingest;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import ru.example.ksk.dto.KskResultMessage;
+import ru.example.ksk.dto.KskUnmatchedHalf;
+import ru.example.ksk.repository.KskIngestOffsetStateRepository;
+import ru.example.ksk.repository.KskIngestOffsetStateRepository.OffsetState;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 🆕 Отсев повторно прочитанных сообщений по (input_kafka_partition, input_kafka_offset)
+ *
+ * ЗАЧЕМ: rebalance или рестарт consumer перечитывает тему с подтверждённого offset'а, а он
+ * не выше самой старой половины, ждущей пары в KskJoinEngine. Всё, что обработано после неё,
+ * без отсева попадает в ksk_result второй раз и раздувает отчёты totals.
+ *
+ * СОСТОЯНИЕ на партицию входящей темы:
+ * - watermark — подтверждённый offset: всё ниже обработано
+ * - BitSet обработанных offset'ов от watermark (не по порядку — join завершает пары вразнобой)
+ * Офсеты Kafka плотные, поэтому точная битовая карта (1 бит на offset окна) компактнее
+ * фильтра Блума той же ёмкости и не даёт ложных срабатываний — ложное срабатывание
+ * молча потеряло бы результат проверки платежа.
+ *
+ * ЛОГИКА:
+ * - dropReplayed(): пары и входящие половины без пары (timeout/overflow) с уже обработанным
+ *   offset'ом отбрасываются, остальные помечаются обработанными
+ * - checkpoint() — вызывать ПЕРЕД commit() источника, после flush(): watermark сдвигается
+ *   к подтверждаемому offset'у, состояние сохраняется в ksk_ingest_offset_state
+ * - Состояние партиции загружается при первом её сообщении
+ * - 🔄 Состояния в БД нет (новая партиция, первый запуск) — watermark неизвестен (UNKNOWN):
+ *   до первого checkpoint() сообщения партиции не отсеиваются и не помечаются, затем watermark —
+ *   подтверждаемый offset. Окно от 0 отсеивало бы не то: бит на каждый offset от начала темы
+ * - 🆕 rebalance (KskIngestPipeline → assigned()/revoked()): окно отданной партиции сохраняется
+ *   и выгружается, назначенной — перечитывается из ksk_ingest_offset_state при первом сообщении
+ *   (пока партиция была у другого узла, её состояние ушло вперёд). checkpoint() сохраняет
+ *   только назначенные партиции — иначе устаревшее окно затёрло бы состояние нового владельца
+ *
+ * ОГРАНИЧЕНИЯ:
+ * - результаты без входящего (output-половины) offset'а входящей темы не имеют — не отсеиваются
+ * - обработанное после последнего checkpoint на упавшем узле — не отсеивается (окно commit-interval)
+ * - то же для партиции без сохранённого состояния — до её первого checkpoint
+ * - пары отданной партиции, завершённые join уже после revoked(), пропускаются без отсева и
+ *   без отметки — окно партиции у нового владельца
+ */
+@Slf4j
+@Component
+public class KskReplayFilter {
+
+    private final KskIngestOffsetStateRepository stateRepository;
+    private final Map<Integer, Window> windows = new HashMap<>();
+    // null — источник не сообщает о rebalance, все партиции свои
+    private Set<Integer> owned;
+
+    private final Counter droppedPairs;
+    private final Counter droppedHalves;
+
+    /**
+     * Окно одной партиции: bits.get(i) — offset watermark + i обработан
+     */
+    private static final class Window {
+        // Состояния нет — watermark задаст первый checkpoint
+        static final long UNKNOWN = -1;
+
+        long watermark;
+        BitSet bits;
+
+        Window(long watermark, BitSet bits) {
+            this.watermark = watermark;
+            this.bits = bits;
+        }
+
+        boolean seen(long offset) {
+            return offset < watermark || (offset - watermark <= Integer.MAX_VALUE && bits.get((int) (offset - watermark)));
+        }
+
+        void mark(long offset) {
+            if (offset >= watermark) {
+                long bit = offset - watermark;
+                if (bit > Integer.MAX_VALUE) {
+                    throw new IllegalStateException("Окно отсева повторов больше 2^31 offset'ов");
+                }
+                bits.set((int) bit);
+            }
+        }
+
+        void advance(long committed) {
+            if (committed <= watermark) {
+                return;
+            }
+            long shift = committed - watermark;
+            bits = shift >= bits.length() ? new BitSet() : bits.get((int) shift, bits.length());
+            watermark = committed;
+        }
+    }
+
+    public KskReplayFilter(KskIngestOffsetStateRepository stateRepository, MeterRegistry meterRegistry) {
+        this.stateRepository = stateRepository;
+        this.droppedPairs = Counter.builder("ksk.ingest.replay.dropped")
+            .description("Replayed messages dropped before the database")
+            .tag("kind", "pair")
+            .register(meterRegistry);
+        this.droppedHalves = Counter.builder("ksk.ingest.replay.dropped")
+            .description("Replayed messages dropped before the database")
+            .tag("kind", "unmatched")
+            .register(meterRegistry);
+        Gauge.builder("ksk.ingest.replay.window", this, KskReplayFilter::windowBits)
+            .description("Offsets above the committed watermark tracked for replay detection")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Отбросить пары, чей входящий offset уже обработан; остальные пометить
+     */
+    public synchronized List<KskResultMessage> dropReplayed(List<KskResultMessage> joined) {
+        List<KskResultMessage> fresh = new ArrayList<>(joined.size());
+        for (KskResultMessage message : joined) {
+            if (message.inputKafkaPartition() == null || message.inputKafkaOffset() == null
+                    || firstTime(message.inputKafkaPartition(), message.inputKafkaOffset())) {
+                fresh.add(message);
+            } else {
+                droppedPairs.increment();
+            }
+        }
+        if (fresh.size() < joined.size()) {
+            log.info("Отсев повторов: {} из {} пар уже загружены", joined.size() - fresh.size(), joined.size());
+        }
+        return fresh;
+    }
+
+    /**
+     * То же для входящих половин без пары: повтор уже записанного входящего, чей результат
+     * перечитан не был, иначе ушёл бы в ksk_result_error как JOIN_TIMEOUT
+     */
+    public synchronized List<KskUnmatchedHalf> dropReplayedHalves(List<KskUnmatchedHalf> unmatched) {
+        List<KskUnmatchedHalf> fresh = new ArrayList<>(unmatched.size());
+        for (KskUnmatchedHalf half : unmatched) {
+            if (!half.input() || firstTime(half.partition(), half.offset())) {
+                fresh.add(half);
+            } else {
+                droppedHalves.increment();
+            }
+        }
+        return fresh;
+    }
+
+    /**
+     * Сдвинуть watermark к подтверждаемым offset'ам входящей темы и сохранить состояние
+     * 🔄 только назначенных узлу партиций
+     *
+     * @param committedInputOffsets партиция → следующий к чтению offset (всё ниже обработано)
+     */
+    public synchronized void checkpoint(Map<Integer, Long> committedInputOffsets) {
+        Map<Integer, OffsetState> states = new HashMap<>();
+        committedInputOffsets.forEach((partition, offset) -> {
+            if (owns(partition)) {
+                window(partition).advance(offset);
+            }
+        });
+        windows.forEach((partition, window) -> {
+            if (owns(partition) && window.watermark != Window.UNKNOWN) {
+                states.put(partition, new OffsetState(window.watermark, window.bits.toByteArray()));
+            }
+        });
+        stateRepository.save(states);
+    }
+
+    /**
+     * 🆕 Партиции назначены узлу: окна перечитываются из БД при первом сообщении
+     */
+    public synchronized void assigned(Collection<Integer> partitions) {
+        if (owned == null) {
+            owned = new HashSet<>();
+        }
+        partitions.forEach(windows::remove);
+        owned.addAll(partitions);
+        log.info("Отсев повторов: назначены партиции {}", partitions);
+    }
+
+    /**
+     * 🆕 Партиции отданы: окна сохраняются (новый владелец продолжит с них) и выгружаются.
+     * Вызывать после flush() — отмеченное в окне уже записано в БД
+     */
+    public synchronized void revoked(Collection<Integer> partitions) {
+        if (owned == null) {
+            owned = new HashSet<>(windows.keySet());
+        }
+        Map<Integer, OffsetState> states = new HashMap<>();
+        for (Integer partition : partitions) {
+            Window window = windows.remove(partition);
+            if (window != null && window.watermark != Window.UNKNOWN && owned.contains(partition)) {
+                states.put(partition, new OffsetState(window.watermark, window.bits.toByteArray()));
+            }
+            owned.remove(partition);
+        }
+        try {
+            stateRepository.save(states);
+        } catch (RuntimeException e) {
+            // Не сохранено — новый владелец пропустит повторы с последнего checkpoint
+            log.error("Отсев повторов: состояние отданных партиций {} не сохранено", partitions, e);
+        }
+        log.info("Отсев повторов: отданы партиции {}", partitions);
+    }
+
+    private boolean owns(int partition) {
+        return owned == null || owned.contains(partition);
+    }
+
+    private boolean firstTime(int partition, long offset) {
+        if (partition < 0 || offset < 0 || !owns(partition)) {
+            return true;
+        }
+        Window window = window(partition);
+        if (window.watermark == Window.UNKNOWN) {
+            return true;
+        }
+        if (window.seen(offset)) {
+            return false;
+        }
+        window.mark(offset);
+        return true;
+    }
+
+    private Window window(int partition) {
+        return windows.computeIfAbsent(partition, p -> stateRepository.load(p)
+            .map(state -> new Window(state.watermark(), BitSet.valueOf(state.seenOffsets())))
+            .orElseGet(() -> new Window(Window.UNKNOWN, new BitSet())));
+    }
+
+    private synchronized double windowBits() {
+        long bits = 0;
+        for (Window window : windows.values()) {
+            bits += window.bits.length();
+        }
+        return bits;
+    }
+}
@@ -0,0 +1,151 @@
+package ru.example.ksk.service.ingest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Резолюции КСК — перенос check_figurant_status / check_transaction_status и has_bypass из put_ksk_result
+ *
+ * Логика повторяет SQL один в один (включая то, что фигурант никогда не получает deny,
+ * а неизвестный presidentGroup даёт 'unknown' и в агрегации транзакции не участвует).
+ * Любое изменение функций в 020_core/001..003 должно быть повторено здесь.
+ *
+ * Значения, которые SQL приводит с возможной ошибкой (autoLogin::BOOLEAN), принимаются
+ * только в однозначной форме; остальное — KskResultMapper.NotCopyable (запись уходит в put_ksk_result)
+ */
+public final class KskResolutionRules {
+
+    public static final String ALLOW = "allow";
+    public static final String REVIEW = "review";
+    public static final String DENY = "deny";
+    public static final String BYPASS = "bypass";
+    public static final String EMPTY = "empty";
+    public static final String UNKNOWN = "unknown";
+
+    private static final Set<String> PRESIDENT_GROUPS = Set.of("part", "full", "none");
+    private static final Set<String> REVIEW_GROUPS = Set.of("full", "none");
+
+    private KskResolutionRules() {
+    }
+
+    /**
+     * check_figurant_status(figurant)
+     *
+     * review — full/none без autoLogin и без исключений, allow — прочие part/full/none, иначе unknown
+     */
+    public static String figurantStatus(JsonNode figurant) {
+        JsonNode exclusions = figurant.get("searchCheckResultsExclusionList");
+        boolean hasExclusions = exclusions != null && exclusions.isObject() && exclusions.size() > 0;
+        return figurantStatus(JsonbText.text(figurant, "presidentGroup"), autoLogin(figurant), hasExclusions);
+    }
+
+    /**
+     * check_figurant_status по уже извлечённым полям (KskOutputScanner)
+     *
+     * @param presidentGroup figurant->>'presidentGroup' (null → none)
+     * @param hasExclusions  searchCheckResultsExclusionList — непустой объект
+     */
+    public static String figurantStatus(String presidentGroup, boolean autoLogin, boolean hasExclusions) {
+        if (presidentGroup == null) {
+            presidentGroup = "none";
+        }
+        if (REVIEW_GROUPS.contains(presidentGroup) && !autoLogin && !hasExclusions) {
+            return REVIEW;
+        }
+        if (PRESIDENT_GROUPS.contains(presidentGroup)) {
+            return ALLOW;
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * check_transaction_status(output_json) по массиву searchCheckResultKCKH
+     *
+     * @param searchResults массив фигурантов; null — ключа нет или это не массив
+     */
+    public static String transactionStatus(JsonNode searchResults) {
+        if (searchResults == null || !searchResults.isArray()) {
+            return EMPTY;
+        }
+        List<String> statuses = new ArrayList<>();
+        for (JsonNode figurant : searchResults) {
+            if (!isBypass(figurant)) {
+                statuses.add(figurantStatus(figurant));
+            }
+        }
+        return transactionStatus(searchResults.size(), statuses);
+    }
+
+    /**
+     * check_transaction_status по статусам фигурантов
+     *
+     * @param figurants         всего фигурантов
+     * @param nonBypassStatuses статусы фигурантов без bypassName
+     */
+    public static String transactionStatus(int figurants, List<String> nonBypassStatuses) {
+        if (figurants == 0) {
+            return EMPTY;
+        }
+        if (nonBypassStatuses.isEmpty()) {
+            return BYPASS;
+        }
+        if (nonBypassStatuses.contains(DENY)) {
+            return DENY;
+        }
+        if (nonBypassStatuses.contains(REVIEW)) {
+            return REVIEW;
+        }
+        return nonBypassStatuses.contains(ALLOW) ? ALLOW : EMPTY;
+    }
+
+    /**
+     * ksk_result.has_bypass: empty — фигурантов нет, yes — есть непустой bypassName, иначе no
+     */
+    public static String hasBypass(JsonNode searchResults) {
+        int bypassed = 0;
+        for (JsonNode figurant : searchResults) {
+            if (isBypass(figurant)) {
+                bypassed++;
+            }
+        }
+        return hasBypass(searchResults.size(), bypassed);
+    }
+
+    public static String hasBypass(int figurants, int bypassed) {
+        if (figurants == 0) {
+            return EMPTY;
+        }
+        return bypassed > 0 ? "yes" : "no";
+    }
+
+    /**
+     * (figurant->>'autoLogin')::BOOLEAN с COALESCE(…, FALSE)
+     */
+    public static boolean autoLogin(JsonNode figurant) {
+        JsonNode value = figurant.get("autoLogin");
+        if (value == null || value.isNull()) {
+            return false;
+        }
+        if (value.isBoolean()) {
+            return value.booleanValue();
+        }
+        if (value.isTextual() && ("true".equals(value.textValue()) || "false".equals(value.textValue()))) {
+            return Boolean.parseBoolean(value.textValue());
+        }
+        throw new KskResultMapper.NotCopyable("autoLogin: " + value);
+    }
+
+    /**
+     * bypassName IS NOT NULL AND bypassName != '' (без TRIM — как в check_transaction_status)
+     */
+    public static boolean isBypass(String bypassName) {
+        return bypassName != null && !bypassName.isEmpty();
+    }
+
+    private static boolean isBypass(JsonNode figurant) {
+        return isBypass(JsonbText.text(figurant, "bypassName"));
+    }
+}
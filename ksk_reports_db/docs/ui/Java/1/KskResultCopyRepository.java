@@ -0,0 +1,333 @@
+package ru.example.ksk.repository;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.util.RawValue;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.example.ksk.dto.KskBatchResult;
+import ru.example.ksk.dto.KskResultMessage;
+import ru.example.ksk.dto.KskResultRows;
+import ru.example.ksk.dto.KskResultRows.FigurantRow;
+import ru.example.ksk.dto.KskResultRows.MatchRow;
+import ru.example.ksk.dto.KskResultRows.ResultRow;
+
+import java.io.IOException;
+import java.sql.Array;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 🆕 Пакетная запись результатов КСК через COPY (FORMAT binary)
+ *
+ * ЗАМЕНЯЕТ: put_ksk_result_batch → put_ksk_result на каждую запись (разбор JSON в PL/pgSQL,
+ * INSERT на каждого фигуранта и совпадение, подтранзакция на запись)
+ *
+ * ЛОГИКА (в транзакции вызывающего):
+ * 1. ID для ksk_result / ksk_figurant / ksk_figurant_match берутся из их identity-последовательностей
+ *    одним запросом на таблицу — связи source_id / figurant_id известны до записи
+ * 2. Три COPY подряд: результаты → фигуранты → совпадения (FK проверяются в конце каждого COPY).
+ *    Для identity-колонок COPY записывает переданные значения (как OVERRIDING SYSTEM VALUE)
+ * 3. putBatch() — прежний путь для записей, которые KskResultMapper не взялся воспроизвести
+ *
+ * Ошибка COPY откатывает транзакцию целиком — решение о повторе принимает KskResultIngestService.
+ */
+@Repository
+public class KskResultCopyRepository {
+
+    private static final String RESULT_TABLE = "upoa_ksk_reports.ksk_result";
+    private static final String FIGURANT_TABLE = "upoa_ksk_reports.ksk_figurant";
+    private static final String MATCH_TABLE = "upoa_ksk_reports.ksk_figurant_match";
+
+    private static final String COPY_RESULT_SQL =
+        "COPY " + RESULT_TABLE + " (" +
+        "id, date, corr_id, input_timestamp, output_timestamp, input_json, output_json, " +
+        "payment_type, resolution, has_bypass, list_codes, " +
+        "payment_id, payment_purpose, account_debet, account_credit, amount, currency, currency_control, " +
+        "payer_inn, payer_name, payer_account_number, payer_document_type, payer_bank_name, payer_bank_account_number, " +
+        "receiver_account_number, receiver_name, receiver_inn, receiver_bank_name, receiver_bank_account_number, " +
+        "receiver_document_type, input_kafka_partition, input_kafka_offset, input_kafka_headers, output_kafka_headers" +
+        ") FROM STDIN (FORMAT binary)";
+    private static final int RESULT_FIELDS = 34;
+
+    private static final String COPY_FIGURANT_SQL =
+        "COPY " + FIGURANT_TABLE + " (" +
+        "id, source_id, date, timestamp, figurant, figurant_index, resolution, is_bypass, " +
+        "list_code, name_figurant, president_group, auto_login, has_exclusion, " +
+        "exclusion_phrase, exclusion_name_list, bypass_name" +
+        ") FROM STDIN (FORMAT binary)";
+    private static final int FIGURANT_FIELDS = 16;
+
+    private static final String COPY_MATCH_SQL =
+        "COPY " + MATCH_TABLE + " (" +
+        "id, figurant_id, date, timestamp, match, match_index, algorithm, " +
+        "match_value, match_payment_field, match_payment_value" +
+        ") FROM STDIN (FORMAT binary)";
+    private static final int MATCH_FIELDS = 10;
+
+    private static final int COPY_BUFFER_SIZE = 256 * 1024;
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final Map<String, String> sequences = new ConcurrentHashMap<>();
+
+    public KskResultCopyRepository(NamedParameterJdbcTemplate jdbcTemplate, ObjectMapper objectMapper) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Записать разобранные сообщения тремя COPY
+     *
+     * @return число записей ksk_result
+     */
+    public int copy(List<KskResultRows> batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        int figurantCount = 0;
+        int matchCount = 0;
+        for (KskResultRows rows : batch) {
+            figurantCount += rows.getFigurants().size();
+            matchCount += rows.matchCount();
+        }
+
+        List<Integer> resultIds = nextIds(RESULT_TABLE, batch.size());
+        List<Integer> figurantIds = nextIds(FIGURANT_TABLE, figurantCount);
+        List<Integer> matchIds = nextIds(MATCH_TABLE, matchCount);
+
+        jdbcTemplate.getJdbcTemplate().execute((ConnectionCallback<Void>) connection -> {
+            PGConnection pgConnection = connection.unwrap(PGConnection.class);
+
+            copy(pgConnection, COPY_RESULT_SQL, writer -> {
+                Iterator<Integer> ids = resultIds.iterator();
+                for (KskResultRows rows : batch) {
+                    writeResult(writer, ids.next(), rows.getResult());
+                }
+            });
+
+            copy(pgConnection, COPY_FIGURANT_SQL, writer -> {
+                Iterator<Integer> sourceIds = resultIds.iterator();
+                Iterator<Integer> ids = figurantIds.iterator();
+                for (KskResultRows rows : batch) {
+                    int sourceId = sourceIds.next();
+                    for (FigurantRow figurant : rows.getFigurants()) {
+                        writeFigurant(writer, ids.next(), sourceId, rows.getResult(), figurant);
+                    }
+                }
+            });
+
+            if (matchCount > 0) {
+                copy(pgConnection, COPY_MATCH_SQL, writer -> {
+                    Iterator<Integer> parentIds = figurantIds.iterator();
+                    Iterator<Integer> ids = matchIds.iterator();
+                    for (KskResultRows rows : batch) {
+                        for (FigurantRow figurant : rows.getFigurants()) {
+                            int figurantId = parentIds.next();
+                            for (MatchRow match : figurant.getMatches()) {
+                                writeMatch(writer, ids.next(), figurantId, rows.getResult(), match);
+                            }
+                        }
+                    }
+                });
+            }
+            return null;
+        });
+        return batch.size();
+    }
+
+    /**
+     * Прежний путь: put_ksk_result_batch (подтранзакция на запись, ошибки — в ksk_result_error)
+     *
+     * put_ksk_result_batch отклоняет весь пакет, если у первой записи нет меток времени, —
+     * записи с обеими метками ставятся вперёд, чтобы одна такая запись не роняла остальные.
+     */
+    public KskBatchResult putBatch(List<KskResultMessage> messages) {
+        List<KskResultMessage> ordered = new ArrayList<>(messages);
+        ordered.sort(Comparator.comparing(m -> m.inputTimestamp() == null || m.outputTimestamp() == null));
+
+        return jdbcTemplate.queryForObject(
+            "SELECT total_records, success_count, error_count, error_ids " +
+            "FROM upoa_ksk_reports.put_ksk_result_batch(CAST(:batch AS jsonb))",
+            Map.of("batch", batchJson(ordered)),
+            (rs, rowNum) -> new KskBatchResult(
+                rs.getInt("total_records"),
+                rs.getInt("success_count"),
+                rs.getInt("error_count"),
+                errorIds(rs.getArray("error_ids"))
+            )
+        );
+    }
+
+    private void writeResult(PgBinaryCopyWriter writer, int id, ResultRow row) throws IOException {
+        writer.startRow(RESULT_FIELDS);
+        writer.int4(id);
+        writer.date(row.getDate());
+        writer.text(row.getCorrId());
+        writer.timestamp(row.getInputTimestamp());
+        writer.timestamp(row.getOutputTimestamp());
+        writer.jsonb(row.getInputJson());
+        writer.jsonb(row.getOutputJson());
+        writer.text(row.getPaymentType());
+        writer.text(row.getResolution());
+        writer.text(row.getHasBypass());
+        writer.textArray(row.getListCodes());
+        writer.text(row.getPaymentId());
+        writer.text(row.getPaymentPurpose());
+        writer.text(row.getAccountDebet());
+        writer.text(row.getAccountCredit());
+        writer.text(row.getAmount());
+        writer.text(row.getCurrency());
+        writer.text(row.getCurrencyControl());
+        writer.text(row.getPayerInn());
+        writer.text(row.getPayerName());
+        writer.text(row.getPayerAccountNumber());
+        writer.text(row.getPayerDocumentType());
+        writer.text(row.getPayerBankName());
+        writer.text(row.getPayerBankAccountNumber());
+        writer.text(row.getReceiverAccountNumber());
+        writer.text(row.getReceiverName());
+        writer.text(row.getReceiverInn());
+        writer.text(row.getReceiverBankName());
+        writer.text(row.getReceiverBankAccountNumber());
+        writer.text(row.getReceiverDocumentType());
+        writer.int4(row.getInputKafkaPartition());
+        writer.int8(row.getInputKafkaOffset());
+        writer.jsonb(row.getInputKafkaHeaders());
+        writer.jsonb(row.getOutputKafkaHeaders());
+    }
+
+    private void writeFigurant(PgBinaryCopyWriter writer, int id, int sourceId,
+                               ResultRow result, FigurantRow row) throws IOException {
+        writer.startRow(FIGURANT_FIELDS);
+        writer.int4(id);
+        writer.int4(sourceId);
+        writer.date(result.getDate());
+        writer.timestamp(result.getOutputTimestamp());
+        writer.jsonb(row.getFigurant());
+        writer.int4(row.getFigurantIndex());
+        writer.text(row.getResolution());
+        writer.text(row.getIsBypass());
+        writer.text(row.getListCode());
+        writer.text(row.getNameFigurant());
+        writer.text(row.getPresidentGroup());
+        writer.bool(row.isAutoLogin());
+        writer.bool(row.isHasExclusion());
+        writer.text(row.getExclusionPhrase());
+        writer.text(row.getExclusionNameList());
+        writer.text(row.getBypassName());
+    }
+
+    private void writeMatch(PgBinaryCopyWriter writer, int id, int figurantId,
+                            ResultRow result, MatchRow row) throws IOException {
+        writer.startRow(MATCH_FIELDS);
+        writer.int4(id);
+        writer.int4(figurantId);
+        writer.date(result.getDate());
+        writer.timestamp(result.getOutputTimestamp());
+        writer.jsonb(row.getMatch());
+        writer.int4(row.getMatchIndex());
+        writer.text(row.getAlgorithm());
+        writer.text(row.getMatchValue());
+        writer.text(row.getMatchPaymentField());
+        writer.text(row.getMatchPaymentValue());
+    }
+
+    @FunctionalInterface
+    private interface CopyBody {
+        void write(PgBinaryCopyWriter writer) throws IOException;
+    }
+
+    private static void copy(PGConnection connection, String sql, CopyBody body) throws SQLException {
+        PGCopyOutputStream stream = new PGCopyOutputStream(connection, sql, COPY_BUFFER_SIZE);
+        try {
+            PgBinaryCopyWriter writer = new PgBinaryCopyWriter(stream);
+            body.write(writer);
+            writer.finish();
+            stream.endCopy();
+        } catch (IOException e) {
+            if (stream.isActive()) {
+                stream.cancelCopy();
+            }
+            // PGCopyOutputStream заворачивает ошибку сервера (FK, партиция, тип) в IOException
+            if (e.getCause() instanceof SQLException sqlException) {
+                throw sqlException;
+            }
+            throw new DataAccessResourceFailureException("COPY прерван: " + sql, e);
+        }
+    }
+
+    /**
+     * count значений nextval identity-последовательности таблицы (не обязательно подряд)
+     */
+    private List<Integer> nextIds(String table, int count) {
+        if (count == 0) {
+            return List.of();
+        }
+        String sequence = sequences.computeIfAbsent(table, t -> jdbcTemplate.queryForObject(
+            "SELECT pg_get_serial_sequence(:table, 'id')",
+            Map.of("table", t),
+            String.class
+        ));
+        return jdbcTemplate.queryForList(
+            "SELECT nextval(CAST(:sequence AS regclass))::INTEGER FROM generate_series(1, :count)",
+            Map.of("sequence", sequence, "count", count),
+            Integer.class
+        );
+    }
+
+    /**
+     * p_batch для put_ksk_result_batch: JSON сообщений вставляется как есть (RawValue),
+     * отсутствующие значения — отсутствующие ключи (→ SQL NULL, а не JSON null)
+     */
+    private String batchJson(List<KskResultMessage> messages) {
+        ArrayNode batch = objectMapper.createArrayNode();
+        for (KskResultMessage message : messages) {
+            ObjectNode record = batch.addObject();
+            putIfPresent(record, "input_timestamp", message.inputTimestamp());
+            putIfPresent(record, "output_timestamp", message.outputTimestamp());
+            putRawIfPresent(record, "input_json", message.inputJson());
+            putRawIfPresent(record, "output_json", message.outputJson());
+            record.put("input_kafka_partition", message.partitionOrUnknown());
+            record.put("input_kafka_offset", message.offsetOrUnknown());
+            putRawIfPresent(record, "input_kafka_headers", message.inputKafkaHeaders());
+            putRawIfPresent(record, "output_kafka_headers", message.outputKafkaHeaders());
+        }
+        try {
+            return objectMapper.writeValueAsString(batch);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Сериализация пакета put_ksk_result_batch", e);
+        }
+    }
+
+    private static void putIfPresent(ObjectNode record, String field, String value) {
+        if (value != null) {
+            record.put(field, value);
+        }
+    }
+
+    private static void putRawIfPresent(ObjectNode record, String field, String json) {
+        if (json != null) {
+            record.putRawValue(field, new RawValue(json));
+        }
+    }
+
+    private static List<Integer> errorIds(Array array) throws SQLException {
+        if (array == null) {
+            return List.of();
+        }
+        return Arrays.asList((Integer[]) array.getArray());
+    }
+}
@@ -0,0 +1,175 @@
+package ru.example.ksk.repository;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.TextNode;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Repository;
+import ru.example.ksk.dto.KskResultMessage;
+import ru.example.ksk.dto.KskUnmatchedHalf;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+
+/**
+ * 🆕 Запись сообщений без пары в ksk_result_error
+ *
+ * Формат строк — как у put_ksk_result: те же колонки, corr_id до 100 символов.
+ * input_json NOT NULL — у результата без входящего платежа пишется '{}',
+ * kafka_partition / kafka_offset (координаты входящего) — -1, координаты результата — в function_context.
+ *
+ * ✨ logRejected — запись, которую не принял даже put_ksk_result_batch (KskResultIngestService).
+ * Её тело могло не пройти в jsonb — такое пишется JSON-строкой, как нечитаемое тело у join.
+ */
+@Repository
+public class KskResultErrorRepository {
+
+    private static final String INSERT_ERROR = """
+        INSERT INTO upoa_ksk_reports.ksk_result_error (
+            error_code, error_message, input_timestamp, output_timestamp,
+            kafka_partition, kafka_offset, input_kafka_headers, output_kafka_headers,
+            corr_id, input_json, output_json, function_context
+        )
+        VALUES (
+            :errorCode, :errorMessage, :inputTimestamp, :outputTimestamp,
+            :partition, :offset, CAST(:inputHeaders AS jsonb), CAST(:outputHeaders AS jsonb),
+            :corrId, CAST(:inputJson AS jsonb), CAST(:outputJson AS jsonb), :context
+        )
+        """;
+
+    private static final String INSERT_REJECTED = """
+        INSERT INTO upoa_ksk_reports.ksk_result_error (
+            error_code, error_message, input_timestamp, output_timestamp,
+            kafka_partition, kafka_offset, input_kafka_headers, output_kafka_headers,
+            corr_id, input_json, output_json, function_context
+        )
+        VALUES (
+            :errorCode, :errorMessage, :inputTimestamp, :outputTimestamp,
+            :partition, :offset, CAST(:inputHeaders AS jsonb), CAST(:outputHeaders AS jsonb),
+            LEFT(CAST(:outputJson AS jsonb)->'headerInfo'->>'corrId', 100),
+            CAST(:inputJson AS jsonb), CAST(:outputJson AS jsonb), :context
+        )
+        RETURNING id
+        """;
+
+    private static final int CORR_ID_MAX_LENGTH = 100;
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final ObjectReader jsonReader;
+
+    public KskResultErrorRepository(NamedParameterJdbcTemplate jdbcTemplate, ObjectMapper objectMapper) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.jsonReader = objectMapper.reader().with(DeserializationFeature.FAIL_ON_TRAILING_TOKENS);
+    }
+
+    /**
+     * @param window окно join — для текста ошибки JOIN_TIMEOUT
+     */
+    public void logUnmatched(List<KskUnmatchedHalf> halves, Duration window) {
+        if (halves.isEmpty()) {
+            return;
+        }
+        SqlParameterSource[] params = halves.stream()
+            .map(half -> toParams(half, window))
+            .toArray(SqlParameterSource[]::new);
+        jdbcTemplate.batchUpdate(INSERT_ERROR, params);
+    }
+
+    /**
+     * Запись, отклонённая put_ksk_result_batch целиком (своей строки ksk_result_error функция
+     * не записала), — с SQLSTATE и текстом ошибки
+     *
+     * Метки времени, не разобранные как ISO, — NULL; исходный текст обеих — в function_context.
+     *
+     * @return id строки ksk_result_error
+     */
+    public int logRejected(KskResultMessage message, String errorCode, String errorMessage) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+            .addValue("errorCode", errorCode)
+            .addValue("errorMessage", errorMessage)
+            .addValue("inputTimestamp", timestamp(message.inputTimestamp()))
+            .addValue("outputTimestamp", timestamp(message.outputTimestamp()))
+            .addValue("partition", message.partitionOrUnknown())
+            .addValue("offset", message.offsetOrUnknown())
+            .addValue("inputHeaders", jsonb(message.inputKafkaHeaders()))
+            .addValue("outputHeaders", jsonb(message.outputKafkaHeaders()))
+            .addValue("inputJson", message.inputJson() != null ? jsonb(message.inputJson()) : "{}")
+            .addValue("outputJson", jsonb(message.outputJson()))
+            .addValue("context", "put_ksk_result_batch partition=" + message.partitionOrUnknown()
+                + " offset=" + message.offsetOrUnknown()
+                + " input_timestamp=" + message.inputTimestamp()
+                + " output_timestamp=" + message.outputTimestamp());
+        return jdbcTemplate.queryForObject(INSERT_REJECTED, params, Integer.class);
+    }
+
+    /**
+     * JSON как есть, если jsonb его примет; иначе — JSON-строка с исходным текстом
+     * (jsonb не принимает и escape-последовательность NUL — такой JSON тоже пишется строкой, без символов NUL)
+     */
+    private String jsonb(String json) {
+        if (json == null) {
+            return null;
+        }
+        if (!json.contains("\\u0000")) {
+            try {
+                JsonNode node = jsonReader.readTree(json);
+                if (node != null && !node.isMissingNode()) {
+                    return json;
+                }
+            } catch (JsonProcessingException e) {
+                // не JSON — ниже, строкой
+            }
+        }
+        return TextNode.valueOf(json.replace("\0", "")).toString();
+    }
+
+    private static LocalDateTime timestamp(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return LocalDateTime.parse(value.replace(' ', 'T'));
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static SqlParameterSource toParams(KskUnmatchedHalf half, Duration window) {
+        String corrId = half.corrId();
+        if (corrId != null && corrId.length() > CORR_ID_MAX_LENGTH) {
+            corrId = corrId.substring(0, CORR_ID_MAX_LENGTH);
+        }
+        String topic = half.input() ? "input" : "output";
+        return new MapSqlParameterSource()
+            .addValue("errorCode", half.errorCode())
+            .addValue("errorMessage", message(half, window))
+            .addValue("inputTimestamp", half.input() ? half.timestamp() : null)
+            .addValue("outputTimestamp", half.input() ? null : half.timestamp())
+            .addValue("partition", half.input() ? half.partition() : -1)
+            .addValue("offset", half.input() ? half.offset() : -1L)
+            .addValue("inputHeaders", half.input() ? half.headers() : null)
+            .addValue("outputHeaders", half.input() ? null : half.headers())
+            .addValue("corrId", corrId)
+            .addValue("inputJson", half.input() ? half.json() : "{}")
+            .addValue("outputJson", half.input() ? null : half.json())
+            .addValue("context", "ksk join " + topic
+                + " partition=" + half.partition() + " offset=" + half.offset());
+    }
+
+    private static String message(KskUnmatchedHalf half, Duration window) {
+        String pair = half.input() ? "output" : "input";
+        return switch (half.errorCode()) {
+            case "JOIN_TIMEOUT" -> "Join timeout: no " + pair + " message within " + window;
+            case "JOIN_OVERFLOW" -> "Join buffer overflow: evicted before " + pair + " message arrived";
+            case "JOIN_NO_CORR_ID" -> "Join impossible: headerInfo.corrId is missing or message is not valid JSON";
+            default -> half.errorCode();
+        };
+    }
+}
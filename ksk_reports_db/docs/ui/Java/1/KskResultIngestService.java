@@ -0,0 +1,284 @@
+package ru.example.ksk.service.ingest;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.example.ksk.dto.KskBatchResult;
+import ru.example.ksk.dto.KskResultMessage;
+import ru.example.ksk.dto.KskResultRows;
+import ru.example.ksk.repository.KskResultCopyRepository;
+import ru.example.ksk.repository.KskResultErrorRepository;
+
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * 🆕 Загрузка пакета результатов КСК: разбор в приложении + COPY вместо put_ksk_result_batch
+ *
+ * ЛОГИКА:
+ * ШАГ 1. Вне транзакции — KskResultMapper разбирает каждое сообщение в строки трёх таблиц
+ *        (резолюции — KskResolutionRules, перенос check_figurant_status / check_transaction_status).
+ *        Что не воспроизводится с гарантией — откладывается для put_ksk_result
+ * ШАГ 2. Одна транзакция на пакет: COPY ksk_result / ksk_figurant / ksk_figurant_match,
+ *        затем отложенные записи через put_ksk_result_batch (ошибки — в ksk_result_error, как раньше)
+ * ШАГ 3. 🔄 Если транзакция ШАГА 2 упала (конфликт FK, нет партиции, неверные данные) — пакет
+ *        делится пополам, половины пишутся тем же путём в своих транзакциях, упавшие делятся дальше.
+ *        Одиночная упавшая запись идёт через put_ksk_result_batch: пишется или попадает
+ *        в ksk_result_error с кодом и текстом ошибки put_ksk_result.
+ *        🔄 Если put_ksk_result_batch отклонил и одиночную запись целиком (тело не прошло в jsonb
+ *        и т.п.) — это тоже ошибка данных: строка ksk_result_error с SQLSTATE пишется здесь
+ *        (KskResultErrorRepository.logRejected), запись считается в error_ids, пакет идёт дальше.
+ *        ЗАМЕНЯЕТ: повтор всего пакета через put_ksk_result_batch (SAVEPOINT на каждую запись).
+ *        k плохих записей из n стоят ≈ 2·k·log2(n) лишних транзакций, успешный пакет — ни одной
+ *
+ * Итог — те же total_records / success_count / error_count / error_ids, что у put_ksk_result_batch.
+ *
+ * ОТКАЗ БД (нет соединения, обрыв COPY): деление не поможет — IngestInterruptedException
+ * с уже записанным итогом и оставшимися записями. Записанные части зафиксированы,
+ * повторять нужно только remaining (KskIngestBatcher так и делает).
+ * 🔄 Отказ — только временные ошибки (isTransient): DataAccessResourceFailureException,
+ * TransientDataAccessException, RecoverableDataAccessException и SQLSTATE классов
+ * 08 (соединение), 40 (откат: deadlock, serialization), 53 (ресурсы), 57 (остановка сервера,
+ * отмена), 58 (ввод-вывод), 55P03 (блокировка). Остальное — ошибки данных: KskIngestBatcher
+ * повторяет remaining до успеха, и ошибка данных в нём повторялась бы вечно.
+ *
+ * 🆕 МЕТРИКИ (имена из KSK_Consumer_Monitoring.md):
+ * - ksk.db.put_result.duration — каждая транзакция записи (пакет, половина при делении, одиночная запись)
+ * - ksk.db.put_result.errors — записей, ушедших в ksk_result_error (ошибки данных put_ksk_result)
+ */
+@Slf4j
+@Service
+public class KskResultIngestService {
+
+    private static final Set<String> TRANSIENT_SQL_STATE_CLASSES = Set.of("08", "40", "53", "57", "58");
+    private static final String LOCK_NOT_AVAILABLE = "55P03";
+
+    /**
+     * Пакет записан не полностью из-за отказа БД
+     */
+    public static class IngestInterruptedException extends RuntimeException {
+
+        private final KskBatchResult written;
+        private final List<KskResultMessage> remaining;
+
+        IngestInterruptedException(KskBatchResult written, List<KskResultMessage> remaining, DataAccessException cause) {
+            super("Записано " + written.totalRecords() + ", не записано " + remaining.size() + ": "
+                  + cause.getMostSpecificCause().getMessage(), cause);
+            this.written = written;
+            this.remaining = remaining;
+        }
+
+        public KskBatchResult getWritten() {
+            return written;
+        }
+
+        public List<KskResultMessage> getRemaining() {
+            return remaining;
+        }
+    }
+
+    /**
+     * Сообщение и его строки; rows == null — запись через put_ksk_result
+     */
+    private record Mapped(KskResultMessage message, KskResultRows rows) {
+    }
+
+    private final KskResultMapper mapper;
+    private final KskResultCopyRepository copyRepository;
+    private final KskResultErrorRepository errorRepository;
+    private final TransactionTemplate batchTx;
+    private final Timer putDuration;
+    private final Counter putErrors;
+
+    public KskResultIngestService(KskResultMapper mapper,
+                                  KskResultCopyRepository copyRepository,
+                                  KskResultErrorRepository errorRepository,
+                                  PlatformTransactionManager transactionManager,
+                                  MeterRegistry meterRegistry) {
+        this.mapper = mapper;
+        this.copyRepository = copyRepository;
+        this.errorRepository = errorRepository;
+        this.batchTx = new TransactionTemplate(transactionManager);
+        this.batchTx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.putDuration = Timer.builder("ksk.db.put_result.duration")
+            .description("Duration of KSK result write transactions")
+            .publishPercentiles(0.5, 0.95, 0.99)
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+        this.putErrors = Counter.builder("ksk.db.put_result.errors")
+            .description("KSK results written to ksk_result_error")
+            .register(meterRegistry);
+    }
+
+    public KskBatchResult ingest(List<KskResultMessage> batch) {
+        if (batch.isEmpty()) {
+            throw new IllegalArgumentException("Пустой пакет результатов КСК");
+        }
+
+        // ШАГ 1: разбор
+        List<Mapped> mapped = new ArrayList<>(batch.size());
+        for (KskResultMessage message : batch) {
+            try {
+                mapped.add(new Mapped(message, mapper.map(message)));
+            } catch (KskResultMapper.NotCopyable e) {
+                log.debug("Запись partition={} offset={} — через put_ksk_result: {}",
+                          message.inputKafkaPartition(), message.inputKafkaOffset(), e.getMessage());
+                mapped.add(new Mapped(message, null));
+            }
+        }
+
+        // ШАГ 2: COPY + отложенные записи в одной транзакции
+        try {
+            return write(mapped);
+        } catch (DataAccessException e) {
+            if (isTransient(e)) {
+                throw new IngestInterruptedException(KskBatchResult.copied(0), batch, e);
+            }
+            // ШАГ 3: поиск плохих записей делением пакета
+            log.warn("COPY пакета из {} записей не удался, поиск ошибочных записей делением: {}",
+                     batch.size(), e.getMostSpecificCause().getMessage());
+            return bisect(mapped);
+        }
+    }
+
+    private KskBatchResult write(List<Mapped> part) {
+        return measured(() -> batchTx.execute(status -> {
+            List<KskResultRows> copyRows = new ArrayList<>(part.size());
+            List<KskResultMessage> deferred = new ArrayList<>();
+            for (Mapped item : part) {
+                if (item.rows() != null) {
+                    copyRows.add(item.rows());
+                } else {
+                    deferred.add(item.message());
+                }
+            }
+            KskBatchResult result = KskBatchResult.copied(copyRows.isEmpty() ? 0 : copyRepository.copy(copyRows));
+            if (!deferred.isEmpty()) {
+                result = result.plus(copyRepository.putBatch(deferred));
+            }
+            return result;
+        }));
+    }
+
+    private KskBatchResult bisect(List<Mapped> failed) {
+        KskBatchResult result = KskBatchResult.copied(0);
+        Deque<List<Mapped>> parts = new ArrayDeque<>();
+        split(failed, parts);
+
+        while (!parts.isEmpty()) {
+            List<Mapped> part = parts.pop();
+            try {
+                result = result.plus(part.size() == 1 ? putOne(part.get(0)) : write(part));
+            } catch (DataAccessException e) {
+                if (isTransient(e)) {
+                    throw interrupted(result, part, parts, e);
+                }
+                if (part.size() == 1) {
+                    result = result.plus(reject(part.get(0), e, result, parts));
+                } else {
+                    split(part, parts);
+                }
+            }
+        }
+
+        log.warn("Пакет разобран делением: записано {}, ошибок {} (ksk_result_error id {})",
+                 result.successCount(), result.errorCount(), result.errorIds());
+        return result;
+    }
+
+    private KskBatchResult putOne(Mapped item) {
+        return measured(() -> batchTx.execute(status -> copyRepository.putBatch(List.of(item.message()))));
+    }
+
+    /**
+     * Одиночная запись, которую put_ksk_result_batch отклонил целиком, — в ksk_result_error
+     */
+    private KskBatchResult reject(Mapped item, DataAccessException cause,
+                                  KskBatchResult written, Deque<List<Mapped>> parts) {
+        KskResultMessage message = item.message();
+        String sqlState = sqlState(cause);
+        String errorMessage = cause.getMostSpecificCause().getMessage();
+        log.warn("Запись partition={} offset={} отклонена put_ksk_result_batch ({}): {}",
+                 message.inputKafkaPartition(), message.inputKafkaOffset(), sqlState, errorMessage);
+        try {
+            return measured(() -> batchTx.execute(status -> {
+                int errorId = errorRepository.logRejected(
+                    message, sqlState != null ? sqlState : "UNKNOWN", String.valueOf(errorMessage));
+                return new KskBatchResult(1, 0, 1, List.of(errorId));
+            }));
+        } catch (DataAccessException e) {
+            if (isTransient(e)) {
+                throw interrupted(written, List.of(item), parts, e);
+            }
+            // Не записать и ошибку — запись остаётся только в логе, пакет не встаёт
+            log.error("Запись partition={} offset={} не записана и в ksk_result_error: {}",
+                      message.inputKafkaPartition(), message.inputKafkaOffset(),
+                      e.getMostSpecificCause().getMessage(), e);
+            putErrors.increment();
+            return new KskBatchResult(1, 0, 1, List.of());
+        }
+    }
+
+    /**
+     * Временный отказ БД — повтор тех же записей может пройти; иначе ошибка данных
+     */
+    private static boolean isTransient(DataAccessException e) {
+        if (e instanceof DataAccessResourceFailureException
+            || e instanceof TransientDataAccessException
+            || e instanceof RecoverableDataAccessException) {
+            return true;
+        }
+        String sqlState = sqlState(e);
+        return sqlState != null
+            && (TRANSIENT_SQL_STATE_CLASSES.contains(sqlState.substring(0, 2)) || LOCK_NOT_AVAILABLE.equals(sqlState));
+    }
+
+    private static String sqlState(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLException sql && sql.getSQLState() != null && sql.getSQLState().length() >= 2) {
+                return sql.getSQLState();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Время транзакции (и упавшей — она тоже занимала соединение); ошибки — после COMMIT
+     */
+    private KskBatchResult measured(Supplier<KskBatchResult> transaction) {
+        KskBatchResult result = putDuration.record(transaction);
+        putErrors.increment(result.errorCount());
+        return result;
+    }
+
+    /**
+     * Половины — в начало очереди, левая первой
+     */
+    private static void split(List<Mapped> part, Deque<List<Mapped>> parts) {
+        int middle = part.size() / 2;
+        parts.push(part.subList(middle, part.size()));
+        parts.push(part.subList(0, middle));
+    }
+
+    private static IngestInterruptedException interrupted(KskBatchResult written, List<Mapped> part,
+                                                          Deque<List<Mapped>> parts, DataAccessException cause) {
+        List<KskResultMessage> remaining = new ArrayList<>();
+        part.forEach(item -> remaining.add(item.message()));
+        parts.forEach(rest -> rest.forEach(item -> remaining.add(item.message())));
+        return new IngestInterruptedException(written, remaining, cause);
+    }
+}
@@ -0,0 +1,350 @@
+package ru.example.ksk.service.ingest;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import org.springframework.stereotype.Component;
+import ru.example.ksk.dto.KskResultMessage;
+import ru.example.ksk.dto.KskResultRows;
+import ru.example.ksk.dto.KskResultRows.FigurantRow;
+import ru.example.ksk.dto.KskResultRows.MatchRow;
+import ru.example.ksk.dto.KskResultRows.ResultRow;
+import ru.example.ksk.service.ingest.KskOutputScan.FigurantScan;
+import ru.example.ksk.service.ingest.KskOutputScan.MatchScan;
+
+import java.math.BigDecimal;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 🆕 Разбор сообщения КСК в строки ksk_result / ksk_figurant / ksk_figurant_match — перенос put_ksk_result v4.2
+ *
+ * Каждое поле вычисляется так же, как в SQL (COALESCE(…, ''), NULLIF(TRIM(bypassName)),
+ * string_agg фраз исключений, nameList::text, индексы с 0, резолюции — KskResolutionRules).
+ * input_json — деревом, output_json — потоковым KskOutputScanner в буфер потока.
+ *
+ * ПРИНЦИП: если значение нельзя воспроизвести с гарантией (сомнительный формат метки времени,
+ * amount не в виде десятичного числа, фигурант не объект, превышение VARCHAR, NOT NULL без значения…),
+ * бросается NotCopyable — запись целиком уходит в put_ksk_result_batch и обрабатывается
+ * (или логируется в ksk_result_error) ровно как раньше.
+ */
+@Component
+public class KskResultMapper {
+
+    /**
+     * Запись не подходит для COPY — обрабатывается через put_ksk_result
+     */
+    public static class NotCopyable extends RuntimeException {
+        public NotCopyable(String reason) {
+            super(reason, null, false, false);
+        }
+    }
+
+    /**
+     * Формы, которые ::TIMESTAMP(3) разбирает однозначно; зона отбрасывается (как у timestamp without time zone)
+     */
+    private static final Pattern TIMESTAMP = Pattern.compile(
+        "(\\d{4})-(\\d{2})-(\\d{2})[T ](\\d{2}):(\\d{2}):(\\d{2})(?:\\.(\\d{1,6}))?(?:Z|[+-]\\d{2}(?::?\\d{2})?)?");
+    private static final Pattern PLAIN_DECIMAL = Pattern.compile("-?\\d+(\\.\\d+)?");
+    /**
+     * Коды списков, порядок которых в array_agg(DISTINCT) не зависит от collation БД
+     */
+    private static final Pattern SORTABLE_LIST_CODE = Pattern.compile("[0-9A-Z]*");
+
+    private static final int CORR_ID_LENGTH = 100;
+    private static final int PAYMENT_TYPE_LENGTH = 20;
+    private static final int ALGORITHM_LENGTH = 100;
+
+    private final ObjectMapper objectMapper = exactMapper();
+    private final KskOutputScanner outputScanner = new KskOutputScanner(objectMapper);
+    private final ThreadLocal<KskOutputScan> outputScans = ThreadLocal.withInitial(KskOutputScan::new);
+
+    /**
+     * Точные BigDecimal: 1.50 остаётся 1.50 (как numeric в jsonb)
+     */
+    static ObjectMapper exactMapper() {
+        return JsonMapper.builder()
+            .nodeFactory(JsonNodeFactory.withExactBigDecimals(true))
+            .enable(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS)
+            .build();
+    }
+
+    public KskResultRows map(KskResultMessage message) {
+        LocalDateTime inputTimestamp = timestamp("input_timestamp", message.inputTimestamp());
+        LocalDateTime outputTimestamp = timestamp("output_timestamp", message.outputTimestamp());
+        JsonNode input = object("input_json", message.inputJson());
+        requireJson("input_kafka_headers", message.inputKafkaHeaders());
+        requireJson("output_kafka_headers", message.outputKafkaHeaders());
+
+        // 🔄 output_json — потоковым разбором; отсутствующий searchCheckResultKCKH = '[]' (COALESCE)
+        if (message.outputJson() == null) {
+            throw new NotCopyable("output_json отсутствует");
+        }
+        requireNoNul("output_json", message.outputJson());
+        KskOutputScan output = outputScanner.scan(message.outputJson(), outputScans.get());
+
+        JsonNode paymentInfo = input.get("paymentInfo");
+        JsonNode payerInfo = input.get("payerInfo");
+        JsonNode receiverInfo = input.get("receiverInfo");
+        JsonNode payerBankInfo = input.get("payerBankInfo");
+        JsonNode receiverBankInfo = input.get("receiverBankInfo");
+
+        List<FigurantRow> figurants = new ArrayList<>(output.figurantCount);
+        List<String> nonBypassStatuses = new ArrayList<>(output.figurantCount);
+        int bypassed = 0;
+        for (int index = 0; index < output.figurantCount; index++) {
+            FigurantScan scan = output.figurants[index];
+            FigurantRow figurant = figurant(scan, index);
+            figurants.add(figurant);
+            if (KskResolutionRules.isBypass(scan.bypassName)) {
+                bypassed++;
+            } else {
+                nonBypassStatuses.add(figurant.getResolution());
+            }
+        }
+
+        ResultRow result = ResultRow.builder()
+            .date(outputTimestamp.toLocalDate())
+            .corrId(required("corrId", output.corrId, CORR_ID_LENGTH))
+            .inputTimestamp(inputTimestamp)
+            .outputTimestamp(outputTimestamp)
+            .inputJson(message.inputJson())
+            .outputJson(message.outputJson())
+            .paymentType(required("paymentType", JsonbText.text(paymentInfo, "paymentType"), PAYMENT_TYPE_LENGTH))
+            .resolution(KskResolutionRules.transactionStatus(output.figurantCount, nonBypassStatuses))
+            .hasBypass(KskResolutionRules.hasBypass(output.figurantCount, bypassed))
+            .listCodes(listCodes(output))
+            .paymentId(orEmpty(paymentInfo, "paymentId"))
+            .paymentPurpose(orEmpty(paymentInfo, "paymentPurpose"))
+            .accountDebet(orEmpty(paymentInfo, "accountDebet"))
+            .accountCredit(orEmpty(paymentInfo, "accountCredit"))
+            .amount(amount(JsonbText.text(paymentInfo, "amount"), paymentInfo))
+            .currency(orEmpty(paymentInfo, "currency"))
+            .currencyControl(orEmpty(paymentInfo, "currencyControl"))
+            .payerInn(orEmpty(payerInfo, "payerInn"))
+            .payerName(orEmpty(payerInfo, "payerName"))
+            .payerAccountNumber(orEmpty(child(payerInfo, "payerAccountInfo"), "payerAccountNumber"))
+            .payerDocumentType(orEmpty(payerInfo, "payerDocumentType"))
+            .payerBankName(orEmpty(payerBankInfo, "payerBankName"))
+            .payerBankAccountNumber(orEmpty(payerBankInfo, "payerBankAccountNumber"))
+            .receiverAccountNumber(orEmpty(child(receiverInfo, "receiverAccountInfo"), "receiverAccountNumber"))
+            .receiverName(orEmpty(receiverInfo, "receiverName"))
+            .receiverInn(orEmpty(receiverInfo, "receiverInn"))
+            .receiverBankName(orEmpty(receiverBankInfo, "receiverBankName"))
+            .receiverBankAccountNumber(orEmpty(receiverBankInfo, "receiverBankAccountNumber"))
+            .receiverDocumentType(orEmpty(receiverInfo, "receiverDocumentType"))
+            .inputKafkaPartition(message.partitionOrUnknown())
+            .inputKafkaOffset(message.offsetOrUnknown())
+            .inputKafkaHeaders(message.inputKafkaHeaders())
+            .outputKafkaHeaders(message.outputKafkaHeaders())
+            .build();
+
+        return KskResultRows.builder()
+            .result(result)
+            .figurants(figurants)
+            .build();
+    }
+
+    /**
+     * Одна строка ksk_figurant (цикл FOR v_figurant_record в put_ksk_result)
+     */
+    private static FigurantRow figurant(FigurantScan figurant, int index) {
+        if (figurant.autoLoginInvalid != null) {
+            throw new NotCopyable("autoLogin: " + figurant.autoLoginInvalid);
+        }
+        boolean autoLogin = Boolean.TRUE.equals(figurant.autoLogin);
+
+        String bypassName = figurant.bypassName == null ? null : trimSpaces(figurant.bypassName);
+        if (bypassName != null && bypassName.isEmpty()) {
+            bypassName = null;
+        }
+
+        // has_exclusion / exclusion_phrase: phrasesToExclude внутри объекта исключений
+        if (figurant.phrasesInvalid) {
+            throw new NotCopyable("phrasesToExclude не массив");
+        }
+
+        return FigurantRow.builder()
+            .figurant(figurant.json)
+            .figurantIndex(index)
+            .resolution(KskResolutionRules.figurantStatus(figurant.presidentGroup, autoLogin, figurant.hasExclusions))
+            .isBypass(bypassName != null ? "yes" : "no")
+            .listCode(orEmpty(figurant.listCode))
+            .nameFigurant(orEmpty(figurant.nameFigurant))
+            .presidentGroup(orEmpty(figurant.presidentGroup))
+            .autoLogin(autoLogin)
+            .hasExclusion(figurant.phraseCount > 0)
+            .exclusionPhrase(String.join("; ", figurant.phrases))
+            .exclusionNameList(orEmpty(figurant.nameList))
+            .bypassName(bypassName)
+            .matches(matches(figurant))
+            .build();
+    }
+
+    /**
+     * ksk_figurant_match: только если jsonb_array_length(figurant->'match') > 0
+     */
+    private static List<MatchRow> matches(FigurantScan figurant) {
+        if (figurant.matchesInvalid) {
+            throw new NotCopyable("match не массив");
+        }
+        if (figurant.matchCount <= 0) {
+            return List.of();
+        }
+        List<MatchRow> rows = new ArrayList<>(figurant.matchCount);
+        for (int index = 0; index < figurant.matchCount; index++) {
+            MatchScan match = figurant.matches[index];
+            rows.add(MatchRow.builder()
+                .match(match.json)
+                .matchIndex(index)
+                .algorithm(limit("algorithm", match.algorithm != null ? match.algorithm : "unknown", ALGORITHM_LENGTH))
+                .matchValue(orEmpty(match.value))
+                .matchPaymentField(orEmpty(match.paymentField))
+                .matchPaymentValue(orEmpty(match.paymentValue))
+                .build());
+        }
+        return rows;
+    }
+
+    /**
+     * array_agg(DISTINCT listCode) — отсортированный массив без NULL
+     */
+    private static List<String> listCodes(KskOutputScan output) {
+        TreeSet<String> codes = new TreeSet<>();
+        for (int index = 0; index < output.figurantCount; index++) {
+            String code = output.figurants[index].listCode;
+            if (code == null) {
+                continue;
+            }
+            if (!SORTABLE_LIST_CODE.matcher(code).matches()) {
+                throw new NotCopyable("listCode вне [0-9A-Z]: порядок зависит от collation");
+            }
+            codes.add(code);
+        }
+        return new ArrayList<>(codes);
+    }
+
+    /**
+     * (paymentInfo->>'amount')::NUMERIC, сохранённый в TEXT
+     */
+    private static String amount(String amount, JsonNode paymentInfo) {
+        if (amount == null) {
+            return null;
+        }
+        JsonNode node = paymentInfo.get("amount");
+        if (node.isNumber()) {
+            return JsonbText.number(node);
+        }
+        if (!PLAIN_DECIMAL.matcher(amount).matches()) {
+            throw new NotCopyable("amount: " + amount);
+        }
+        return new BigDecimal(amount).toPlainString();
+    }
+
+    /**
+     * ::TIMESTAMP(3) — округление до миллисекунд половиной вверх
+     */
+    private static LocalDateTime timestamp(String field, String value) {
+        if (value == null) {
+            throw new NotCopyable(field + " отсутствует");
+        }
+        Matcher m = TIMESTAMP.matcher(value);
+        if (!m.matches()) {
+            throw new NotCopyable(field + ": " + value);
+        }
+        String fraction = m.group(7) == null ? "" : m.group(7);
+        long micros = fraction.isEmpty() ? 0 : Long.parseLong((fraction + "00000").substring(0, 6));
+        try {
+            return LocalDateTime.of(
+                    Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)), Integer.parseInt(m.group(3)),
+                    Integer.parseInt(m.group(4)), Integer.parseInt(m.group(5)), Integer.parseInt(m.group(6)))
+                .plusNanos((micros + 500) / 1000 * 1_000_000);
+        } catch (DateTimeException e) {
+            throw new NotCopyable(field + ": " + value);
+        }
+    }
+
+    private JsonNode object(String field, String json) {
+        if (json == null) {
+            throw new NotCopyable(field + " отсутствует");
+        }
+        JsonNode node = parse(field, json);
+        if (!node.isObject()) {
+            throw new NotCopyable(field + " не объект");
+        }
+        return node;
+    }
+
+    private void requireJson(String field, String json) {
+        if (json != null) {
+            parse(field, json);
+        }
+    }
+
+    private JsonNode parse(String field, String json) {
+        requireNoNul(field, json);
+        try {
+            return objectMapper.readTree(json);
+        } catch (JsonProcessingException e) {
+            throw new NotCopyable(field + ": " + e.getOriginalMessage());
+        }
+    }
+
+    /**
+     * jsonb не принимает U+0000 (\\u0000 в JSON) — такую запись пусть разбирает БД
+     */
+    private static void requireNoNul(String field, String json) {
+        if (json.contains("\\u0000")) {
+            throw new NotCopyable(field + " содержит \\u0000");
+        }
+    }
+
+    private static JsonNode child(JsonNode parent, String key) {
+        return parent != null && parent.isObject() ? parent.get(key) : null;
+    }
+
+    private static String orEmpty(JsonNode parent, String key) {
+        return orEmpty(JsonbText.text(parent, key));
+    }
+
+    private static String orEmpty(String value) {
+        return value != null ? value : "";
+    }
+
+    private static String required(String field, String value, int maxLength) {
+        if (value == null) {
+            throw new NotCopyable(field + " отсутствует (NOT NULL)");
+        }
+        return limit(field, value, maxLength);
+    }
+
+    private static String limit(String field, String value, int maxLength) {
+        if (value.codePointCount(0, value.length()) > maxLength) {
+            throw new NotCopyable(field + " длиннее VARCHAR(" + maxLength + ")");
+        }
+        return value;
+    }
+
+    /**
+     * TRIM(text) по умолчанию снимает только пробелы
+     */
+    private static String trimSpaces(String value) {
+        int start = 0;
+        int end = value.length();
+        while (start < end && value.charAt(start) == ' ') {
+            start++;
+        }
+        while (end > start && value.charAt(end - 1) == ' ') {
+            end--;
+        }
+        return value.substring(start, end);
+    }
+}
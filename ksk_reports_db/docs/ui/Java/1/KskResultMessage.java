@@ -0,0 +1,30 @@
+package ru.example.ksk.dto;
+
+/**
+ * Результат проверки КСК из Kafka — одна запись пакета put_ksk_result_batch
+ *
+ * Поля один в один с элементом p_batch: метки времени — текстом (как пришли),
+ * JSON — исходной строкой сообщения (в БД уходит без пересериализации).
+ *
+ * @param inputKafkaPartition null → -1 (как COALESCE в put_ksk_result_batch)
+ * @param inputKafkaOffset    null → -1
+ */
+public record KskResultMessage(
+    String inputTimestamp,
+    String outputTimestamp,
+    String inputJson,
+    String outputJson,
+    Integer inputKafkaPartition,
+    Long inputKafkaOffset,
+    String inputKafkaHeaders,
+    String outputKafkaHeaders
+) {
+
+    public int partitionOrUnknown() {
+        return inputKafkaPartition != null ? inputKafkaPartition : -1;
+    }
+
+    public long offsetOrUnknown() {
+        return inputKafkaOffset != null ? inputKafkaOffset : -1L;
+    }
+}
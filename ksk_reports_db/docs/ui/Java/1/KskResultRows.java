@@ -0,0 +1,110 @@
+package ru.example.ksk.dto;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Строки ksk_result → ksk_figurant → ksk_figurant_match одного сообщения, готовые к COPY
+ *
+ * ID не хранятся: KskResultCopyRepository выдаёт их из identity-последовательностей
+ * непосредственно перед COPY. date / timestamp фигурантов и совпадений — из output_timestamp результата.
+ */
+@Value
+@Builder
+public class KskResultRows {
+
+    ResultRow result;
+    List<FigurantRow> figurants;
+
+    public int matchCount() {
+        int count = 0;
+        for (FigurantRow figurant : figurants) {
+            count += figurant.getMatches().size();
+        }
+        return count;
+    }
+
+    /**
+     * ksk_result (без id и created_date)
+     */
+    @Value
+    @Builder
+    public static class ResultRow {
+        LocalDate date;
+        String corrId;
+        LocalDateTime inputTimestamp;
+        LocalDateTime outputTimestamp;
+        String inputJson;
+        String outputJson;
+        String paymentType;
+        String resolution;
+        String hasBypass;
+        List<String> listCodes;
+
+        String paymentId;
+        String paymentPurpose;
+        String accountDebet;
+        String accountCredit;
+        String amount;
+        String currency;
+        String currencyControl;
+
+        String payerInn;
+        String payerName;
+        String payerAccountNumber;
+        String payerDocumentType;
+        String payerBankName;
+        String payerBankAccountNumber;
+
+        String receiverAccountNumber;
+        String receiverName;
+        String receiverInn;
+        String receiverBankName;
+        String receiverBankAccountNumber;
+        String receiverDocumentType;
+
+        int inputKafkaPartition;
+        long inputKafkaOffset;
+        String inputKafkaHeaders;
+        String outputKafkaHeaders;
+    }
+
+    /**
+     * ksk_figurant (без id, source_id, date, timestamp)
+     */
+    @Value
+    @Builder
+    public static class FigurantRow {
+        String figurant;
+        int figurantIndex;
+        String resolution;
+        String isBypass;
+        String listCode;
+        String nameFigurant;
+        String presidentGroup;
+        boolean autoLogin;
+        boolean hasExclusion;
+        String exclusionPhrase;
+        String exclusionNameList;
+        String bypassName;
+        List<MatchRow> matches;
+    }
+
+    /**
+     * ksk_figurant_match (без id, figurant_id, date, timestamp)
+     */
+    @Value
+    @Builder
+    public static class MatchRow {
+        String match;
+        int matchIndex;
+        String algorithm;
+        String matchValue;
+        String matchPaymentField;
+        String matchPaymentValue;
+    }
+}
@@ -0,0 +1,22 @@
+package ru.example.ksk.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * Сообщение, не нашедшее пары по corrId, — строка ksk_result_error
+ *
+ * @param errorCode JOIN_TIMEOUT | JOIN_OVERFLOW | JOIN_NO_CORR_ID
+ * @param input     true — входящий платёж (пары output нет), false — результат без входящего
+ * @param json      тело сообщения (валидный JSON; нечитаемое тело — JSON-строкой)
+ */
+public record KskUnmatchedHalf(
+    String errorCode,
+    boolean input,
+    String corrId,
+    String json,
+    String headers,
+    int partition,
+    long offset,
+    LocalDateTime timestamp
+) {
+}
@@ -0,0 +1,178 @@
+package ru.example.ksk.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.example.ksk.repository.ReportJobRepository;
+import ru.example.ksk.repository.ReportJobRepository.JobHeader;
+import ru.example.ksk.repository.ReportSliceRepository;
+import ru.example.ksk.repository.ReportSliceRepository.Slice;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 🆕 Генерация агрегатных отчётов за длинный период по дневным срезам параллельно
+ *
+ * ЗАМЕНЯЕТ (для периода ≥ min-days): один вызов ksk_report_create_report —
+ * одно ядро БД последовательно сканирует все дневные партиции периода
+ *
+ * ЛОГИКА:
+ * 1. header(): report_code, период; отчёт не агрегатный (review) или период короче min-days —
+ *    как раньше, ReportJobRepository.run()
+ * 2. Период режется на срезы по slice-days суток; каждый срез —
+ *    ksk_report_{code}_partial(from, to) на своём соединении, не больше connections одновременно
+ *    на узел (общий пул для всех отчётов узла)
+ * 3. Срезы складываются по ключу группировки (Slice.add) — партиции по дням не пересекаются,
+ *    транзакция целиком лежит в одном дне, сумма равна расчёту за весь период
+ * 4. Шаги 2–3 выполняются внутри runPrepared(): после проверки владения и ksk_report_reuse — отчёт,
+ *    уже посчитанный с тем же отпечатком, копируется без срезов, а одинаковые отчёты не считаются
+ *    параллельно (блокировка отпечатка держится, пока идут срезы)
+ * 5. Та же транзакция: INSERT суммы (ORDER BY как в функции отчёта),
+ *    ksk_report_finish_prepared (done, row_count, лог операции; Excel-файл — ReportJobEngine)
+ *
+ * totals / list_totals*: дни с дневным rollup (ksk_rollup_day) срез отдаёт суммой rollup,
+ * сканом партиций считаются только дни без него — параллельность нужна в основном истории и figurants.
+ *
+ * Сбой любого среза — исключение в ReportJobEngine.runJob → release, как при сбое run().
+ * Каждый срез — свой снимок данных: для закрытых дней результат тот же, что у одного запроса;
+ * строки, дописанные в текущий день во время расчёта, попадают в отчёт по состоянию на момент его среза.
+ *
+ * НАСТРОЙКИ (ksk.reports.parallel.*):
+ * - enabled (true), connections (4), min-days (7), slice-days (1)
+ * Пул соединений БД (spring.datasource.hikari.maximum-pool-size) должен вмещать
+ * ksk.reports.jobs.concurrency + connections сверх нагрузки API.
+ *
+ * МЕТРИКИ:
+ * - ksk.report.parallel.slice{report_code} — расчёт одного среза
+ */
+@Slf4j
+@Component
+public class ParallelReportExecutor {
+
+    private final ReportJobRepository jobRepository;
+    private final ReportSliceRepository sliceRepository;
+    private final MeterRegistry meterRegistry;
+
+    private final boolean enabled;
+    private final int minDays;
+    private final int sliceDays;
+
+    private final ExecutorService slices;
+
+    public ParallelReportExecutor(ReportJobRepository jobRepository,
+                                  ReportSliceRepository sliceRepository,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${ksk.reports.parallel.enabled:true}") boolean enabled,
+                                  @Value("${ksk.reports.parallel.connections:4}") int connections,
+                                  @Value("${ksk.reports.parallel.min-days:7}") int minDays,
+                                  @Value("${ksk.reports.parallel.slice-days:1}") int sliceDays) {
+        if (connections < 1 || sliceDays < 1) {
+            throw new IllegalArgumentException("ksk.reports.parallel.connections и slice-days должны быть не меньше 1");
+        }
+        this.jobRepository = jobRepository;
+        this.sliceRepository = sliceRepository;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.minDays = minDays;
+        this.sliceDays = sliceDays;
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.slices = Executors.newFixedThreadPool(connections, runnable -> {
+            Thread thread = new Thread(runnable, "ksk-report-slice-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Сгенерировать захваченный отчёт
+     *
+     * @return как ReportJobRepository.run(): > 0 — done, < 0 — ID записи лога ошибки,
+     *         null — отчёт больше не принадлежит узлу
+     */
+    public Integer run(Long headerId, String workerId) {
+        if (!enabled) {
+            return jobRepository.run(headerId, workerId);
+        }
+        JobHeader header = jobRepository.header(headerId);
+        LocalDate start = header.startDate();
+        LocalDate end = effectiveEnd(header);
+        if (!ReportSliceRepository.supports(header.reportCode())
+            || end == null
+            || ChronoUnit.DAYS.between(start, end) < minDays) {
+            return jobRepository.run(headerId, workerId);
+        }
+
+        LocalDateTime beginTime = LocalDateTime.now();
+        return jobRepository.runPrepared(headerId, workerId, beginTime, () -> {
+            long startNanos = System.nanoTime();
+            Slice total = aggregate(header.reportCode(), start, end, header.parameters());
+            long aggregatedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            sliceRepository.insert(headerId, header.reportCode(), total);
+            log.info("Отчёт {} ({}): {} дн. по срезам {} дн., {} строк, агрегация {} мс",
+                    headerId, header.reportCode(), ChronoUnit.DAYS.between(start, end), sliceDays, total.size(), aggregatedMs);
+        });
+    }
+
+    /**
+     * Конец периода (исключая) по правилам ksk_report_create_report;
+     * null — период некорректен, ошибку запишет ksk_report_create_report
+     */
+    private static LocalDate effectiveEnd(JobHeader header) {
+        if (header.startDate() == null) {
+            return null;
+        }
+        if (header.endDate() == null || header.endDate().equals(header.startDate())) {
+            return header.startDate().plusDays(1);
+        }
+        return header.endDate().isBefore(header.startDate()) ? null : header.endDate();
+    }
+
+    private Slice aggregate(String reportCode, LocalDate start, LocalDate end, String parameters) {
+        Timer sliceTimer = Timer.builder("ksk.report.parallel.slice")
+            .description("Report day-slice aggregation duration")
+            .tag("report_code", reportCode)
+            .publishPercentiles(0.5, 0.95, 0.99)
+            .register(meterRegistry);
+
+        List<CompletableFuture<Slice>> futures = new ArrayList<>();
+        for (LocalDate from = start; from.isBefore(end); from = from.plusDays(sliceDays)) {
+            LocalDate sliceFrom = from;
+            LocalDate sliceTo = from.plusDays(sliceDays).isBefore(end) ? from.plusDays(sliceDays) : end;
+            futures.add(CompletableFuture.supplyAsync(
+                () -> sliceTimer.record(() -> sliceRepository.aggregate(reportCode, sliceFrom, sliceTo, parameters)),
+                slices
+            ));
+        }
+
+        try {
+            Slice total = futures.get(0).join();
+            for (int i = 1; i < futures.size(); i++) {
+                total.add(futures.get(i).join());
+            }
+            return total;
+        } catch (CompletionException e) {
+            // Оставшиеся срезы не нужны — не занимаем ими соединения
+            futures.forEach(future -> future.cancel(false));
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        slices.shutdownNow();
+    }
+}
@@ -0,0 +1,283 @@
+package ru.example.ksk.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.example.ksk.repository.PartitionRepository;
+import ru.example.ksk.repository.PartitionRepository.ArchivedPartition;
+import ru.example.ksk.repository.PartitionRepository.DefaultRows;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 🆕 Жизненный цикл дневных партиций ksk_result / ksk_figurant / ksk_figurant_match
+ *
+ * ЗАМЕНЯЕТ: pg_cron ksk_create_future_partitions (раз в сутки, пропуск — строки дня
+ * уходят в *_default и запросы перестают отсекать партиции) и ksk_drop_old_partitions
+ * (удаление без архива)
+ *
+ * ЛОГИКА (раз в check-interval, на всех узлах; DDL выполняет один — advisory lock):
+ * 1. Скорость загрузки: прирост n_tup_ins партиций ksk_result с прошлой проверки
+ *    против средней за вчера (ksk_rollup_result_daily / сутки). «Тихо» — текущая
+ *    не выше quiet-ratio × средней
+ * 2. Партиции по умолчанию: строки есть — log.error (алерт) и ksk_drain_default_partitions
+ *    по дням сразу, не дожидаясь тишины
+ * 3. Запас вперёд (ksk_partition_days_ahead) меньше days-ahead — партиции создаются
+ *    в тихую проверку; меньше min-days-ahead — сразу
+ * 4. archive-dir задан и тихо: выгрузка ранее отсоединённых таблиц (🔄 только отсоединённых
+ *    ksk_detach_day_partitions и старше retention-days — ручной DETACH не трогается), затем дни старше
+ *    retention-days — ksk_detach_day_partitions → COPY (FORMAT binary) в gzip-файл → DROP TABLE,
+ *    не больше archive-days-per-check дней за проверку
+ *
+ * CREATE / DETACH PARTITION берут ACCESS EXCLUSIVE на родительскую таблицу — поэтому
+ * в часы низкой загрузки и под lock-timeout: при таймауте шаг повторяется на следующей проверке.
+ * Пока запас партиций не меньше min-days-ahead, пиковая загрузка DDL не видит.
+ *
+ * Архив — построчный COPY binary (восстановление COPY FROM в таблицу той же структуры),
+ * а не колоночный формат: в проекте нет зависимости для Parquet / ORC.
+ *
+ * НАСТРОЙКИ (ksk.partitions.*):
+ * - enabled (true), check-interval (PT15M), days-ahead (14, не больше 30), min-days-ahead (3),
+ *   quiet-ratio (0.5), lock-timeout (PT2S)
+ * - retention-days (365), archive-dir (пусто — старые партиции не трогаются),
+ *   archive-days-per-check (1)
+ * pg_cron ksk_drop_old_partitions при включённом архиве должен быть снят (099_cron)
+ *
+ * МЕТРИКИ:
+ * - ksk.partition.default.rows{table} — строк в партиции по умолчанию (в норме 0, алерт > 0)
+ * - ksk.partition.days.ahead — дней вперёд, покрытых партициями (алерт < min-days-ahead)
+ * - ksk.partition.ingest.rate — строк ksk_result в секунду между проверками
+ * - ksk.partition.archive.duration — выгрузка и удаление одной таблицы
+ */
+@Slf4j
+@Component
+public class PartitionLifecycleManager {
+
+    private static final List<String> TABLES = List.of("ksk_result", "ksk_figurant", "ksk_figurant_match");
+
+    private final PartitionRepository partitionRepository;
+    private final MeterRegistry meterRegistry;
+
+    private final boolean enabled;
+    private final Duration checkInterval;
+    private final int daysAhead;
+    private final int minDaysAhead;
+    private final double quietRatio;
+    private final Duration lockTimeout;
+    private final int retentionDays;
+    private final Path archiveDir;
+    private final int archiveDaysPerCheck;
+
+    private final Map<String, Long> defaultRows = new ConcurrentHashMap<>();
+    private volatile int coveredDays = -1;
+    private volatile double ingestRate;
+
+    private long lastInsertedRows = -1;
+    private long lastCheckNanos;
+
+    private ScheduledExecutorService scheduler;
+
+    public PartitionLifecycleManager(PartitionRepository partitionRepository,
+                                     MeterRegistry meterRegistry,
+                                     @Value("${ksk.partitions.enabled:true}") boolean enabled,
+                                     @Value("${ksk.partitions.check-interval:PT15M}") Duration checkInterval,
+                                     @Value("${ksk.partitions.days-ahead:14}") int daysAhead,
+                                     @Value("${ksk.partitions.min-days-ahead:3}") int minDaysAhead,
+                                     @Value("${ksk.partitions.quiet-ratio:0.5}") double quietRatio,
+                                     @Value("${ksk.partitions.lock-timeout:PT2S}") Duration lockTimeout,
+                                     @Value("${ksk.partitions.retention-days:365}") int retentionDays,
+                                     @Value("${ksk.partitions.archive-dir:}") String archiveDir,
+                                     @Value("${ksk.partitions.archive-days-per-check:1}") int archiveDaysPerCheck) {
+        if (daysAhead < 1 || daysAhead > 30 || minDaysAhead < 1 || minDaysAhead > daysAhead) {
+            throw new IllegalArgumentException("ksk.partitions: нужно 1 ≤ min-days-ahead ≤ days-ahead ≤ 30");
+        }
+        this.partitionRepository = partitionRepository;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.checkInterval = checkInterval;
+        this.daysAhead = daysAhead;
+        this.minDaysAhead = minDaysAhead;
+        this.quietRatio = quietRatio;
+        this.lockTimeout = lockTimeout;
+        this.retentionDays = retentionDays;
+        this.archiveDir = archiveDir.isBlank() ? null : Path.of(archiveDir);
+        this.archiveDaysPerCheck = archiveDaysPerCheck;
+
+        for (String table : TABLES) {
+            defaultRows.put(table, 0L);
+            Gauge.builder("ksk.partition.default.rows", defaultRows, rows -> rows.getOrDefault(table, 0L))
+                .description("Rows in the default partition (no daily partition for their day)")
+                .tag("table", table)
+                .register(meterRegistry);
+        }
+        Gauge.builder("ksk.partition.days.ahead", this, manager -> manager.coveredDays)
+            .description("Consecutive days from today covered by daily partitions in all KSK tables")
+            .register(meterRegistry);
+        Gauge.builder("ksk.partition.ingest.rate", this, manager -> manager.ingestRate)
+            .description("Rows inserted into ksk_result per second since the previous check")
+            .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            log.info("Партиции: обслуживание отключено (ksk.partitions.enabled=false)");
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "ksk-partitions");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::check, 0, checkInterval.toMillis(), TimeUnit.MILLISECONDS);
+        log.info("Партиции: обслуживание запущено, запас {} дн. (не меньше {}), архив: {}",
+                daysAhead, minDaysAhead, archiveDir == null ? "отключён" : archiveDir);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Одна проверка; шаги независимы — сбой одного не отменяет остальные
+     */
+    private void check() {
+        boolean quiet = measureIngest();
+        try {
+            drainDefaults();
+        } catch (RuntimeException e) {
+            log.error("Партиции: ошибка переноса строк из партиций по умолчанию: {}", e.getMessage(), e);
+        }
+        try {
+            ensureAhead(quiet);
+        } catch (RuntimeException e) {
+            log.error("Партиции: ошибка создания партиций: {}", e.getMessage(), e);
+        }
+        if (archiveDir != null && quiet) {
+            try {
+                archiveExpired();
+            } catch (RuntimeException e) {
+                log.error("Партиции: ошибка архивации: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * @return true — загрузка сейчас не выше quiet-ratio × средней за вчера
+     *         (или вчера загрузки не было); false — пик или скорость ещё не измерена
+     */
+    private boolean measureIngest() {
+        try {
+            long inserted = partitionRepository.insertedResultRows();
+            long now = System.nanoTime();
+            long previous = lastInsertedRows;
+            double seconds = (now - lastCheckNanos) / 1e9;
+            lastInsertedRows = inserted;
+            lastCheckNanos = now;
+            // Первая проверка или сброс статистики / удаление партиций — скорость неизвестна
+            if (previous < 0 || inserted < previous) {
+                return false;
+            }
+            ingestRate = (inserted - previous) / seconds;
+
+            double averageRate = partitionRepository.dailyResultRows(LocalDate.now().minusDays(1)) / 86400.0;
+            return averageRate == 0 || ingestRate <= quietRatio * averageRate;
+        } catch (RuntimeException e) {
+            log.warn("Партиции: не удалось измерить скорость загрузки: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private void drainDefaults() {
+        List<DefaultRows> rows = partitionRepository.defaultRows();
+        TABLES.forEach(table -> defaultRows.put(table, 0L));
+        if (rows.isEmpty()) {
+            return;
+        }
+        TreeSet<LocalDate> days = new TreeSet<>();
+        for (DefaultRows row : rows) {
+            defaultRows.merge(row.tableName(), row.rowCount(), Long::sum);
+            days.add(row.day());
+        }
+        log.error("Партиции: строки в партициях по умолчанию {} за дни {} — не было дневных партиций, перенос",
+                defaultRows, days);
+
+        for (LocalDate day : days) {
+            Map<String, Long> moved = partitionRepository.drain(day, lockTimeout);
+            if (moved == null) {
+                return;
+            }
+            log.warn("Партиции: {} — перенесено из партиций по умолчанию {}", day, moved);
+        }
+        TABLES.forEach(table -> defaultRows.put(table, 0L));
+    }
+
+    private void ensureAhead(boolean quiet) {
+        coveredDays = partitionRepository.daysAhead();
+        if (coveredDays >= daysAhead) {
+            return;
+        }
+        boolean urgent = coveredDays < minDaysAhead;
+        if (!urgent && !quiet) {
+            log.debug("Партиции: запас {} дн. из {}, создание отложено до снижения загрузки ({} строк/с)",
+                    coveredDays, daysAhead, Math.round(ingestRate));
+            return;
+        }
+        String result = partitionRepository.createAhead(daysAhead, lockTimeout);
+        if (result == null) {
+            return;
+        }
+        int before = coveredDays;
+        coveredDays = partitionRepository.daysAhead();
+        if (coveredDays < daysAhead) {
+            log.warn("Партиции: запас {} → {} дн. из {}, повтор на следующей проверке: {}",
+                    before, coveredDays, daysAhead, result);
+        } else if (urgent) {
+            log.warn("Партиции: запас был {} дн. (меньше {}), создано до {} дн.", before, minDaysAhead, coveredDays);
+        } else {
+            log.info("Партиции: запас {} → {} дн.", before, coveredDays);
+        }
+    }
+
+    private void archiveExpired() {
+        // Отсоединённые при прошлых запусках, но не выгруженные (сбой выгрузки, остановка узла)
+        for (String partition : partitionRepository.detachedPartitions(retentionDays)) {
+            archive(partition);
+        }
+        for (LocalDate day : partitionRepository.expiredDays(retentionDays, archiveDaysPerCheck)) {
+            List<String> detached = partitionRepository.detach(day, lockTimeout);
+            if (detached == null) {
+                return;
+            }
+            detached.forEach(this::archive);
+        }
+    }
+
+    private void archive(String partition) {
+        Timer timer = Timer.builder("ksk.partition.archive.duration")
+            .description("Detached partition export and drop duration")
+            .register(meterRegistry);
+        ArchivedPartition archived = timer.record(() -> partitionRepository.archive(partition, archiveDir));
+        if (archived != null) {
+            log.info("Партиции: {} выгружена в {} ({} строк, {} байт) и удалена",
+                    archived.partition(), archived.file(), archived.rowCount(), archived.bytes());
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package ru.example.ksk.repository;
+
+import org.postgresql.PGConnection;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Array;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 🆕 Обслуживание дневных партиций ksk_result / ksk_figurant / ksk_figurant_match
+ * (PartitionLifecycleManager)
+ *
+ * ТРАНЗАКЦИИ:
+ * - Чтение состояния — без транзакции
+ * - createAhead / drain / detach / archive — каждая своя транзакция (REQUIRES_NEW)
+ *   под pg_try_advisory_xact_lock: на нескольких узлах API DDL выполняет один,
+ *   остальные получают null и пропускают шаг
+ * - DDL под SET LOCAL lock_timeout: CREATE / DETACH PARTITION ждут ACCESS EXCLUSIVE
+ *   на родительской таблице, а ожидающий в очереди блокирует и загрузку, —
+ *   при таймауте шаг откатывается и повторяется при следующей проверке
+ */
+@Repository
+public class PartitionRepository {
+
+    private static final String LOCK_SQL =
+        "SELECT pg_try_advisory_xact_lock(HASHTEXTEXTENDED('ksk_partition_manager', 0))";
+
+    private static final int COPY_BUFFER_SIZE = 256 * 1024;
+
+    // COMMENT ON TABLE, который ставит ksk_detach_day_partitions на отсоединённую таблицу
+    private static final String ARCHIVE_MARK = "ksk_detach_day_partitions: ожидает архивации";
+
+    /**
+     * Строки в партиции по умолчанию за день
+     */
+    public record DefaultRows(String tableName, LocalDate day, long rowCount) {
+    }
+
+    /**
+     * Выгруженная в архив таблица
+     *
+     * @param file файл .copy.gz (рядом — .columns со списком колонок для COPY FROM)
+     */
+    public record ArchivedPartition(String partition, Path file, long rowCount, long bytes) {
+    }
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final TransactionTemplate partitionTx;
+
+    public PartitionRepository(NamedParameterJdbcTemplate jdbcTemplate,
+                               PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.partitionTx = new TransactionTemplate(transactionManager);
+        this.partitionTx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Сколько дней подряд от сегодняшнего покрыто партициями во всех таблицах
+     * (ksk_partition_days_ahead; 0 — строки сегодняшнего дня уходят в *_default)
+     */
+    public int daysAhead() {
+        return jdbcTemplate.queryForObject(
+            "SELECT upoa_ksk_reports.ksk_partition_days_ahead()",
+            Map.of(),
+            Integer.class
+        );
+    }
+
+    /**
+     * Строки в партициях по умолчанию (ksk_partition_default_rows; в норме — пусто)
+     */
+    public List<DefaultRows> defaultRows() {
+        return jdbcTemplate.query(
+            "SELECT table_name, day, row_count FROM upoa_ksk_reports.ksk_partition_default_rows()",
+            Map.of(),
+            (rs, rowNum) -> new DefaultRows(
+                rs.getString("table_name"),
+                rs.getObject("day", LocalDate.class),
+                rs.getLong("row_count")
+            )
+        );
+    }
+
+    /**
+     * Всего вставлено строк в партиции ksk_result (pg_stat_user_tables.n_tup_ins) —
+     * скорость загрузки считает вызывающий по разнице между проверками
+     */
+    public long insertedResultRows() {
+        return jdbcTemplate.queryForObject(
+            "SELECT COALESCE(SUM(s.n_tup_ins), 0) " +
+            "FROM pg_inherits i " +
+            "JOIN pg_class parent ON parent.oid = i.inhparent " +
+            "JOIN pg_namespace n ON n.oid = parent.relnamespace " +
+            "JOIN pg_stat_user_tables s ON s.relid = i.inhrelid " +
+            "WHERE n.nspname = 'upoa_ksk_reports' AND parent.relname = 'ksk_result'",
+            Map.of(),
+            Long.class
+        );
+    }
+
+    /**
+     * Транзакций ksk_result за день по дневным счётчикам (ksk_rollup_result_daily)
+     */
+    public long dailyResultRows(LocalDate day) {
+        return jdbcTemplate.queryForObject(
+            "SELECT COALESCE(SUM(tx_count), 0) FROM upoa_ksk_reports.ksk_rollup_result_daily WHERE day = :day",
+            Map.of("day", day),
+            Long.class
+        );
+    }
+
+    /**
+     * Дни старше срока хранения, у которых ещё есть присоединённые партиции (самые старые первыми)
+     */
+    public List<LocalDate> expiredDays(int retentionDays, int limit) {
+        return jdbcTemplate.queryForList(
+            "SELECT DISTINCT p.partition_date::DATE AS day " +
+            "FROM UNNEST(ARRAY['ksk_result', 'ksk_figurant', 'ksk_figurant_match']) AS t(table_name) " +
+            "CROSS JOIN LATERAL upoa_ksk_reports.ksk_list_partitions(t.table_name) p " +
+            "WHERE p.partition_date IS NOT NULL " +
+            "  AND p.partition_date::DATE < CURRENT_DATE - :retentionDays " +
+            "ORDER BY day " +
+            "LIMIT :limit",
+            Map.of("retentionDays", retentionDays, "limit", limit),
+            LocalDate.class
+        );
+    }
+
+    /**
+     * Отсоединённые, но ещё не выгруженные таблицы дневных партиций
+     *
+     * 🔄 Только отсоединённые ksk_detach_day_partitions (метка ARCHIVE_MARK) и старше срока
+     * хранения по дате в имени: партиция, отсоединённая вручную, не выгружается и не удаляется
+     */
+    public List<String> detachedPartitions(int retentionDays) {
+        return jdbcTemplate.queryForList(
+            "SELECT c.relname " +
+            "FROM pg_class c " +
+            "JOIN pg_namespace n ON n.oid = c.relnamespace " +
+            "WHERE n.nspname = 'upoa_ksk_reports' " +
+            "  AND c.relkind = 'r' " +
+            "  AND NOT c.relispartition " +
+            "  AND c.relname ~ '^part_ksk_(result|figurant|figurant_match)_\\d{4}_\\d{2}_\\d{2}$' " +
+            "  AND OBJ_DESCRIPTION(c.oid, 'pg_class') = :mark " +
+            "  AND TO_DATE(RIGHT(c.relname, 10), 'YYYY_MM_DD') < CURRENT_DATE - :retentionDays " +
+            "ORDER BY c.relname",
+            Map.of("mark", ARCHIVE_MARK, "retentionDays", retentionDays),
+            String.class
+        );
+    }
+
+    /**
+     * Создать партиции на daysAhead дней от сегодняшнего (ksk_create_partitions_for_all_tables,
+     * существующие пропускаются)
+     *
+     * @return JSON результата по таблицам ("ERROR" — таблица не обработана, например lock_timeout),
+     *         null — партициями занимается другой узел
+     */
+    public String createAhead(int daysAhead, Duration lockTimeout) {
+        return partitionTx.execute(status -> {
+            if (!tryLock(lockTimeout)) {
+                return null;
+            }
+            return jdbcTemplate.queryForObject(
+                "SELECT upoa_ksk_reports.ksk_create_partitions_for_all_tables(CURRENT_DATE, :daysAhead)::TEXT",
+                Map.of("daysAhead", daysAhead),
+                String.class
+            );
+        });
+    }
+
+    /**
+     * Перенести строки дня из партиций по умолчанию (ksk_drain_default_partitions)
+     *
+     * @return перенесено строк по таблицам, null — партициями занимается другой узел
+     */
+    public Map<String, Long> drain(LocalDate day, Duration lockTimeout) {
+        return partitionTx.execute(status -> {
+            if (!tryLock(lockTimeout)) {
+                return null;
+            }
+            Map<String, Long> moved = new HashMap<>();
+            jdbcTemplate.query(
+                "SELECT table_name, row_count FROM upoa_ksk_reports.ksk_drain_default_partitions(:day)",
+                Map.of("day", day),
+                rs -> {
+                    moved.put(rs.getString("table_name"), rs.getLong("row_count"));
+                }
+            );
+            return moved;
+        });
+    }
+
+    /**
+     * Отсоединить партиции дня (ksk_detach_day_partitions)
+     *
+     * @return имена отсоединённых таблиц, null — партициями занимается другой узел
+     */
+    public List<String> detach(LocalDate day, Duration lockTimeout) {
+        return partitionTx.execute(status -> {
+            if (!tryLock(lockTimeout)) {
+                return null;
+            }
+            return jdbcTemplate.queryForObject(
+                "SELECT upoa_ksk_reports.ksk_detach_day_partitions(:day)",
+                Map.of("day", day),
+                (rs, rowNum) -> {
+                    Array array = rs.getArray(1);
+                    return Arrays.asList((String[]) array.getArray());
+                }
+            );
+        });
+    }
+
+    /**
+     * Выгрузить отсоединённую таблицу в archiveDir/{год}/{таблица}.copy.gz и удалить её
+     *
+     * Файл пишется во временный, сбрасывается на диск и переименовывается атомарно,
+     * 🔄 каталог сбрасывается на диск (иначе после сбоя ОС переименование могло потеряться) —
+     * DROP TABLE выполняется только после этого. Сбой до COMMIT оставляет таблицу на месте,
+     * следующий запуск выгрузит её заново (файл перезапишется).
+     * Восстановление: COPY ... (колонки из .columns) FROM PROGRAM 'gunzip -c ...' (FORMAT binary).
+     *
+     * @return выгруженная таблица, null — занято другим узлом, таблицы уже нет или она
+     *         отсоединена не ksk_detach_day_partitions
+     */
+    public ArchivedPartition archive(String partition, Path archiveDir) {
+        return partitionTx.execute(status -> {
+            if (!tryLock(null) || !exists(partition) || !marked(partition)) {
+                return null;
+            }
+            LocalDateTime beginTime = LocalDateTime.now();
+            String columns = jdbcTemplate.queryForObject(
+                "SELECT STRING_AGG(QUOTE_IDENT(attname), ', ' ORDER BY attnum) " +
+                "FROM pg_attribute " +
+                "WHERE attrelid = ('upoa_ksk_reports.' || QUOTE_IDENT(:partition))::REGCLASS " +
+                "  AND attnum > 0 AND NOT attisdropped",
+                Map.of("partition", partition),
+                String.class
+            );
+
+            Path dir = archiveDir.resolve(partition.substring(partition.length() - 10, partition.length() - 6));
+            Path file = dir.resolve(partition + ".copy.gz");
+            long rowCount;
+            long bytes;
+            try {
+                Files.createDirectories(dir);
+                Files.writeString(dir.resolve(partition + ".columns"), columns + "\n", StandardCharsets.UTF_8);
+                Path tmp = dir.resolve(partition + ".copy.gz.tmp");
+                rowCount = copyOut(
+                    "COPY upoa_ksk_reports." + partition + " (" + columns + ") TO STDOUT (FORMAT binary)", tmp);
+                bytes = Files.size(tmp);
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+                    channel.force(true);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Не удалось выгрузить " + partition + " в " + file, e);
+            }
+
+            jdbcTemplate.update("DROP TABLE upoa_ksk_reports." + partition, Map.of());
+            jdbcTemplate.queryForObject(
+                "SELECT upoa_ksk_reports.ksk_log_operation('archive_partition', 'Архивация партиции', " +
+                ":beginTime, 'success', :info, NULL)",
+                Map.of(
+                    "beginTime", beginTime,
+                    "info", String.format("%s: %d строк, %d байт (COPY binary, gzip) → %s",
+                                          partition, rowCount, bytes, file)
+                ),
+                Integer.class
+            );
+            return new ArchivedPartition(partition, file, rowCount, bytes);
+        });
+    }
+
+    private long copyOut(String sql, Path tmp) {
+        return jdbcTemplate.getJdbcTemplate().execute((ConnectionCallback<Long>) connection -> {
+            PGConnection pgConnection = connection.unwrap(PGConnection.class);
+            try {
+                long rowCount;
+                try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmp), COPY_BUFFER_SIZE)) {
+                    rowCount = pgConnection.getCopyAPI().copyOut(sql, out);
+                }
+                try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                    channel.force(true);
+                }
+                return rowCount;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private boolean exists(String partition) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+            "SELECT TO_REGCLASS('upoa_ksk_reports.' || QUOTE_IDENT(:partition)) IS NOT NULL",
+            Map.of("partition", partition),
+            Boolean.class
+        ));
+    }
+
+    private boolean marked(String partition) {
+        return ARCHIVE_MARK.equals(jdbcTemplate.queryForObject(
+            "SELECT OBJ_DESCRIPTION(TO_REGCLASS('upoa_ksk_reports.' || QUOTE_IDENT(:partition)), 'pg_class')",
+            Map.of("partition", partition),
+            String.class
+        ));
+    }
+
+    /**
+     * Блокировка обслуживания партиций до конца транзакции (без ожидания);
+     * lockTimeout — SET LOCAL lock_timeout для DDL этой транзакции
+     */
+    private boolean tryLock(Duration lockTimeout) {
+        if (!Boolean.TRUE.equals(jdbcTemplate.queryForObject(LOCK_SQL, Map.of(), Boolean.class))) {
+            return false;
+        }
+        if (lockTimeout != null) {
+            jdbcTemplate.queryForObject(
+                "SELECT SET_CONFIG('lock_timeout', :timeout, TRUE)",
+                Map.of("timeout", lockTimeout.toMillis() + "ms"),
+                String.class
+            );
+        }
+        return true;
+    }
+}
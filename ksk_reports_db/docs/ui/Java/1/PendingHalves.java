@@ -0,0 +1,372 @@
+package ru.example.ksk.service.ingest;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Половины сообщений одной темы, ждущие пары по corrId, — вне heap
+ *
+ * ХРАНЕНИЕ:
+ * - арена: один direct ByteBuffer, кольцевой журнал записей
+ *   [short len corrId][corrId][int len value][value][int len headers | -1][headers] (UTF-8)
+ * - слоты: параллельные примитивные массивы (позиция в арене, хэш, время, partition, offset, состояние)
+ * - индекс corrId → слот: открытая адресация (int[]), линейное пробирование, удаление сдвигом
+ *   назад (без tombstone); ключ сравнивается с байтами corrId в арене
+ * - очередь поступления (int[] по кругу): голова — самая старая запись
+ *
+ * На heap — только примитивные массивы фиксированного размера (≈ 65 байт на слот с индексом),
+ * объёмы тел сообщений в сборке мусора не участвуют.
+ *
+ * ОСВОБОЖДЕНИЕ: запись, нашедшая пару, помечается RELEASED и сразу пропадает из индекса;
+ * место в арене и слот возвращаются, когда голова очереди доходит до неё. Поэтому занятая
+ * арена ≈ поток сообщений за возраст самой старой ждущей записи — его ограничивает окно KskJoinEngine.
+ *
+ * Не потокобезопасен: доступ сериализует KskJoinEngine.
+ */
+final class PendingHalves {
+
+    /**
+     * Половина, извлечённая из буфера (копия на heap)
+     *
+     * @param arrivedAt время поступления в буфер по часам узла, epoch millis
+     */
+    record Half(String corrId, String value, String headers, int partition, long offset,
+                long timestamp, long arrivedAt) {
+    }
+
+    private static final byte FREE = 0;
+    private static final byte PENDING = 1;
+    private static final byte RELEASED = 2;
+    private static final int EMPTY = -1;
+
+    private final ByteBuffer arena;
+    private final int arenaCapacity;
+    private long writePosition;
+    private long reclaimPosition;
+
+    private final long[] slotPosition;
+    private final int[] slotLength;
+    private final long[] slotHash;
+    private final long[] slotArrivedAt;
+    private final long[] slotTimestamp;
+    private final int[] slotPartition;
+    private final long[] slotOffset;
+    private final byte[] slotState;
+    private final int[] freeSlots;
+    private int freeCount;
+
+    private final int[] fifo;
+    private int fifoHead;
+    private int fifoSize;
+
+    private final int[] table;
+    private final int mask;
+    private int pending;
+
+    PendingHalves(int maxSlots, int arenaCapacity) {
+        this.arena = ByteBuffer.allocateDirect(arenaCapacity);
+        this.arenaCapacity = arenaCapacity;
+
+        this.slotPosition = new long[maxSlots];
+        this.slotLength = new int[maxSlots];
+        this.slotHash = new long[maxSlots];
+        this.slotArrivedAt = new long[maxSlots];
+        this.slotTimestamp = new long[maxSlots];
+        this.slotPartition = new int[maxSlots];
+        this.slotOffset = new long[maxSlots];
+        this.slotState = new byte[maxSlots];
+        this.freeSlots = new int[maxSlots];
+        for (int i = 0; i < maxSlots; i++) {
+            freeSlots[i] = maxSlots - 1 - i;
+        }
+        this.freeCount = maxSlots;
+        this.fifo = new int[maxSlots];
+
+        int tableSize = Integer.highestOneBit(Math.max(2, maxSlots * 2 - 1)) << 1;
+        this.table = new int[tableSize];
+        this.mask = tableSize - 1;
+        Arrays.fill(table, EMPTY);
+    }
+
+    static long hash(byte[] key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h ^ (h >>> 32);
+    }
+
+    static byte[] utf8(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    static int recordLength(byte[] key, byte[] value, byte[] headers) {
+        return 2 + key.length + 4 + value.length + 4 + (headers == null ? 0 : headers.length);
+    }
+
+    int pending() {
+        return pending;
+    }
+
+    int capacity() {
+        return slotState.length;
+    }
+
+    long arenaUsed() {
+        return writePosition - reclaimPosition;
+    }
+
+    int arenaCapacity() {
+        return arenaCapacity;
+    }
+
+    /**
+     * @return время поступления самой старой ждущей записи или -1
+     */
+    long oldestArrivedAt() {
+        return fifoSize == 0 ? -1 : slotArrivedAt[fifo[fifoHead]];
+    }
+
+    /**
+     * Ждущие дольше порога. Очередь упорядочена по поступлению — счёт до первой свежей
+     */
+    int countArrivedBefore(long arrivedBefore) {
+        int count = 0;
+        for (int i = 0; i < fifoSize; i++) {
+            int slot = fifo[(fifoHead + i) % fifo.length];
+            if (slotArrivedAt[slot] >= arrivedBefore) {
+                break;
+            }
+            if (slotState[slot] == PENDING) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Запись такой длины вообще помещается в арену (иначе её не сохранить, даже вытеснив всё)
+     */
+    boolean fits(int length) {
+        return length <= arenaCapacity;
+    }
+
+    /**
+     * Есть свободный слот и место в арене без вытеснения
+     */
+    boolean canPut(int length) {
+        return freeCount > 0 && alignedStart(length) + length - reclaimPosition <= arenaCapacity;
+    }
+
+    boolean contains(byte[] key, long hash) {
+        return find(key, hash) != EMPTY;
+    }
+
+    void put(byte[] key, long hash, byte[] value, byte[] headers,
+             int partition, long offset, long timestamp, long arrivedAt) {
+        int length = recordLength(key, value, headers);
+        long start = alignedStart(length);
+        int physical = (int) (start % arenaCapacity);
+
+        arena.putShort(physical, (short) key.length);
+        arena.put(physical + 2, key);
+        int at = physical + 2 + key.length;
+        arena.putInt(at, value.length);
+        arena.put(at + 4, value);
+        at += 4 + value.length;
+        arena.putInt(at, headers == null ? -1 : headers.length);
+        if (headers != null) {
+            arena.put(at + 4, headers);
+        }
+        writePosition = start + length;
+
+        int slot = freeSlots[--freeCount];
+        slotPosition[slot] = start;
+        slotLength[slot] = length;
+        slotHash[slot] = hash;
+        slotArrivedAt[slot] = arrivedAt;
+        slotTimestamp[slot] = timestamp;
+        slotPartition[slot] = partition;
+        slotOffset[slot] = offset;
+        slotState[slot] = PENDING;
+        fifo[(fifoHead + fifoSize) % fifo.length] = slot;
+        fifoSize++;
+        pending++;
+
+        int i = (int) hash & mask;
+        while (table[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        table[i] = slot;
+    }
+
+    /**
+     * Забрать ждущую половину по corrId
+     *
+     * @return null — такой нет
+     */
+    Half take(byte[] key, long hash) {
+        int index = find(key, hash);
+        if (index == EMPTY) {
+            return null;
+        }
+        int slot = table[index];
+        Half half = read(slot);
+        removeIndex(index);
+        release(slot);
+        return half;
+    }
+
+    /**
+     * Вытеснить самую старую ждущую половину
+     *
+     * @return null — буфер пуст
+     */
+    Half evictOldest() {
+        if (fifoSize == 0) {
+            return null;
+        }
+        int slot = fifo[fifoHead];
+        Half half = read(slot);
+        removeIndex(indexOf(slot));
+        release(slot);
+        return half;
+    }
+
+    /**
+     * Вытеснить поступившие раньше arrivedBefore
+     */
+    void evictArrivedBefore(long arrivedBefore, List<Half> evicted) {
+        while (fifoSize > 0 && slotArrivedAt[fifo[fifoHead]] < arrivedBefore) {
+            evicted.add(evictOldest());
+        }
+    }
+
+    /**
+     * Обход ждущих половин: partition и offset (для вычисления подтверждаемых offset'ов)
+     */
+    void forEachPending(OffsetVisitor visitor) {
+        for (int i = 0; i < fifoSize; i++) {
+            int slot = fifo[(fifoHead + i) % fifo.length];
+            if (slotState[slot] == PENDING) {
+                visitor.visit(slotPartition[slot], slotOffset[slot]);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface OffsetVisitor {
+        void visit(int partition, long offset);
+    }
+
+    private long alignedStart(int length) {
+        int physical = (int) (writePosition % arenaCapacity);
+        return physical + length <= arenaCapacity ? writePosition : writePosition + (arenaCapacity - physical);
+    }
+
+    private void release(int slot) {
+        slotState[slot] = RELEASED;
+        pending--;
+        // Голова очереди — освобождаем подряд идущие отпущенные записи
+        while (fifoSize > 0 && slotState[fifo[fifoHead]] == RELEASED) {
+            int head = fifo[fifoHead];
+            reclaimPosition = slotPosition[head] + slotLength[head];
+            slotState[head] = FREE;
+            freeSlots[freeCount++] = head;
+            fifoHead = (fifoHead + 1) % fifo.length;
+            fifoSize--;
+        }
+        if (fifoSize == 0) {
+            // Живых записей нет — арена снова с начала, любая запись до arenaCapacity помещается
+            writePosition = 0;
+            reclaimPosition = 0;
+        }
+    }
+
+    private int find(byte[] key, long hash) {
+        int i = (int) hash & mask;
+        while (table[i] != EMPTY) {
+            int slot = table[i];
+            if (slotHash[slot] == hash && keyEquals(slot, key)) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return EMPTY;
+    }
+
+    private int indexOf(int slot) {
+        int i = (int) slotHash[slot] & mask;
+        while (table[i] != slot) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * Удаление из линейного пробирования со сдвигом назад: цепочки не рвутся, tombstone не нужны
+     */
+    private void removeIndex(int index) {
+        int hole = index;
+        table[hole] = EMPTY;
+        int next = hole;
+        while (true) {
+            next = (next + 1) & mask;
+            int slot = table[next];
+            if (slot == EMPTY) {
+                return;
+            }
+            int home = (int) slotHash[slot] & mask;
+            boolean movable = hole <= next
+                ? home <= hole || home > next
+                : home <= hole && home > next;
+            if (movable) {
+                table[hole] = slot;
+                table[next] = EMPTY;
+                hole = next;
+            }
+        }
+    }
+
+    private boolean keyEquals(int slot, byte[] key) {
+        int physical = (int) (slotPosition[slot] % arenaCapacity);
+        if (arena.getShort(physical) != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (arena.get(physical + 2 + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Half read(int slot) {
+        int at = (int) (slotPosition[slot] % arenaCapacity);
+        byte[] key = new byte[arena.getShort(at)];
+        arena.get(at + 2, key);
+        at += 2 + key.length;
+        byte[] value = new byte[arena.getInt(at)];
+        arena.get(at + 4, value);
+        at += 4 + value.length;
+        int headersLength = arena.getInt(at);
+        String headers = null;
+        if (headersLength >= 0) {
+            byte[] bytes = new byte[headersLength];
+            arena.get(at + 4, bytes);
+            headers = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return new Half(
+            new String(key, StandardCharsets.UTF_8),
+            new String(value, StandardCharsets.UTF_8),
+            headers,
+            slotPartition[slot],
+            slotOffset[slot],
+            slotTimestamp[slot],
+            slotArrivedAt[slot]
+        );
+    }
+}
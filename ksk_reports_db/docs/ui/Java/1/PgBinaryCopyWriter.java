@@ -0,0 +1,127 @@
+package ru.example.ksk.repository;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Запись потока COPY … FROM STDIN (FORMAT binary)
+ *
+ * ФОРМАТ: сигнатура PGCOPY + флаги + расширение заголовка, затем строки
+ * (int16 число полей, для каждого поля int32 длина или -1 для NULL и байты значения), в конце int16 -1.
+ * Значения — в формате *_recv сервера: int4/int8/bool как есть, date — дни от 2000-01-01,
+ * timestamp — микросекунды от 2000-01-01 00:00 (integer datetimes), text — UTF-8,
+ * jsonb — байт версии 1 + текст, text[] — заголовок массива с OID text (25).
+ *
+ * Поток не закрывается: finish() дописывает трейлер и сбрасывает буфер, COPY завершает вызывающий.
+ */
+final class PgBinaryCopyWriter {
+
+    private static final byte[] SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0};
+    private static final LocalDate PG_EPOCH_DATE = LocalDate.of(2000, 1, 1);
+    private static final LocalDateTime PG_EPOCH = PG_EPOCH_DATE.atStartOfDay();
+    private static final int TEXT_OID = 25;
+    private static final int JSONB_VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final DataOutputStream out;
+
+    PgBinaryCopyWriter(OutputStream target) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(target, BUFFER_SIZE));
+        out.write(SIGNATURE);
+        out.writeInt(0);
+        out.writeInt(0);
+    }
+
+    void startRow(int fields) throws IOException {
+        out.writeShort(fields);
+    }
+
+    void int4(int value) throws IOException {
+        out.writeInt(4);
+        out.writeInt(value);
+    }
+
+    void int8(long value) throws IOException {
+        out.writeInt(8);
+        out.writeLong(value);
+    }
+
+    void bool(boolean value) throws IOException {
+        out.writeInt(1);
+        out.writeByte(value ? 1 : 0);
+    }
+
+    void date(LocalDate value) throws IOException {
+        out.writeInt(4);
+        out.writeInt((int) ChronoUnit.DAYS.between(PG_EPOCH_DATE, value));
+    }
+
+    void timestamp(LocalDateTime value) throws IOException {
+        out.writeInt(8);
+        out.writeLong(ChronoUnit.MICROS.between(PG_EPOCH, value));
+    }
+
+    void text(String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    void jsonb(String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length + 1);
+        out.writeByte(JSONB_VERSION);
+        out.write(bytes);
+    }
+
+    /**
+     * Одномерный text[] без NULL-элементов; пустой список — пустой массив '{}'
+     */
+    void textArray(List<String> values) throws IOException {
+        if (values.isEmpty()) {
+            out.writeInt(12);
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeInt(TEXT_OID);
+            return;
+        }
+        List<byte[]> elements = new ArrayList<>(values.size());
+        int size = 20;
+        for (String value : values) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            elements.add(bytes);
+            size += 4 + bytes.length;
+        }
+        out.writeInt(size);
+        out.writeInt(1);
+        out.writeInt(0);
+        out.writeInt(TEXT_OID);
+        out.writeInt(elements.size());
+        out.writeInt(1);
+        for (byte[] bytes : elements) {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    void finish() throws IOException {
+        out.writeShort(-1);
+        out.flush();
+    }
+}
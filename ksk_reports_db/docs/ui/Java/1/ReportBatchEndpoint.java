@@ -0,0 +1,66 @@
+package ru.example.ksk.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.boot.actuate.endpoint.web.WebEndpointResponse;
+import org.springframework.http.HttpStatus;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import ru.example.ksk.service.ReportBatchOrchestrator.BatchSummary;
+
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 🆕 Actuator /actuator/reportbatch — догенерация системных отчётов за период
+ *
+ * ЗАМЕНЯЕТ: ручной SELECT generate_all_reports_for_period(from, to) и
+ * ksk_report_generate_all_xls_files_in_period(from, to)
+ *
+ * - GET  — идёт ли прогон на узле, итог последнего
+ * - POST {"from": "2026-09-01", "to": "2026-09-30", "regenerate": false} — запуск в фоне
+ *   (ReportBatchOrchestrator.submitPeriod); regenerate = true — готовые отчёты перегенерируются.
+ *   🔄 Прогон на узле уже идёт или ждёт — 409, to раньше from — 400
+ *
+ * Доступ — как у остальных служебных endpoint-ов (management.endpoints.web.exposure.include)
+ */
+@Component
+@Endpoint(id = "reportbatch")
+@RequiredArgsConstructor
+public class ReportBatchEndpoint {
+
+    private final ReportBatchOrchestrator orchestrator;
+
+    @ReadOperation
+    public Map<String, Object> state() {
+        Map<String, Object> state = new LinkedHashMap<>();
+        state.put("running", orchestrator.isRunning());
+        state.put("last", orchestrator.lastSummary());
+        return state;
+    }
+
+    @WriteOperation
+    public WebEndpointResponse<Map<String, Object>> run(LocalDate from, LocalDate to, @Nullable Boolean regenerate) {
+        boolean regenerateReports = Boolean.TRUE.equals(regenerate);
+        Map<String, Object> started = new LinkedHashMap<>();
+        try {
+            orchestrator.submitPeriod(from, to, regenerateReports);
+        } catch (IllegalStateException e) {
+            started.put("started", false);
+            started.put("error", e.getMessage());
+            return new WebEndpointResponse<>(started, HttpStatus.CONFLICT.value());
+        } catch (IllegalArgumentException e) {
+            started.put("started", false);
+            started.put("error", e.getMessage());
+            return new WebEndpointResponse<>(started, WebEndpointResponse.STATUS_BAD_REQUEST);
+        }
+        started.put("started", true);
+        started.put("from", from);
+        started.put("to", to);
+        started.put("regenerate", regenerateReports);
+        return new WebEndpointResponse<>(started);
+    }
+}
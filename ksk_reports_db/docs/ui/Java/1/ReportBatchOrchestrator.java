@@ -0,0 +1,571 @@
+package ru.example.ksk.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.example.ksk.repository.ReportBatchRepository;
+import ru.example.ksk.repository.ReportBatchRepository.Outcome;
+import ru.example.ksk.repository.ReportBatchRepository.ReportRun;
+import ru.example.ksk.repository.StoredReportFileRepository;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * 🆕 Пакетная генерация системных отчётов: ночной прогон и догенерация за период
+ *
+ * ЗАМЕНЯЕТ: pg_cron ksk_generate_system_reports, generate_all_reports_for_period и
+ * ksk_report_generate_all_xls_files_in_period — все отчёты всех дат одной сессией
+ * последовательно, месяц истории — часы
+ *
+ * ГРАФ ЗАДАЧ (report_code × дата):
+ *   rollup(день) ──▶ family(totals*, list_totals*, день) ──▶ file(totals) … file(list_totals_by_payment_type)
+ *                    report(figurants, review, день)     ──▶ file(…)
+ * - rollup — ksk_rollup_finalize_day для прошедшего дня, ещё не закрытого: потом totals /
+ *   list_totals берут счётчики из rollup вместо скана партиций. Сбой rollup отчёты не
+ *   отменяет — они посчитаются сканом
+ * - family — ✨ четыре отчёта семейства totals одной задачей (ReportBatchRepository.runReportFamily):
+ *   дни без rollup читаются одним проходом на все четыре, а не четырьмя сканами
+ * - report — ksk_run_report или ksk_regenerate_report (ReportBatchRepository.runReport)
+ * - file — Excel XML файл (StoredReportFileRepository.render); сбой отчёта файл отменяет
+ * Независимые задачи выполняются параллельно, не больше connections соединений БД
+ * одновременно: report, family и rollup занимают одно, file — два (COPY + курсор).
+ *
+ * ПОВТОРЫ: задача с ошибкой повторяется сама по себе через retry-delay, до max-attempts раз;
+ * остальной граф не ждёт. 🔄 BUSY (задачу держит другой узел или pg_cron) повторяется так же:
+ * следующая попытка находит готовый отчёт (SKIPPED) — и файл по нему строится. family
+ * повторяет только отчёты, которые были заняты.
+ *
+ * ЛОГ: каждая попытка каждой задачи — запись в ksk_system_operations_log
+ * (batch_rollup / batch_report / batch_file, begin_time и duration задачи), итог прогона — report_batch.
+ *
+ * ЗАПУСК:
+ * - ночной прогон в nightly-at за вчера: только отсутствующие отчёты (готовые пропускаются —
+ *   несколько узлов и страховочная задача pg_cron не строят их повторно)
+ * - runPeriod(from, to, regenerate) — догенерация / перегенерация истории (ReportBatchEndpoint)
+ * 🔄 Один прогон на узел одновременно: флаг running ставится при приёме запуска (и для
+ * submitPeriod, ждущего в очереди), второй запуск — IllegalStateException (endpoint — 409).
+ *
+ * НАСТРОЙКИ (ksk.reports.batch.*):
+ * - enabled (true), nightly-at (01:10 — после rollup 00:45 и партиций 01:00, до страховочной
+ *   задачи pg_cron 01:30), connections (4), max-attempts (3), retry-delay (PT1M),
+ *   render-file (true), shared-scan (true — family; false — отчёт семейства отдельной задачей report)
+ * Пул соединений БД должен вмещать connections сверх ksk.reports.jobs / ksk.reports.parallel
+ * и по два на каждую одновременную выгрузку xls, для которой файл ещё не построен (render).
+ *
+ * МЕТРИКИ:
+ * - ksk.report.batch.task{kind, outcome} — одна попытка задачи
+ * - ksk.report.batch.duration — прогон целиком
+ */
+@Slf4j
+@Component
+public class ReportBatchOrchestrator {
+
+    // Отчёты, которые считаются по rollup (022_ksk_report_rollup_aggregates.sql)
+    private static final Set<String> ROLLUP_REPORTS =
+        Set.of("totals", "totals_by_payment_type", "list_totals", "list_totals_by_payment_type");
+
+    private enum Kind {
+        ROLLUP("batch_rollup", 1),
+        REPORT("batch_report", 1),
+        FAMILY("batch_report", 1),
+        FILE("batch_file", 2);
+
+        private final String operationCode;
+        private final int connections;
+
+        Kind(String operationCode, int connections) {
+            this.operationCode = operationCode;
+            this.connections = connections;
+        }
+    }
+
+    /**
+     * Итог прогона
+     */
+    public record BatchSummary(LocalDate from, LocalDate to, int tasks, int done, int skipped,
+                               int busy, int failed, Duration elapsed) {
+    }
+
+    /**
+     * Узел графа. waiting — незавершённые предшественники; задача запускается на нуле.
+     * headerIds — готовые отчёты задачи report / family по коду (по ним строятся файлы)
+     */
+    private static final class Task {
+
+        private final Kind kind;
+        private final String reportCode;
+        private final LocalDate day;
+        private final List<Task> dependents = new ArrayList<>();
+        private final AtomicInteger waiting = new AtomicInteger();
+
+        private Task report;
+        private List<String> familyCodes = List.of();
+        private boolean familyBuilt;
+        private int attempts;
+        private volatile Map<String, Long> headerIds = Map.of();
+        private volatile boolean cancelled;
+
+        Task(Kind kind, String reportCode, LocalDate day) {
+            this.kind = kind;
+            this.reportCode = reportCode;
+            this.day = day;
+        }
+
+        void then(Task dependent) {
+            dependents.add(dependent);
+            dependent.waiting.incrementAndGet();
+        }
+
+        String describe() {
+            return kind.name().toLowerCase() + " " + reportCode + " за " + day;
+        }
+    }
+
+    /**
+     * Состояние одного прогона
+     */
+    private static final class Run {
+
+        private final boolean regenerate;
+        private final CountDownLatch remaining;
+        private final AtomicInteger done = new AtomicInteger();
+        private final AtomicInteger skipped = new AtomicInteger();
+        private final AtomicInteger busy = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+
+        Run(boolean regenerate, int tasks) {
+            this.regenerate = regenerate;
+            this.remaining = new CountDownLatch(tasks);
+        }
+    }
+
+    private final ReportBatchRepository batchRepository;
+    private final StoredReportFileRepository fileRepository;
+    private final MeterRegistry meterRegistry;
+
+    private final boolean enabled;
+    private final LocalTime nightlyAt;
+    private final int connections;
+    private final int maxAttempts;
+    private final Duration retryDelay;
+    private final boolean renderFile;
+    private final boolean sharedScan;
+
+    private final Semaphore budget;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private volatile BatchSummary lastSummary;
+
+    private ScheduledExecutorService tasks;
+    private ScheduledExecutorService control;
+
+    public ReportBatchOrchestrator(ReportBatchRepository batchRepository,
+                                   StoredReportFileRepository fileRepository,
+                                   MeterRegistry meterRegistry,
+                                   @Value("${ksk.reports.batch.enabled:true}") boolean enabled,
+                                   @Value("${ksk.reports.batch.nightly-at:01:10}") String nightlyAt,
+                                   @Value("${ksk.reports.batch.connections:4}") int connections,
+                                   @Value("${ksk.reports.batch.max-attempts:3}") int maxAttempts,
+                                   @Value("${ksk.reports.batch.retry-delay:PT1M}") Duration retryDelay,
+                                   @Value("${ksk.reports.batch.render-file:true}") boolean renderFile,
+                                   @Value("${ksk.reports.batch.shared-scan:true}") boolean sharedScan) {
+        if (connections < 1 || maxAttempts < 1) {
+            throw new IllegalArgumentException("ksk.reports.batch.connections и max-attempts должны быть не меньше 1");
+        }
+        this.batchRepository = batchRepository;
+        this.fileRepository = fileRepository;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.nightlyAt = LocalTime.parse(nightlyAt);
+        this.connections = connections;
+        this.maxAttempts = maxAttempts;
+        this.retryDelay = retryDelay;
+        this.renderFile = renderFile;
+        this.sharedScan = sharedScan;
+        this.budget = new Semaphore(connections);
+    }
+
+    @PostConstruct
+    public void start() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        tasks = Executors.newScheduledThreadPool(connections, task -> {
+            Thread thread = new Thread(task, "ksk-report-batch-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        control = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "ksk-report-batch-control");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (!enabled) {
+            log.info("Пакет отчётов: ночной прогон отключён (ksk.reports.batch.enabled=false)");
+            return;
+        }
+        scheduleNightly();
+        log.info("Пакет отчётов: ночной прогон в {}, connections = {}", nightlyAt, connections);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (control != null) {
+            control.shutdownNow();
+        }
+        if (tasks != null) {
+            tasks.shutdownNow();
+        }
+    }
+
+    /**
+     * Запустить прогон за период в фоне (ReportBatchEndpoint); ход — в логе и ksk_system_operations_log
+     *
+     * Прогон считается идущим с момента приема: пока он в очереди, второй запуск отклоняется
+     *
+     * @throws IllegalStateException на узле уже идёт или ждёт прогон
+     */
+    public CompletableFuture<BatchSummary> submitPeriod(LocalDate from, LocalDate to, boolean regenerate) {
+        checkPeriod(from, to);
+        acquire();
+        CompletableFuture<BatchSummary> future;
+        try {
+            future = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return execute(from, to, regenerate);
+                } finally {
+                    running.set(false);
+                }
+            }, control);
+        } catch (RuntimeException e) {
+            running.set(false);
+            throw e;
+        }
+        return future
+            .whenComplete((summary, e) -> {
+                if (e != null) {
+                    log.error("Пакет отчётов: прогон {} – {} не выполнен: {}", from, to, e.getMessage(), e);
+                }
+            });
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * Итог последнего прогона на узле (null — прогонов не было)
+     */
+    public BatchSummary lastSummary() {
+        return lastSummary;
+    }
+
+    /**
+     * Сгенерировать все системные отчёты за [from, to] (обе даты включительно)
+     *
+     * Блокирует вызывающий поток до конца прогона
+     *
+     * @param regenerate true — готовые отчёты перегенерируются, false — только отсутствующие
+     * @throws IllegalStateException на узле уже идёт прогон
+     */
+    public BatchSummary runPeriod(LocalDate from, LocalDate to, boolean regenerate) {
+        checkPeriod(from, to);
+        acquire();
+        try {
+            return execute(from, to, regenerate);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private static void checkPeriod(LocalDate from, LocalDate to) {
+        if (to.isBefore(from)) {
+            throw new IllegalArgumentException("Конец периода " + to + " раньше начала " + from);
+        }
+    }
+
+    private void acquire() {
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("Пакет отчётов: на узле уже идёт прогон");
+        }
+    }
+
+    /**
+     * Прогон под флагом running (его снимает вызывающий)
+     */
+    private BatchSummary execute(LocalDate from, LocalDate to, boolean regenerate) {
+        LocalDateTime beginTime = LocalDateTime.now();
+        long startNanos = System.nanoTime();
+        try {
+            List<Task> graph = buildGraph(from, to);
+            Run run = new Run(regenerate, graph.size());
+            log.info("Пакет отчётов: {} – {}, задач {}, regenerate = {}", from, to, graph.size(), regenerate);
+
+            graph.stream().filter(task -> task.waiting.get() == 0).forEach(task -> submit(run, task));
+            run.remaining.await();
+
+            Duration elapsed = Duration.ofNanos(System.nanoTime() - startNanos);
+            BatchSummary summary = new BatchSummary(from, to, graph.size(), run.done.get(), run.skipped.get(),
+                run.busy.get(), run.failed.get(), elapsed);
+            Timer.builder("ksk.report.batch.duration")
+                .description("System reports batch run duration")
+                .register(meterRegistry)
+                .record(elapsed);
+            log(summary, beginTime);
+            lastSummary = summary;
+            return summary;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Пакет отчётов: прогон прерван", e);
+        }
+    }
+
+    private void scheduleNightly() {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime next = now.toLocalDate().atTime(nightlyAt);
+        if (!next.isAfter(now)) {
+            next = next.plusDays(1);
+        }
+        control.schedule(() -> {
+            try {
+                LocalDate yesterday = LocalDate.now().minusDays(1);
+                BatchSummary summary = runPeriod(yesterday, yesterday, false);
+                log.info("Пакет отчётов: ночной прогон за {} — {}", yesterday, summary);
+            } catch (RuntimeException e) {
+                log.error("Пакет отчётов: ночной прогон не выполнен: {}", e.getMessage(), e);
+            } finally {
+                scheduleNightly();
+            }
+        }, Duration.between(now, next).toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Задачи в порядке дат: при нехватке соединений старые дни идут первыми
+     */
+    private List<Task> buildGraph(LocalDate from, LocalDate to) {
+        List<String> reportCodes = batchRepository.reportCodes();
+        List<String> familyCodes = reportCodes.stream().filter(ROLLUP_REPORTS::contains).toList();
+        LocalDate today = LocalDate.now();
+        List<Task> graph = new ArrayList<>();
+        for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) {
+            // Текущий день ещё не закрыт — его totals считаются по открытому rollup / сканом
+            Task rollup = null;
+            if (day.isBefore(today) && reportCodes.stream().anyMatch(ROLLUP_REPORTS::contains)) {
+                rollup = new Task(Kind.ROLLUP, "all", day);
+                graph.add(rollup);
+            }
+            Task family = null;
+            if (sharedScan && reportCodes.stream().anyMatch(ROLLUP_REPORTS::contains)) {
+                family = new Task(Kind.FAMILY, "totals*", day);
+                family.familyCodes = familyCodes;
+                if (rollup != null) {
+                    rollup.then(family);
+                }
+                graph.add(family);
+            }
+            for (String reportCode : reportCodes) {
+                Task report;
+                if (family != null && ROLLUP_REPORTS.contains(reportCode)) {
+                    report = family;
+                } else {
+                    report = new Task(Kind.REPORT, reportCode, day);
+                    if (rollup != null && ROLLUP_REPORTS.contains(reportCode)) {
+                        rollup.then(report);
+                    }
+                    graph.add(report);
+                }
+                if (renderFile) {
+                    Task file = new Task(Kind.FILE, reportCode, day);
+                    file.report = report;
+                    report.then(file);
+                    graph.add(file);
+                }
+            }
+        }
+        return graph;
+    }
+
+    private void submit(Run run, Task task) {
+        tasks.execute(() -> execute(run, task));
+    }
+
+    /**
+     * Одна попытка задачи в пределах бюджета соединений
+     */
+    private void execute(Run run, Task task) {
+        int permits = Math.min(task.kind.connections, connections);
+        LocalDateTime beginTime = LocalDateTime.now();
+        long startNanos = System.nanoTime();
+        Outcome outcome;
+        String info;
+        String error = null;
+        task.attempts++;
+
+        budget.acquireUninterruptibly(permits);
+        try {
+            switch (task.kind) {
+                case ROLLUP -> {
+                    outcome = batchRepository.finalizeRollupDay(task.day);
+                    info = "rollup дня " + task.day + ": " + outcome;
+                }
+                case REPORT -> {
+                    ReportRun result = batchRepository.runReport(task.reportCode, task.day, run.regenerate);
+                    task.headerIds = readyHeaders(Map.of(task.reportCode, result));
+                    outcome = result.outcome();
+                    info = result.message();
+                }
+                case FAMILY -> {
+                    Map<String, ReportRun> results =
+                        batchRepository.runReportFamily(task.familyCodes, task.day, run.regenerate);
+                    // Повтор — только занятые отчёты; готовые прошлых попыток остаются
+                    Map<String, Long> ready = new HashMap<>(task.headerIds);
+                    ready.putAll(readyHeaders(results));
+                    task.headerIds = ready;
+                    task.familyCodes = results.entrySet().stream()
+                        .filter(result -> result.getValue().outcome() == Outcome.BUSY)
+                        .map(Map.Entry::getKey)
+                        .toList();
+                    task.familyBuilt |= results.values().stream().anyMatch(result -> result.outcome() == Outcome.DONE);
+                    outcome = familyOutcome(results, task.familyBuilt);
+                    info = results.entrySet().stream()
+                        .map(result -> result.getKey() + ": " + result.getValue().message())
+                        .collect(Collectors.joining("; "));
+                }
+                default -> {
+                    Long headerId = task.report.headerIds.get(task.reportCode);
+                    fileRepository.render(headerId);
+                    outcome = Outcome.DONE;
+                    info = "файл отчёта " + headerId;
+                }
+            }
+        } catch (RuntimeException e) {
+            outcome = Outcome.ERROR;
+            info = task.describe();
+            error = e.getMessage();
+            log.warn("Пакет отчётов: {} — попытка {} из {}: {}", task.describe(), task.attempts, maxAttempts, e.getMessage());
+        } finally {
+            budget.release(permits);
+        }
+
+        Timer.builder("ksk.report.batch.task")
+            .description("System reports batch task attempt duration")
+            .tag("kind", task.kind.name().toLowerCase())
+            .tag("outcome", outcome.name().toLowerCase())
+            .publishPercentiles(0.5, 0.95, 0.99)
+            .register(meterRegistry)
+            .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        logTask(task, beginTime, outcome, info, error);
+
+        if ((outcome == Outcome.ERROR || outcome == Outcome.BUSY) && task.attempts < maxAttempts && !tasks.isShutdown()) {
+            tasks.schedule(() -> execute(run, task), retryDelay.toMillis(), TimeUnit.MILLISECONDS);
+            return;
+        }
+        complete(run, task, outcome);
+    }
+
+    /**
+     * Задача завершена окончательно: счётчики прогона и запуск готовых зависимых
+     */
+    private void complete(Run run, Task task, Outcome outcome) {
+        switch (outcome) {
+            case DONE -> run.done.incrementAndGet();
+            case SKIPPED -> run.skipped.incrementAndGet();
+            case BUSY -> run.busy.incrementAndGet();
+            default -> run.failed.incrementAndGet();
+        }
+        run.remaining.countDown();
+
+        // Файл строится по готовому отчёту — своему или уже существующему (SKIPPED)
+        for (Task dependent : task.dependents) {
+            if (dependent.kind == Kind.FILE && !task.headerIds.containsKey(dependent.reportCode)) {
+                dependent.cancelled = true;
+            }
+            if (dependent.waiting.decrementAndGet() == 0) {
+                if (dependent.cancelled) {
+                    complete(run, dependent, Outcome.SKIPPED);
+                } else {
+                    submit(run, dependent);
+                }
+            }
+        }
+    }
+
+    /**
+     * Отчёты, по которым можно строить файл: готовые (DONE) или уже существующие (SKIPPED)
+     */
+    private static Map<String, Long> readyHeaders(Map<String, ReportRun> results) {
+        Map<String, Long> ready = new HashMap<>();
+        results.forEach((reportCode, result) -> {
+            if (result.headerId() != null
+                && (result.outcome() == Outcome.DONE || result.outcome() == Outcome.SKIPPED)) {
+                ready.put(reportCode, result.headerId());
+            }
+        });
+        return ready;
+    }
+
+    /**
+     * Исход попытки family: 🔄 хоть один отчёт занят — BUSY (повтор по занятым), иначе DONE,
+     * если хоть один построен (в этой или прошлой попытке), иначе SKIPPED
+     */
+    private static Outcome familyOutcome(Map<String, ReportRun> results, boolean built) {
+        Set<Outcome> outcomes = results.values().stream().map(ReportRun::outcome).collect(Collectors.toSet());
+        if (outcomes.contains(Outcome.BUSY)) {
+            return Outcome.BUSY;
+        }
+        return built ? Outcome.DONE : Outcome.SKIPPED;
+    }
+
+    private void logTask(Task task, LocalDateTime beginTime, Outcome outcome, String info, String error) {
+        try {
+            batchRepository.logOperation(
+                task.kind.operationCode,
+                "Пакет отчётов: " + task.describe() + " (попытка " + task.attempts + ")",
+                beginTime,
+                outcome != Outcome.ERROR,
+                info,
+                error
+            );
+        } catch (RuntimeException e) {
+            log.warn("Пакет отчётов: не удалось записать лог задачи {}: {}", task.describe(), e.getMessage());
+        }
+    }
+
+    private void log(BatchSummary summary, LocalDateTime beginTime) {
+        String info = String.format("Задач: %d, готово: %d, пропущено: %d, занято другим узлом: %d, ошибок: %d, " +
+                "connections = %d, %d с", summary.tasks(), summary.done(), summary.skipped(), summary.busy(),
+            summary.failed(), connections, summary.elapsed().toSeconds());
+        log.info("Пакет отчётов: {} – {}: {}", summary.from(), summary.to(), info);
+        try {
+            batchRepository.logOperation(
+                "report_batch",
+                "Пакет системных отчётов " + summary.from() + " – " + summary.to(),
+                beginTime,
+                summary.failed() == 0,
+                info,
+                null
+            );
+        } catch (RuntimeException e) {
+            log.warn("Пакет отчётов: не удалось записать итог прогона: {}", e.getMessage());
+        }
+    }
+}
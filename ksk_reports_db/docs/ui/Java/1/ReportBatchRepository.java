@@ -0,0 +1,270 @@
+package ru.example.ksk.repository;
+
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+
+/**
+ * 🆕 Задачи пакетной генерации системных отчётов (ReportBatchOrchestrator)
+ *
+ * Каждая задача — своя транзакция (REQUIRES_NEW) на одном соединении пула.
+ * pg_try_advisory_xact_lock по ключу задачи: узлы API и страховочная задача pg_cron
+ * ksk_generate_system_reports не строят один отчёт одновременно — занятая задача
+ * возвращает BUSY, а не ждёт.
+ */
+@Repository
+public class ReportBatchRepository {
+
+    public enum Outcome {
+        DONE,
+        ERROR,
+        SKIPPED,
+        BUSY
+    }
+
+    /**
+     * Результат задачи отчёта
+     *
+     * @param headerId заголовок отчёта (null — BUSY)
+     */
+    public record ReportRun(Outcome outcome, Long headerId, String message) {
+    }
+
+    // Последний системный заголовок отчёта за день без параметров
+    private static final String SYSTEM_HEADER_SQL = "" +
+        "SELECT h.id, h.status, h.worker_id " +
+        "FROM upoa_ksk_reports.ksk_report_header h " +
+        "JOIN upoa_ksk_reports.ksk_report_orchestrator o ON o.id = h.orchestrator_id " +
+        "WHERE o.report_code = :reportCode " +
+        "  AND h.initiator = 'system' " +
+        "  AND h.start_date = :day " +
+        "  AND h.end_date = :nextDay " +
+        "  AND h.parameters IS NULL " +
+        "ORDER BY h.id DESC " +
+        "LIMIT 1 " +
+        "FOR UPDATE";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final TransactionTemplate taskTx;
+
+    public ReportBatchRepository(NamedParameterJdbcTemplate jdbcTemplate,
+                                 PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.taskTx = new TransactionTemplate(transactionManager);
+        this.taskTx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Коды отчётов оркестратора в порядке generate_all_reports_for_period
+     */
+    public List<String> reportCodes() {
+        return jdbcTemplate.queryForList(
+            "SELECT report_code FROM upoa_ksk_reports.ksk_report_orchestrator ORDER BY id",
+            Map.of(),
+            String.class
+        );
+    }
+
+    /**
+     * Закрыть день в rollup (ksk_rollup_finalize_day), если он ещё не final
+     *
+     * @return DONE — пересчитан, SKIPPED — уже закрыт, BUSY — закрывает другой узел
+     */
+    public Outcome finalizeRollupDay(LocalDate day) {
+        return taskTx.execute(status -> {
+            if (!tryLock("rollup", "all", day)) {
+                return Outcome.BUSY;
+            }
+            List<Integer> rows = jdbcTemplate.queryForList(
+                "SELECT upoa_ksk_reports.ksk_rollup_finalize_day(:day) " +
+                "WHERE NOT EXISTS (" +
+                "    SELECT 1 FROM upoa_ksk_reports.ksk_rollup_day WHERE day = :day AND state = 'final'" +
+                ")",
+                Map.of("day", day),
+                Integer.class
+            );
+            return rows.isEmpty() ? Outcome.SKIPPED : Outcome.DONE;
+        });
+    }
+
+    /**
+     * Системный отчёт за день: ksk_run_report (нового нет) или ksk_regenerate_report (есть)
+     *
+     * Существующий — последний заголовок initiator = 'system' за [day, day + 1) без параметров.
+     * Готовый (done) без regenerate пропускается. Перед перегенерацией удаляются его файлы
+     * ksk_report_files — иначе render отдал бы файл со старыми данными.
+     * Ошибку функции отчёта ksk_run_report / ksk_regenerate_report перехватывают сами
+     * (status = 'error', запись в ksk_system_operations_log) — результат берётся из заголовка.
+     */
+    public ReportRun runReport(String reportCode, LocalDate day, boolean regenerate) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("reportCode", reportCode);
+        params.put("day", day);
+        params.put("nextDay", day.plusDays(1));
+        return taskTx.execute(status -> {
+            if (!tryLock("report", reportCode, day)) {
+                return new ReportRun(Outcome.BUSY, null, "отчёт строит другой узел");
+            }
+            List<Map<String, Object>> existing = jdbcTemplate.queryForList(SYSTEM_HEADER_SQL, params);
+
+            Long headerId;
+            if (existing.isEmpty()) {
+                headerId = jdbcTemplate.queryForObject(
+                    "SELECT upoa_ksk_reports.ksk_run_report(:reportCode, 'system', NULL, :day)",
+                    params,
+                    Long.class
+                );
+            } else {
+                Map<String, Object> header = existing.get(0);
+                headerId = ((Number) header.get("id")).longValue();
+                if (header.get("worker_id") != null) {
+                    return new ReportRun(Outcome.BUSY, null, "отчёт " + headerId + " в очереди узла " + header.get("worker_id"));
+                }
+                if ("done".equals(header.get("status")) && !regenerate) {
+                    return new ReportRun(Outcome.SKIPPED, headerId, "отчёт " + headerId + " уже готов");
+                }
+                params.put("headerId", headerId);
+                jdbcTemplate.update(
+                    "DELETE FROM upoa_ksk_reports.ksk_report_files WHERE report_header_id = :headerId",
+                    params
+                );
+                jdbcTemplate.queryForObject(
+                    "SELECT upoa_ksk_reports.ksk_regenerate_report(CAST(:headerId AS INTEGER))",
+                    params,
+                    Integer.class
+                );
+            }
+
+            String headerStatus = jdbcTemplate.queryForObject(
+                "SELECT status FROM upoa_ksk_reports.ksk_report_header WHERE id = :headerId",
+                Map.of("headerId", headerId),
+                String.class
+            );
+            return "done".equals(headerStatus)
+                ? new ReportRun(Outcome.DONE, headerId, "отчёт " + headerId + " готов")
+                : new ReportRun(Outcome.ERROR, headerId, "отчёт " + headerId + " в статусе " + headerStatus);
+        });
+    }
+
+    /**
+     * ✨ Отчёты семейства totals за день одним проходом (ksk_report_totals_family)
+     *
+     * Заголовки — как в runReport: по отчёту своя блокировка и свой исход (BUSY / SKIPPED);
+     * отсутствующий регистрируется (ksk_report_register_header), существующий возвращается
+     * в in_progress, его файлы удаляются. Остальные строятся одним вызовом —
+     * ksk_result и ksk_figurant за день читаются один раз на все отчёты, а не на каждый.
+     * Ошибка откатывает все отчёты семейства (новые заголовки тоже) — повтор начинает заново.
+     *
+     * @return исход по каждому коду из reportCodes, в их порядке
+     */
+    public Map<String, ReportRun> runReportFamily(List<String> reportCodes, LocalDate day, boolean regenerate) {
+        return taskTx.execute(status -> {
+            Map<String, ReportRun> runs = new LinkedHashMap<>();
+            Map<String, Long> headerIds = new LinkedHashMap<>();
+            for (String reportCode : reportCodes) {
+                if (!tryLock("report", reportCode, day)) {
+                    runs.put(reportCode, new ReportRun(Outcome.BUSY, null, "отчёт строит другой узел"));
+                    continue;
+                }
+                Map<String, Object> params = new HashMap<>();
+                params.put("reportCode", reportCode);
+                params.put("day", day);
+                params.put("nextDay", day.plusDays(1));
+                List<Map<String, Object>> existing = jdbcTemplate.queryForList(SYSTEM_HEADER_SQL, params);
+
+                if (existing.isEmpty()) {
+                    headerIds.put(reportCode, jdbcTemplate.queryForObject(
+                        "SELECT upoa_ksk_reports.ksk_report_register_header(:reportCode, 'system', NULL, :day, :nextDay)",
+                        params,
+                        Long.class
+                    ));
+                    continue;
+                }
+                Map<String, Object> header = existing.get(0);
+                long headerId = ((Number) header.get("id")).longValue();
+                if (header.get("worker_id") != null) {
+                    runs.put(reportCode, new ReportRun(Outcome.BUSY, null, "отчёт " + headerId + " в очереди узла " + header.get("worker_id")));
+                    continue;
+                }
+                if ("done".equals(header.get("status")) && !regenerate) {
+                    runs.put(reportCode, new ReportRun(Outcome.SKIPPED, headerId, "отчёт " + headerId + " уже готов"));
+                    continue;
+                }
+                // Как ksk_regenerate_report; строки данных удалит ksk_report_totals_family
+                params.put("headerId", headerId);
+                jdbcTemplate.update(
+                    "DELETE FROM upoa_ksk_reports.ksk_report_files WHERE report_header_id = :headerId",
+                    params
+                );
+                jdbcTemplate.update(
+                    "UPDATE upoa_ksk_reports.ksk_report_header SET status = 'in_progress', row_count = NULL " +
+                    "WHERE id = :headerId",
+                    params
+                );
+                headerIds.put(reportCode, headerId);
+            }
+
+            if (!headerIds.isEmpty()) {
+                StringJoiner json = new StringJoiner(", ", "{", "}");
+                headerIds.forEach((reportCode, headerId) -> json.add("\"" + reportCode + "\": " + headerId));
+                Map<String, Object> params = new HashMap<>();
+                params.put("day", day);
+                params.put("nextDay", day.plusDays(1));
+                params.put("headerIds", json.toString());
+                jdbcTemplate.queryForObject(
+                    "SELECT upoa_ksk_reports.ksk_report_totals_family(:day, :nextDay, CAST(:headerIds AS JSONB))",
+                    params,
+                    Integer.class
+                );
+                headerIds.forEach((reportCode, headerId) -> runs.put(reportCode,
+                    new ReportRun(Outcome.DONE, headerId, "отчёт " + headerId + " готов (общим проходом)")));
+            }
+
+            Map<String, ReportRun> ordered = new LinkedHashMap<>();
+            reportCodes.forEach(reportCode -> ordered.put(reportCode, runs.get(reportCode)));
+            return ordered;
+        });
+    }
+
+    /**
+     * Запись в ksk_system_operations_log (ksk_log_operation) отдельной транзакцией —
+     * остаётся и после отката задачи
+     */
+    public void logOperation(String operationCode, String operationName, LocalDateTime beginTime,
+                             boolean success, String info, String errorMessage) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("operationCode", operationCode);
+        params.put("operationName", operationName);
+        params.put("beginTime", beginTime);
+        params.put("status", success ? "success" : "error");
+        params.put("info", info);
+        params.put("errorMessage", errorMessage);
+        taskTx.executeWithoutResult(status -> jdbcTemplate.queryForObject(
+            "SELECT upoa_ksk_reports.ksk_log_operation(" +
+            "    :operationCode, :operationName, CAST(:beginTime AS TIMESTAMP(3)), :status, :info, :errorMessage)",
+            params,
+            Integer.class
+        ));
+    }
+
+    /**
+     * Блокировка задачи до конца транзакции; ключ тот же в 099_cron (ksk_generate_system_reports)
+     */
+    private boolean tryLock(String kind, String reportCode, LocalDate day) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+            "SELECT pg_try_advisory_xact_lock(hashtext(:key))",
+            Map.of("key", "ksk_report_batch:" + kind + ":" + reportCode + ":" + day),
+            Boolean.class
+        ));
+    }
+}
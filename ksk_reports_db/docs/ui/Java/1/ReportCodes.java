@@ -0,0 +1,25 @@
+package ru.example.ksk.repository;
+
+import java.util.Set;
+
+/**
+ * Коды типов отчётов (ksk_report_orchestrator.report_code)
+ *
+ * Общий список для слоя репозиториев (тег report_code в ReportQueryMetrics) и сервисов
+ * (SpreadsheetLayout). Новый тип отчёта добавляется сюда и в SpreadsheetLayout.
+ */
+public final class ReportCodes {
+
+    public static final String TOTALS = "totals";
+    public static final String TOTALS_BY_PAYMENT_TYPE = "totals_by_payment_type";
+    public static final String LIST_TOTALS = "list_totals";
+    public static final String LIST_TOTALS_BY_PAYMENT_TYPE = "list_totals_by_payment_type";
+    public static final String FIGURANTS = "figurants";
+    public static final String REVIEW = "review";
+
+    public static final Set<String> ALL = Set.of(
+        TOTALS, TOTALS_BY_PAYMENT_TYPE, LIST_TOTALS, LIST_TOTALS_BY_PAYMENT_TYPE, FIGURANTS, REVIEW);
+
+    private ReportCodes() {
+    }
+}
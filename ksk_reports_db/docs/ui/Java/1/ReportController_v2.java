@@ -2,11 +2,20 @@ package ru.example.ksk.controller;
 
 import lombok.RequiredArgsConstructor;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import ru.example.ksk.dto.*;
+import ru.example.ksk.service.ReportResponseCache;
 import ru.example.ksk.service.ReportService;
+import ru.example.ksk.service.StoredFileExportService;
+import ru.example.ksk.service.StreamingExportService;
 
 import java.time.LocalDate;
 
@@ -30,6 +39,11 @@ import java.time.LocalDate;
 public class ReportController {
 
     private final ReportService reportService;
+    private final ReportResponseCache responseCache;
+
+    // Неизменяемый отчёт: браузер хранит ответ, но каждый раз перепроверяет ETag
+    // (перегенерация меняет finished_datetime → новый ETag)
+    private static final CacheControl IMMUTABLE_REPORT_CACHE = CacheControl.noCache().cachePrivate();
 
     // ========== СИСТЕМНЫЕ ОТЧЁТЫ ==========
 
@@ -58,28 +72,95 @@ public class ReportController {
      *   AND report_date = ? 
      *   AND initiator = 'system'
      * THEN SELECT * FROM ksk_report_totals_data WHERE report_header_id = header_id
+     * 
+     * ПАГИНАЦИЯ: cursor (из pagination.next_cursor) — keyset, иначе limit/offset
+     * countMode: none | cached (по умолчанию) | estimated — см. CountMode
+     * shape: rows (по умолчанию) | columnar — см. DataShape
+     * 
+     * 🆕 HTTP-КЭШИРОВАНИЕ (отчёт за прошедшую дату в статусе done):
+     * - ETag = "{report_header_id}-{finished_datetime}[-gzip]", Last-Modified = finished_datetime
+     * - If-None-Match / If-Modified-Since совпали → 304 без обращения к таблицам данных
+     * - Отчёты за последние дни + клиент принимает gzip → страница из ReportResponseCache
      */
     @GetMapping("/system/{reportCode}/data")
-    public ResponseEntity<ReportDataDto> getSystemReportData(
+    public ResponseEntity<?> getSystemReportData(
             @PathVariable String reportCode,
             @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
             @RequestParam(defaultValue = "100") Integer limit,
-            @RequestParam(defaultValue = "0") Integer offset) {
+            @RequestParam(defaultValue = "0") Integer offset,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "cached") String countMode,
+            @RequestParam(defaultValue = "rows") String shape,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            WebRequest request) {
         
-        return ResponseEntity.ok(reportService.getSystemReportData(reportCode, date, limit, offset));
+        ReportVersion version = reportService.getImmutableSystemReportVersion(reportCode, date);
+        if (version == null) {
+            return ResponseEntity.ok(reportService.getSystemReportData(reportCode, date, limit, offset, cursor, countMode, shape));
+        }
+
+        boolean gzip = ReportResponseCache.acceptsGzip(acceptEncoding) && ReportResponseCache.isCacheable(date);
+        if (request.checkNotModified(version.etag(gzip ? "gzip" : null), version.lastModified())) {
+            return null;
+        }
+
+        if (!gzip) {
+            return ResponseEntity.ok()
+                    .cacheControl(IMMUTABLE_REPORT_CACHE)
+                    .body(reportService.getSystemReportData(reportCode, date, limit, offset, cursor, countMode, shape));
+        }
+
+        byte[] body = responseCache.gzipJson(
+                version.cacheKey("data", String.valueOf(limit), String.valueOf(offset),
+                        String.valueOf(cursor), countMode, shape),
+                () -> reportService.getSystemReportData(reportCode, date, limit, offset, cursor, countMode, shape));
+        return ResponseEntity.ok()
+                .cacheControl(IMMUTABLE_REPORT_CACHE)
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                .body(body);
     }
 
     /**
      * GET /api/reports/system/{reportCode}/export/{format}
-     * Универсальный экспорт системных отчётов (xlsx, csv, pdf)
+     * Универсальный экспорт системных отчётов (xlsx, csv, pdf, xls)
+     * xlsx/csv отдаются потоково (StreamingResponseBody), без ограничения числа строк
+     * ETag / 304 и кэш готовых выгрузок — как для /data
+     * 🆕 xls — готовый файл из ksk_report_files (Range / 206, gzip, свой ETag)
      */
     @GetMapping("/system/{reportCode}/export/{format}")
-    public ResponseEntity<byte[]> exportSystemReport(
+    public ResponseEntity<StreamingResponseBody> exportSystemReport(
             @PathVariable String reportCode,
             @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
-            @PathVariable String format) {
+            @PathVariable String format,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            @RequestHeader HttpHeaders headers,
+            WebRequest request) {
         
-        return reportService.exportSystemReport(reportCode, date, format);
+        if (StoredFileExportService.supports(format)) {
+            return reportService.exportSystemReportFile(reportCode, date, headers);
+        }
+
+        ReportVersion version = reportService.getImmutableSystemReportVersion(reportCode, date);
+        if (version == null) {
+            return reportService.exportSystemReport(reportCode, date, format);
+        }
+
+        boolean acceptsGzip = ReportResponseCache.acceptsGzip(acceptEncoding);
+        String variant = format.toLowerCase()
+                + (StreamingExportService.gzipVariant(format, version, acceptsGzip) ? "-gzip" : "");
+        if (request.checkNotModified(version.etag(variant), version.lastModified())) {
+            return null;
+        }
+
+        ResponseEntity<StreamingResponseBody> response =
+                reportService.exportSystemReport(reportCode, date, format, version, acceptsGzip);
+        return ResponseEntity.status(response.getStatusCode())
+                .headers(response.getHeaders())
+                .cacheControl(IMMUTABLE_REPORT_CACHE)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                .body(response.getBody());
     }
 
     // ========== ПОЛЬЗОВАТЕЛЬСКИЕ ОТЧЁТЫ ==========
@@ -134,6 +215,20 @@ public class ReportController {
         return ResponseEntity.ok(reportService.getUserReportStatus(reportId, username));
     }
 
+    /**
+     * GET /api/reports/user/{reportId}/status/stream
+     * 🆕 Статус пользовательского отчёта потоком Server-Sent Events (вместо опроса /status)
+     * Событие status — при смене статуса и каждые 5 с с прогрессом / ETA; поток закрывается на done / error
+     */
+    @GetMapping(value = "/user/{reportId}/status/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamUserReportStatus(
+            @PathVariable Long reportId,
+            Authentication auth) {
+        
+        String username = auth.getName();
+        return reportService.subscribeUserReportStatus(reportId, username);
+    }
+
     /**
      * GET /api/reports/user/{reportId}/data
      * Получить данные готового пользовательского отчёта
@@ -143,10 +238,13 @@ public class ReportController {
             @PathVariable Long reportId,
             @RequestParam(defaultValue = "100") Integer limit,
             @RequestParam(defaultValue = "0") Integer offset,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "cached") String countMode,
+            @RequestParam(defaultValue = "rows") String shape,
             Authentication auth) {
         
         String username = auth.getName();
-        return ResponseEntity.ok(reportService.getUserReportData(reportId, limit, offset, username));
+        return ResponseEntity.ok(reportService.getUserReportData(reportId, limit, offset, cursor, countMode, shape, username));
     }
 
     /**
@@ -164,15 +262,20 @@ public class ReportController {
 
     /**
      * GET /api/reports/user/{reportId}/export/{format}
-     * Экспорт пользовательского отчёта
+     * Экспорт пользовательского отчёта (xlsx/csv — потоково)
+     * 🆕 xls — готовый файл из ksk_report_files (Range / 206, gzip)
      */
     @GetMapping("/user/{reportId}/export/{format}")
-    public ResponseEntity<byte[]> exportUserReport(
+    public ResponseEntity<StreamingResponseBody> exportUserReport(
             @PathVariable Long reportId,
             @PathVariable String format,
+            @RequestHeader HttpHeaders headers,
             Authentication auth) {
         
         String username = auth.getName();
+        if (StoredFileExportService.supports(format)) {
+            return reportService.exportUserReportFile(reportId, username, headers);
+        }
         return reportService.exportUserReport(reportId, format, username);
     }
 }
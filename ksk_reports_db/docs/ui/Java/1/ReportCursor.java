@@ -0,0 +1,50 @@
+package ru.example.ksk.repository;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Непрозрачный курсор keyset-пагинации данных отчёта.
+ *
+ * ФОРМАТ: base64url("{headerId}:{lastId}") без паддинга
+ * - headerId — защищает от подстановки курсора чужого отчёта
+ * - lastId   — id последней отданной строки ({table}.id)
+ *
+ * Клиент не разбирает курсор, а только передаёт pagination.next_cursor обратно
+ * в параметре cursor — формат можно менять без изменения API.
+ */
+final class ReportCursor {
+
+    private ReportCursor() {
+    }
+
+    static String encode(Long headerId, long lastId) {
+        String raw = headerId + ":" + lastId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * @return lastId из курсора
+     * @throws ResponseStatusException 400 — курсор повреждён или выдан для другого отчёта
+     */
+    static long decodeLastId(String cursor, Long headerId) {
+        long cursorHeaderId;
+        long lastId;
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII);
+            int separator = raw.indexOf(':');
+            cursorHeaderId = Long.parseLong(raw.substring(0, separator));
+            lastId = Long.parseLong(raw.substring(separator + 1));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            // NumberFormatException и ошибка base64 — тоже IllegalArgumentException
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Некорректный курсор: " + cursor, e);
+        }
+        if (cursorHeaderId != headerId) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Курсор выдан для другого отчёта: " + cursor);
+        }
+        return lastId;
+    }
+}
@@ -1,12 +1,17 @@
 package ru.example.ksk.repository;
 
 import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Repository;
 import ru.example.ksk.dto.*;
 
 import java.time.LocalDate;
 import java.util.*;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Репозиторий для получения данных отчётов (v2.0)
@@ -22,12 +27,38 @@ import java.util.*;
  * - Работает через единую точку входа (report_header)
  * - Автоматическое определение таблицы
  * - Поддержка versioning отчётов
+ * 
+ * 🆕 МЕТРИКИ: каждый запрос — ksk.report.query{report_code, kind} (см. ReportQueryMetrics)
  */
 @Repository
 @RequiredArgsConstructor
 public class ReportDataRepository {
 
     private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final ReviewSnapshotRepository reviewSnapshotRepository;
+    private final ReportMetadataCache metadataCache;
+    private final ReportQueryMetrics queryMetrics;
+
+    // Размер порции, которую драйвер PostgreSQL читает из серверного курсора при экспорте
+    private static final int EXPORT_FETCH_SIZE = 1000;
+
+    // Оценка числа строк из EXPLAIN (FORMAT JSON) для countMode=estimated
+    private static final Pattern PLAN_ROWS = Pattern.compile("\"Plan Rows\":\\s*(\\d+)");
+
+    // Колонки снимка review в порядке ksk_report_review(date) — ответ API совпадает с функцией
+    private static final String REVIEW_SNAPSHOT_COLUMNS = "" +
+        "corr_id, message_timestamp, " +
+        "algorithm, match_value, match_payment_field, match_payment_value, " +
+        "list_code, name_figurant, president_group, auto_login, has_exclusion, " +
+        "exclusion_phrase, exclusion_name_list, is_bypass, " +
+        "transaction_resolution, figurant_resolition, " +
+        "payment_id, payment_purpose, account_debet, account_credit, " +
+        "payer_inn, payer_name, payer_account_number, payer_document_type, " +
+        "payer_bank_name, payer_bank_account_number, " +
+        "receiver_account_number, receiver_name, receiver_inn, receiver_bank_name, " +
+        "receiver_bank_account_number, receiver_document_type, " +
+        "amount, currency, currency_control, " +
+        "match_id, figurant_id, transaction_id, rn";
 
     // Маппинг report_code → таблица данных
     private static final Map<String, String> REPORT_DATA_TABLES = Map.ofEntries(
@@ -58,84 +89,227 @@ public class ReportDataRepository {
      * 
      * НОВАЯ ЛОГИКА (v2.0):
      * SELECT * FROM {table} WHERE report_header_id = header_id
+     * 
+     * 🆕 KEYSET-ПАГИНАЦИЯ:
+     * - cursor == null → LIMIT/OFFSET (совместимость со старыми клиентами)
+     * - cursor != null → WHERE id > :lastId ORDER BY id LIMIT :limit (offset игнорируется)
+     *   Стоимость любой страницы = стоимость первой (seek по индексу (report_header_id, id))
+     * - В обоих режимах ORDER BY id — стабильный порядок; id отражает порядок вставки,
+     *   т.е. сортировку функции генерации (например, figurants: total DESC)
+     * - Читаем limit+1 строк: лишняя строка = признак has_more, в ответ не попадает
+     * - pagination.next_cursor заполняется, если есть следующая страница
+     * 
+     * 🆕 total_records (countMode):
+     * - Для done-отчётов берётся из ksk_report_header.row_count (заполняется при завершении)
+     * - COUNT(*) выполняется только если кэша нет и countMode = cached
+     * - countMode = none → total_records = null, has_more по-прежнему точный
+     * 
+     * 🆕 ТИПИЗИРОВАННОЕ ЧТЕНИЕ (ReportRowSetExtractor):
+     * - Вместо queryForList (LinkedCaseInsensitiveMap на строку) — Object[] на строку,
+     *   имена колонок один раз на страницу
+     * - shape = rows → data: [{...}]; shape = columnar → columns + rows (см. DataShape)
      */
-    public ReportDataDto getReportDataByHeaderId(Long headerIdLong, Integer limit, Integer offset) {
-        // ШАГ 1: Получаем report_code из report_header
-        String sqlGetReportCode = "" +
-            "SELECT " +
-            "    ro.report_code, " +
-            "    rh.created_datetime, " +
-            "    rh.start_date, " +
-            "    rh.end_date " +
-            "FROM upoa_ksk_reports.ksk_report_header rh " +
-            "JOIN upoa_ksk_reports.ksk_report_orchestrator ro ON rh.orchestrator_id = ro.id " +
-            "WHERE rh.id = :headerId";
-        
-        Map<String, Object> headerInfo;
-        try {
-            headerInfo = jdbcTemplate.queryForMap(
-                sqlGetReportCode,
-                Map.of("headerId", headerIdLong)
-            );
-        } catch (org.springframework.dao.EmptyResultDataAccessException e) {
-            throw new RuntimeException("Report header не найден: id=" + headerIdLong, e);
-        }
+    public ReportDataDto getReportDataByHeaderId(Long headerIdLong, Integer limit, Integer offset, String cursor,
+                                                 CountMode countMode, DataShape shape) {
+        // ШАГ 1: Получаем report_code из report_header (кэш для done-отчётов)
+        Map<String, Object> headerInfo = getHeaderInfo(headerIdLong);
         
         String reportCode = (String) headerInfo.get("report_code");
-        LocalDate reportDate = ((java.sql.Date) headerInfo.get("created_datetime")).toLocalDate();
+        // Дата отчёта = начало периода (для системных отчётов — день, за который он построен)
+        LocalDate reportDate = ((java.sql.Date) headerInfo.get("start_date")).toLocalDate();
+        Long cachedRowCount = (Long) headerInfo.get("row_count");
         
         // ШАГ 2: Определяем таблицу по report_code
         String dataTable = REPORT_DATA_TABLES.getOrDefault(reportCode, "ksk_report_totals_data");
         
-        // ШАГ 3: Специальный случай для review (функция вместо таблицы)
+        // ШАГ 3: Специальный случай для review (снимок или функция вместо таблицы)
         if ("review".equals(reportCode)) {
-            return getReviewReportDataByHeaderId(headerIdLong, limit, offset);
+            boolean snapshotReady = headerInfo.get("snapshot_datetime") != null;
+            return getReviewReportData(headerIdLong, reportDate, snapshotReady, cachedRowCount,
+                                       limit, offset, cursor, countMode, shape);
         }
         
-        // ШАГ 4: SELECT * FROM {table} WHERE report_header_id = ?
-        String sqlGetData = String.format(
-            "SELECT * FROM upoa_ksk_reports.%s " +
-            "WHERE report_header_id = :headerId " +
-            "LIMIT :limit OFFSET :offset",
-            dataTable
-        );
+        // ШАГ 4: SELECT * FROM {table} WHERE report_header_id = ? (keyset или offset)
+        Map<String, Object> params = new HashMap<>();
+        params.put("headerId", headerIdLong);
+        params.put("limit", limit + 1);
+
+        String sqlGetData;
+        if (cursor != null) {
+            sqlGetData = String.format(
+                "SELECT * FROM upoa_ksk_reports.%s " +
+                "WHERE report_header_id = :headerId " +
+                "  AND id > :lastId " +
+                "ORDER BY id " +
+                "LIMIT :limit",
+                dataTable
+            );
+            params.put("lastId", ReportCursor.decodeLastId(cursor, headerIdLong));
+        } else {
+            sqlGetData = String.format(
+                "SELECT * FROM upoa_ksk_reports.%s " +
+                "WHERE report_header_id = :headerId " +
+                "ORDER BY id " +
+                "LIMIT :limit OFFSET :offset",
+                dataTable
+            );
+            params.put("offset", offset);
+        }
         
-        Map<String, Object> params = Map.of(
-            "headerId", headerIdLong,
-            "limit", limit,
-            "offset", offset
+        ReportRowSet rows = queryMetrics.data(reportCode,
+            () -> jdbcTemplate.query(sqlGetData, params, new ReportRowSetExtractor(limit + 1)));
+        boolean hasMore = rows.size() > limit;
+        rows = rows.truncate(limit);
+        String nextCursor = hasMore && rows.size() > 0
+            ? ReportCursor.encode(headerIdLong, ((Number) rows.lastValue("id")).longValue())
+            : null;
+        Long totalRecords = resolveTotalRecords(
+            reportCode,
+            countMode,
+            cachedRowCount,
+            () -> getTotalRecordsByHeaderId(dataTable, headerIdLong),
+            () -> estimateTotalRecordsByHeaderId(dataTable, headerIdLong)
         );
         
-        List<Map<String, Object>> rows = jdbcTemplate.queryForList(sqlGetData, params);
-        long totalRecords = getTotalRecordsByHeaderId(dataTable, headerIdLong);
-        
-        return ReportDataDto.builder()
-                .reportCode(reportCode)
-                .date(reportDate)
-                .data(rows)
-                .pagination(PaginationDto.builder()
-                        .totalRecords(totalRecords)
-                        .limit(limit)
-                        .offset(offset)
-                        .hasMore(offset + limit < totalRecords)
-                        .build())
-                .build();
+        return toReportData(reportCode, reportDate, rows, shape,
+                PaginationDto.builder()
+                    .totalRecords(totalRecords)
+                    .countMode(countMode.name().toLowerCase())
+                    .limit(limit)
+                    .offset(offset)
+                    .hasMore(hasMore)
+                    .nextCursor(nextCursor)
+                    .build());
+    }
+
+    /**
+     * 🆕 ПОТОКОВОЕ ЧТЕНИЕ ВСЕХ СТРОК ОТЧЁТА ДЛЯ ЭКСПОРТА
+     * 
+     * В отличие от getReportDataByHeaderId() не материализует строки в List<Map>:
+     * ResultSet отдаётся extractor'у, который пишет строки прямо в HTTP-ответ.
+     * 
+     * ВАЖНО:
+     * - Без LIMIT/OFFSET — выгружается весь отчёт
+     * - fetchSize > 0 включает серверный курсор PostgreSQL только внутри транзакции
+     *   (autocommit = false), поэтому вызывать нужно из TransactionTemplate/@Transactional,
+     *   иначе драйвер молча прочитает весь результат в память
+     */
+    public <T> T streamReportDataByHeaderId(Long headerId, ResultSetExtractor<T> extractor) {
+        Map<String, Object> headerInfo = getHeaderInfo(headerId);
+
+        String reportCode = (String) headerInfo.get("report_code");
+
+        String sql;
+        Map<String, Object> params;
+        if ("review".equals(reportCode) && headerInfo.get("snapshot_datetime") != null) {
+            sql = "SELECT " + REVIEW_SNAPSHOT_COLUMNS + " " +
+                "FROM upoa_ksk_reports.ksk_report_review_snapshot " +
+                "WHERE report_header_id = :headerId " +
+                "ORDER BY row_num";
+            params = Map.of("headerId", headerId);
+        } else if ("review".equals(reportCode)) {
+            sql = "SELECT * FROM upoa_ksk_reports.ksk_report_review(:date)";
+            params = Map.of("date", ((java.sql.Date) headerInfo.get("start_date")).toLocalDate());
+        } else {
+            sql = String.format(
+                "SELECT * FROM upoa_ksk_reports.%s " +
+                "WHERE report_header_id = :headerId " +
+                "ORDER BY id",
+                REPORT_DATA_TABLES.getOrDefault(reportCode, "ksk_report_totals_data")
+            );
+            params = Map.of("headerId", headerId);
+        }
+
+        JdbcTemplate cursorTemplate = new JdbcTemplate(jdbcTemplate.getJdbcTemplate().getDataSource());
+        cursorTemplate.setFetchSize(EXPORT_FETCH_SIZE);
+        return queryMetrics.stream(reportCode,
+            () -> new NamedParameterJdbcTemplate(cursorTemplate).query(sql, params, extractor));
     }
 
     /**
-     * Получение данных отчёта "review" через функцию
+     * Получение данных отчёта "review"
      * 
-     * ЛОГИКА:
-     * 1. SELECT * FROM ksk_report_review(report_date)
-     * 2. Фильтруем по report_header_id (если необходимо)
+     * 🆕 ЛОГИКА (снимок ksk_report_review_snapshot):
+     * 1. Закрытый день (report_date < сегодня):
+     *    - снимка нет → строим один раз (ReviewSnapshotRepository, single-flight)
+     *    - страница = WHERE report_header_id = :headerId AND row_num > :from ORDER BY row_num
+     *      (диапазон по PK, функция не вызывается)
+     *    - row_num сквозной 1..N без пропусков, поэтому offset тоже seek: row_num > offset
+     *    - поддерживается cursor: lastId = row_num последней строки
+     * 2. Текущий день → SELECT * FROM ksk_report_review(report_date) LIMIT/OFFSET
+     *    (данные ещё меняются, снимок не строится; keyset не поддерживается)
+     * 
+     * total_records: кэш row_count → количество строк снимка → COUNT(*) по функции;
+     * countMode = estimated без кэша и снимка → null (у функции нет статистики)
+     */
+    private ReportDataDto getReviewReportData(Long headerId, LocalDate reportDate, boolean snapshotReady,
+                                              Long cachedRowCount, Integer limit, Integer offset,
+                                              String cursor, CountMode countMode, DataShape shape) {
+        if (!reportDate.isBefore(LocalDate.now())) {
+            return getLiveReviewReportData(reportDate, cachedRowCount, limit, offset, countMode, shape);
+        }
+
+        Long snapshotRowCount = cachedRowCount;
+        if (!snapshotReady) {
+            long built = reviewSnapshotRepository.buildSnapshot(headerId);
+            metadataCache.invalidateHeader(headerId);
+            if (snapshotRowCount == null) {
+                snapshotRowCount = built;
+            }
+        }
+
+        long fromRowNum = cursor != null ? ReportCursor.decodeLastId(cursor, headerId) : offset;
+        String sqlGetData = "" +
+            "SELECT " + REVIEW_SNAPSHOT_COLUMNS + " " +
+            "FROM upoa_ksk_reports.ksk_report_review_snapshot " +
+            "WHERE report_header_id = :headerId " +
+            "  AND row_num > :fromRowNum " +
+            "ORDER BY row_num " +
+            "LIMIT :limit";
+
+        Map<String, Object> params = Map.of(
+            "headerId", headerId,
+            "fromRowNum", fromRowNum,
+            "limit", limit + 1
+        );
+
+        ReportRowSet rows = queryMetrics.data("review",
+            () -> jdbcTemplate.query(sqlGetData, params, new ReportRowSetExtractor(limit + 1)));
+        boolean hasMore = rows.size() > limit;
+        rows = rows.truncate(limit);
+        String nextCursor = hasMore && rows.size() > 0
+            ? ReportCursor.encode(headerId, fromRowNum + rows.size())
+            : null;
+        Long totalRecords = resolveTotalRecords(
+            "review",
+            countMode,
+            snapshotRowCount,
+            () -> getReviewSnapshotTotalRecords(headerId),
+            () -> getReviewSnapshotTotalRecords(headerId)
+        );
+
+        return toReportData("review", reportDate, rows, shape,
+                PaginationDto.builder()
+                    .totalRecords(totalRecords)
+                    .countMode(countMode.name().toLowerCase())
+                    .limit(limit)
+                    .offset(offset)
+                    .hasMore(hasMore)
+                    .nextCursor(nextCursor)
+                    .build());
+    }
+
+    /**
+     * Получение данных отчёта "review" за текущий день через функцию
      * 
      * ПРИМЕЧАНИЕ: review возвращает результат функции, а не таблицы
+     * Keyset-пагинация не поддерживается (у результата функции нет id) — только LIMIT/OFFSET
+     * COUNT(*) по функции — повторный полный расчёт дня, поэтому кэш row_count здесь особенно важен;
+     * countMode = estimated без кэша → total_records = null (у функции нет статистики)
      */
-    private ReportDataDto getReviewReportDataByHeaderId(Long headerId, Integer limit, Integer offset) {
-        // Получаем дату из report_header
-        String sqlGetDate = "SELECT DATE(created_datetime) as report_date FROM upoa_ksk_reports.ksk_report_header WHERE id = :headerId";
-        LocalDate reportDate = jdbcTemplate.queryForObject(sqlGetDate, Map.of("headerId", headerId), LocalDate.class);
-        
+    private ReportDataDto getLiveReviewReportData(LocalDate reportDate, Long cachedRowCount,
+                                                  Integer limit, Integer offset, CountMode countMode,
+                                                  DataShape shape) {
         // Вызываем функцию review
         String sqlGetData = "" +
             "SELECT * FROM upoa_ksk_reports.ksk_report_review(:date) " +
@@ -143,24 +317,130 @@ public class ReportDataRepository {
         
         Map<String, Object> params = Map.of(
             "date", reportDate,
-            "limit", limit,
+            "limit", limit + 1,
             "offset", offset
         );
         
-        List<Map<String, Object>> rows = jdbcTemplate.queryForList(sqlGetData, params);
-        long totalRecords = getReviewReportTotalRecords(reportDate);
+        ReportRowSet rows = queryMetrics.data("review",
+            () -> jdbcTemplate.query(sqlGetData, params, new ReportRowSetExtractor(limit + 1)));
+        boolean hasMore = rows.size() > limit;
+        rows = rows.truncate(limit);
+        Long totalRecords = resolveTotalRecords(
+            "review",
+            countMode,
+            cachedRowCount,
+            () -> getReviewReportTotalRecords(reportDate),
+            () -> null
+        );
         
-        return ReportDataDto.builder()
-                .reportCode("review")
+        return toReportData("review", reportDate, rows, shape,
+                PaginationDto.builder()
+                    .totalRecords(totalRecords)
+                    .countMode(countMode.name().toLowerCase())
+                    .limit(limit)
+                    .offset(offset)
+                    .hasMore(hasMore)
+                    .build());
+    }
+
+    /**
+     * 🆕 Версия отчёта для HTTP-кэширования (ETag / Last-Modified)
+     * 
+     * Берётся из кэша заголовков — 304 Not Modified не обращается к таблицам данных
+     * 
+     * @return null, если отчёт ещё не завершён (status != done)
+     */
+    public ReportVersion getReportVersion(Long headerId) {
+        Map<String, Object> headerInfo = getHeaderInfo(headerId);
+        if (!"done".equals(headerInfo.get("status")) || headerInfo.get("finished_datetime") == null) {
+            return null;
+        }
+        return new ReportVersion(
+            headerId,
+            ((java.sql.Timestamp) headerInfo.get("finished_datetime")).toLocalDateTime(),
+            ((java.sql.Date) headerInfo.get("start_date")).toLocalDate()
+        );
+    }
+
+    /**
+     * Заголовок отчёта: report_code, даты, статус, row_count, snapshot_datetime (review)
+     * 
+     * Через ReportMetadataCache: done-заголовок читается из БД один раз,
+     * сброс — по событию ksk_report_header_changed или после построения снимка review
+     */
+    private Map<String, Object> getHeaderInfo(Long headerId) {
+        return metadataCache.header(headerId, this::loadHeaderInfo);
+    }
+
+    private Map<String, Object> loadHeaderInfo(Long headerId) {
+        String sql = "" +
+            "SELECT " +
+            "    ro.report_code, " +
+            "    rh.created_datetime, " +
+            "    rh.start_date, " +
+            "    rh.end_date, " +
+            "    rh.status, " +
+            "    rh.finished_datetime, " +
+            "    rh.row_count, " +
+            "    rd.snapshot_datetime " +
+            "FROM upoa_ksk_reports.ksk_report_header rh " +
+            "JOIN upoa_ksk_reports.ksk_report_orchestrator ro ON rh.orchestrator_id = ro.id " +
+            "LEFT JOIN upoa_ksk_reports.ksk_report_review_data rd ON rd.report_header_id = rh.id " +
+            "WHERE rh.id = :headerId";
+
+        try {
+            return queryMetrics.lookup(ReportQueryMetrics.ALL_REPORTS,
+                () -> jdbcTemplate.queryForMap(sql, Map.of("headerId", headerId)));
+        } catch (org.springframework.dao.EmptyResultDataAccessException e) {
+            throw new RuntimeException("Report header не найден: id=" + headerId, e);
+        }
+    }
+
+    /**
+     * Сборка ответа в нужной форме (DataShape)
+     */
+    private static ReportDataDto toReportData(String reportCode, LocalDate reportDate, ReportRowSet rows,
+                                              DataShape shape, PaginationDto pagination) {
+        ReportDataDto.ReportDataDtoBuilder builder = ReportDataDto.builder()
+                .reportCode(reportCode)
                 .date(reportDate)
-                .data(rows)
-                .pagination(PaginationDto.builder()
-                        .totalRecords(totalRecords)
-                        .limit(limit)
-                        .offset(offset)
-                        .hasMore(offset + limit < totalRecords)
-                        .build())
-                .build();
+                .pagination(pagination);
+        if (shape == DataShape.COLUMNAR) {
+            builder.columns(rows.columns()).rows(rows.rows());
+        } else {
+            builder.data(rows.asMaps());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Выбор источника total_records по countMode
+     * 
+     * Порядок: none → null; кэш row_count (done-отчёт) → он; иначе COUNT(*) или оценка
+     * (запрос — ksk.report.query{kind=count})
+     */
+    private Long resolveTotalRecords(String reportCode, CountMode countMode, Long cachedRowCount,
+                                     Supplier<Long> exactCount, Supplier<Long> estimatedCount) {
+        if (countMode == CountMode.NONE) {
+            return null;
+        }
+        if (cachedRowCount != null) {
+            return cachedRowCount;
+        }
+        return queryMetrics.count(reportCode, countMode == CountMode.ESTIMATED ? estimatedCount : exactCount);
+    }
+
+    /**
+     * Оценка количества записей по статистике планировщика (без чтения таблицы)
+     */
+    private Long estimateTotalRecordsByHeaderId(String table, Long headerId) {
+        String sql = String.format(
+            "EXPLAIN (FORMAT JSON) SELECT 1 FROM upoa_ksk_reports.%s WHERE report_header_id = :headerId",
+            table
+        );
+        String plan = jdbcTemplate.queryForObject(sql, Map.of("headerId", headerId), String.class);
+        Matcher matcher = PLAN_ROWS.matcher(plan);
+        return matcher.find() ? Long.valueOf(matcher.group(1)) : null;
     }
 
     /**
@@ -174,6 +454,16 @@ public class ReportDataRepository {
         return jdbcTemplate.queryForObject(sql, Map.of("headerId", headerId), Long.class);
     }
 
+    /**
+     * Количество строк снимка review (ksk_report_review_data.snapshot_row_count)
+     */
+    private Long getReviewSnapshotTotalRecords(Long headerId) {
+        String sql = "" +
+            "SELECT snapshot_row_count FROM upoa_ksk_reports.ksk_report_review_data " +
+            "WHERE report_header_id = :headerId";
+        return jdbcTemplate.queryForObject(sql, Map.of("headerId", headerId), Long.class);
+    }
+
     /**
      * Получить количество записей для review отчёта
      */
@@ -0,0 +1,149 @@
+package ru.example.ksk.repository;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Подписка на канал ksk_report_header_changed (LISTEN/NOTIFY)
+ *
+ * Событие публикует триггер trg_ksk_report_header_notify при смене статуса
+ * или удалении заголовка. Listener переводит его в ReportMetadataCache.onHeaderChanged().
+ * 🆕 '{id}:created' (ksk_report_enqueue) публикуется как ReportJobRepository.JobQueued —
+ * ReportJobEngine всех узлов забирает новый отчёт сразу, не дожидаясь опроса очереди.
+ * 🆕 Каждое событие публикуется как HeaderChanged — ReportStatusBroadcaster рассылает статус
+ * подписчикам SSE (одна подписка LISTEN на узел вместо опроса /status каждым клиентом).
+ *
+ * ЛОГИКА:
+ * - Отдельное долгоживущее соединение (не из транзакций запросов), один daemon-поток
+ * - getNotifications(timeout) — ожидание без busy-loop
+ * - Разрыв соединения → полный сброс кэша заголовков (события могли потеряться),
+ *   повторное подключение через RECONNECT_DELAY_MS
+ * - 🔄 Ошибка обработчика события (кэш, ReportStatusBroadcaster, ReportJobEngine) логируется
+ *   по одному payload и не считается разрывом: пачка уведомлений обрабатывается до конца
+ * - 🔄 Перед возвратом соединения в пул — UNLISTEN *: иначе уведомления копились бы
+ *   на соединении, которое потом берут транзакции запросов
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ReportHeaderChangeListener {
+
+    static final String CHANNEL = "ksk_report_header_changed";
+
+    /**
+     * Смена статуса заголовка
+     *
+     * @param status created | in_progress | done | error | deleted
+     */
+    public record HeaderChanged(Long headerId, String status) {
+    }
+
+    private static final int POLL_TIMEOUT_MS = 5_000;
+    private static final long RECONNECT_DELAY_MS = 10_000;
+
+    private final DataSource dataSource;
+    private final ReportMetadataCache metadataCache;
+    private final ApplicationEventPublisher eventPublisher;
+
+    private volatile boolean running;
+    private Thread worker;
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        worker = new Thread(this::listenLoop, "ksk-report-header-listener");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+        }
+    }
+
+    private void listenLoop() {
+        while (running) {
+            try (Connection connection = dataSource.getConnection()) {
+                connection.setAutoCommit(true);
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + CHANNEL);
+                }
+                try {
+                    PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                    log.info("LISTEN {} — подписка активна", CHANNEL);
+
+                    while (running) {
+                        PGNotification[] notifications = pgConnection.getNotifications(POLL_TIMEOUT_MS);
+                        if (notifications == null) {
+                            continue;
+                        }
+                        for (PGNotification notification : notifications) {
+                            dispatch(notification.getParameter());
+                        }
+                    }
+                } finally {
+                    unlisten(connection);
+                }
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                log.warn("LISTEN {} — соединение потеряно, кэш заголовков сброшен: {}", CHANNEL, e.getMessage());
+                metadataCache.invalidateHeaders();
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private static void unlisten(Connection connection) {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("UNLISTEN *");
+        } catch (SQLException e) {
+            // Разорванное соединение пул всё равно выбросит
+            log.debug("UNLISTEN {}: {}", CHANNEL, e.getMessage());
+        }
+    }
+
+    /**
+     * payload: '{id}:{status}' | '{id}:deleted'
+     */
+    private void dispatch(String payload) {
+        int separator = payload.indexOf(':');
+        if (separator < 0) {
+            log.warn("{}: некорректный payload '{}'", CHANNEL, payload);
+            return;
+        }
+        try {
+            Long headerId = Long.valueOf(payload.substring(0, separator));
+            String status = payload.substring(separator + 1);
+            metadataCache.onHeaderChanged(headerId, status);
+            eventPublisher.publishEvent(new HeaderChanged(headerId, status));
+            if ("created".equals(status)) {
+                eventPublisher.publishEvent(new ReportJobRepository.JobQueued(headerId));
+            }
+        } catch (NumberFormatException e) {
+            log.warn("{}: некорректный payload '{}'", CHANNEL, payload);
+        } catch (RuntimeException e) {
+            log.error("{}: ошибка обработки '{}'", CHANNEL, payload, e);
+        }
+    }
+}
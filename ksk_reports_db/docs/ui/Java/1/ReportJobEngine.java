@@ -0,0 +1,341 @@
+package ru.example.ksk.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import ru.example.ksk.repository.ReportJobRepository;
+import ru.example.ksk.repository.ReportJobRepository.QueueStats;
+import ru.example.ksk.repository.StoredReportFileRepository;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 🆕 Генерация пользовательских отчётов в процессе API (очередь в ksk_report_header)
+ *
+ * ЗАМЕНЯЕТ: ожидание pg_cron / ручной вызов ksk_report_create_report(header_id)
+ *
+ * ЛОГИКА:
+ * 1. ReportRepository.enqueueReportProcessing() → ksk_report_enqueue (status = 'created')
+ *    → NOTIFY → JobQueued на всех узлах → poll()
+ * 2. poll(): ksk_report_claim_jobs(worker_id, свободные слоты) — FOR UPDATE SKIP LOCKED,
+ *    несколько реплик разбирают очередь параллельно без двойной обработки
+ * 3. Каждый отчёт — задача пула из concurrency потоков, своя транзакция
+ *    ksk_report_create_report (статус done / error ставит функция);
+ *    🆕 агрегатные отчёты за длинный период — ParallelReportExecutor (дневные срезы параллельно)
+ * 🆕 3a. Готовый отчёт (done) — сразу Excel XML файл в ksk_report_files (StoredReportFileRepository.render,
+ *    поток строк из API вместо xmlelement в БД); сбой файла не влияет на отчёт — файл будет
+ *    построен при первом скачивании xls
+ * 4. Heartbeat узла (ksk_report_worker) каждые heartbeat-interval; любой узел раз в
+ *    stale-after/2 возвращает в очередь отчёты узлов без heartbeat (ksk_report_requeue_orphaned_jobs)
+ *
+ * Опрос раз в poll-interval — страховка на случай потерянного NOTIFY.
+ * Пропускная способность растёт с числом реплик × concurrency, а не с частотой cron.
+ *
+ * НАСТРОЙКИ (ksk.reports.jobs.*):
+ * - enabled (true), concurrency (4), poll-interval (PT5S), heartbeat-interval (PT10S),
+ *   stale-after (PT1M), max-attempts (3), shutdown-timeout (PT30S), 🆕 render-file (true)
+ *
+ * 🆕 МЕТРИКИ:
+ * - ksk.report.jobs.queue.depth{status=created|in_progress}, ksk.report.jobs.queue.oldest.age —
+ *   вся очередь (одинаковы на всех узлах, в дашборде — max), обновляются раз в poll-interval
+ * - ksk.report.jobs.running — отчётов в работе на узле
+ * - ksk.report.jobs.duration{outcome=done|error|lost|failed} — генерация одного отчёта:
+ *   done / error — итог ksk_report_create_report (done — вместе с Excel-файлом), lost — отчёт ушёл другому узлу, failed — сбой транзакции
+ */
+@Slf4j
+@Component
+public class ReportJobEngine {
+
+    private final ReportJobRepository jobRepository;
+    private final ParallelReportExecutor reportExecutor;
+    private final StoredReportFileRepository fileRepository;
+
+    private final boolean enabled;
+    private final int concurrency;
+    private final Duration pollInterval;
+    private final Duration heartbeatInterval;
+    private final Duration staleAfter;
+    private final int maxAttempts;
+    private final Duration shutdownTimeout;
+    private final boolean renderFile;
+
+    private final String workerId;
+    private final Semaphore slots;
+    private final AtomicBoolean pollScheduled = new AtomicBoolean();
+    private final AtomicInteger running = new AtomicInteger();
+
+    private final MeterRegistry meterRegistry;
+    private volatile QueueStats queueStats = new QueueStats(0, 0, 0);
+
+    private ScheduledExecutorService scheduler;
+    private ExecutorService workers;
+
+    public ReportJobEngine(ReportJobRepository jobRepository,
+                           ParallelReportExecutor reportExecutor,
+                           StoredReportFileRepository fileRepository,
+                           MeterRegistry meterRegistry,
+                           @Value("${ksk.reports.jobs.enabled:true}") boolean enabled,
+                           @Value("${ksk.reports.jobs.concurrency:4}") int concurrency,
+                           @Value("${ksk.reports.jobs.poll-interval:PT5S}") Duration pollInterval,
+                           @Value("${ksk.reports.jobs.heartbeat-interval:PT10S}") Duration heartbeatInterval,
+                           @Value("${ksk.reports.jobs.stale-after:PT1M}") Duration staleAfter,
+                           @Value("${ksk.reports.jobs.max-attempts:3}") int maxAttempts,
+                           @Value("${ksk.reports.jobs.shutdown-timeout:PT30S}") Duration shutdownTimeout,
+                           @Value("${ksk.reports.jobs.render-file:true}") boolean renderFile) {
+        if (staleAfter.compareTo(heartbeatInterval.multipliedBy(3)) < 0) {
+            throw new IllegalArgumentException("ksk.reports.jobs.stale-after должен быть не меньше 3 × heartbeat-interval");
+        }
+        this.jobRepository = jobRepository;
+        this.reportExecutor = reportExecutor;
+        this.fileRepository = fileRepository;
+        this.enabled = enabled;
+        this.concurrency = concurrency;
+        this.pollInterval = pollInterval;
+        this.heartbeatInterval = heartbeatInterval;
+        this.staleAfter = staleAfter;
+        this.maxAttempts = maxAttempts;
+        this.shutdownTimeout = shutdownTimeout;
+        this.renderFile = renderFile;
+        this.workerId = createWorkerId();
+        this.slots = new Semaphore(concurrency);
+        this.meterRegistry = meterRegistry;
+
+        Gauge.builder("ksk.report.jobs.queue.depth", this, engine -> engine.queueStats.queued())
+            .description("Reports in the generation queue by status")
+            .tag("status", "created")
+            .register(meterRegistry);
+        Gauge.builder("ksk.report.jobs.queue.depth", this, engine -> engine.queueStats.inProgress())
+            .description("Reports in the generation queue by status")
+            .tag("status", "in_progress")
+            .register(meterRegistry);
+        Gauge.builder("ksk.report.jobs.queue.oldest.age", this, engine -> engine.queueStats.oldestQueuedAgeSeconds())
+            .description("Age of the oldest report waiting in the generation queue")
+            .baseUnit("seconds")
+            .register(meterRegistry);
+        Gauge.builder("ksk.report.jobs.running", running, AtomicInteger::get)
+            .description("Reports being generated on this node")
+            .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            log.info("Очередь отчётов: узел {} не обрабатывает очередь (ksk.reports.jobs.enabled=false)", workerId);
+            return;
+        }
+        jobRepository.heartbeat(workerId, concurrency);
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(daemon("ksk-report-jobs-scheduler"));
+        AtomicInteger workerNumber = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(concurrency,
+                task -> daemon("ksk-report-job-" + workerNumber.incrementAndGet()).newThread(task));
+
+        scheduler.scheduleWithFixedDelay(this::heartbeat,
+                heartbeatInterval.toMillis(), heartbeatInterval.toMillis(), TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::requeueOrphaned,
+                0, staleAfter.toMillis() / 2, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::poll,
+                0, pollInterval.toMillis(), TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::refreshQueueStats,
+                0, pollInterval.toMillis(), TimeUnit.MILLISECONDS);
+
+        log.info("Очередь отчётов: узел {} запущен, concurrency = {}", workerId, concurrency);
+    }
+
+    /**
+     * Штатная остановка: новые отчёты не берутся, текущие дорабатывают до shutdown-timeout.
+     * Незавершённые после снятия регистрации узла вернутся в очередь на других узлах.
+     */
+    @PreDestroy
+    public void stop() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdownNow();
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(shutdownTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                log.warn("Очередь отчётов: {} отчётов не завершились за {}, вернутся в очередь", running.get(), shutdownTimeout);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            jobRepository.unregister(workerId);
+        } catch (RuntimeException e) {
+            log.warn("Очередь отчётов: не удалось снять регистрацию узла {}: {}", workerId, e.getMessage());
+        }
+    }
+
+    /**
+     * В очереди появился отчёт (NOTIFY '{id}:created' с любого узла)
+     */
+    @EventListener
+    public void onJobQueued(ReportJobRepository.JobQueued event) {
+        wakeUp();
+    }
+
+    public String getWorkerId() {
+        return workerId;
+    }
+
+    public int getRunningJobs() {
+        return running.get();
+    }
+
+    /**
+     * Внеочередной опрос; несколько пробуждений подряд схлопываются в один
+     */
+    private void wakeUp() {
+        if (scheduler != null && !scheduler.isShutdown() && pollScheduled.compareAndSet(false, true)) {
+            scheduler.execute(this::poll);
+        }
+    }
+
+    /**
+     * Забирает из очереди столько отчётов, сколько свободных слотов.
+     * Выполняется только в потоке scheduler — слоты занимает один поток
+     */
+    private void poll() {
+        pollScheduled.set(false);
+        try {
+            int free = slots.availablePermits();
+            while (free > 0) {
+                List<Long> claimed = jobRepository.claim(workerId, free);
+                for (Long headerId : claimed) {
+                    slots.acquireUninterruptibly();
+                    running.incrementAndGet();
+                    workers.execute(() -> runJob(headerId));
+                }
+                if (claimed.size() < free) {
+                    return;
+                }
+                free = slots.availablePermits();
+            }
+        } catch (RuntimeException e) {
+            log.warn("Очередь отчётов: ошибка захвата отчётов: {}", e.getMessage());
+        }
+    }
+
+    private void runJob(Long headerId) {
+        long startNanos = System.nanoTime();
+        String outcome = "failed";
+        try {
+            Integer result = reportExecutor.run(headerId, workerId);
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            outcome = result == null ? "lost" : result > 0 ? "done" : "error";
+            if (result == null) {
+                log.warn("Очередь отчётов: отчёт {} уже не за узлом {}, пропуск", headerId, workerId);
+            } else if (result > 0) {
+                log.info("Очередь отчётов: отчёт {} готов за {} мс", headerId, elapsedMs);
+                if (renderFile) {
+                    renderFile(headerId);
+                }
+            } else {
+                log.warn("Очередь отчётов: отчёт {} завершён с ошибкой за {} мс (лог операции id = {})",
+                        headerId, elapsedMs, -result);
+            }
+        } catch (RuntimeException e) {
+            // Транзакция откатилась, отчёт остался in_progress за узлом:
+            // при живом heartbeat requeue его не вернёт — ставим в очередь явно
+            log.error("Очередь отчётов: отчёт {} — сбой генерации: {}", headerId, e.getMessage(), e);
+            releaseAfterFailure(headerId);
+        } finally {
+            jobDuration(outcome).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            running.decrementAndGet();
+            slots.release();
+            wakeUp();
+        }
+    }
+
+    private void renderFile(Long headerId) {
+        try {
+            fileRepository.render(headerId);
+        } catch (RuntimeException e) {
+            log.warn("Очередь отчётов: Excel-файл отчёта {} не построен (будет построен при скачивании): {}",
+                    headerId, e.getMessage());
+        }
+    }
+
+    private void releaseAfterFailure(Long headerId) {
+        try {
+            jobRepository.release(headerId, workerId, maxAttempts);
+        } catch (RuntimeException e) {
+            log.warn("Очередь отчётов: отчёт {} не возвращён в очередь: {}", headerId, e.getMessage());
+        }
+    }
+
+    private void refreshQueueStats() {
+        try {
+            queueStats = jobRepository.queueStats();
+        } catch (RuntimeException e) {
+            log.warn("Очередь отчётов: не удалось прочитать состояние очереди: {}", e.getMessage());
+        }
+    }
+
+    private Timer jobDuration(String outcome) {
+        return Timer.builder("ksk.report.jobs.duration")
+            .description("Report generation duration")
+            .tag("outcome", outcome)
+            .publishPercentiles(0.5, 0.95, 0.99)
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+    }
+
+    private void heartbeat() {
+        try {
+            jobRepository.heartbeat(workerId, concurrency);
+        } catch (RuntimeException e) {
+            log.warn("Очередь отчётов: heartbeat узла {} не записан: {}", workerId, e.getMessage());
+        }
+    }
+
+    private void requeueOrphaned() {
+        try {
+            int[] result = jobRepository.requeueOrphaned(staleAfter, maxAttempts);
+            if (result[0] > 0 || result[1] > 0) {
+                log.warn("Очередь отчётов: возвращено в очередь {}, превышен лимит попыток {}", result[0], result[1]);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Очередь отчётов: ошибка возврата отчётов упавших узлов: {}", e.getMessage());
+        }
+    }
+
+    private static String createWorkerId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "unknown";
+        }
+        String id = host + ":" + ManagementFactory.getRuntimeMXBean().getPid() + ":"
+                + UUID.randomUUID().toString().substring(0, 8);
+        return id.length() <= 100 ? id : id.substring(id.length() - 100);
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return task -> {
+            Thread thread = new Thread(task, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,260 @@
+package ru.example.ksk.repository;
+
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 🆕 Очередь генерации отчётов в ksk_report_header (status = 'created')
+ *
+ * ЖИЗНЕННЫЙ ЦИКЛ ОТЧЁТА:
+ *   created ──claim──▶ in_progress (worker_id) ──run / runPrepared──▶ done | error
+ *                            │                   ──reuse (тот же отпечаток)──▶ done (копия)
+ *                            │
+ *                            └── узел упал ──requeueOrphaned──▶ created (или error после maxAttempts)
+ *
+ * ТРАНЗАКЦИИ:
+ * - enqueue — в транзакции вызывающего (создание отчёта + постановка в очередь атомарны)
+ * - claim / heartbeat / requeue / run — каждая своя короткая транзакция (REQUIRES_NEW),
+ *   поток ReportJobEngine не наследует транзакций
+ */
+@Repository
+public class ReportJobRepository {
+
+    /**
+     * Отчёт поставлен в очередь (NOTIFY '{id}:created' с любого узла)
+     */
+    public record JobQueued(Long headerId) {
+    }
+
+    /**
+     * Состояние очереди по всем узлам
+     *
+     * @param oldestQueuedAgeSeconds возраст самого старого ожидающего отчёта (0 — очередь пуста)
+     */
+    public record QueueStats(long queued, long inProgress, double oldestQueuedAgeSeconds) {
+    }
+
+    /**
+     * 🆕 Что генерировать (ParallelReportExecutor выбирает способ генерации)
+     *
+     * @param parameters ksk_report_header.parameters (JSON) или null
+     */
+    public record JobHeader(String reportCode, LocalDate startDate, LocalDate endDate, String parameters) {
+    }
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final TransactionTemplate jobTx;
+
+    public ReportJobRepository(NamedParameterJdbcTemplate jdbcTemplate,
+                               PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.jobTx = new TransactionTemplate(transactionManager);
+        this.jobTx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Поставить отчёт в очередь (ksk_report_enqueue). Узлы будит NOTIFY после COMMIT
+     *
+     * @return false — отчёт уже готов, с ошибкой или в работе
+     */
+    public boolean enqueue(Long headerId) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+            "SELECT upoa_ksk_reports.ksk_report_enqueue(:headerId)",
+            Map.of("headerId", headerId),
+            Boolean.class
+        ));
+    }
+
+    /**
+     * Захватить до limit отчётов за узлом (FOR UPDATE SKIP LOCKED)
+     */
+    public List<Long> claim(String workerId, int limit) {
+        return jobTx.execute(status -> jdbcTemplate.queryForList(
+            "SELECT upoa_ksk_reports.ksk_report_claim_jobs(:workerId, :limit)",
+            Map.of("workerId", workerId, "limit", limit),
+            Long.class
+        ));
+    }
+
+    /**
+     * Сгенерировать захваченный отчёт (ksk_report_create_report)
+     *
+     * Перед генерацией строка блокируется и проверяется, что отчёт всё ещё за этим узлом:
+     * если узел надолго терял heartbeat, отчёт мог уйти в очередь и достаться другому узлу.
+     * Блокировка держится до конца генерации — requeue такой отчёт пропускает (SKIP LOCKED).
+     * 🆕 Затем ksk_report_reuse: готовый отчёт с тем же отпечатком за закрытый период копируется
+     * вместо расчёта; одинаковые отчёты генерируются по одному (блокировка отпечатка до COMMIT).
+     *
+     * @return результат ksk_report_create_report (> 0 — done, < 0 — ID записи лога ошибки),
+     *         null — отчёт больше не принадлежит узлу
+     */
+    public Integer run(Long headerId, String workerId) {
+        Map<String, Object> params = Map.of("headerId", headerId, "workerId", workerId,
+                                            "beginTime", LocalDateTime.now());
+        return jobTx.execute(status -> {
+            if (!lockOwned(params)) {
+                return null;
+            }
+            Integer reused = reuse(params);
+            if (reused != null) {
+                return reused;
+            }
+            return jdbcTemplate.queryForObject(
+                "SELECT upoa_ksk_reports.ksk_report_create_report(:headerId)",
+                params,
+                Integer.class
+            );
+        });
+    }
+
+    /**
+     * 🆕 Завершить отчёт, строки которого посчитаны вне БД-функции отчёта (ParallelReportExecutor)
+     *
+     * В одной транзакции: та же проверка владения и ksk_report_reuse, что в run(),
+     * writeData (расчёт и INSERT строк данных), ksk_report_finish_prepared (status = 'done', row_count, лог операции).
+     * Сбой writeData или функции откатывает всё — отчёт возвращается в очередь (release).
+     *
+     * @param beginTime начало генерации (включая расчёт срезов) — для ksk_system_operation_log
+     * @return headerId — done, null — отчёт больше не принадлежит узлу
+     */
+    public Integer runPrepared(Long headerId, String workerId, LocalDateTime beginTime, Runnable writeData) {
+        Map<String, Object> params = Map.of("headerId", headerId, "workerId", workerId, "beginTime", beginTime);
+        return jobTx.execute(status -> {
+            if (!lockOwned(params)) {
+                return null;
+            }
+            Integer reused = reuse(params);
+            if (reused != null) {
+                return reused;
+            }
+            writeData.run();
+            return jdbcTemplate.queryForObject(
+                "SELECT upoa_ksk_reports.ksk_report_finish_prepared(:headerId, :beginTime)",
+                params,
+                Integer.class
+            );
+        });
+    }
+
+    /**
+     * 🆕 Тип отчёта, период и параметры захваченного отчёта
+     */
+    public JobHeader header(Long headerId) {
+        return jdbcTemplate.queryForObject(
+            "SELECT o.report_code, h.start_date, h.end_date, h.parameters::TEXT AS parameters " +
+            "FROM upoa_ksk_reports.ksk_report_header h " +
+            "JOIN upoa_ksk_reports.ksk_report_orchestrator o ON o.id = h.orchestrator_id " +
+            "WHERE h.id = :headerId",
+            Map.of("headerId", headerId),
+            (rs, rowNum) -> new JobHeader(
+                rs.getString("report_code"),
+                rs.getObject("start_date", LocalDate.class),
+                rs.getObject("end_date", LocalDate.class),
+                rs.getString("parameters")
+            )
+        );
+    }
+
+    /**
+     * Заблокировать строку заголовка, если отчёт всё ещё за этим узлом (в транзакции вызывающего)
+     */
+    private boolean lockOwned(Map<String, Object> params) {
+        return !jdbcTemplate.queryForList(
+            "SELECT id FROM upoa_ksk_reports.ksk_report_header " +
+            "WHERE id = :headerId AND worker_id = :workerId AND status = 'in_progress' " +
+            "FOR UPDATE",
+            params,
+            Long.class
+        ).isEmpty();
+    }
+
+    /**
+     * 🆕 Завершить отчёт копией готового с тем же отпечатком (в транзакции вызывающего)
+     *
+     * @return headerId — отчёт завершён копией, null — считать (отпечаток заблокирован до COMMIT)
+     */
+    private Integer reuse(Map<String, Object> params) {
+        return jdbcTemplate.queryForObject(
+            "SELECT upoa_ksk_reports.ksk_report_reuse(:headerId, :beginTime)",
+            params,
+            Integer.class
+        );
+    }
+
+    /**
+     * Вернуть отчёт в очередь после сбоя генерации на этом узле (откат транзакции,
+     * потеря соединения). После maxAttempts захватов — status = 'error'
+     */
+    public void release(Long headerId, String workerId, int maxAttempts) {
+        jobTx.executeWithoutResult(status -> jdbcTemplate.update(
+            "UPDATE upoa_ksk_reports.ksk_report_header " +
+            "SET status = CASE WHEN attempts >= :maxAttempts THEN 'error' ELSE 'created' END, " +
+            "    finished_datetime = CASE WHEN attempts >= :maxAttempts THEN NOW() END, " +
+            "    worker_id = NULL, " +
+            "    claimed_datetime = NULL " +
+            "WHERE id = :headerId AND worker_id = :workerId AND status = 'in_progress'",
+            Map.of("headerId", headerId, "workerId", workerId, "maxAttempts", maxAttempts)
+        ));
+    }
+
+    public void heartbeat(String workerId, int concurrency) {
+        jobTx.executeWithoutResult(status -> jdbcTemplate.query(
+            "SELECT upoa_ksk_reports.ksk_report_worker_heartbeat(:workerId, :concurrency)",
+            Map.of("workerId", workerId, "concurrency", concurrency),
+            rs -> { }
+        ));
+    }
+
+    /**
+     * Вернуть в очередь отчёты узлов без свежего heartbeat
+     *
+     * @return {requeued, failed}
+     */
+    public int[] requeueOrphaned(Duration staleAfter, int maxAttempts) {
+        return jobTx.execute(status -> jdbcTemplate.queryForObject(
+            "SELECT requeued, failed " +
+            "FROM upoa_ksk_reports.ksk_report_requeue_orphaned_jobs(" +
+            "    make_interval(secs => :staleSeconds), :maxAttempts)",
+            Map.of("staleSeconds", staleAfter.toSeconds(), "maxAttempts", maxAttempts),
+            (rs, rowNum) -> new int[] {rs.getInt("requeued"), rs.getInt("failed")}
+        ));
+    }
+
+    /**
+     * Глубина и возраст очереди (метрики ReportJobEngine)
+     *
+     * created — по частичному индексу idx_ksk_report_header_queue, in_progress — idx_ksk_report_header_worker
+     */
+    public QueueStats queueStats() {
+        return jdbcTemplate.queryForObject(
+            "SELECT " +
+            "    (SELECT COUNT(*) FROM upoa_ksk_reports.ksk_report_header WHERE status = 'created') AS queued, " +
+            "    (SELECT COUNT(*) FROM upoa_ksk_reports.ksk_report_header WHERE status = 'in_progress' AND worker_id IS NOT NULL) AS in_progress, " +
+            "    COALESCE(EXTRACT(EPOCH FROM NOW() - (" +
+            "        SELECT MIN(created_datetime) FROM upoa_ksk_reports.ksk_report_header WHERE status = 'created'" +
+            "    )), 0) AS oldest_age",
+            Map.of(),
+            (rs, rowNum) -> new QueueStats(rs.getLong("queued"), rs.getLong("in_progress"), rs.getDouble("oldest_age"))
+        );
+    }
+
+    /**
+     * Снять регистрацию узла при штатной остановке: его незавершённые отчёты
+     * сразу считаются осиротевшими и уходят в очередь при следующем requeue
+     */
+    public void unregister(String workerId) {
+        jobTx.executeWithoutResult(status -> jdbcTemplate.update(
+            "DELETE FROM upoa_ksk_reports.ksk_report_worker WHERE worker_id = :workerId",
+            Map.of("workerId", workerId)
+        ));
+    }
+}
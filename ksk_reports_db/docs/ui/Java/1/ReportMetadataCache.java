@@ -0,0 +1,152 @@
+package ru.example.ksk.repository;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.stereotype.Component;
+import ru.example.ksk.dto.DateRangeDto;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Кэш метаданных отчётов (в памяти процесса)
+ *
+ * ЗАЧЕМ:
+ * Страница данных отчёта делала 3-4 запроса к метаданным, которые почти не меняются:
+ * orchestrator_id по report_code, header_id системного отчёта, заголовок отчёта,
+ * MIN/MAX по ksk_report_header. С кэшем страница = один запрос данных.
+ *
+ * КЭШИ (TTL / размер):
+ * - orchestratorIds   report_code → orchestrator_id                1 ч / 64
+ * - systemHeaderIds   (report_code, date) → header_id              10 мин / 10 000
+ * - headers           header_id → заголовок (только status = done) 1 ч / 10 000
+ * - dateRange         диапазон дат системных отчётов               5 мин / 1
+ * - reportTypes       строки ksk_report_orchestrator               1 ч / 1
+ *
+ * ИНВАЛИДАЦИЯ:
+ * - ReportHeaderChangeListener (LISTEN ksk_report_header_changed) → onHeaderChanged()
+ * - header_id → done: новая версия системного отчёта и новая дата → сброс systemHeaderIds, dateRange
+ * - любой другой статус / удаление: заголовок удаляется из headers и systemHeaderIds
+ * - TTL — страховка на случай потери соединения LISTEN
+ *
+ * МЕТРИКИ: cache_gets_total{cache="ksk.report.*", result="hit|miss"}, cache_size, cache_evictions_total
+ */
+@Component
+public class ReportMetadataCache {
+
+    private static final String REPORT_TYPES_KEY = "all";
+    private static final String DATE_RANGE_KEY = "system";
+
+    private final Cache<String, Long> orchestratorIds = Caffeine.newBuilder()
+            .maximumSize(64)
+            .expireAfterWrite(Duration.ofHours(1))
+            .recordStats()
+            .build();
+
+    private final Cache<SystemReportKey, Long> systemHeaderIds = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterWrite(Duration.ofMinutes(10))
+            .recordStats()
+            .build();
+
+    private final Cache<Long, Map<String, Object>> headers = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterWrite(Duration.ofHours(1))
+            .recordStats()
+            .build();
+
+    private final Cache<String, DateRangeDto> dateRange = Caffeine.newBuilder()
+            .maximumSize(1)
+            .expireAfterWrite(Duration.ofMinutes(5))
+            .recordStats()
+            .build();
+
+    private final Cache<String, List<Map<String, Object>>> reportTypes = Caffeine.newBuilder()
+            .maximumSize(1)
+            .expireAfterWrite(Duration.ofHours(1))
+            .recordStats()
+            .build();
+
+    public ReportMetadataCache(MeterRegistry meterRegistry) {
+        CaffeineCacheMetrics.monitor(meterRegistry, orchestratorIds, "ksk.report.orchestrator");
+        CaffeineCacheMetrics.monitor(meterRegistry, systemHeaderIds, "ksk.report.system_header");
+        CaffeineCacheMetrics.monitor(meterRegistry, headers, "ksk.report.header");
+        CaffeineCacheMetrics.monitor(meterRegistry, dateRange, "ksk.report.date_range");
+        CaffeineCacheMetrics.monitor(meterRegistry, reportTypes, "ksk.report.types");
+    }
+
+    public Long orchestratorId(String reportCode, Function<String, Long> loader) {
+        return orchestratorIds.get(reportCode, loader);
+    }
+
+    /**
+     * @return header_id или null (отсутствие отчёта не кэшируется — он может появиться в любой момент)
+     */
+    public Long systemHeaderId(String reportCode, LocalDate date, Supplier<Long> loader) {
+        return systemHeaderIds.get(new SystemReportKey(reportCode, date), key -> loader.get());
+    }
+
+    /**
+     * Заголовок кэшируется только в статусе done — до этого row_count и статус меняются
+     */
+    public Map<String, Object> header(Long headerId, Function<Long, Map<String, Object>> loader) {
+        Map<String, Object> cached = headers.getIfPresent(headerId);
+        if (cached != null) {
+            return cached;
+        }
+        Map<String, Object> header = loader.apply(headerId);
+        if ("done".equals(header.get("status"))) {
+            headers.put(headerId, header);
+        }
+        return header;
+    }
+
+    public DateRangeDto dateRange(Supplier<DateRangeDto> loader) {
+        return dateRange.get(DATE_RANGE_KEY, key -> loader.get());
+    }
+
+    public List<Map<String, Object>> reportTypes(Supplier<List<Map<String, Object>>> loader) {
+        return reportTypes.get(REPORT_TYPES_KEY, key -> loader.get());
+    }
+
+    /**
+     * Заголовок изменился вне LISTEN-события этого узла (например, построен снимок review)
+     */
+    public void invalidateHeader(Long headerId) {
+        headers.invalidate(headerId);
+    }
+
+    /**
+     * Событие ksk_report_header_changed: '{id}:{status}' или '{id}:deleted'
+     */
+    public void onHeaderChanged(Long headerId, String status) {
+        headers.invalidate(headerId);
+        if ("done".equals(status)) {
+            systemHeaderIds.invalidateAll();
+            dateRange.invalidateAll();
+        } else {
+            systemHeaderIds.asMap().values().removeIf(headerId::equals);
+            if ("deleted".equals(status)) {
+                dateRange.invalidateAll();
+            }
+        }
+    }
+
+    /**
+     * Соединение LISTEN было потеряно — события могли пропасть, сбрасываем всё, что зависит от заголовков
+     */
+    public void invalidateHeaders() {
+        headers.invalidateAll();
+        systemHeaderIds.invalidateAll();
+        dateRange.invalidateAll();
+    }
+
+    private record SystemReportKey(String reportCode, LocalDate date) {
+    }
+}
@@ -0,0 +1,89 @@
+package ru.example.ksk.repository;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 🆕 Время SQL-запросов репозиториев отчётов (ksk.report.query)
+ *
+ * Теги:
+ * - report_code — код отчёта; all — запрос не относится к одному отчёту (даты, типы, статусы);
+ *   unknown — код не из известных типов отчётов (код приходит из пути запроса до проверки
+ *   по orchestrator — каждая произвольная строка иначе стала бы отдельным таймером)
+ * - kind: data (страница данных), count (COUNT(*) / EXPLAIN для total_records),
+ *   lookup (заголовки, orchestrator, статусы), stream (курсор экспорта — вместе с записью в ответ)
+ * - outcome: success | error
+ *
+ * Обращения, обслуженные ReportMetadataCache, сюда не попадают — только реальные запросы в БД.
+ * p50/p95/p99 считаются в приложении, гистограмма — для histogram_quantile() по всем узлам.
+ */
+@Component
+public class ReportQueryMetrics {
+
+    public static final String ALL_REPORTS = "all";
+    public static final String UNKNOWN_REPORT = "unknown";
+
+    // Типы отчётов orchestrator
+    private static final Set<String> KNOWN_REPORTS = ReportCodes.ALL;
+
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    public ReportQueryMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public <T> T data(String reportCode, Supplier<T> query) {
+        return record(reportCode, "data", query);
+    }
+
+    public <T> T count(String reportCode, Supplier<T> query) {
+        return record(reportCode, "count", query);
+    }
+
+    public <T> T lookup(String reportCode, Supplier<T> query) {
+        return record(reportCode, "lookup", query);
+    }
+
+    public <T> T stream(String reportCode, Supplier<T> query) {
+        return record(reportCode, "stream", query);
+    }
+
+    private <T> T record(String reportCode, String kind, Supplier<T> query) {
+        String code = tagValue(reportCode);
+        long startNanos = System.nanoTime();
+        String outcome = "error";
+        try {
+            T result = query.get();
+            outcome = "success";
+            return result;
+        } finally {
+            timer(code, kind, outcome).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static String tagValue(String reportCode) {
+        if (reportCode == null || ALL_REPORTS.equals(reportCode)) {
+            return ALL_REPORTS;
+        }
+        return KNOWN_REPORTS.contains(reportCode) ? reportCode : UNKNOWN_REPORT;
+    }
+
+    private Timer timer(String reportCode, String kind, String outcome) {
+        return timers.computeIfAbsent(reportCode + '|' + kind + '|' + outcome, key -> Timer.builder("ksk.report.query")
+            .description("Report repository SQL query duration")
+            .tag("report_code", reportCode)
+            .tag("kind", kind)
+            .tag("outcome", outcome)
+            .publishPercentiles(0.5, 0.95, 0.99)
+            .publishPercentileHistogram()
+            .register(meterRegistry));
+    }
+}
@@ -1,11 +1,18 @@
 package ru.example.ksk.repository;
 
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Repository;
+import org.springframework.web.server.ResponseStatusException;
 import ru.example.ksk.dto.*;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.*;
 
 /**
@@ -24,12 +31,18 @@ import java.util.*;
  * - Статус отчёта (created, in_progress, done, error)
  * - TTL для автоматического удаления старых отчётов
  * - Аудит (кто создал, когда, какой статус)
+ * 
+ * 🆕 МЕТРИКИ: запросы — ksk.report.query{report_code, kind=lookup} (см. ReportQueryMetrics)
  */
+@Slf4j
 @Repository
 @RequiredArgsConstructor
 public class ReportRepository {
 
     private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final ReportMetadataCache metadataCache;
+    private final ReportJobRepository jobRepository;
+    private final ReportQueryMetrics queryMetrics;
 
     /**
      * 🆕 ПОЛУЧИТЬ ID СИСТЕМНОГО ОТЧЁТА (v2.0)
@@ -46,27 +59,17 @@ public class ReportRepository {
      * Возвращает:
      * - report_header_id (Long) — идентификатор отчёта в report_header
      * - null если отчёт не найден
+     * 
+     * 🆕 КЭШ: оба шага через ReportMetadataCache — повторная страница того же
+     * отчёта не обращается к БД (сброс при появлении новой done-версии)
      */
     public Long getSystemReportHeaderId(String reportCode, LocalDate date) {
+        return metadataCache.systemHeaderId(reportCode, date, () -> loadSystemReportHeaderId(reportCode, date));
+    }
+
+    private Long loadSystemReportHeaderId(String reportCode, LocalDate date) {
         // ШАГ 1: Получаем orchestrator_id по report_code
-        String sqlGetOrchestratorId = "" +
-            "SELECT id FROM upoa_ksk_reports.ksk_report_orchestrator " +
-            "WHERE report_code = :reportCode";
-        
-        Long orchestratorId = null;
-        try {
-            orchestratorId = jdbcTemplate.queryForObject(
-                sqlGetOrchestratorId,
-                Map.of("reportCode", reportCode),
-                Long.class
-            );
-        } catch (Exception e) {
-            throw new RuntimeException("Неизвестный тип отчёта: " + reportCode, e);
-        }
-        
-        if (orchestratorId == null) {
-            throw new RuntimeException("Orchest ratор не найден для reportCode: " + reportCode);
-        }
+        Long orchestratorId = metadataCache.orchestratorId(reportCode, this::loadOrchestratorId);
         
         // ШАГ 2: Получаем report_header_id по (orchestrator_id, date, initiator='system')
         String sqlGetHeaderId = "" +
@@ -84,12 +87,35 @@ public class ReportRepository {
         );
         
         try {
-            return jdbcTemplate.queryForObject(sqlGetHeaderId, params, Long.class);
+            return queryMetrics.lookup(reportCode,
+                () -> jdbcTemplate.queryForObject(sqlGetHeaderId, params, Long.class));
         } catch (org.springframework.dao.EmptyResultDataAccessException e) {
             return null;  // Отчёт не найден
         }
     }
 
+    private Long loadOrchestratorId(String reportCode) {
+        String sqlGetOrchestratorId = "" +
+            "SELECT id FROM upoa_ksk_reports.ksk_report_orchestrator " +
+            "WHERE report_code = :reportCode";
+        
+        Long orchestratorId = null;
+        try {
+            orchestratorId = queryMetrics.lookup(reportCode, () -> jdbcTemplate.queryForObject(
+                sqlGetOrchestratorId,
+                Map.of("reportCode", reportCode),
+                Long.class
+            ));
+        } catch (Exception e) {
+            throw new RuntimeException("Неизвестный тип отчёта: " + reportCode, e);
+        }
+        
+        if (orchestratorId == null) {
+            throw new RuntimeException("Orchest ratор не найден для reportCode: " + reportCode);
+        }
+        return orchestratorId;
+    }
+
     /**
      * Получить диапазон доступных дат для системных отчётов
      * 
@@ -97,8 +123,14 @@ public class ReportRepository {
      * SELECT MIN(DATE(created_datetime)), MAX(DATE(created_datetime))
      * FROM ksk_report_header
      * WHERE initiator = 'system' AND status = 'done'
+     * 
+     * 🆕 КЭШ: ReportMetadataCache.dateRange (сброс при появлении/удалении done-отчёта)
      */
     public DateRangeDto getAvailableDateRange() {
+        return metadataCache.dateRange(this::loadAvailableDateRange);
+    }
+
+    private DateRangeDto loadAvailableDateRange() {
         String sql = "" +
             "SELECT " +
             "    MIN(DATE(created_datetime)) as min_date, " +
@@ -108,7 +140,8 @@ public class ReportRepository {
             "  AND status = 'done'";
         
         try {
-            Map<String, Object> result = jdbcTemplate.queryForMap(sql, new HashMap<>());
+            Map<String, Object> result = queryMetrics.lookup(ReportQueryMetrics.ALL_REPORTS,
+                () -> jdbcTemplate.queryForMap(sql, new HashMap<>()));
             
             LocalDate minDate = (LocalDate) result.get("min_date");
             LocalDate maxDate = (LocalDate) result.get("max_date");
@@ -147,7 +180,8 @@ public class ReportRepository {
             "FROM upoa_ksk_reports.ksk_report_orchestrator " +
             "ORDER BY report_code";
         
-        List<Map<String, Object>> rows = jdbcTemplate.queryForList(sql, new HashMap<>());
+        List<Map<String, Object>> rows = metadataCache.reportTypes(() -> queryMetrics.lookup(
+            ReportQueryMetrics.ALL_REPORTS, () -> jdbcTemplate.queryForList(sql, new HashMap<>())));
         // Преобразование в DTO
         // return ReportTypesDto.fromRows(rows);
         return null;  // TODO: Реализовать преобразование
@@ -171,17 +205,85 @@ public class ReportRepository {
 
     /**
      * Добавить отчёт в очередь на обработку
+     * 
+     * 🆕 Очередь — ksk_report_header.status = 'created' (ksk_report_enqueue), разбирает
+     * ReportJobEngine на всех узлах API. Вызывать в транзакции создания отчёта:
+     * узлы увидят отчёт (и получат NOTIFY) только после COMMIT
      */
     public void enqueueReportProcessing(Long reportId) {
-        // TODO: Отправить в Kafka/очередь
+        if (!jobRepository.enqueue(reportId)) {
+            log.warn("Отчёт {} не поставлен в очередь: уже готов, с ошибкой или в работе", reportId);
+        }
     }
 
     /**
      * Получить статус пользовательского отчёта
      */
     public ReportStatusDto getReportStatus(Long reportId, String username) {
-        // TODO: Реализовать
-        return null;
+        return getReportStatusSnapshot(reportId, username).toDto(LocalDateTime.now());
+    }
+
+    /**
+     * 🆕 Состояние пользовательского отчёта с проверкой владельца
+     * (начальное событие подписки на статус, см. ReportStatusBroadcaster)
+     *
+     * @throws ResponseStatusException 404 — отчёта нет или он чужой
+     */
+    public ReportStatusSnapshot getReportStatusSnapshot(Long reportId, String username) {
+        String sql = REPORT_STATUS_SQL +
+            "WHERE h.id = :reportId " +
+            "  AND h.initiator = 'user' " +
+            "  AND h.user_login = :username";
+
+        List<ReportStatusSnapshot> rows = queryMetrics.lookup(ReportQueryMetrics.ALL_REPORTS,
+            () -> jdbcTemplate.query(sql, Map.of("reportId", reportId, "username", username), this::mapReportStatus));
+        if (rows.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Отчёт не найден: reportId=" + reportId);
+        }
+        return rows.get(0);
+    }
+
+    /**
+     * 🆕 Состояние нескольких отчётов одним запросом (обновление всех подписок на статус
+     * после NOTIFY или периодической сверки). Удалённых отчётов в результате нет
+     */
+    public List<ReportStatusSnapshot> getReportStatusSnapshots(Collection<Long> headerIds) {
+        if (headerIds.isEmpty()) {
+            return List.of();
+        }
+        return queryMetrics.lookup(ReportQueryMetrics.ALL_REPORTS,
+            () -> jdbcTemplate.query(REPORT_STATUS_SQL + "WHERE h.id IN (:headerIds)",
+                Map.of("headerIds", headerIds), this::mapReportStatus));
+    }
+
+    // Оценка длительности (ksk_estimate_report_duration_by_id) — только для незавершённых отчётов
+    private static final String REPORT_STATUS_SQL = "" +
+        "SELECT " +
+        "    h.id, " +
+        "    o.report_code, " +
+        "    h.status, " +
+        "    h.created_datetime, " +
+        "    COALESCE(h.claimed_datetime, h.created_datetime) AS started_datetime, " +
+        "    h.finished_datetime, " +
+        "    h.row_count, " +
+        "    CASE WHEN h.status IN ('created', 'in_progress') " +
+        "         THEN EXTRACT(EPOCH FROM upoa_ksk_reports.ksk_estimate_report_duration_by_id(h.id))::BIGINT " +
+        "    END AS estimated_seconds " +
+        "FROM upoa_ksk_reports.ksk_report_header h " +
+        "JOIN upoa_ksk_reports.ksk_report_orchestrator o ON o.id = h.orchestrator_id ";
+
+    private ReportStatusSnapshot mapReportStatus(ResultSet rs, int rowNum) throws SQLException {
+        Timestamp finished = rs.getTimestamp("finished_datetime");
+        return new ReportStatusSnapshot(
+            rs.getLong("id"),
+            rs.getString("report_code"),
+            rs.getString("status"),
+            rs.getTimestamp("created_datetime").toLocalDateTime(),
+            rs.getTimestamp("started_datetime").toLocalDateTime(),
+            finished != null ? finished.toLocalDateTime() : null,
+            rs.getObject("row_count", Long.class),
+            rs.getObject("estimated_seconds", Long.class)
+        );
     }
 
     /**
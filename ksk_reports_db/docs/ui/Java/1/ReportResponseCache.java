@@ -0,0 +1,171 @@
+package ru.example.ksk.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 🆕 Кэш готовых ответов неизменяемых системных отчётов (byte[] в памяти процесса)
+ *
+ * ЧТО КЭШИРУЕТСЯ:
+ * - страницы /data — JSON, сжатый gzip (отдаётся с Content-Encoding: gzip)
+ * - экспорт csv — gzip; xlsx — как есть (это уже zip-архив)
+ *
+ * ОГРАНИЧЕНИЯ:
+ * - только отчёты за последние CACHEABLE_DAYS дней — их открывают чаще всего
+ * - общий объём MAX_TOTAL_BYTES (вес = размер тела), одна запись ≤ MAX_ENTRY_BYTES
+ * - ключ включает report_header_id + finished_datetime (ReportVersion.cacheKey),
+ *   поэтому перегенерированный отчёт не найдёт старую запись; старая вытесняется по весу
+ *
+ * МЕТРИКИ: cache_gets_total{cache="ksk.report.response"}, cache_size, cache_evictions_total
+ */
+@Component
+public class ReportResponseCache {
+
+    static final int CACHEABLE_DAYS = 7;
+    static final long MAX_TOTAL_BYTES = 128L * 1024 * 1024;
+    static final int MAX_ENTRY_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * Тело ответа
+     *
+     * @param gzip тело сжато gzip и отдаётся с Content-Encoding: gzip
+     */
+    public record Entry(byte[] body, boolean gzip) {
+    }
+
+    private final Cache<String, Entry> entries = Caffeine.newBuilder()
+            .maximumWeight(MAX_TOTAL_BYTES)
+            .weigher((String key, Entry entry) -> entry.body().length)
+            .recordStats()
+            .build();
+
+    private final ObjectMapper objectMapper;
+
+    public ReportResponseCache(ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.objectMapper = objectMapper;
+        CaffeineCacheMetrics.monitor(meterRegistry, entries, "ksk.report.response");
+    }
+
+    public static boolean isCacheable(LocalDate reportDate) {
+        return !reportDate.isBefore(LocalDate.now().minusDays(CACHEABLE_DAYS));
+    }
+
+    public static boolean acceptsGzip(String acceptEncoding) {
+        return acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+    }
+
+    /**
+     * JSON-ответ, сжатый gzip: из кэша или сериализация loader + сжатие
+     */
+    public byte[] gzipJson(String key, Supplier<?> loader) {
+        Entry entry = entries.getIfPresent(key);
+        if (entry != null) {
+            return entry.body();
+        }
+        byte[] body;
+        try {
+            body = gzip(objectMapper.writeValueAsBytes(loader.get()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (body.length <= MAX_ENTRY_BYTES) {
+            entries.put(key, new Entry(body, true));
+        }
+        return body;
+    }
+
+    public Entry get(String key) {
+        return entries.getIfPresent(key);
+    }
+
+    /**
+     * Сохранить выгрузку, перехваченную CapturingOutputStream
+     *
+     * @param gzip body уже сжат gzip
+     */
+    public void put(String key, byte[] body, boolean gzip) {
+        if (body.length <= MAX_ENTRY_BYTES) {
+            entries.put(key, new Entry(body, gzip));
+        }
+    }
+
+    static byte[] gzip(byte[] content) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(32, content.length / 4));
+        try (GZIPOutputStream gzip = new GZIPOutputStream(buffer)) {
+            gzip.write(content);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Пишет в ответ клиенту и параллельно копит копию для кэша.
+     * Превышение MAX_ENTRY_BYTES отключает копирование — большая выгрузка просто не кэшируется.
+     */
+    static final class CapturingOutputStream extends OutputStream {
+
+        private final OutputStream target;
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream(64 * 1024);
+
+        CapturingOutputStream(OutputStream target) {
+            this.target = target;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            target.write(b);
+            if (copy != null) {
+                copy.write(b);
+                checkLimit();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            target.write(b, off, len);
+            if (copy != null) {
+                copy.write(b, off, len);
+                checkLimit();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target.flush();
+        }
+
+        /**
+         * Закрытие целевого потока — забота контейнера, здесь только flush
+         */
+        @Override
+        public void close() throws IOException {
+            target.flush();
+        }
+
+        /**
+         * @return перехваченное содержимое или null, если превышен лимит
+         */
+        byte[] captured() {
+            return copy != null ? copy.toByteArray() : null;
+        }
+
+        private void checkLimit() {
+            if (copy.size() > MAX_ENTRY_BYTES) {
+                copy = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package ru.example.ksk.dto;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Страница данных отчёта в колоночном представлении
+ *
+ * Имена колонок хранятся один раз, строка = Object[] значений в порядке колонок.
+ * Заменяет List<Map<String, Object>> из queryForList(): там на каждую строку
+ * создавалась LinkedCaseInsensitiveMap с собственными ключами.
+ *
+ * - columns()/rows() — для shape=columnar (сериализуются как есть)
+ * - asMaps()         — для shape=rows: лёгкие Map-обёртки над Object[] без копирования
+ */
+public final class ReportRowSet {
+
+    private final String[] columns;
+    private final List<Object[]> rows;
+
+    public ReportRowSet(String[] columns, List<Object[]> rows) {
+        this.columns = columns;
+        this.rows = rows;
+    }
+
+    public List<String> columns() {
+        return Arrays.asList(columns);
+    }
+
+    public List<Object[]> rows() {
+        return rows;
+    }
+
+    public int size() {
+        return rows.size();
+    }
+
+    /**
+     * Первые limit строк (лишняя строка limit+1 — признак has_more)
+     */
+    public ReportRowSet truncate(int limit) {
+        return rows.size() > limit ? new ReportRowSet(columns, rows.subList(0, limit)) : this;
+    }
+
+    /**
+     * Значение колонки в последней строке (например, id для курсора)
+     */
+    public Object lastValue(String column) {
+        int index = Arrays.asList(columns).indexOf(column);
+        if (index < 0) {
+            throw new IllegalArgumentException("Колонка не найдена: " + column);
+        }
+        return rows.get(rows.size() - 1)[index];
+    }
+
+    /**
+     * Представление строк в виде Map (порядок колонок сохраняется)
+     */
+    public List<Map<String, Object>> asMaps() {
+        return new AbstractList<>() {
+            @Override
+            public Map<String, Object> get(int index) {
+                return new RowView(columns, rows.get(index));
+            }
+
+            @Override
+            public int size() {
+                return rows.size();
+            }
+        };
+    }
+
+    private static final class RowView extends AbstractMap<String, Object> {
+
+        private final String[] columns;
+        private final Object[] values;
+
+        RowView(String[] columns, Object[] values) {
+            this.columns = columns;
+            this.values = values;
+        }
+
+        @Override
+        public Object get(Object key) {
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i].equalsIgnoreCase((String) key)) {
+                    return values[i];
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    return new Iterator<>() {
+                        private int i;
+
+                        @Override
+                        public boolean hasNext() {
+                            return i < columns.length;
+                        }
+
+                        @Override
+                        public Entry<String, Object> next() {
+                            if (i >= columns.length) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<String, Object> entry = new SimpleImmutableEntry<>(columns[i], values[i]);
+                            i++;
+                            return entry;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return columns.length;
+                }
+            };
+        }
+    }
+}
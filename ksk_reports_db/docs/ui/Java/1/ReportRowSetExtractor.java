@@ -0,0 +1,81 @@
+package ru.example.ksk.repository;
+
+import org.springframework.jdbc.core.ResultSetExtractor;
+import ru.example.ksk.dto.ReportRowSet;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Типизированное чтение страницы отчёта в ReportRowSet
+ *
+ * Схема строки (имена + типизированные геттеры) строится один раз на запрос
+ * из ResultSetMetaData — это и есть RowMapper конкретного report_code:
+ * таблицы ksk_report_*_data расширяются через add_column_if_not_exists,
+ * и схема не расходится с БД.
+ *
+ * Числовые колонки читаются через getInt/getLong/getBoolean без getObject,
+ * остальные — getObject (JSON-представление дат и строк не меняется).
+ */
+final class ReportRowSetExtractor implements ResultSetExtractor<ReportRowSet> {
+
+    private final int expectedRows;
+
+    /**
+     * @param expectedRows ожидаемое число строк (limit + 1) — начальная ёмкость списка
+     */
+    ReportRowSetExtractor(int expectedRows) {
+        this.expectedRows = expectedRows;
+    }
+
+    @Override
+    public ReportRowSet extractData(ResultSet rs) throws SQLException {
+        ResultSetMetaData meta = rs.getMetaData();
+        int columnCount = meta.getColumnCount();
+        String[] columns = new String[columnCount];
+        int[] types = new int[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            columns[i] = meta.getColumnLabel(i + 1);
+            types[i] = meta.getColumnType(i + 1);
+        }
+
+        List<Object[]> rows = new ArrayList<>(expectedRows);
+        while (rs.next()) {
+            Object[] values = new Object[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                values[i] = readValue(rs, i + 1, types[i]);
+            }
+            rows.add(values);
+        }
+        return new ReportRowSet(columns, rows);
+    }
+
+    private static Object readValue(ResultSet rs, int index, int type) throws SQLException {
+        switch (type) {
+            case Types.INTEGER:
+            case Types.SMALLINT: {
+                int value = rs.getInt(index);
+                return rs.wasNull() ? null : Integer.valueOf(value);
+            }
+            case Types.BIGINT: {
+                long value = rs.getLong(index);
+                return rs.wasNull() ? null : Long.valueOf(value);
+            }
+            case Types.BOOLEAN:
+            case Types.BIT: {
+                boolean value = rs.getBoolean(index);
+                return rs.wasNull() ? null : Boolean.valueOf(value);
+            }
+            case Types.VARCHAR:
+            case Types.CHAR:
+            case Types.LONGVARCHAR:
+                return rs.getString(index);
+            default:
+                return rs.getObject(index);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package ru.example.ksk.service.export;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * Потоковый писатель строк отчёта в выходной формат (csv, xlsx).
+ *
+ * ПРИНЦИП: строка читается из ResultSet и сразу пишется в OutputStream.
+ * В памяти держится только текущая строка (csv) или скользящее окно строк (xlsx),
+ * поэтому потребление heap не зависит от размера отчёта.
+ *
+ * ЖИЗНЕННЫЙ ЦИКЛ:
+ * 1. writeHeader(metaData) — заголовок из метаданных запроса (даже для пустого отчёта)
+ * 2. writeRow(rs) — для каждой строки
+ * 3. finish() — дописать хвост формата и сбросить буферы (поток НЕ закрывается)
+ * 4. close() — освободить ресурсы писателя (вызывается всегда, в т.ч. при обрыве соединения)
+ */
+public interface ReportRowWriter extends Closeable {
+
+    void writeHeader(ResultSetMetaData metaData) throws SQLException, IOException;
+
+    void writeRow(ResultSet rs) throws SQLException, IOException;
+
+    void finish() throws IOException;
+
+    @Override
+    default void close() throws IOException {
+    }
+
+    /**
+     * Полный проход по ResultSet: заголовок → строки → finish().
+     * Используется как тело ResultSetExtractor в ReportDataRepository.streamReportDataByHeaderId()
+     *
+     * @return количество выгруженных строк
+     */
+    default long writeAll(ResultSet rs) throws SQLException, IOException {
+        writeHeader(rs.getMetaData());
+        long rows = 0;
+        while (rs.next()) {
+            writeRow(rs);
+            rows++;
+        }
+        finish();
+        return rows;
+    }
+}
@@ -1,9 +1,13 @@
 package ru.example.ksk.service;
 
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import ru.example.ksk.dto.*;
 import ru.example.ksk.repository.ReportRepository;
 import ru.example.ksk.repository.ReportDataRepository;
@@ -34,6 +38,10 @@ public class ReportService {
     private final ReportRepository reportRepository;
     private final ReportDataRepository dataRepository;
     private final ExportService exportService;
+    private final StreamingExportService streamingExportService;
+    private final StoredFileExportService storedFileExportService;
+    private final ReportStatusBroadcaster statusBroadcaster;
+    private final ExportMetrics exportMetrics;
 
     // ========== СИСТЕМНЫЕ ОТЧЁТЫ ==========
 
@@ -68,7 +76,8 @@ public class ReportService {
      * СТАРАЯ ЛОГИКА (v1.0):
      * Прямое чтение из ksk_report_totals_data WHERE report_date = date
      */
-    public ReportDataDto getSystemReportData(String reportCode, LocalDate date, Integer limit, Integer offset) {
+    public ReportDataDto getSystemReportData(String reportCode, LocalDate date, Integer limit, Integer offset,
+                                             String cursor, String countMode, String shape) {
         // ШАГ 1: Получаем report_header_id по (reportCode, date, initiator='system')
         Long reportHeaderId = reportRepository.getSystemReportHeaderId(reportCode, date);
         
@@ -78,15 +87,73 @@ public class ReportService {
         
         // ШАГ 2: Получаем данные отчёта по report_header_id
         // Репозиторий автоматически выбирает правильную таблицу по типу отчёта
-        return dataRepository.getReportDataByHeaderId(reportHeaderId, limit, offset);
+        return dataRepository.getReportDataByHeaderId(reportHeaderId, limit, offset, cursor,
+                                                      CountMode.parse(countMode), DataShape.parse(shape));
+    }
+
+    /**
+     * 🆕 Версия неизменяемого системного отчёта (для ETag / Last-Modified)
+     * 
+     * Неизменяемый = дата в прошлом и есть done-заголовок. Для текущего дня
+     * отчёт может быть перегенерирован в течение дня — HTTP-кэширование не применяется.
+     * 
+     * Оба запроса (header_id и заголовок) идут через ReportMetadataCache,
+     * поэтому ответ 304 не обращается к БД вовсе
+     * 
+     * @return null — отчёт не найден или не является неизменяемым
+     */
+    public ReportVersion getImmutableSystemReportVersion(String reportCode, LocalDate date) {
+        if (!date.isBefore(LocalDate.now())) {
+            return null;
+        }
+        Long reportHeaderId = reportRepository.getSystemReportHeaderId(reportCode, date);
+        return reportHeaderId != null ? dataRepository.getReportVersion(reportHeaderId) : null;
     }
 
     /**
      * Экспорт системного отчёта
+     * 
+     * csv/xlsx — потоково через StreamingExportService (без лимита строк, heap не растёт)
+     * pdf — старый путь через ExportService (документ собирается целиком в памяти)
+     */
+    public ResponseEntity<StreamingResponseBody> exportSystemReport(String reportCode, LocalDate date, String format) {
+        return exportSystemReport(reportCode, date, format, null, false);
+    }
+
+    /**
+     * Экспорт неизменяемого системного отчёта: csv/xlsx за последние дни кэшируются
+     * в ReportResponseCache (см. StreamingExportService)
+     */
+    public ResponseEntity<StreamingResponseBody> exportSystemReport(String reportCode, LocalDate date, String format,
+                                                                    ReportVersion version, boolean acceptsGzip) {
+        if (!StreamingExportService.supports(format)) {
+            long startNanos = System.nanoTime();
+            var data = getSystemReportData(reportCode, date, 999999, 0, null, null, null);
+            return asStreamingBody(exportService.exportReportData(data, reportCode, format), format, startNanos);
+        }
+
+        Long reportHeaderId = reportRepository.getSystemReportHeaderId(reportCode, date);
+        if (reportHeaderId == null) {
+            throw new RuntimeException("Отчёт не найден: reportCode=" + reportCode + ", date=" + date);
+        }
+        return streamingExportService.export(reportHeaderId, reportCode, format, version, acceptsGzip);
+    }
+
+    /**
+     * 🆕 Экспорт системного отчёта в xls из готового файла ksk_report_files
+     * (Range, gzip, ETag — см. StoredFileExportService)
+     *
+     * 🔄 Без транзакции класса (NOT_SUPPORTED): генерация файла берёт два своих соединения
+     * (COPY + курсор), read-only транзакция держала бы третье на всё время рендера
      */
-    public ResponseEntity<byte[]> exportSystemReport(String reportCode, LocalDate date, String format) {
-        var data = getSystemReportData(reportCode, date, 999999, 0);
-        return exportService.exportReportData(data, reportCode, format);
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public ResponseEntity<StreamingResponseBody> exportSystemReportFile(String reportCode, LocalDate date,
+                                                                        HttpHeaders requestHeaders) {
+        Long reportHeaderId = reportRepository.getSystemReportHeaderId(reportCode, date);
+        if (reportHeaderId == null) {
+            throw new RuntimeException("Отчёт не найден: reportCode=" + reportCode + ", date=" + date);
+        }
+        return storedFileExportService.export(reportHeaderId, requestHeaders);
     }
 
     // ========== ПОЛЬЗОВАТЕЛЬСКИЕ ОТЧЁТЫ ==========
@@ -122,12 +189,22 @@ public class ReportService {
         return reportRepository.getReportStatus(reportId, username);
     }
 
+    /**
+     * 🆕 Подписка на статус пользовательского отчёта (SSE)
+     * Проверка владельца и первое событие — здесь, дальнейшие события рассылает ReportStatusBroadcaster
+     */
+    public SseEmitter subscribeUserReportStatus(Long reportId, String username) {
+        return statusBroadcaster.subscribe(reportRepository.getReportStatusSnapshot(reportId, username));
+    }
+
     /**
      * Получить данные пользовательского отчёта
      */
-    public ReportDataDto getUserReportData(Long reportId, Integer limit, Integer offset, String username) {
+    public ReportDataDto getUserReportData(Long reportId, Integer limit, Integer offset,
+                                           String cursor, String countMode, String shape, String username) {
         var reportHeader = reportRepository.getReportHeader(reportId, username);
-        return dataRepository.getReportDataByHeaderId(reportHeader.getId(), limit, offset);
+        return dataRepository.getReportDataByHeaderId(reportHeader.getId(), limit, offset, cursor,
+                                                      CountMode.parse(countMode), DataShape.parse(shape));
     }
 
     /**
@@ -141,9 +218,48 @@ public class ReportService {
 
     /**
      * Экспорт пользовательского отчёта
+     * 
+     * csv/xlsx — потоково, pdf — через ExportService (см. exportSystemReport)
+     */
+    public ResponseEntity<StreamingResponseBody> exportUserReport(Long reportId, String format, String username) {
+        if (!StreamingExportService.supports(format)) {
+            long startNanos = System.nanoTime();
+            var data = getUserReportData(reportId, 999999, 0, null, null, null, username);
+            return asStreamingBody(exportService.exportReportData(data, format), format, startNanos);
+        }
+
+        // Проверка ownership до начала выгрузки
+        var reportHeader = reportRepository.getReportHeader(reportId, username);
+        return streamingExportService.export(reportHeader.getId(), "report_" + reportId, format);
+    }
+
+    /**
+     * 🆕 Экспорт пользовательского отчёта в xls из готового файла ksk_report_files
+     * 🔄 Без транзакции класса — см. exportSystemReportFile
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public ResponseEntity<StreamingResponseBody> exportUserReportFile(Long reportId, String username,
+                                                                      HttpHeaders requestHeaders) {
+        // Проверка ownership до начала выгрузки
+        var reportHeader = reportRepository.getReportHeader(reportId, username);
+        return storedFileExportService.export(reportHeader.getId(), requestHeaders);
+    }
+
+    /**
+     * Обёртка готового byte[] ответа ExportService в StreamingResponseBody
+     * (единый тип ответа для всех форматов экспорта)
+     * 
+     * 🆕 Длительность в ksk.report.export.duration{source=memory} — от начала чтения данных
      */
-    public ResponseEntity<byte[]> exportUserReport(Long reportId, String format, String username) {
-        var data = getUserReportData(reportId, 999999, 0, username);
-        return exportService.exportReportData(data, format);
+    private ResponseEntity<StreamingResponseBody> asStreamingBody(ResponseEntity<byte[]> response,
+                                                                  String format, long startNanos) {
+        byte[] content = response.getBody();
+        return ResponseEntity.status(response.getStatusCode())
+                .headers(response.getHeaders())
+                .body(exportMetrics.measure(format.toLowerCase(), "memory", startNanos, out -> {
+                    if (content != null) {
+                        out.write(content);
+                    }
+                }));
     }
 }
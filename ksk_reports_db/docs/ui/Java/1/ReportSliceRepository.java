@@ -0,0 +1,192 @@
+package ru.example.ksk.repository;
+
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+
+/**
+ * 🆕 Агрегация отчётов по срезам периода (ksk_report_*_partial) и запись суммы срезов
+ *
+ * ЛОГИКА:
+ * - aggregate() — SELECT * FROM ksk_report_{code}_partial(from, to, parameters): строки
+ *   «ключ группировки (TEXT) + счётчики (BIGINT)», без записи
+ * - Slice.add() — сумма счётчиков по ключу (срезы по дням складываются — см. 020_ksk_report_partial_aggregates.sql)
+ * - insert() — одна команда INSERT ... SELECT FROM unnest(массивы колонок) ORDER BY как в функции отчёта:
+ *   id строк данных (порядок страниц API) такой же, как при генерации одной функцией,
+ *   сортировка list_code — по collation БД, а не Java
+ *
+ * Отчёты: totals, totals_by_payment_type, list_totals, list_totals_by_payment_type, figurants.
+ * review не агрегат — не поддерживается.
+ */
+@Repository
+public class ReportSliceRepository {
+
+    /**
+     * Форма отчёта: таблица данных, число колонок ключа, ORDER BY при записи (null — одна строка)
+     */
+    private record Shape(String dataTable, int keyColumns, String orderBy) {
+    }
+
+    private static final Map<String, Shape> SHAPES = Map.of(
+        "totals", new Shape("ksk_report_totals_data", 0, null),
+        "totals_by_payment_type", new Shape("ksk_report_totals_by_payment_type_data", 0, null),
+        "list_totals", new Shape("ksk_report_list_totals_data", 1, "u.list_code"),
+        "list_totals_by_payment_type", new Shape("ksk_report_list_totals_by_payment_type_data", 1, "u.list_code"),
+        "figurants", new Shape("ksk_report_figurants_data", 6, "u.total DESC")
+    );
+
+    /**
+     * Счётчики среза (или суммы срезов) одного отчёта
+     */
+    public static final class Slice {
+
+        private final List<String> columns;
+        private final int keyColumns;
+        private final Map<List<String>, long[]> rows = new LinkedHashMap<>();
+
+        Slice(List<String> columns, int keyColumns) {
+            this.columns = columns;
+            this.keyColumns = keyColumns;
+        }
+
+        public int size() {
+            return rows.size();
+        }
+
+        /**
+         * Прибавить счётчики другого среза того же отчёта
+         */
+        public Slice add(Slice other) {
+            if (!columns.equals(other.columns)) {
+                throw new IllegalArgumentException("Срезы разных отчётов: " + columns + " / " + other.columns);
+            }
+            other.rows.forEach(this::add);
+            return this;
+        }
+
+        void add(List<String> key, long[] counts) {
+            long[] sum = rows.get(key);
+            if (sum == null) {
+                rows.put(key, counts.clone());
+                return;
+            }
+            for (int i = 0; i < sum.length; i++) {
+                sum[i] += counts[i];
+            }
+        }
+    }
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    public ReportSliceRepository(NamedParameterJdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public static boolean supports(String reportCode) {
+        return SHAPES.containsKey(reportCode);
+    }
+
+    /**
+     * Счётчики отчёта за [from, to) без записи
+     *
+     * @param parameters ksk_report_header.parameters (JSON) или null
+     */
+    public Slice aggregate(String reportCode, LocalDate from, LocalDate to, String parameters) {
+        Shape shape = shape(reportCode);
+        String sql = String.format(
+            "SELECT * FROM upoa_ksk_reports.ksk_report_%s_partial(:from, :to, CAST(:parameters AS JSONB))",
+            reportCode
+        );
+        MapSqlParameterSource params = new MapSqlParameterSource()
+            .addValue("from", from)
+            .addValue("to", to)
+            .addValue("parameters", parameters);
+
+        return jdbcTemplate.query(sql, params, rs -> {
+            ResultSetMetaData meta = rs.getMetaData();
+            List<String> columns = new ArrayList<>(meta.getColumnCount());
+            for (int i = 1; i <= meta.getColumnCount(); i++) {
+                columns.add(meta.getColumnName(i));
+            }
+            Slice slice = new Slice(columns, shape.keyColumns());
+            int counters = columns.size() - shape.keyColumns();
+            while (rs.next()) {
+                String[] key = new String[shape.keyColumns()];
+                for (int i = 0; i < key.length; i++) {
+                    key[i] = rs.getString(i + 1);
+                }
+                long[] counts = new long[counters];
+                for (int i = 0; i < counters; i++) {
+                    counts[i] = rs.getLong(shape.keyColumns() + i + 1);
+                }
+                slice.add(Arrays.asList(key), counts);
+            }
+            return slice;
+        });
+    }
+
+    /**
+     * Записать строки отчёта в ksk_report_*_data (в транзакции вызывающего)
+     *
+     * @return количество записанных строк
+     */
+    public int insert(Long headerId, String reportCode, Slice slice) {
+        if (slice.rows.isEmpty()) {
+            return 0;
+        }
+        Shape shape = shape(reportCode);
+        StringJoiner columns = new StringJoiner(", ");
+        StringJoiner arrays = new StringJoiner(", ");
+        for (int i = 0; i < slice.columns.size(); i++) {
+            columns.add(slice.columns.get(i));
+            arrays.add(i < slice.keyColumns ? "?::TEXT[]" : "?::BIGINT[]");
+        }
+        String sql = String.format(
+            "INSERT INTO upoa_ksk_reports.%s (report_header_id, %s) " +
+            "SELECT ?, u.* FROM unnest(%s) AS u(%s)%s",
+            shape.dataTable(), columns, arrays, columns,
+            shape.orderBy() != null ? " ORDER BY " + shape.orderBy() : ""
+        );
+
+        return jdbcTemplate.getJdbcTemplate().update(con -> {
+            PreparedStatement ps = con.prepareStatement(sql);
+            ps.setLong(1, headerId);
+            for (int column = 0; column < slice.columns.size(); column++) {
+                ps.setArray(column + 2, columnArray(con, slice, column));
+            }
+            return ps;
+        });
+    }
+
+    private static Array columnArray(Connection con, Slice slice, int column) throws SQLException {
+        Object[] values = column < slice.keyColumns ? new String[slice.rows.size()] : new Long[slice.rows.size()];
+        int row = 0;
+        for (Map.Entry<List<String>, long[]> entry : slice.rows.entrySet()) {
+            values[row++] = column < slice.keyColumns
+                ? entry.getKey().get(column)
+                : Long.valueOf(entry.getValue()[column - slice.keyColumns]);
+        }
+        return con.createArrayOf(column < slice.keyColumns ? "text" : "int8", values);
+    }
+
+    private static Shape shape(String reportCode) {
+        Shape shape = SHAPES.get(reportCode);
+        if (shape == null) {
+            throw new IllegalArgumentException("Отчёт не агрегируется по срезам: " + reportCode);
+        }
+        return shape;
+    }
+}
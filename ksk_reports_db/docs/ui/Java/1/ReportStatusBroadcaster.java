@@ -0,0 +1,224 @@
+package ru.example.ksk.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ru.example.ksk.dto.ReportStatusSnapshot;
+import ru.example.ksk.repository.ReportHeaderChangeListener;
+import ru.example.ksk.repository.ReportRepository;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 🆕 Push статуса пользовательских отчётов (Server-Sent Events)
+ *
+ * ЗАМЕНЯЕТ: опрос GET /user/{reportId}/status каждым клиентом в цикле (запрос к БД на каждый опрос)
+ *
+ * ЛОГИКА:
+ * 1. subscribe() — SseEmitter клиента добавляется к наблюдению за header_id,
+ *    сразу уходит текущий статус
+ * 2. Смена статуса: NOTIFY ksk_report_header_changed → ReportHeaderChangeListener →
+ *    HeaderChanged → один запрос состояния на отчёт → событие всем его подписчикам
+ * 3. Раз в PROGRESS_INTERVAL — прогресс / ETA из памяти (ReportStatusSnapshot.toDto, без БД);
+ *    заодно служит keep-alive для прокси
+ * 4. Раз в RESYNC_INTERVAL — сверка всех наблюдаемых отчётов одним запросом
+ *    (страховка от событий, потерянных при разрыве LISTEN)
+ * 5. done / error / удаление — последнее событие и complete() всех подписчиков
+ *
+ * Нагрузка на БД зависит от числа отслеживаемых отчётов и переходов статуса, а не от числа клиентов.
+ *
+ * СОБЫТИЯ: status (ReportStatus), deleted (отчёт удалён)
+ */
+@Slf4j
+@Component
+public class ReportStatusBroadcaster {
+
+    private static final long EMITTER_TIMEOUT_MS = Duration.ofMinutes(30).toMillis();
+    private static final Duration PROGRESS_INTERVAL = Duration.ofSeconds(5);
+    private static final Duration RESYNC_INTERVAL = Duration.ofMinutes(1);
+
+    private final ReportRepository reportRepository;
+    private final Map<Long, Watch> watches = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Подписчики одного отчёта и последнее известное состояние
+     */
+    private static final class Watch {
+        final Set<SseEmitter> emitters = new CopyOnWriteArraySet<>();
+        volatile ReportStatusSnapshot snapshot;
+
+        Watch(ReportStatusSnapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+    }
+
+    public ReportStatusBroadcaster(ReportRepository reportRepository) {
+        this.reportRepository = reportRepository;
+    }
+
+    @PostConstruct
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "ksk-report-status-broadcaster");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::sendProgress,
+                PROGRESS_INTERVAL.toMillis(), PROGRESS_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::resync,
+                RESYNC_INTERVAL.toMillis(), RESYNC_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+        watches.values().forEach(watch -> watch.emitters.forEach(SseEmitter::complete));
+        watches.clear();
+    }
+
+    /**
+     * Подписка на статус отчёта. Владелец проверяется вызывающим (ReportService)
+     *
+     * @param current текущее состояние — первое событие подписки
+     */
+    public SseEmitter subscribe(ReportStatusSnapshot current) {
+        SseEmitter emitter = new SseEmitter(EMITTER_TIMEOUT_MS);
+        if (!send(emitter, current)) {
+            return emitter;
+        }
+        if (current.isFinal()) {
+            emitter.complete();
+            return emitter;
+        }
+
+        Long headerId = current.id();
+        // Добавление внутри compute — атомарно со снятием Watch (broadcast, broadcastDeleted,
+        // unsubscribe): подписчик не попадёт в уже снятый Watch, где событий больше не будет
+        watches.compute(headerId, (id, watch) -> {
+            Watch target = watch != null ? watch : new Watch(current);
+            target.emitters.add(emitter);
+            return target;
+        });
+        Runnable unsubscribe = () -> unsubscribe(headerId, emitter);
+        emitter.onCompletion(unsubscribe);
+        emitter.onTimeout(unsubscribe);
+        emitter.onError(error -> unsubscribe.run());
+        return emitter;
+    }
+
+    /**
+     * Смена статуса с любого узла (NOTIFY). Запрос к БД — в потоке рассылки, не в потоке LISTEN
+     */
+    @EventListener
+    public void onHeaderChanged(ReportHeaderChangeListener.HeaderChanged event) {
+        if (watches.containsKey(event.headerId()) && !scheduler.isShutdown()) {
+            scheduler.execute(() -> refresh(List.of(event.headerId())));
+        }
+    }
+
+    public int getWatchedReports() {
+        return watches.size();
+    }
+
+    private void resync() {
+        if (!watches.isEmpty()) {
+            refresh(new HashSet<>(watches.keySet()));
+        }
+    }
+
+    private void refresh(Collection<Long> headerIds) {
+        List<ReportStatusSnapshot> snapshots;
+        try {
+            snapshots = reportRepository.getReportStatusSnapshots(headerIds);
+        } catch (RuntimeException e) {
+            log.warn("Статус отчётов {}: ошибка чтения: {}", headerIds, e.getMessage());
+            return;
+        }
+
+        Set<Long> missing = new HashSet<>(headerIds);
+        for (ReportStatusSnapshot snapshot : snapshots) {
+            missing.remove(snapshot.id());
+            Watch watch = watches.get(snapshot.id());
+            if (watch == null) {
+                continue;
+            }
+            watch.snapshot = snapshot;
+            broadcast(snapshot.id(), watch);
+        }
+        missing.forEach(this::broadcastDeleted);
+    }
+
+    private void sendProgress() {
+        watches.forEach((headerId, watch) -> broadcast(headerId, watch));
+    }
+
+    private void broadcast(Long headerId, Watch watch) {
+        ReportStatusSnapshot snapshot = watch.snapshot;
+        // Финальный статус: Watch снимается до рассылки — новые подписчики в него уже
+        // не попадут, а все добавленные раньше получат событие и complete()
+        if (snapshot.isFinal() && !watches.remove(headerId, watch)) {
+            return;
+        }
+        for (SseEmitter emitter : watch.emitters) {
+            if (!send(emitter, snapshot)) {
+                watch.emitters.remove(emitter);
+            } else if (snapshot.isFinal()) {
+                emitter.complete();
+            }
+        }
+    }
+
+    private void broadcastDeleted(Long headerId) {
+        Watch watch = watches.remove(headerId);
+        if (watch == null) {
+            return;
+        }
+        for (SseEmitter emitter : watch.emitters) {
+            try {
+                emitter.send(SseEmitter.event().name("deleted").data(Map.of("id", headerId)));
+                emitter.complete();
+            } catch (IOException | IllegalStateException e) {
+                emitter.completeWithError(e);
+            }
+        }
+    }
+
+    /**
+     * @return false — клиент отключился, подписчик снят
+     */
+    private static boolean send(SseEmitter emitter, ReportStatusSnapshot snapshot) {
+        try {
+            emitter.send(SseEmitter.event()
+                    .name("status")
+                    .data(snapshot.toDto(LocalDateTime.now())));
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            emitter.completeWithError(e);
+            return false;
+        }
+    }
+
+    private void unsubscribe(Long headerId, SseEmitter emitter) {
+        watches.computeIfPresent(headerId, (id, watch) -> {
+            watch.emitters.remove(emitter);
+            return watch.emitters.isEmpty() ? null : watch;
+        });
+    }
+}
@@ -0,0 +1,61 @@
+package ru.example.ksk.dto;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+/**
+ * Состояние заголовка отчёта для статуса и его push-рассылки (SSE)
+ *
+ * Прогресс и ETA считаются от startedDatetime и оценки длительности
+ * (ksk_estimate_report_duration_by_id) на момент toDto(now) — без обращения к БД,
+ * поэтому тики прогресса рассылаются всем подписчикам из памяти.
+ *
+ * @param startedDatetime  начало генерации (claimed_datetime, для отчётов вне очереди — created_datetime)
+ * @param estimatedSeconds оценка длительности; null для done / error
+ */
+public record ReportStatusSnapshot(
+        Long id,
+        String reportCode,
+        String status,
+        LocalDateTime createdDatetime,
+        LocalDateTime startedDatetime,
+        LocalDateTime finishedDatetime,
+        Long rowCount,
+        Long estimatedSeconds) {
+
+    /**
+     * Прогресс не доходит до 100%, пока отчёт не done: оценка — максимум прошлых запусков, не гарантия
+     */
+    private static final int MAX_PENDING_PERCENTAGE = 99;
+
+    public boolean isFinal() {
+        return "done".equals(status) || "error".equals(status);
+    }
+
+    public ReportStatusDto toDto(LocalDateTime now) {
+        ReportStatusDto.ReportStatusDtoBuilder builder = ReportStatusDto.builder()
+                .id(id)
+                .reportCode(reportCode)
+                .status(status)
+                .createdDatetime(createdDatetime)
+                .finishedDatetime(finishedDatetime);
+
+        if ("done".equals(status)) {
+            return builder.progressPercentage(100).rowsCount(rowCount).build();
+        }
+        if (!"in_progress".equals(status) || estimatedSeconds == null) {
+            return builder.estimatedDurationSeconds(estimatedSeconds).build();
+        }
+
+        long elapsedSeconds = Math.max(0, Duration.between(startedDatetime, now).toSeconds());
+        int percentage = estimatedSeconds > 0
+                ? (int) Math.min(MAX_PENDING_PERCENTAGE, elapsedSeconds * 100 / estimatedSeconds)
+                : MAX_PENDING_PERCENTAGE;
+
+        return builder
+                .progressPercentage(percentage)
+                .estimatedDurationSeconds(estimatedSeconds)
+                .etaDatetime(startedDatetime.plusSeconds(Math.max(estimatedSeconds, elapsedSeconds)))
+                .build();
+    }
+}
@@ -0,0 +1,35 @@
+package ru.example.ksk.dto;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * Версия неизменяемого отчёта (системный отчёт за прошедшую дату в статусе done)
+ *
+ * (report_header_id, finished_datetime) однозначно определяют содержимое:
+ * перегенерация (ksk_regenerate_report) меняет finished_datetime, новая версия — header_id.
+ *
+ * - etag(variant)   — сильный ETag для If-None-Match
+ * - lastModified()  — finished_datetime для Last-Modified / If-Modified-Since
+ * - cacheKey(...)   — ключ ReportResponseCache
+ */
+public record ReportVersion(Long headerId, LocalDateTime finishedDatetime, LocalDate reportDate) {
+
+    public long lastModified() {
+        return finishedDatetime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * @param variant представление ответа (формат экспорта, gzip) — у разных
+     *                представлений одного URL должны быть разные сильные ETag
+     */
+    public String etag(String variant) {
+        String tag = headerId + "-" + lastModified();
+        return "\"" + (variant == null || variant.isEmpty() ? tag : tag + "-" + variant) + "\"";
+    }
+
+    public String cacheKey(String... parts) {
+        return headerId + ":" + lastModified() + ":" + String.join(":", parts);
+    }
+}
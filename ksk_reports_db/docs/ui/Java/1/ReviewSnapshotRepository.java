@@ -0,0 +1,89 @@
+package ru.example.ksk.repository;
+
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Снимок отчёта review (ksk_report_review_snapshot)
+ *
+ * ЗАЧЕМ:
+ * ksk_report_review(date) пересчитывает весь день (JOIN партиций + оконная функция)
+ * на каждую страницу и каждого пользователя. Снимок строится один раз на заголовок,
+ * страница = диапазон по PK (report_header_id, row_num).
+ *
+ * ЛОГИКА:
+ * - Обычно снимок строится в ksk_report_review_create_report при генерации отчёта
+ * - Для старых отчётов (до появления снимков) — лениво, при первом запросе страницы
+ * - Только закрытые дни: данные текущего дня ещё меняются, читаются из функции
+ *
+ * SINGLE-FLIGHT:
+ * - В процессе: одновременные запросы одного header_id ждут один CompletableFuture
+ * - Между узлами: pg_advisory_xact_lock внутри ksk_report_review_build_snapshot()
+ */
+@Repository
+public class ReviewSnapshotRepository {
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    // Построение пишет в БД, а сервис чтения работает в read-only транзакции —
+    // поэтому отдельная транзакция, которая коммитится до чтения страницы
+    private final TransactionTemplate buildTx;
+
+    private final Map<Long, CompletableFuture<Long>> inFlight = new ConcurrentHashMap<>();
+
+    public ReviewSnapshotRepository(NamedParameterJdbcTemplate jdbcTemplate,
+                                    PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.buildTx = new TransactionTemplate(transactionManager);
+        this.buildTx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Строит снимок, если его ещё нет (повторный вызов функции снимок не перестраивает)
+     *
+     * Вызывать только когда ksk_report_review_data.snapshot_datetime IS NULL —
+     * готовый снимок читается без обращения сюда
+     *
+     * @param headerId ID заголовка отчёта review (закрытый день)
+     * @return количество строк снимка
+     */
+    public long buildSnapshot(Long headerId) {
+        CompletableFuture<Long> own = new CompletableFuture<>();
+        CompletableFuture<Long> running = inFlight.putIfAbsent(headerId, own);
+        if (running != null) {
+            return join(running);
+        }
+
+        try {
+            own.complete(buildTx.execute(status -> jdbcTemplate.queryForObject(
+                "SELECT upoa_ksk_reports.ksk_report_review_build_snapshot(:headerId)",
+                Map.of("headerId", headerId),
+                Long.class
+            )));
+        } catch (RuntimeException e) {
+            own.completeExceptionally(e);
+        } finally {
+            inFlight.remove(headerId, own);
+        }
+        return join(own);
+    }
+
+    private static Long join(CompletableFuture<Long> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package ru.example.ksk.service.export;
+
+import ru.example.ksk.repository.ReportCodes;
+import ru.example.ksk.service.export.SpreadsheetMlWriter.CellType;
+import ru.example.ksk.service.export.SpreadsheetMlWriter.Dialect;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 🆕 Раскладка Excel-файла отчёта: лист, две строки заголовков, колонки данных
+ *
+ * Подписи (строка 1), имена полей (строка 2) и порядок колонок — как в xls_examples/
+ * и в прежних функциях ksk_report_*_xls_file. Выражение колонки повторяет выражение
+ * функции (COALESCE там, где он был), поэтому NULL в файле выглядит так же, как раньше.
+ *
+ * Добавляя колонку в отчёт, добавьте её сюда — файл строится только по этому списку.
+ * Новый тип отчёта — константа в ReportCodes и раскладка здесь.
+ */
+public enum SpreadsheetLayout {
+
+    TOTALS(ReportCodes.TOTALS, "Totals", Dialect.COMPACT,
+        "ksk_report_totals_data", "ORDER BY id DESC LIMIT 1", List.of(
+            Column.number("Всего транзакций", "total"),
+            Column.number("Всего транзакций без результата", "total_without_result"),
+            Column.number("Всего транзакций с результатом", "total_with_result"),
+            Column.number("Total allow", "total_allow"),
+            Column.number("Total review", "total_review"),
+            Column.number("Не совпало с алгоритмами ДОПБ", "total_deny"),
+            Column.number("Исключено из контроля", "total_bypass")
+        )),
+
+    TOTALS_BY_PAYMENT_TYPE(ReportCodes.TOTALS_BY_PAYMENT_TYPE, "TotalsByPaymentType", Dialect.COMPACT,
+        "ksk_report_totals_by_payment_type_data", "ORDER BY id DESC LIMIT 1", totalsByPaymentTypeColumns()),
+
+    LIST_TOTALS(ReportCodes.LIST_TOTALS, "ListTotals", Dialect.COMPACT,
+        "ksk_report_list_totals_data", "ORDER BY list_code", List.of(
+            Column.string("Код списка", "list_code"),
+            Column.number("Всего транзакций с списком", "total_with_list"),
+            Column.number("Всего allow", "total_allow"),
+            Column.number("Всего review", "total_review"),
+            Column.number("Всего deny", "total_deny"),
+            Column.number("Исключено из контроля", "total_bypass")
+        )),
+
+    LIST_TOTALS_BY_PAYMENT_TYPE(ReportCodes.LIST_TOTALS_BY_PAYMENT_TYPE, "ListTotalsByPaymentType", Dialect.COMPACT,
+        "ksk_report_list_totals_by_payment_type_data", "ORDER BY list_code", listTotalsByPaymentTypeColumns()),
+
+    FIGURANTS(ReportCodes.FIGURANTS, "Figurants", Dialect.COMPACT,
+        "ksk_report_figurants_data", "ORDER BY list_code, name_figurant", List.of(
+            Column.stringOrEmpty("listCode", "list_code"),
+            Column.stringOrEmpty("nameFigurant", "name_figurant"),
+            Column.stringOrEmpty("presidentGroup", "president_group"),
+            Column.stringOrEmpty("autoLogin", "auto_login"),
+            Column.stringOrEmpty("exclusionPhrase", "exclusion_phrase"),
+            Column.numberOrZero("Всего транзакций", "total"),
+            Column.numberOrZero("Allow", "total_allow"),
+            Column.numberOrZero("Review", "total_review"),
+            Column.numberOrZero("Deny", "total_deny"),
+            Column.numberOrZero("Исключено из контроля", "total_bypass")
+        )),
+
+    /**
+     * Источник строк review выбирает StoredReportFileRepository (снимок или ksk_report_review(date)),
+     * здесь — только колонки; все значения текстом (::TEXT, как escape_xml(...::TEXT) в БД)
+     */
+    REVIEW(ReportCodes.REVIEW, "Review", Dialect.LINES, null, null, List.of(
+            Column.text("corr_id", "corrId", "corr_id"),
+            Column.text("Время обработки платежа", "messageTimestamp", "message_timestamp"),
+            Column.text("Алгоритм", "algorithm", "algorithm"),
+            Column.text("Значение для поиска на фигуранте", "matchValue", "match_value"),
+            Column.text("Поле платежа с совпадением", "matchPaymentField", "match_payment_field"),
+            Column.text("Значение поля платежа с совпадением", "matchPaymentValue", "match_payment_value"),
+            Column.text("Код списка", "listCode", "list_code"),
+            Column.text("Наименование фигуранта", "nameFigurant", "name_figurant"),
+            Column.text("presidentGroup", "presidentGroup", "president_group"),
+            Column.text("autoLogin", "autoLogin", "auto_login"),
+            Column.text("Наличие исключения", "hasExclusion", "has_exclusion"),
+            Column.text("Фраза исключения", "exclusionPhrase", "exclusion_phrase"),
+            Column.text("Название списка исключений", "exclusionNameList", "exclusion_name_list"),
+            Column.text("Исключено из контроля", "isBypass", "is_bypass"),
+            Column.text("Решение по транзакции", "transactionResolution", "transaction_resolution"),
+            Column.text("Решение по фигуранту", "figurantResolition", "figurant_resolition"),
+            Column.text("ID платежа", "paymentId", "payment_id"),
+            Column.text("Назначение платежа", "paymentPurpose", "payment_purpose"),
+            Column.text("system.reports.REVIEW.table.column.accountDebit.name", "accountDebit", "account_debet"),
+            Column.text("Счёт кредита", "accountCredit", "account_credit"),
+            Column.text("ИНН плательщика", "payerInn", "payer_inn"),
+            Column.text("Имя плательщика", "payerName", "payer_name"),
+            Column.text("Номер счёта плательщика", "payerAccountNumber", "payer_account_number"),
+            Column.text("Тип документа плательщика", "payerDocumentType", "payer_document_type"),
+            Column.text("Банк плательщика", "payerBankName", "payer_bank_name"),
+            Column.text("Номер счёта банка плательщика", "payerBankAccountNumber", "payer_bank_account_number"),
+            Column.text("Номер счёта получателя", "receiverAccountNumber", "receiver_account_number"),
+            Column.text("Имя получателя", "receiverName", "receiver_name"),
+            Column.text("ИНН получателя", "receiverInn", "receiver_inn"),
+            Column.text("system.reports.REVIEW.table.column.receiverBankName.name", "receiverBankName", "receiver_bank_name"),
+            Column.text("Номер счёта банка получателя", "receiverBankAccountNumber", "receiver_bank_account_number"),
+            Column.text("Тип документа получателя", "receiverDocumentType", "receiver_document_type"),
+            Column.text("Сумма", "amount", "amount"),
+            Column.text("Валюта", "currency", "currency"),
+            Column.text("system.reports.REVIEW.table.column.currencyControl.name", "currencyControl", "currency_control")
+        ));
+
+    /**
+     * Колонка файла
+     *
+     * @param label      подпись (строка 1)
+     * @param key        имя поля (строка 2)
+     * @param expression выражение SELECT по таблице данных
+     */
+    public record Column(String label, String key, String expression, CellType type) {
+
+        static Column number(String label, String column) {
+            return new Column(label, camelCase(column), column, CellType.NUMBER);
+        }
+
+        static Column numberOrZero(String label, String column) {
+            return new Column(label, camelCase(column), "COALESCE(" + column + ", 0)", CellType.NUMBER);
+        }
+
+        static Column string(String label, String column) {
+            return new Column(label, camelCase(column), column, CellType.STRING);
+        }
+
+        static Column stringOrEmpty(String label, String column) {
+            return new Column(label, camelCase(column), "COALESCE(" + column + ", '')", CellType.STRING);
+        }
+
+        static Column text(String label, String key, String column) {
+            return new Column(label, key, column + "::TEXT", CellType.STRING);
+        }
+    }
+
+    private final String reportCode;
+    private final String sheetName;
+    private final Dialect dialect;
+    private final String dataTable;
+    private final String orderBy;
+    private final List<Column> columns;
+
+    SpreadsheetLayout(String reportCode, String sheetName, Dialect dialect,
+                      String dataTable, String orderBy, List<Column> columns) {
+        this.reportCode = reportCode;
+        this.sheetName = sheetName;
+        this.dialect = dialect;
+        this.dataTable = dataTable;
+        this.orderBy = orderBy;
+        this.columns = columns;
+    }
+
+    public static SpreadsheetLayout of(String reportCode) {
+        for (SpreadsheetLayout layout : values()) {
+            if (layout.reportCode.equals(reportCode)) {
+                return layout;
+            }
+        }
+        throw new IllegalArgumentException("Нет раскладки Excel-файла для типа отчёта: " + reportCode);
+    }
+
+    public String reportCode() {
+        return reportCode;
+    }
+
+    public String sheetName() {
+        return sheetName;
+    }
+
+    public Dialect dialect() {
+        return dialect;
+    }
+
+    /**
+     * Таблица данных отчёта; null — review (строки не в ksk_report_*_data)
+     */
+    public String dataTable() {
+        return dataTable;
+    }
+
+    /**
+     * ORDER BY (и LIMIT) прежней xls-функции
+     */
+    public String orderBy() {
+        return orderBy;
+    }
+
+    public List<Column> columns() {
+        return columns;
+    }
+
+    public List<String> labels() {
+        return columns.stream().map(Column::label).toList();
+    }
+
+    public List<String> keys() {
+        return columns.stream().map(Column::key).toList();
+    }
+
+    /**
+     * Список выражений SELECT в порядке колонок файла
+     */
+    public String selectList() {
+        return String.join(", ", columns.stream().map(Column::expression).toList());
+    }
+
+    private static List<Column> totalsByPaymentTypeColumns() {
+        List<Column> columns = new ArrayList<>(List.of(
+            Column.numberOrZero("Всего транзакций", "total"),
+            Column.numberOrZero("Всего транзакций без результата", "total_without_result"),
+            Column.numberOrZero("Всего транзакций с результатом", "total_with_result"),
+            Column.numberOrZero("Всего allow", "total_allow"),
+            Column.numberOrZero("Всего review", "total_review"),
+            Column.numberOrZero("Всего deny", "total_deny"),
+            Column.numberOrZero("Всего исключено из контроля", "total_bypass")
+        ));
+        String[][] groups = {
+            {"i", "Входящий"}, {"o", "Исходящий"}, {"t", "Транзитный"}, {"m", "Межфилиальный"}, {"v", "Внутрифилиальный"}
+        };
+        for (String[] group : groups) {
+            String prefix = group[0] + "_";
+            String title = group[1] + " ";
+            columns.addAll(List.of(
+                Column.numberOrZero(title + "Всего транзакций", prefix + "total"),
+                Column.numberOrZero(title + "Всего транзакций без результата", prefix + "total_without_result"),
+                Column.numberOrZero(title + "Всего транзакций с результатом", prefix + "total_with_result"),
+                Column.numberOrZero(title + "Всего allow", prefix + "total_allow"),
+                Column.numberOrZero(title + "Всего review", prefix + "total_review"),
+                Column.numberOrZero(title + "Всего deny", prefix + "total_deny"),
+                Column.numberOrZero(title + "Исключено из контроля", prefix + "total_bypass")
+            ));
+        }
+        return List.copyOf(columns);
+    }
+
+    /**
+     * Подписи — как в xls_examples/list_totals_by_payment_type: часть колонок подписана ключом i18n
+     */
+    private static List<Column> listTotalsByPaymentTypeColumns() {
+        String i18n = "system.reports.LIST_TOTALS_BY_PAYMENT_TYPE.table.column.%s.name";
+        List<String> labels = Arrays.asList(
+            i18n.formatted("totalWithList"), "Всего allow", "Всего review", "Всего deny", "Исключено из контроля",
+            i18n.formatted("iTotalWithList"), "Входящий Всего allow", "Входящий Всего review",
+            "Входящий Всего deny", "Входящий Исключено из контроля",
+            i18n.formatted("oTotalWithList"), "Исходящий Всего allow", "Исходящий Всего review",
+            "Исходящий Всего deny", "Исходящий Исключено из контроля",
+            i18n.formatted("tTotalWithList"), i18n.formatted("tTotalAllow"), "Транзитный Всего review",
+            "Транзитный Всего deny", "Транзитный Исключено из контроля",
+            i18n.formatted("mTotalWithList"), "Межфилиальный Всего allow", "Межфилиальный Всего review",
+            "Межфилиальный Всего deny", "Межфилиальный Исключено из контроля",
+            i18n.formatted("vTotalWithList"), "Внутрифилиальный Всего allow", "Внутрифилиальный Всего review",
+            "Внутрифилиальный Всего deny", "Внутрифилиальный Исключено из контроля"
+        );
+        String[] measures = {"total_with_list", "total_allow", "total_review", "total_deny", "total_bypass"};
+        String[] prefixes = {"", "i_", "o_", "t_", "m_", "v_"};
+
+        List<Column> columns = new ArrayList<>();
+        columns.add(Column.string("Код списка", "list_code"));
+        int label = 0;
+        for (String prefix : prefixes) {
+            for (String measure : measures) {
+                columns.add(Column.numberOrZero(labels.get(label++), prefix + measure));
+            }
+        }
+        return List.copyOf(columns);
+    }
+
+    private static String camelCase(String column) {
+        StringBuilder key = new StringBuilder(column.length());
+        boolean upper = false;
+        for (char c : column.toCharArray()) {
+            if (c == '_') {
+                upper = true;
+            } else {
+                key.append(upper ? Character.toUpperCase(c) : c);
+                upper = false;
+            }
+        }
+        return key.toString();
+    }
+}
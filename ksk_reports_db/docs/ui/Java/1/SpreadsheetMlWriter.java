@@ -0,0 +1,193 @@
+package ru.example.ksk.service.export;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * 🆕 Потоковый писатель Excel XML (SpreadsheetML 2003) — побайтно как файлы, которые строил PL/pgSQL
+ *
+ * ЗАМЕНЯЕТ: xmlelement/xmlagg в ksk_report_*_xls_file и string_agg в ksk_report_review_create_report —
+ * документ целиком собирался в памяти backend-процесса БД
+ *
+ * ✨ ОГРАНИЧЕННАЯ ПАМЯТЬ: каждая ячейка сразу пишется в Writer, строки не накапливаются
+ *
+ * ДИАЛЕКТЫ (разметка прежних функций сохранена, чтобы файлы не отличались от старых):
+ * - COMPACT — как xmlroot(xmlelement(...), version '1.0', standalone yes): без переводов строк,
+ *   NULL → пустой элемент <Data ss:Type="..."/>, экранируются & < > и \r (&#x0d;)
+ * - LINES   — как review (escape_xml): заголовок с encoding="UTF-8", ячейки заголовков и строки
+ *   данных с новой строки, NULL → пустая строка, управляющие символы (кроме \u000B и \f) удаляются,
+ *   \r \n \t (подряд) → один пробел, экранируются & < > " '
+ *
+ * ЖИЗНЕННЫЙ ЦИКЛ: start(sheetName) → headerRow() … → startRow() / cell() … / endRow() … → finish()
+ * (поток НЕ закрывается)
+ */
+public class SpreadsheetMlWriter {
+
+    public enum Dialect {
+        COMPACT,
+        LINES
+    }
+
+    public enum CellType {
+        STRING("String"),
+        NUMBER("Number");
+
+        private final String ssType;
+
+        CellType(String ssType) {
+            this.ssType = ssType;
+        }
+    }
+
+    private static final String WORKBOOK_OPEN = "" +
+        "<Workbook xmlns=\"urn:schemas-microsoft-com:office:spreadsheet\" " +
+        "xmlns:ss=\"urn:schemas-microsoft-com:office:spreadsheet\">";
+    private static final String BOLD_STYLE = "<Style ss:ID=\"s1\"><Font ss:Bold=\"1\"/></Style>";
+
+    private final Writer out;
+    private final Dialect dialect;
+
+    private long rowCount;
+
+    public SpreadsheetMlWriter(Writer out, Dialect dialect) {
+        this.out = out;
+        this.dialect = dialect;
+    }
+
+    public void start(String sheetName) throws IOException {
+        if (dialect == Dialect.COMPACT) {
+            out.write("<?xml version=\"1.0\" standalone=\"yes\"?>");
+            out.write(WORKBOOK_OPEN);
+            out.write("<Styles>" + BOLD_STYLE + "</Styles>");
+            out.write("<Worksheet ss:Name=\"");
+            out.write(sheetName);
+            out.write("\"><Table>");
+        } else {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n");
+            out.write(WORKBOOK_OPEN + "\n");
+            out.write("<Styles>\n" + BOLD_STYLE + "\n</Styles>\n");
+            out.write("<Worksheet ss:Name=\"");
+            out.write(sheetName);
+            out.write("\">\n<Table>\n");
+        }
+    }
+
+    /**
+     * Строка заголовков: жирный стиль s1, все ячейки String
+     */
+    public void headerRow(List<String> values) throws IOException {
+        String separator = dialect == Dialect.COMPACT ? "" : "\n";
+        out.write("<Row>");
+        out.write(separator);
+        for (String value : values) {
+            out.write("<Cell ss:StyleID=\"s1\"><Data ss:Type=\"String\">");
+            writeEscaped(value);
+            out.write("</Data></Cell>");
+            out.write(separator);
+        }
+        out.write("</Row>");
+        out.write(separator);
+    }
+
+    public void startRow() throws IOException {
+        // LINES: строки данных соединялись string_agg(..., E'\n')
+        if (dialect == Dialect.LINES && rowCount > 0) {
+            out.write('\n');
+        }
+        out.write("<Row>");
+    }
+
+    public void cell(CellType type, String value) throws IOException {
+        out.write("<Cell><Data ss:Type=\"");
+        out.write(type.ssType);
+        if (value == null && dialect == Dialect.COMPACT) {
+            out.write("\"/></Cell>");
+            return;
+        }
+        out.write("\">");
+        writeEscaped(value);
+        out.write("</Data></Cell>");
+    }
+
+    public void endRow() throws IOException {
+        out.write("</Row>");
+        rowCount++;
+    }
+
+    public void finish() throws IOException {
+        if (dialect == Dialect.COMPACT) {
+            out.write("</Table></Worksheet></Workbook>");
+        } else {
+            out.write("\n</Table>\n</Worksheet>\n</Workbook>");
+        }
+        out.flush();
+    }
+
+    /**
+     * Строк данных (без заголовков)
+     */
+    public long rowCount() {
+        return rowCount;
+    }
+
+    private void writeEscaped(String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (dialect == Dialect.COMPACT) {
+            writeXmlElementText(value);
+        } else {
+            writeEscapeXml(value);
+        }
+    }
+
+    /**
+     * Экранирование текста xmlelement (escape_xml в xml.c PostgreSQL)
+     */
+    private void writeXmlElementText(String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&' -> out.write("&amp;");
+                case '<' -> out.write("&lt;");
+                case '>' -> out.write("&gt;");
+                case '\r' -> out.write("&#x0d;");
+                default -> out.write(c);
+            }
+        }
+    }
+
+    /**
+     * upoa_ksk_reports.escape_xml: [^[:print:][:space:]] удаляется, [\r\n\t]+ → ' ', затем & < > " '
+     *
+     * 🔄 \u000B и \f входят в [:space:] и, как в БД, остаются в тексте — побайтное совпадение
+     * с прежними файлами (tests/006_ksk_test_xls_file_parity.sql). В XML 1.0 они недопустимы:
+     * такой файл Excel не откроет — так же, как файл, построенный функцией БД
+     */
+    private void writeEscapeXml(String value) throws IOException {
+        boolean inBreak = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\r' || c == '\n' || c == '\t') {
+                if (!inBreak) {
+                    out.write(' ');
+                    inBreak = true;
+                }
+                continue;
+            }
+            if (Character.isISOControl(c) && c != '\u000B' && c != '\f') {
+                continue;
+            }
+            inBreak = false;
+            switch (c) {
+                case '&' -> out.write("&amp;");
+                case '<' -> out.write("&lt;");
+                case '>' -> out.write("&gt;");
+                case '"' -> out.write("&quot;");
+                case '\'' -> out.write("&apos;");
+                default -> out.write(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package ru.example.ksk.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.example.ksk.repository.StoredReportFileRepository;
+import ru.example.ksk.repository.StoredReportFileRepository.StoredReportFile;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 🆕 Экспорт xls из готового файла ksk_report_files (SpreadsheetML)
+ *
+ * ЗАМЕНЯЕТ: повторную генерацию файла из строк данных на каждое скачивание
+ *
+ * ЛОГИКА:
+ * 1. StoredReportFileRepository.getOrGenerate() — последний excel_xml файл заголовка;
+ *    генерация (render: поток строк в COPY) только если файла нет — обычно его уже построил
+ *    ReportJobEngine после завершения отчёта. 🔄 Вызывается без транзакции
+ *    (ReportService — NOT_SUPPORTED): рендер занимает не больше двух соединений пула
+ * 2. Содержимое читается из БД порциями и пишется прямо в ответ
+ *
+ * HTTP:
+ * - ETag = "f{file_id}-{created_datetime}", If-None-Match → 304
+ * - Range: bytes=a-b | a- | -n (один диапазон) → 206 Partial Content, докачка;
+ *   If-Range с другим ETag → полный ответ; недопустимый диапазон → 416
+ * - 🆕 Файл хранится в gzip и Accept-Encoding: gzip → сжатые байты из БД как есть
+ *   (Content-Encoding: gzip), без распаковки на сервере; Range — по сжатым байтам
+ * - Файл хранится в gzip, клиент gzip не принимает → распаковка на лету
+ * - Файл хранится текстом, Accept-Encoding: gzip и нет Range → сжатие на лету
+ * - У gzip-представления свой ETag (-gzip), Vary: Accept-Encoding
+ *
+ * 🆕 МЕТРИКИ: ksk.report.export.duration / bytes{format=xls, source=file} (ExportMetrics)
+ */
+@Service
+@RequiredArgsConstructor
+public class StoredFileExportService {
+
+    public static final String FORMAT = "xls";
+
+    private static final MediaType EXCEL_XML = MediaType.parseMediaType("application/vnd.ms-excel");
+
+    private final StoredReportFileRepository fileRepository;
+    private final ExportMetrics exportMetrics;
+
+    public static boolean supports(String format) {
+        return FORMAT.equalsIgnoreCase(format);
+    }
+
+    public ResponseEntity<StreamingResponseBody> export(Long headerId, HttpHeaders requestHeaders) {
+        StoredReportFile file = fileRepository.getOrGenerate(headerId);
+        long lastModified = file.createdDatetime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        String etag = "\"f" + file.id() + "-" + lastModified + "\"";
+        String gzipEtag = etag.substring(0, etag.length() - 1) + "-gzip\"";
+
+        boolean acceptsGzip = ReportResponseCache.acceptsGzip(requestHeaders.getFirst(HttpHeaders.ACCEPT_ENCODING));
+        // Сжатые при хранении байты отдаются как есть — и Range считается по ним
+        boolean storedGzip = file.gzip() && acceptsGzip;
+        List<HttpRange> ranges = rangesFor(requestHeaders, storedGzip ? gzipEtag : etag);
+        boolean gzip = storedGzip || (acceptsGzip && ranges.isEmpty());
+        String representationEtag = gzip ? gzipEtag : etag;
+        long size = storedGzip ? file.storedBytes() : file.sizeBytes();
+        ContentWriter content = storedGzip ? fileRepository::writeStoredContent : fileRepository::writeContent;
+
+        if (requestHeaders.getIfNoneMatch().contains(representationEtag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(representationEtag).build();
+        }
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(EXCEL_XML)
+                .eTag(representationEtag)
+                .lastModified(lastModified)
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                        .filename(file.fileName(), StandardCharsets.UTF_8)
+                        .build()
+                        .toString());
+        if (storedGzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+
+        if (ranges.size() == 1) {
+            long start;
+            long end;
+            try {
+                start = ranges.get(0).getRangeStart(size);
+                end = ranges.get(0).getRangeEnd(size);
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                        .header(HttpHeaders.CONTENT_RANGE, "bytes */" + size)
+                        .build();
+            }
+            return response.status(HttpStatus.PARTIAL_CONTENT)
+                    .header(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size)
+                    .contentLength(end - start + 1)
+                    .body(exportMetrics.measure(FORMAT, "file",
+                            out -> content.write(file, start, end, out)));
+        }
+
+        if (size == 0) {
+            return response.contentLength(0).body(out -> { });
+        }
+
+        if (gzip && !storedGzip) {
+            return response.header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                    .body(exportMetrics.measure(FORMAT, "file", out -> {
+                        GZIPOutputStream compressed = new GZIPOutputStream(out, 64 * 1024);
+                        fileRepository.writeContent(file, 0, size - 1, compressed);
+                        compressed.finish();
+                    }));
+        }
+
+        return response.contentLength(size)
+                .body(exportMetrics.measure(FORMAT, "file",
+                        out -> content.write(file, 0, size - 1, out)));
+    }
+
+    /**
+     * Диапазон из заголовка Range, если он применим
+     *
+     * Несколько диапазонов (multipart/byteranges) не поддерживаются — отдаём файл целиком,
+     * это допустимо по RFC 9110. If-Range с устаревшим ETag — тоже целиком.
+     */
+    private static List<HttpRange> rangesFor(HttpHeaders requestHeaders, String etag) {
+        List<HttpRange> ranges;
+        try {
+            ranges = requestHeaders.getRange();
+        } catch (IllegalArgumentException e) {
+            return List.of();
+        }
+        if (ranges.size() != 1) {
+            return List.of();
+        }
+        String ifRange = requestHeaders.getFirst(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !ifRange.equals(etag)) {
+            return List.of();
+        }
+        return ranges;
+    }
+
+    @FunctionalInterface
+    private interface ContentWriter {
+        void write(StoredReportFile file, long start, long end, OutputStream out) throws IOException;
+    }
+}
@@ -0,0 +1,127 @@
+package ru.example.ksk.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.example.ksk.repository.StoredReportFileRepository;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 🆕 Перевод сохранённых файлов отчётов в gzip (миграция ksk_report_files)
+ *
+ * Файлы, построенные до появления content_codec, лежат несжатым SpreadsheetML
+ * в file_content_text (content_codec = 'identity'). Новые файлы сразу пишутся в gzip
+ * (ksk.reports.files.codec), старые переписываются здесь — порциями, в фоне.
+ *
+ * ЛОГИКА (раз в interval, на всех узлах):
+ * 1. До batch-size несжатых файлов, старые первыми
+ * 2. Каждый — StoredReportFileRepository.compress: отдельная транзакция, FOR UPDATE SKIP LOCKED —
+ *    узлы не сжимают один файл дважды
+ * 3. Полная порция — следующая сразу, пока несжатые файлы не кончатся; файл с ошибкой
+ *    пропускается до следующего запуска
+ * Пустые места в TOAST после DELETE освобождает autovacuum (место на диске — VACUUM FULL вручную).
+ *
+ * НАСТРОЙКИ (ksk.reports.files.compress.*):
+ * - enabled (true), interval (PT10M), batch-size (20)
+ * Не запускается при ksk.reports.files.codec = identity.
+ *
+ * МЕТРИКИ: ksk.report.file.compress — сжатие одного файла
+ */
+@Slf4j
+@Component
+public class StoredReportFileCompressor {
+
+    private final StoredReportFileRepository fileRepository;
+    private final Timer compressTimer;
+
+    private final boolean enabled;
+    private final Duration interval;
+    private final int batchSize;
+
+    private ScheduledExecutorService scheduler;
+
+    public StoredReportFileCompressor(StoredReportFileRepository fileRepository,
+                                      MeterRegistry meterRegistry,
+                                      @Value("${ksk.reports.files.compress.enabled:true}") boolean enabled,
+                                      @Value("${ksk.reports.files.compress.interval:PT10M}") Duration interval,
+                                      @Value("${ksk.reports.files.compress.batch-size:20}") int batchSize) {
+        this.fileRepository = fileRepository;
+        this.enabled = enabled && StoredReportFileRepository.CODEC_GZIP.equals(fileRepository.codec());
+        this.interval = interval;
+        this.batchSize = batchSize;
+        this.compressTimer = Timer.builder("ksk.report.file.compress")
+            .description("Stored report file conversion from text to gzip")
+            .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            log.info("Файлы отчётов: сжатие сохранённых файлов отключено");
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "ksk-report-files-compress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::compressPending, interval.toMillis(), interval.toMillis(),
+                TimeUnit.MILLISECONDS);
+        log.info("Файлы отчётов: сжатие сохранённых файлов раз в {}, по {} файлов", interval, batchSize);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private void compressPending() {
+        try {
+            List<Long> fileIds;
+            int compressed;
+            do {
+                fileIds = fileRepository.findUncompressed(batchSize);
+                compressed = 0;
+                for (Long fileId : fileIds) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+                    if (compress(fileId)) {
+                        compressed++;
+                    }
+                }
+                // Порция целиком занята другим узлом или с ошибками — до следующего запуска
+            } while (fileIds.size() == batchSize && compressed > 0);
+        } catch (RuntimeException e) {
+            log.error("Файлы отчётов: ошибка выборки несжатых файлов: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return true — файл сжат; false — занят другим узлом, уже сжат или ошибка (повтор в следующий запуск)
+     */
+    private boolean compress(Long fileId) {
+        try {
+            Long compressedId = compressTimer.record(() -> fileRepository.compress(fileId));
+            if (compressedId == null) {
+                return false;
+            }
+            log.debug("Файлы отчётов: файл {} сжат, новый id = {}", fileId, compressedId);
+            return true;
+        } catch (RuntimeException e) {
+            log.warn("Файлы отчётов: не удалось сжать файл {}: {}", fileId, e.getMessage(), e);
+            return false;
+        }
+    }
+}
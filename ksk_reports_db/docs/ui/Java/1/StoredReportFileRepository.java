@@ -0,0 +1,830 @@
+package ru.example.ksk.repository;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.example.ksk.service.export.SpreadsheetLayout;
+import ru.example.ksk.service.export.SpreadsheetLayout.Column;
+import ru.example.ksk.service.export.SpreadsheetMlWriter;
+
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 🆕 Готовые файлы отчётов (ksk_report_files, file_format = 'excel_xml')
+ *
+ * SpreadsheetML хранится сжатым (file_content_bytes, content_codec = 'gzip') или текстом
+ * (file_content_text, content_codec = 'identity'). Экспорт xls отдаёт этот файл как есть,
+ * без повторной генерации.
+ *
+ * 🔄 ГЕНЕРАЦИЯ (render) — в API, а не в БД:
+ * ЗАМЕНЯЕТ: ksk_report_*_xls_file / ksk_report_xls_file_by_header — документ целиком
+ * собирался xmlelement/string_agg в памяти backend-процесса и отнимал CPU БД у приёма КСК
+ * 1. pg_advisory_xact_lock(hashtext('ksk_report_xls_file'), header_id) — тот же ключ, что у
+ *    ksk_report_xls_file_by_header: один файл на заголовок при параллельных запросах на всех узлах
+ * 2. Строки данных читаются серверным курсором (fetchSize = RENDER_FETCH_SIZE) на отдельном
+ *    соединении (REQUIRES_NEW, read-only) в порядке прежней xls-функции:
+ *    ksk_report_*_data (SpreadsheetLayout), review — снимок ksk_report_review_snapshot
+ *    или ksk_report_review(date), rn = 1, фильтр resolution из параметров
+ * 3. SpreadsheetMlWriter пишет документ сразу в COPY ksk_report_files FROM STDIN (текстовый формат):
+ *    в памяти JVM — одна строка данных и буферы, размер файла не важен
+ *    🆕 codec = gzip: UTF-8 → GZIPOutputStream → hex-литерал bytea (\x...) в поле file_content_bytes
+ * 4. file_size_bytes (байты UTF-8 до сжатия) и row_count известны после поля содержимого —
+ *    пишутся следующими колонками той же строки COPY (chk_ksk_report_files_content требует
+ *    file_size_bytes у gzip-строки уже при вставке); id взят из identity-последовательности до COPY
+ * На рендер нужно два соединения пула: COPY и курсор. 🔄 Вызывать вне транзакции
+ * (getOrGenerate из ReportService — NOT_SUPPORTED): внешняя держала бы третье соединение.
+ *
+ * ЧТЕНИЕ ПОРЦИЯМИ (курсор, fetchSize = 1 — в памяти JVM не больше одного чанка):
+ * - gzip: substring(file_content_bytes) по CHUNK_SIZE байт. Колонка STORAGE EXTERNAL —
+ *   каждый substring читает только свои TOAST-чанки
+ *   · writeStoredContent — сжатые байты как есть (ответ с Content-Encoding: gzip, Range по ним)
+ *   · writeContent — распаковка GZIPInputStream на лету, диапазон отсчитывается от начала файла
+ * - identity: file_content_text один раз переводится в байты (convert_to UTF8) в MATERIALIZED CTE,
+ *   generate_series режет их на чанки
+ * - Диапазон [start, end] в байтах — для HTTP Range (докачка)
+ *
+ * 🆕 СЖАТИЕ СТАРЫХ ФАЙЛОВ (compress, см. StoredReportFileCompressor):
+ * текст читается чанками на отдельном соединении, gzip пишется COPY новой строкой
+ * с теми же report_header_id / file_name / created_datetime, старая строка удаляется.
+ * У файла меняется id — и ETag, поэтому докачка старых байт через If-Range невозможна.
+ *
+ * НАСТРОЙКИ: ksk.reports.files.codec — gzip (по умолчанию) | identity
+ *
+ * 🆕 МЕТРИКИ: ksk.report.file.render{report_code} — генерация файла (курсор + COPY)
+ */
+@Repository
+public class StoredReportFileRepository {
+
+    public static final String CODEC_IDENTITY = "identity";
+    public static final String CODEC_GZIP = "gzip";
+
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    private static final int RENDER_FETCH_SIZE = 1000;
+    private static final int COPY_BUFFER_SIZE = 256 * 1024;
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+    private static final String FILES_TABLE = "upoa_ksk_reports.ksk_report_files";
+    private static final String COPY_FILE_SQL =
+        "COPY " + FILES_TABLE + " (id, report_header_id, file_name, file_format, " +
+        "file_content_text, file_content_bytes, content_codec, file_size_bytes, row_count, sheet_count) FROM STDIN";
+    private static final String COPY_COMPRESSED_SQL =
+        "COPY " + FILES_TABLE + " (id, report_header_id, file_name, file_format, created_datetime, " +
+        "file_content_bytes, content_codec, file_size_bytes, sheet_count, row_count) FROM STDIN";
+    private static final String FILE_COLUMNS = "" +
+        "id, file_name, content_codec, created_datetime, " +
+        "CASE WHEN content_codec = 'gzip' THEN file_size_bytes ELSE octet_length(file_content_text) END AS size_bytes, " +
+        "COALESCE(octet_length(file_content_bytes), octet_length(file_content_text)) AS stored_bytes";
+
+    // MATERIALIZED: convert_to (распаковка TOAST) выполняется один раз, а не на каждый чанк
+    private static final String TEXT_CHUNKS_SQL = "" +
+        "WITH f AS MATERIALIZED (" +
+        "    SELECT convert_to(file_content_text, 'UTF8') AS content " +
+        "    FROM upoa_ksk_reports.ksk_report_files " +
+        "    WHERE id = :fileId" +
+        ") " +
+        "SELECT substring(f.content FROM g FOR LEAST(:chunkSize, :lastByte - g + 1)) AS chunk " +
+        "FROM f " +
+        "CROSS JOIN generate_series(:firstByte, :lastByte, :chunkSize) AS g " +
+        "ORDER BY g";
+
+    // STORAGE EXTERNAL: substring читает только TOAST-чанки своего диапазона, материализация не нужна
+    private static final String BYTES_CHUNKS_SQL = "" +
+        "SELECT substring(f.file_content_bytes FROM g FOR LEAST(:chunkSize, :lastByte - g + 1)) AS chunk " +
+        "FROM upoa_ksk_reports.ksk_report_files f " +
+        "CROSS JOIN generate_series(:firstByte, :lastByte, :chunkSize) AS g " +
+        "WHERE f.id = :fileId " +
+        "ORDER BY g";
+
+    private static final RowMapper<StoredReportFile> FILE_ROW_MAPPER = (rs, rowNum) ->
+        new StoredReportFile(
+            rs.getLong("id"),
+            rs.getString("file_name"),
+            rs.getLong("size_bytes"),
+            rs.getString("content_codec"),
+            rs.getLong("stored_bytes"),
+            rs.getTimestamp("created_datetime").toLocalDateTime()
+        );
+
+    private static final DateTimeFormatter FILE_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMddHHmm");
+    private static final DateTimeFormatter REVIEW_DATE = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final DateTimeFormatter REVIEW_TIME = DateTimeFormatter.ofPattern("HHmm");
+
+    /**
+     * Метаданные сохранённого файла
+     *
+     * @param sizeBytes   размер содержимого в байтах UTF-8 (после распаковки)
+     * @param codec       identity | gzip
+     * @param storedBytes размер хранимого представления (у gzip — сжатые байты)
+     */
+    public record StoredReportFile(Long id, String fileName, long sizeBytes, String codec, long storedBytes,
+                                   LocalDateTime createdDatetime) {
+
+        public boolean gzip() {
+            return CODEC_GZIP.equals(codec);
+        }
+    }
+
+    /**
+     * Заголовок отчёта для генерации файла
+     *
+     * @param resolution фильтр review (parameters.resolution, по умолчанию review)
+     * @param snapshot   у review построен снимок ksk_report_review_snapshot
+     */
+    private record RenderHeader(String reportCode, String status, LocalDate startDate,
+                                String resolution, boolean snapshot) {
+    }
+
+    /**
+     * Несжатый файл, который переписывается в gzip
+     */
+    private record CompressSource(Long headerId, String fileName, String fileFormat, LocalDateTime createdDatetime,
+                                  long sizeBytes, Integer sheetCount, Integer rowCount) {
+    }
+
+    @FunctionalInterface
+    private interface CopyBody<T> {
+        T write(Writer copy) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface ContentBody {
+        void write(OutputStream plain) throws IOException;
+    }
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final MeterRegistry meterRegistry;
+    private final String codec;
+    private final TransactionTemplate generateTx;
+    private final TransactionTemplate readTx;
+    private final TransactionTemplate renderReadTx;
+
+    private volatile String filesSequence;
+
+    public StoredReportFileRepository(NamedParameterJdbcTemplate jdbcTemplate,
+                                      PlatformTransactionManager transactionManager,
+                                      MeterRegistry meterRegistry,
+                                      @Value("${ksk.reports.files.codec:gzip}") String codec) {
+        if (!CODEC_GZIP.equals(codec) && !CODEC_IDENTITY.equals(codec)) {
+            throw new IllegalArgumentException("ksk.reports.files.codec: ожидается gzip или identity, получено " + codec);
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.meterRegistry = meterRegistry;
+        this.codec = codec;
+        // Генерация пишет в ksk_report_files — отдельная транзакция поверх read-only сервиса
+        this.generateTx = new TransactionTemplate(transactionManager);
+        this.generateTx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        // Серверный курсор PostgreSQL работает только внутри транзакции
+        this.readTx = new TransactionTemplate(transactionManager);
+        this.readTx.setReadOnly(true);
+        // Курсор данных рядом с открытым COPY — только на другом соединении
+        this.renderReadTx = new TransactionTemplate(transactionManager);
+        this.renderReadTx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.renderReadTx.setReadOnly(true);
+    }
+
+    /**
+     * Кодек новых файлов (ksk.reports.files.codec)
+     */
+    public String codec() {
+        return codec;
+    }
+
+    /**
+     * Последний Excel XML файл отчёта; если его нет — генерирует (render)
+     *
+     * Вызывать вне транзакции: render берёт свои два соединения
+     */
+    public StoredReportFile getOrGenerate(Long headerId) {
+        StoredReportFile file = findLatest(headerId);
+        if (file != null) {
+            return file;
+        }
+        return render(headerId);
+    }
+
+    /**
+     * Сгенерировать Excel XML файл отчёта (status = 'done'), если его ещё нет
+     *
+     * @return готовый или только что созданный файл
+     */
+    public StoredReportFile render(Long headerId) {
+        Long fileId = generateTx.execute(status -> {
+            jdbcTemplate.query(
+                "SELECT pg_advisory_xact_lock(hashtext('ksk_report_xls_file'), CAST(:headerId AS INTEGER))",
+                Map.of("headerId", headerId),
+                (RowCallbackHandler) rs -> { }
+            );
+            StoredReportFile existing = findLatest(headerId);
+            if (existing != null) {
+                return existing.id();
+            }
+            return renderFile(headerId);
+        });
+        return findById(fileId);
+    }
+
+    private Long renderFile(Long headerId) {
+        RenderHeader header = renderHeader(headerId);
+        if (!"done".equals(header.status())) {
+            throw new IllegalStateException(
+                "Отчёт id = " + headerId + " ещё не готов (status = " + header.status() + ")");
+        }
+        SpreadsheetLayout layout = SpreadsheetLayout.of(header.reportCode());
+        String fileName = fileName(header);
+        Long fileId = nextFileId();
+
+        long startNanos = System.nanoTime();
+        long[] rowsAndBytes = copyIn(COPY_FILE_SQL, "COPY файла отчёта " + headerId, copy -> {
+            copy.write(fileId + "\t" + headerId + "\t");
+            new CopyFieldWriter(copy).write(fileName);
+            copy.write("\texcel_xml\t");
+
+            long[] rows = new long[1];
+            long sizeBytes;
+            if (CODEC_GZIP.equals(codec)) {
+                copy.write("\\N\t");
+                sizeBytes = writeGzipField(copy, plain -> {
+                    Writer content = new OutputStreamWriter(plain, StandardCharsets.UTF_8);
+                    rows[0] = writeDocument(layout, header, headerId, content);
+                });
+                copy.write("\tgzip");
+            } else {
+                CopyFieldWriter content = new CopyFieldWriter(copy);
+                rows[0] = writeDocument(layout, header, headerId, content);
+                sizeBytes = content.utf8Bytes();
+                copy.write("\t\\N\tidentity");
+            }
+            // Размер и число строк известны только после поля содержимого — колонки идут за ним
+            copy.write("\t" + sizeBytes + "\t" + Math.toIntExact(rows[0]) + "\t1\n");
+            return new long[] {rows[0], sizeBytes};
+        });
+
+        if (layout == SpreadsheetLayout.REVIEW) {
+            jdbcTemplate.update(
+                "UPDATE upoa_ksk_reports.ksk_report_review_data SET file_size_bytes = :sizeBytes " +
+                "WHERE report_header_id = :headerId",
+                Map.of("sizeBytes", Math.toIntExact(rowsAndBytes[1]), "headerId", headerId)
+            );
+        }
+
+        Timer.builder("ksk.report.file.render")
+            .description("Report Excel XML file rendering duration")
+            .tag("report_code", layout.reportCode())
+            .publishPercentiles(0.5, 0.95, 0.99)
+            .register(meterRegistry)
+            .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        return fileId;
+    }
+
+    /**
+     * Документ целиком: заголовки, строки данных, закрывающие теги
+     *
+     * @return строк данных
+     */
+    private long writeDocument(SpreadsheetLayout layout, RenderHeader header, Long headerId, Writer content)
+            throws IOException {
+        SpreadsheetMlWriter writer = new SpreadsheetMlWriter(content, layout.dialect());
+        writer.start(layout.sheetName());
+        writer.headerRow(layout.labels());
+        writer.headerRow(layout.keys());
+        writeRows(layout, header, headerId, writer);
+        writer.finish();
+        return writer.rowCount();
+    }
+
+    /**
+     * Строки данных в порядке прежней xls-функции, серверным курсором на отдельном соединении
+     */
+    private void writeRows(SpreadsheetLayout layout, RenderHeader header, Long headerId, SpreadsheetMlWriter writer)
+            throws IOException {
+        String sql;
+        Map<String, Object> params;
+        if (layout != SpreadsheetLayout.REVIEW) {
+            sql = "SELECT " + layout.selectList() + " " +
+                "FROM upoa_ksk_reports." + layout.dataTable() + " " +
+                "WHERE report_header_id = :headerId " +
+                layout.orderBy();
+            params = Map.of("headerId", headerId);
+        } else if (header.snapshot()) {
+            sql = "SELECT " + layout.selectList() + " " +
+                "FROM upoa_ksk_reports.ksk_report_review_snapshot " +
+                "WHERE report_header_id = :headerId " +
+                "  AND rn = 1 " +
+                "  AND (:resolution = 'all' OR transaction_resolution = :resolution) " +
+                "ORDER BY row_num";
+            params = Map.of("headerId", headerId, "resolution", header.resolution());
+        } else {
+            sql = "SELECT " + layout.selectList() + " " +
+                "FROM upoa_ksk_reports.ksk_report_review(:date) " +
+                "WHERE rn = 1 " +
+                "  AND (:resolution = 'all' OR transaction_resolution = :resolution)";
+            params = Map.of("date", header.startDate(), "resolution", header.resolution());
+        }
+
+        List<Column> columns = layout.columns();
+        NamedParameterJdbcTemplate cursorJdbc = cursorJdbc(RENDER_FETCH_SIZE);
+        try {
+            renderReadTx.executeWithoutResult(status -> cursorJdbc.query(sql, params, rs -> {
+                try {
+                    writer.startRow();
+                    for (int i = 0; i < columns.size(); i++) {
+                        writer.cell(columns.get(i).type(), rs.getString(i + 1));
+                    }
+                    writer.endRow();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private RenderHeader renderHeader(Long headerId) {
+        String sql = "" +
+            "SELECT o.report_code, h.status, h.start_date, " +
+            "       COALESCE(h.parameters->>'resolution', 'review') AS resolution, " +
+            "       rd.snapshot_datetime IS NOT NULL AS snapshot " +
+            "FROM upoa_ksk_reports.ksk_report_header h " +
+            "JOIN upoa_ksk_reports.ksk_report_orchestrator o ON o.id = h.orchestrator_id " +
+            "LEFT JOIN upoa_ksk_reports.ksk_report_review_data rd ON rd.report_header_id = h.id " +
+            "WHERE h.id = :headerId";
+        List<RenderHeader> headers = jdbcTemplate.query(sql, Map.of("headerId", headerId), (rs, rowNum) ->
+            new RenderHeader(
+                rs.getString("report_code"),
+                rs.getString("status"),
+                rs.getDate("start_date").toLocalDate(),
+                rs.getString("resolution"),
+                rs.getBoolean("snapshot")
+            ));
+        if (headers.isEmpty()) {
+            throw new IllegalArgumentException("Заголовок отчёта с id = " + headerId + " не найден");
+        }
+        return headers.get(0);
+    }
+
+    /**
+     * Имя файла как у прежних функций: {code}__yyyyMMddHHmm.xls, review_{resolution}_{yyyyMMdd}_{HHmm}.xls
+     */
+    private static String fileName(RenderHeader header) {
+        LocalDateTime now = LocalDateTime.now();
+        if ("review".equals(header.reportCode())) {
+            return "review_" + header.resolution() + "_" + header.startDate().format(REVIEW_DATE)
+                + "_" + now.format(REVIEW_TIME) + ".xls";
+        }
+        return header.reportCode() + "__" + now.format(FILE_TIMESTAMP) + ".xls";
+    }
+
+    private Long nextFileId() {
+        if (filesSequence == null) {
+            filesSequence = jdbcTemplate.queryForObject(
+                "SELECT pg_get_serial_sequence(:table, 'id')",
+                Map.of("table", FILES_TABLE),
+                String.class
+            );
+        }
+        return jdbcTemplate.queryForObject(
+            "SELECT nextval(CAST(:sequence AS regclass))",
+            Map.of("sequence", filesSequence),
+            Long.class
+        );
+    }
+
+    // ========================================================================
+    // 🆕 СЖАТИЕ СОХРАНЁННЫХ ФАЙЛОВ (identity → gzip)
+    // ========================================================================
+
+    /**
+     * Id несжатых файлов (content_codec = 'identity'), старые первыми
+     */
+    public List<Long> findUncompressed(int limit) {
+        return jdbcTemplate.queryForList(
+            "SELECT id FROM " + FILES_TABLE + " WHERE content_codec = 'identity' ORDER BY id LIMIT :limit",
+            Map.of("limit", limit),
+            Long.class
+        );
+    }
+
+    /**
+     * Переписать несжатый файл в gzip: COPY новой строки + DELETE старой в одной транзакции
+     *
+     * FOR UPDATE SKIP LOCKED — файл, который сжимает другой узел, пропускается
+     *
+     * @return id сжатого файла; null — файл уже сжат, удалён или занят
+     */
+    public Long compress(Long fileId) {
+        return generateTx.execute(status -> {
+            String sql = "" +
+                "SELECT report_header_id, file_name, file_format, created_datetime, " +
+                "       octet_length(file_content_text) AS size_bytes, sheet_count, row_count " +
+                "FROM " + FILES_TABLE + " " +
+                "WHERE id = :fileId AND content_codec = 'identity' " +
+                "FOR UPDATE SKIP LOCKED";
+            List<CompressSource> sources = jdbcTemplate.query(sql, Map.of("fileId", fileId), (rs, rowNum) ->
+                new CompressSource(
+                    rs.getLong("report_header_id"),
+                    rs.getString("file_name"),
+                    rs.getString("file_format"),
+                    rs.getTimestamp("created_datetime").toLocalDateTime(),
+                    rs.getLong("size_bytes"),
+                    (Integer) rs.getObject("sheet_count"),
+                    (Integer) rs.getObject("row_count")
+                ));
+            if (sources.isEmpty()) {
+                return null;
+            }
+            CompressSource source = sources.get(0);
+            Long compressedId = nextFileId();
+
+            copyIn(COPY_COMPRESSED_SQL, "Сжатие файла отчёта " + fileId, copy -> {
+                copy.write(compressedId + "\t" + source.headerId() + "\t");
+                new CopyFieldWriter(copy).write(source.fileName());
+                copy.write("\t");
+                new CopyFieldWriter(copy).write(source.fileFormat());
+                copy.write("\t" + source.createdDatetime() + "\t");
+                // Текст читается на другом соединении: это занято COPY
+                writeGzipField(copy, plain -> writeChunks(renderReadTx, TEXT_CHUNKS_SQL, fileId,
+                    0, source.sizeBytes() - 1, plain));
+                copy.write("\tgzip\t" + source.sizeBytes()
+                    + "\t" + copyValue(source.sheetCount()) + "\t" + copyValue(source.rowCount()) + "\n");
+                return null;
+            });
+
+            jdbcTemplate.update("DELETE FROM " + FILES_TABLE + " WHERE id = :fileId", Map.of("fileId", fileId));
+            return compressedId;
+        });
+    }
+
+    // ========================================================================
+    // ЧТЕНИЕ
+    // ========================================================================
+
+    private StoredReportFile findLatest(Long headerId) {
+        String sql = "" +
+            "SELECT " + FILE_COLUMNS + " " +
+            "FROM upoa_ksk_reports.ksk_report_files " +
+            "WHERE report_header_id = :headerId " +
+            "  AND file_format = 'excel_xml' " +
+            "ORDER BY created_datetime DESC, id DESC " +
+            "LIMIT 1";
+        List<StoredReportFile> files = jdbcTemplate.query(sql, Map.of("headerId", headerId), FILE_ROW_MAPPER);
+        return files.isEmpty() ? null : files.get(0);
+    }
+
+    private StoredReportFile findById(Long fileId) {
+        String sql = "" +
+            "SELECT " + FILE_COLUMNS + " " +
+            "FROM upoa_ksk_reports.ksk_report_files " +
+            "WHERE id = :fileId";
+        return jdbcTemplate.queryForObject(sql, Map.of("fileId", fileId), FILE_ROW_MAPPER);
+    }
+
+    /**
+     * Записать байты [start, end] (включительно, от 0) содержимого файла в out — всегда несжатые
+     */
+    public void writeContent(StoredReportFile file, long start, long end, OutputStream out) throws IOException {
+        if (!file.gzip()) {
+            writeChunks(readTx, TEXT_CHUNKS_SQL, file.id(), start, end, out);
+            return;
+        }
+        // Распаковка идёт с начала потока: байты до start читаются и отбрасываются
+        NamedParameterJdbcTemplate cursorJdbc = cursorJdbc(1);
+        try {
+            readTx.executeWithoutResult(status -> cursorJdbc.query(BYTES_CHUNKS_SQL,
+                chunkParams(file.id(), 0, file.storedBytes() - 1),
+                (ResultSetExtractor<Void>) rs -> {
+                    try (InputStream content = new GZIPInputStream(new ChunkInputStream(rs), GZIP_BUFFER_SIZE)) {
+                        content.skipNBytes(start);
+                        byte[] buffer = new byte[GZIP_BUFFER_SIZE];
+                        long remaining = end - start + 1;
+                        while (remaining > 0) {
+                            int read = content.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                            if (read < 0) {
+                                throw new EOFException("Файл " + file.id() + ": распакованных байт меньше file_size_bytes");
+                            }
+                            out.write(buffer, 0, read);
+                            remaining -= read;
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return null;
+                }));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Записать байты [start, end] хранимого представления: у gzip — сжатые байты без распаковки
+     */
+    public void writeStoredContent(StoredReportFile file, long start, long end, OutputStream out) throws IOException {
+        if (!file.gzip()) {
+            writeContent(file, start, end, out);
+            return;
+        }
+        writeChunks(readTx, BYTES_CHUNKS_SQL, file.id(), start, end, out);
+    }
+
+    private void writeChunks(TransactionTemplate tx, String sql, Long fileId, long start, long end, OutputStream out)
+            throws IOException {
+        NamedParameterJdbcTemplate cursorJdbc = cursorJdbc(1);
+        try {
+            tx.executeWithoutResult(status -> cursorJdbc.query(sql, chunkParams(fileId, start, end), rs -> {
+                try {
+                    out.write(rs.getBytes("chunk"));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static Map<String, Object> chunkParams(Long fileId, long start, long end) {
+        // substring() для bytea нумерует байты с 1
+        return Map.of(
+            "fileId", fileId,
+            "firstByte", Math.toIntExact(start + 1),
+            "lastByte", Math.toIntExact(end + 1),
+            "chunkSize", CHUNK_SIZE
+        );
+    }
+
+    private NamedParameterJdbcTemplate cursorJdbc(int fetchSize) {
+        JdbcTemplate cursorTemplate = new JdbcTemplate(jdbcTemplate.getJdbcTemplate().getDataSource());
+        cursorTemplate.setFetchSize(fetchSize);
+        return new NamedParameterJdbcTemplate(cursorTemplate);
+    }
+
+    // ========================================================================
+    // COPY
+    // ========================================================================
+
+    /**
+     * COPY ... FROM STDIN (текстовый формат) на текущем соединении; при ошибке COPY отменяется
+     */
+    private <T> T copyIn(String sql, String operation, CopyBody<T> body) {
+        return jdbcTemplate.getJdbcTemplate().execute((ConnectionCallback<T>) connection -> {
+            PGConnection pgConnection = connection.unwrap(PGConnection.class);
+            PGCopyOutputStream stream = new PGCopyOutputStream(pgConnection, sql, COPY_BUFFER_SIZE);
+            try {
+                Writer copy = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), COPY_BUFFER_SIZE);
+                T result = body.write(copy);
+                copy.flush();
+                stream.endCopy();
+                return result;
+            } catch (IOException e) {
+                if (stream.isActive()) {
+                    stream.cancelCopy();
+                }
+                if (e.getCause() instanceof SQLException sqlException) {
+                    throw sqlException;
+                }
+                throw new DataAccessResourceFailureException(operation + " прерван", e);
+            } catch (RuntimeException e) {
+                if (stream.isActive()) {
+                    stream.cancelCopy();
+                }
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * Поле bytea (\\x + hex) со сжатым gzip содержимым
+     *
+     * @return байт до сжатия
+     */
+    private static long writeGzipField(Writer copy, ContentBody body) throws IOException {
+        GZIPOutputStream gzip = new GZIPOutputStream(new CopyByteaOutputStream(copy), GZIP_BUFFER_SIZE);
+        CountingOutputStream plain = new CountingOutputStream(gzip);
+        body.write(plain);
+        plain.flush();
+        gzip.finish();
+        return plain.count();
+    }
+
+    private static String copyValue(Object value) {
+        return value == null ? "\\N" : value.toString();
+    }
+
+    /**
+     * Значение поля COPY (текстовый формат): \\ \n \r \t экранируются,
+     * считаются байты UTF-8 исходного текста — file_size_bytes без второго прохода
+     */
+    private static final class CopyFieldWriter extends Writer {
+
+        private final Writer out;
+        private long utf8Bytes;
+
+        CopyFieldWriter(Writer out) {
+            this.out = out;
+        }
+
+        long utf8Bytes() {
+            return utf8Bytes;
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) throws IOException {
+            for (int i = offset; i < offset + length; i++) {
+                writeChar(buffer[i]);
+            }
+        }
+
+        @Override
+        public void write(String value, int offset, int length) throws IOException {
+            for (int i = offset; i < offset + length; i++) {
+                writeChar(value.charAt(i));
+            }
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            writeChar((char) c);
+        }
+
+        private void writeChar(char c) throws IOException {
+            switch (c) {
+                case '\\' -> out.write("\\\\");
+                case '\n' -> out.write("\\n");
+                case '\r' -> out.write("\\r");
+                case '\t' -> out.write("\\t");
+                default -> out.write(c);
+            }
+            // Суррогатная пара — 4 байта UTF-8, по 2 на каждую половину
+            utf8Bytes += c < 0x80 ? 1 : c < 0x800 || Character.isSurrogate(c) ? 2 : 3;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Байты как hex-литерал bytea в поле COPY: обратная косая черта удваивается — \\x0a1b...
+     *
+     * close() не закрывает COPY: после поля идут остальные колонки строки
+     */
+    private static final class CopyByteaOutputStream extends OutputStream {
+
+        private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+        private final Writer out;
+        private final char[] buffer = new char[2 * GZIP_BUFFER_SIZE];
+
+        CopyByteaOutputStream(Writer out) throws IOException {
+            this.out = out;
+            out.write("\\\\x");
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(HEX[(b >> 4) & 0x0F]);
+            out.write(HEX[b & 0x0F]);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                int portion = Math.min(length, GZIP_BUFFER_SIZE);
+                for (int i = 0; i < portion; i++) {
+                    int b = bytes[offset + i];
+                    buffer[2 * i] = HEX[(b >> 4) & 0x0F];
+                    buffer[2 * i + 1] = HEX[b & 0x0F];
+                }
+                out.write(buffer, 0, 2 * portion);
+                offset += portion;
+                length -= portion;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Счётчик байт до сжатия — file_size_bytes
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        long count() {
+            return count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+            count += length;
+        }
+    }
+
+    /**
+     * Чанки курсора (колонка chunk) как InputStream — для GZIPInputStream
+     */
+    private static final class ChunkInputStream extends InputStream {
+
+        private final ResultSet rs;
+        private byte[] chunk = new byte[0];
+        private int position;
+
+        ChunkInputStream(ResultSet rs) {
+            this.rs = rs;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!ensureChunk()) {
+                return -1;
+            }
+            return chunk[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!ensureChunk()) {
+                return -1;
+            }
+            int read = Math.min(length, chunk.length - position);
+            System.arraycopy(chunk, position, bytes, offset, read);
+            position += read;
+            return read;
+        }
+
+        private boolean ensureChunk() throws IOException {
+            try {
+                while (position >= chunk.length) {
+                    if (!rs.next()) {
+                        return false;
+                    }
+                    chunk = rs.getBytes("chunk");
+                    position = 0;
+                }
+                return true;
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package ru.example.ksk.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.example.ksk.dto.ReportVersion;
+import ru.example.ksk.repository.ReportDataRepository;
+import ru.example.ksk.service.export.CsvReportRowWriter;
+import ru.example.ksk.service.export.ReportRowWriter;
+import ru.example.ksk.service.export.XlsxReportRowWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 🆕 Потоковый экспорт отчётов (csv, xlsx)
+ *
+ * ЗАМЕНЯЕТ: getReportData(..., 999999, 0) → List<Map> → byte[]
+ *
+ * МЕХАНИЗМ:
+ * 1. Контроллер сразу возвращает ResponseEntity<StreamingResponseBody>
+ * 2. В теле ответа открывается read-only транзакция (нужна для серверного курсора)
+ * 3. ReportDataRepository.streamReportDataByHeaderId() читает строки порциями (fetchSize)
+ * 4. ReportRowWriter пишет каждую строку прямо в OutputStream ответа
+ *
+ * ✨ ПРЕИМУЩЕСТВА:
+ * - Нет ограничения на количество строк
+ * - Heap не растёт с размером отчёта (одна строка / окно SXSSF)
+ * - Первые байты уходят клиенту до окончания чтения из БД
+ *
+ * pdf потоково не поддерживается — см. ReportService.exportSystemReport()
+ *
+ * 🆕 Неизменяемые системные отчёты (ReportVersion != null, последние дни):
+ * выгрузка одновременно пишется клиенту и в ReportResponseCache,
+ * повторное скачивание отдаётся из памяти без обращения к БД
+ *
+ * 🆕 МЕТРИКИ: ksk.report.export.duration / bytes{format, source=db|cache} (ExportMetrics)
+ */
+@Service
+@RequiredArgsConstructor
+public class StreamingExportService {
+
+    // format → Content-Type; ключи = форматы с потоковой выгрузкой
+    private static final Map<String, String> CONTENT_TYPES = Map.of(
+            "csv", "text/csv; charset=UTF-8",
+            "xlsx", "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"
+    );
+
+    private static final DateTimeFormatter FILE_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMddHHmm");
+
+    private final ReportDataRepository dataRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ReportResponseCache responseCache;
+    private final ExportMetrics exportMetrics;
+
+    public static boolean supports(String format) {
+        return format != null && CONTENT_TYPES.containsKey(format.toLowerCase());
+    }
+
+    /**
+     * Экспорт отчёта по report_header_id
+     *
+     * @param headerId   ID заголовка отчёта (системного или пользовательского)
+     * @param filePrefix префикс имени файла (reportCode для системных отчётов)
+     * @param format     csv | xlsx
+     *
+     * Имя файла: {filePrefix}__{yyyyMMddHHmm}.{ext} (как в xls_examples/)
+     */
+    public ResponseEntity<StreamingResponseBody> export(Long headerId, String filePrefix, String format) {
+        return export(headerId, filePrefix, format, null, false);
+    }
+
+    /**
+     * Экспорт с кэшем готовых выгрузок
+     *
+     * @param version     версия неизменяемого отчёта (null — без кэша)
+     * @param acceptsGzip клиент принимает Content-Encoding: gzip (кэш csv хранится сжатым)
+     */
+    public ResponseEntity<StreamingResponseBody> export(Long headerId, String filePrefix, String format,
+                                                        ReportVersion version, boolean acceptsGzip) {
+        String normalizedFormat = format.toLowerCase();
+        String contentType = CONTENT_TYPES.get(normalizedFormat);
+        if (contentType == null) {
+            throw new IllegalArgumentException("Формат не поддерживает потоковый экспорт: " + format);
+        }
+
+        String fileName = filePrefix + "__" + LocalDateTime.now().format(FILE_TIMESTAMP) + "." + normalizedFormat;
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(contentType))
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                        .filename(fileName, StandardCharsets.UTF_8)
+                        .build()
+                        .toString());
+
+        // csv хранится и отдаётся сжатым — только клиенту с gzip (см. gzipVariant)
+        boolean gzip = gzipVariant(normalizedFormat, version, acceptsGzip);
+        boolean cacheable = version != null && ReportResponseCache.isCacheable(version.reportDate());
+        if (!cacheable || ("csv".equals(normalizedFormat) && !gzip)) {
+            return response.body(exportMetrics.measure(normalizedFormat, "db",
+                    out -> writeReport(headerId, normalizedFormat, out)));
+        }
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+
+        String cacheKey = version.cacheKey("export", normalizedFormat);
+        ReportResponseCache.Entry cached = responseCache.get(cacheKey);
+        if (cached != null) {
+            return response.body(exportMetrics.measure(normalizedFormat, "cache",
+                    out -> out.write(cached.body())));
+        }
+
+        return response.body(exportMetrics.measure(normalizedFormat, "db", out -> {
+            ReportResponseCache.CapturingOutputStream capturing = new ReportResponseCache.CapturingOutputStream(out);
+            if (gzip) {
+                GZIPOutputStream compressed = new GZIPOutputStream(capturing, 64 * 1024);
+                writeReport(headerId, normalizedFormat, compressed);
+                compressed.finish();
+            } else {
+                writeReport(headerId, normalizedFormat, capturing);
+            }
+            byte[] content = capturing.captured();
+            if (content != null) {
+                responseCache.put(cacheKey, content, gzip);
+            }
+        }));
+    }
+
+    /**
+     * Будет ли выгрузка отдана с Content-Encoding: gzip
+     * (представление входит в ETag — у gzip и обычного ответа разные сильные ETag)
+     */
+    public static boolean gzipVariant(String format, ReportVersion version, boolean acceptsGzip) {
+        return "csv".equalsIgnoreCase(format) && acceptsGzip
+                && version != null && ReportResponseCache.isCacheable(version.reportDate());
+    }
+
+    private void writeReport(Long headerId, String format, OutputStream out) throws IOException {
+        TransactionTemplate readOnlyTx = new TransactionTemplate(transactionTemplate.getTransactionManager());
+        readOnlyTx.setReadOnly(true);
+
+        try (ReportRowWriter writer = createWriter(format, out)) {
+            readOnlyTx.executeWithoutResult(status ->
+                    dataRepository.streamReportDataByHeaderId(headerId, rs -> {
+                        try {
+                            return writer.writeAll(rs);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static ReportRowWriter createWriter(String format, OutputStream out) {
+        return "xlsx".equals(format) ? new XlsxReportRowWriter(out) : new CsvReportRowWriter(out);
+    }
+}
@@ -0,0 +1,129 @@
+package ru.example.ksk.service.export;
+
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * XLSX писатель строк отчёта на базе Apache POI SXSSF.
+ *
+ * ✨ ОГРАНИЧЕННАЯ ПАМЯТЬ:
+ * SXSSFWorkbook держит в heap только последние WINDOW_SIZE строк,
+ * остальные сбрасываются во временный (сжатый) файл на диске.
+ *
+ * ✨ БЕЗ ЛИМИТА СТРОК:
+ * Лист Excel вмещает 1 048 576 строк — при переполнении создаётся
+ * следующий лист ("Отчёт (2)", ...) с повтором строки заголовков.
+ */
+public class XlsxReportRowWriter implements ReportRowWriter {
+
+    private static final int WINDOW_SIZE = 100;
+    private static final int MAX_ROWS_PER_SHEET = SpreadsheetVersion.EXCEL2007.getMaxRows();
+    private static final String SHEET_NAME = "Отчёт";
+
+    private final OutputStream out;
+    private final SXSSFWorkbook workbook;
+    private final CellStyle headerStyle;
+
+    private String[] columnLabels;
+    private boolean[] numericColumns;
+    private Sheet sheet;
+    private int sheetCount;
+    private int rowIndex;
+
+    public XlsxReportRowWriter(OutputStream out) {
+        this.out = out;
+        this.workbook = new SXSSFWorkbook(WINDOW_SIZE);
+        this.workbook.setCompressTempFiles(true);
+
+        Font bold = workbook.createFont();
+        bold.setBold(true);
+        this.headerStyle = workbook.createCellStyle();
+        this.headerStyle.setFont(bold);
+    }
+
+    @Override
+    public void writeHeader(ResultSetMetaData metaData) throws SQLException {
+        int columnCount = metaData.getColumnCount();
+        columnLabels = new String[columnCount];
+        numericColumns = new boolean[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            columnLabels[i] = metaData.getColumnLabel(i + 1);
+            numericColumns[i] = isNumeric(metaData.getColumnType(i + 1));
+        }
+        nextSheet();
+    }
+
+    @Override
+    public void writeRow(ResultSet rs) throws SQLException {
+        if (rowIndex >= MAX_ROWS_PER_SHEET) {
+            nextSheet();
+        }
+        Row row = sheet.createRow(rowIndex++);
+        for (int i = 0; i < columnLabels.length; i++) {
+            if (numericColumns[i]) {
+                double value = rs.getDouble(i + 1);
+                if (!rs.wasNull()) {
+                    row.createCell(i).setCellValue(value);
+                }
+            } else {
+                String value = rs.getString(i + 1);
+                if (value != null) {
+                    row.createCell(i).setCellValue(value);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        workbook.write(out);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Удаляем временные файлы SXSSF (в т.ч. если выгрузка прервалась)
+        workbook.dispose();
+        workbook.close();
+    }
+
+    private void nextSheet() {
+        sheetCount++;
+        sheet = workbook.createSheet(sheetCount == 1 ? SHEET_NAME : SHEET_NAME + " (" + sheetCount + ")");
+        Row header = sheet.createRow(0);
+        for (int i = 0; i < columnLabels.length; i++) {
+            Cell cell = header.createCell(i);
+            cell.setCellValue(columnLabels[i]);
+            cell.setCellStyle(headerStyle);
+        }
+        rowIndex = 1;
+    }
+
+    private static boolean isNumeric(int sqlType) {
+        switch (sqlType) {
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package ru.example.ksk.service.ingest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Разбор output_json: дерево ↔ KskOutputScanner
+ *
+ * - tree      — readTree + обход searchCheckResultKCKH и writeValueAsString фигурантов/совпадений
+ *               (путь KskResultMapper до потокового разбора)
+ * - streaming — KskOutputScanner в многоразовый KskOutputScan
+ *
+ * Оба метода вычисляют одно и то же: corrId, резолюции, has_bypass, строки фигурантов и совпадений.
+ * Образцы — docs/json (каталог: -Dksk.json.dir, по умолчанию docs/json от корня ksk_reports_db).
+ * ops/s = сообщений в секунду, gc.alloc.rate.norm = байт на сообщение.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class KskOutputParsingBenchmark {
+
+    @Param({"output.json", "output_2figurants.json", "output_withGroup.json",
+            "output_exclusions.json", "output_empty.json"})
+    public String sample;
+
+    private final ObjectMapper objectMapper = KskResultMapper.exactMapper();
+    private final KskOutputScanner scanner = new KskOutputScanner(objectMapper);
+    private final KskOutputScan scan = new KskOutputScan();
+    private String json;
+
+    @Setup
+    public void setUp() throws Exception {
+        Path dir = Path.of(System.getProperty("ksk.json.dir", "docs/json"));
+        json = InMemoryKskMessageSource.readSample(dir.resolve(sample));
+
+        // Сравнение имеет смысл, только если оба пути дают одно и то же
+        List<Object> fromTree = new ArrayList<>();
+        List<Object> fromStream = new ArrayList<>();
+        tree(fromTree::add);
+        streaming(fromStream::add);
+        if (!fromTree.equals(fromStream)) {
+            throw new IllegalStateException(sample + ": потоковый разбор расходится с деревом\n" + fromTree + "\n" + fromStream);
+        }
+    }
+
+    @Benchmark
+    public void tree(Blackhole blackhole) throws Exception {
+        tree(blackhole::consume);
+    }
+
+    @Benchmark
+    public void streaming(Blackhole blackhole) {
+        streaming(blackhole::consume);
+    }
+
+    private void tree(Sink sink) throws Exception {
+        JsonNode output = objectMapper.readTree(json);
+        JsonNode searchResults = output.has("searchCheckResultKCKH")
+            ? output.get("searchCheckResultKCKH")
+            : objectMapper.createArrayNode();
+
+        sink.accept(JsonbText.text(output.get("headerInfo"), "corrId"));
+        sink.accept(KskResolutionRules.transactionStatus(searchResults));
+        sink.accept(KskResolutionRules.hasBypass(searchResults));
+        for (JsonNode figurant : searchResults) {
+            // Содержимое jsonb сравнивается в БД; здесь — только то, что обе ветки считают одинаково
+            objectMapper.writeValueAsString(figurant);
+            sink.accept(KskResolutionRules.figurantStatus(figurant));
+            sink.accept(JsonbText.text(figurant, "listCode"));
+            sink.accept(JsonbText.text(figurant, "nameFigurant"));
+            sink.accept(JsonbText.text(figurant, "bypassName"));
+            JsonNode exclusions = figurant.get("searchCheckResultsExclusionList");
+            if (exclusions != null && exclusions.isObject()) {
+                JsonNode phrases = exclusions.get("phrasesToExclude");
+                if (phrases != null) {
+                    for (JsonNode phrase : phrases) {
+                        sink.accept(JsonbText.value(phrase));
+                    }
+                }
+                JsonNode nameList = exclusions.get("nameList");
+                sink.accept(nameList != null ? JsonbText.render(nameList) : null);
+            } else {
+                sink.accept(null);
+            }
+            JsonNode matches = figurant.get("match");
+            if (matches != null) {
+                for (JsonNode match : matches) {
+                    objectMapper.writeValueAsString(match);
+                    sink.accept(JsonbText.text(match, "algorithm"));
+                    sink.accept(JsonbText.text(match, "value"));
+                    sink.accept(JsonbText.text(match, "paymentField"));
+                    sink.accept(JsonbText.text(match, "paymentValue"));
+                }
+            }
+        }
+    }
+
+    private void streaming(Sink sink) {
+        KskOutputScan output = scanner.scan(json, scan);
+        List<String> nonBypassStatuses = new ArrayList<>(output.figurantCount);
+        int bypassed = 0;
+        for (int i = 0; i < output.figurantCount; i++) {
+            KskOutputScan.FigurantScan figurant = output.figurants[i];
+            if (KskResolutionRules.isBypass(figurant.bypassName)) {
+                bypassed++;
+            } else {
+                nonBypassStatuses.add(status(figurant));
+            }
+        }
+
+        sink.accept(output.corrId);
+        sink.accept(KskResolutionRules.transactionStatus(output.figurantCount, nonBypassStatuses));
+        sink.accept(KskResolutionRules.hasBypass(output.figurantCount, bypassed));
+        for (int i = 0; i < output.figurantCount; i++) {
+            KskOutputScan.FigurantScan figurant = output.figurants[i];
+            sink.accept(status(figurant));
+            sink.accept(figurant.listCode);
+            sink.accept(figurant.nameFigurant);
+            sink.accept(figurant.bypassName);
+            figurant.phrases.forEach(sink::accept);
+            sink.accept(figurant.nameList);
+            for (int m = 0; m < Math.max(0, figurant.matchCount); m++) {
+                KskOutputScan.MatchScan match = figurant.matches[m];
+                sink.accept(match.algorithm);
+                sink.accept(match.value);
+                sink.accept(match.paymentField);
+                sink.accept(match.paymentValue);
+            }
+        }
+    }
+
+    private static String status(KskOutputScan.FigurantScan figurant) {
+        return KskResolutionRules.figurantStatus(figurant.presidentGroup,
+                                                 Boolean.TRUE.equals(figurant.autoLogin),
+                                                 figurant.hasExclusions);
+    }
+
+    @FunctionalInterface
+    private interface Sink {
+        void accept(Object value);
+    }
+}
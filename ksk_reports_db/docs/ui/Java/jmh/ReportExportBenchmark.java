@@ -0,0 +1,73 @@
+package ru.example.ksk.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.example.ksk.service.export.CsvReportRowWriter;
+import ru.example.ksk.service.export.ReportRowWriter;
+import ru.example.ksk.service.export.XlsxReportRowWriter;
+
+import javax.sql.rowset.CachedRowSet;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Потоковые писатели экспорта (StreamingExportService): csv и xlsx
+ *
+ * Выгрузка ROWS строк в OutputStream.nullOutputStream() — измеряется только
+ * форматирование и буферизация, без сети. ops/s = строк в секунду,
+ * gc.alloc.rate.norm = байт на строку (@OperationsPerInvocation(ROWS)).
+ *
+ * xlsx (SXSSF) пишет временные файлы — результат зависит и от диска.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(2)
+public class ReportExportBenchmark {
+
+    static final int ROWS = 10_000;
+
+    @Param({"totals", "totals_by_payment_type", "list_totals",
+            "list_totals_by_payment_type", "figurants", "review"})
+    public String reportCode;
+
+    private CachedRowSet resultSet;
+
+    @Setup
+    public void setUp() throws SQLException {
+        resultSet = ReportFixtures.resultSet(reportCode, ROWS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long csv() throws SQLException, IOException {
+        return writeAll(new CsvReportRowWriter(OutputStream.nullOutputStream()));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long xlsx() throws SQLException, IOException {
+        return writeAll(new XlsxReportRowWriter(OutputStream.nullOutputStream()));
+    }
+
+    private long writeAll(ReportRowWriter writer) throws SQLException, IOException {
+        resultSet.beforeFirst();
+        try (writer) {
+            return writer.writeAll(resultSet);
+        }
+    }
+}
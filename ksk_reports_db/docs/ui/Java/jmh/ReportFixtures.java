@@ -0,0 +1,230 @@
+package ru.example.ksk.benchmark;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.RowSetProvider;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Синтетические страницы отчётов для JMH (без БД)
+ *
+ * Колонки повторяют SELECT * из ksk_report_*_data (служебные id, report_header_id,
+ * created_date_time + колонки отчёта) и ksk_report_review_snapshot; значения — по образцу
+ * xls_examples/*.xlsx: коды списков '4200', счётчики десятков–тысяч, строка review
+ * с corr_id / UUID, длинным назначением платежа и пустыми реквизитами.
+ *
+ * ResultSet — CachedRowSet из JDK: настоящая семантика JDBC (wasNull, getString
+ * от числа, метаданные с java.sql.Types), данные в памяти. Перед каждым проходом — beforeFirst().
+ */
+public final class ReportFixtures {
+
+    public static final String[] REPORT_CODES = {
+        "totals", "totals_by_payment_type", "list_totals",
+        "list_totals_by_payment_type", "figurants", "review"
+    };
+
+    private static final String[] LIST_CODES = {"4200", "4204", "4205", "4210", "4300"};
+    private static final String[] PAYMENT_TYPE_PREFIXES = {"i", "o", "t", "m", "v"};
+    private static final String PAYMENT_PURPOSE =
+        "Это пример предложения для вставки в него 47675612300031504227 слова.";
+
+    private ReportFixtures() {
+    }
+
+    /**
+     * Колонка: имя как в БД и тип java.sql.Types
+     */
+    public record Column(String name, int type) {
+    }
+
+    public static List<Column> columns(String reportCode) {
+        List<Column> columns = new ArrayList<>();
+        if (!"review".equals(reportCode)) {
+            columns.add(new Column("id", Types.INTEGER));
+            columns.add(new Column("report_header_id", Types.INTEGER));
+            columns.add(new Column("created_date_time", Types.TIMESTAMP));
+        }
+        switch (reportCode) {
+            case "totals" -> addTotals(columns, "");
+            case "totals_by_payment_type" -> {
+                addTotals(columns, "");
+                for (String prefix : PAYMENT_TYPE_PREFIXES) {
+                    addTotals(columns, prefix + "_");
+                }
+            }
+            case "list_totals" -> {
+                columns.add(new Column("list_code", Types.VARCHAR));
+                addListTotals(columns, "");
+            }
+            case "list_totals_by_payment_type" -> {
+                columns.add(new Column("list_code", Types.VARCHAR));
+                addListTotals(columns, "");
+                for (String prefix : PAYMENT_TYPE_PREFIXES) {
+                    addListTotals(columns, prefix + "_");
+                }
+            }
+            case "figurants" -> {
+                columns.add(new Column("list_code", Types.VARCHAR));
+                columns.add(new Column("name_figurant", Types.VARCHAR));
+                columns.add(new Column("president_group", Types.VARCHAR));
+                columns.add(new Column("auto_login", Types.VARCHAR));
+                columns.add(new Column("exclusion_phrase", Types.VARCHAR));
+                columns.add(new Column("exclusion_name_list", Types.VARCHAR));
+                for (String name : new String[] {"total", "total_allow", "total_review", "total_deny", "total_bypass"}) {
+                    columns.add(new Column(name, Types.INTEGER));
+                }
+            }
+            case "review" -> addReview(columns);
+            default -> throw new IllegalArgumentException("Неизвестный тип отчёта: " + reportCode);
+        }
+        return columns;
+    }
+
+    /**
+     * Страница из rows строк. Генератор детерминирован (seed = rows) — прогоны сравнимы
+     */
+    public static CachedRowSet resultSet(String reportCode, int rows) throws SQLException {
+        List<Column> columns = columns(reportCode);
+
+        RowSetMetaDataImpl meta = new RowSetMetaDataImpl();
+        meta.setColumnCount(columns.size());
+        for (int i = 0; i < columns.size(); i++) {
+            meta.setColumnName(i + 1, columns.get(i).name());
+            meta.setColumnLabel(i + 1, columns.get(i).name());
+            meta.setColumnType(i + 1, columns.get(i).type());
+            meta.setNullable(i + 1, RowSetMetaDataImpl.columnNullable);
+        }
+
+        CachedRowSet rowSet = RowSetProvider.newFactory().createCachedRowSet();
+        rowSet.setMetaData(meta);
+
+        Random random = new Random(rows);
+        LocalDateTime start = LocalDateTime.of(2025, 12, 6, 0, 0);
+        for (int row = 0; row < rows; row++) {
+            rowSet.moveToInsertRow();
+            for (int i = 0; i < columns.size(); i++) {
+                Object value = value(columns.get(i), row, start, random);
+                if (value == null) {
+                    rowSet.updateNull(i + 1);
+                } else {
+                    rowSet.updateObject(i + 1, value);
+                }
+            }
+            rowSet.insertRow();
+            rowSet.moveToCurrentRow();
+        }
+        rowSet.beforeFirst();
+        return rowSet;
+    }
+
+    private static Object value(Column column, int row, LocalDateTime start, Random random) {
+        String name = column.name();
+        switch (column.type()) {
+            case Types.INTEGER:
+                if ("id".equals(name)) {
+                    return row + 1;
+                }
+                if ("report_header_id".equals(name)) {
+                    return 126;
+                }
+                return random.nextInt(name.startsWith("total") ? 50_000 : 500);
+            case Types.BIGINT:
+                return (long) row * 7 + random.nextInt(7);
+            case Types.BOOLEAN:
+                return random.nextInt(10) == 0;
+            case Types.TIMESTAMP:
+                return Timestamp.valueOf(start.plusNanos(row * 1_250_000_000L));
+            default:
+                return stringValue(name, row, random);
+        }
+    }
+
+    private static String stringValue(String name, int row, Random random) {
+        switch (name) {
+            case "list_code":
+                return LIST_CODES[row % LIST_CODES.length];
+            case "corr_id":
+            case "payment_id":
+                return new UUID(random.nextLong(), random.nextLong()).toString();
+            case "algorithm":
+                return "SEARCH_WORDS_DOPB_SHORT";
+            case "match_value":
+                return String.valueOf(100 + random.nextInt(900));
+            case "match_payment_field":
+                return "paymentPurpose";
+            case "match_payment_value":
+            case "payment_purpose":
+                return PAYMENT_PURPOSE;
+            case "name_figurant":
+                return "Фигурант " + (row % 40);
+            case "president_group":
+                return "none";
+            case "auto_login":
+                return "false";
+            case "is_bypass":
+                return "no";
+            case "transaction_resolution":
+            case "figurant_resolition":
+                return "review";
+            case "amount":
+                return String.valueOf(random.nextInt(100_000) / 100.0);
+            case "currency":
+                return "TRY";
+            case "exclusion_phrase":
+            case "exclusion_name_list":
+                return row % 10 == 0 ? "исключение " + row : "";
+            default:
+                // Реквизиты плательщика / получателя в примерах в основном пустые
+                return row % 4 == 0 ? "40702810" + (10_000_000_000L + random.nextInt(1_000_000)) : null;
+        }
+    }
+
+    private static void addTotals(List<Column> columns, String prefix) {
+        for (String name : new String[] {"total", "total_without_result", "total_with_result",
+                                          "total_allow", "total_review", "total_deny", "total_bypass"}) {
+            columns.add(new Column(prefix + name, Types.INTEGER));
+        }
+    }
+
+    private static void addListTotals(List<Column> columns, String prefix) {
+        for (String name : new String[] {"total_with_list", "total_without_list", "total_allow",
+                                          "total_review", "total_deny", "total_bypass"}) {
+            columns.add(new Column(prefix + name, Types.INTEGER));
+        }
+    }
+
+    /**
+     * Колонки ksk_report_review_snapshot, порядок как в REVIEW_SNAPSHOT_COLUMNS
+     */
+    private static void addReview(List<Column> columns) {
+        columns.add(new Column("corr_id", Types.VARCHAR));
+        columns.add(new Column("message_timestamp", Types.TIMESTAMP));
+        for (String name : new String[] {"algorithm", "match_value", "match_payment_field", "match_payment_value",
+                                          "list_code", "name_figurant", "president_group"}) {
+            columns.add(new Column(name, Types.VARCHAR));
+        }
+        columns.add(new Column("auto_login", Types.BOOLEAN));
+        columns.add(new Column("has_exclusion", Types.BOOLEAN));
+        for (String name : new String[] {"exclusion_phrase", "exclusion_name_list", "is_bypass",
+                                          "transaction_resolution", "figurant_resolition", "payment_id",
+                                          "payment_purpose", "account_debet", "account_credit", "payer_inn",
+                                          "payer_name", "payer_account_number", "payer_document_type",
+                                          "payer_bank_name", "payer_bank_account_number",
+                                          "receiver_account_number", "receiver_name", "receiver_inn",
+                                          "receiver_bank_name", "receiver_bank_account_number",
+                                          "receiver_document_type", "amount", "currency", "currency_control"}) {
+            columns.add(new Column(name, Types.VARCHAR));
+        }
+        columns.add(new Column("match_id", Types.BIGINT));
+        columns.add(new Column("figurant_id", Types.BIGINT));
+        columns.add(new Column("transaction_id", Types.BIGINT));
+        columns.add(new Column("rn", Types.INTEGER));
+    }
+}
@@ -0,0 +1,76 @@
+package ru.example.ksk.repository;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.ColumnMapRowMapper;
+import org.springframework.jdbc.core.RowMapperResultSetExtractor;
+import ru.example.ksk.benchmark.ReportFixtures;
+import ru.example.ksk.dto.ReportRowSet;
+
+import javax.sql.rowset.CachedRowSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Чтение страницы отчёта из ResultSet: queryForList (ColumnMapRowMapper) против ReportRowSetExtractor
+ *
+ * Страница = ROWS строк (limit по умолчанию в API). ops/s = строк в секунду,
+ * gc.alloc.rate.norm (-prof gc) = байт на строку — за счёт @OperationsPerInvocation(ROWS).
+ *
+ * Пакет repository — ReportRowSetExtractor package-private.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class ReportRowMappingBenchmark {
+
+    static final int ROWS = 100;
+
+    @Param({"totals", "totals_by_payment_type", "list_totals",
+            "list_totals_by_payment_type", "figurants", "review"})
+    public String reportCode;
+
+    private CachedRowSet resultSet;
+    private RowMapperResultSetExtractor<Map<String, Object>> columnMapExtractor;
+
+    @Setup
+    public void setUp() throws SQLException {
+        resultSet = ReportFixtures.resultSet(reportCode, ROWS);
+        columnMapExtractor = new RowMapperResultSetExtractor<>(new ColumnMapRowMapper(), ROWS);
+    }
+
+    /**
+     * Как было: jdbcTemplate.queryForList — LinkedCaseInsensitiveMap на строку, getObject на ячейку
+     */
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public List<Map<String, Object>> columnMapRowMapper() throws SQLException {
+        resultSet.beforeFirst();
+        return columnMapExtractor.extractData(resultSet);
+    }
+
+    /**
+     * Сейчас: ReportRowSetExtractor — схема один раз на запрос, Object[] на строку, типизированные геттеры
+     */
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public ReportRowSet reportRowSetExtractor() throws SQLException {
+        resultSet.beforeFirst();
+        return new ReportRowSetExtractor(ROWS + 1).extractData(resultSet);
+    }
+}
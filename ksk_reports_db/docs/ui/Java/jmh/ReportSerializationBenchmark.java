@@ -0,0 +1,129 @@
+package ru.example.ksk.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.ColumnMapRowMapper;
+import org.springframework.jdbc.core.RowMapperResultSetExtractor;
+import ru.example.ksk.dto.PaginationDto;
+import ru.example.ksk.dto.ReportDataDto;
+import ru.example.ksk.dto.ReportRowSet;
+
+import javax.sql.rowset.CachedRowSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON-сериализация страницы ReportDataDto (то, что отдаёт /data)
+ *
+ * - legacyMaps — data: List<LinkedCaseInsensitiveMap> из queryForList (как было)
+ * - rowsShape  — data: ReportRowSet.asMaps() (shape=rows, текущий ответ по умолчанию)
+ * - columnar   — columns + rows: Object[] (shape=columnar)
+ *
+ * ObjectMapper настроен как в API: snake_case, JavaTimeModule, даты строкой.
+ * ops/s = строк в секунду, gc.alloc.rate.norm = байт на строку (@OperationsPerInvocation(ROWS)).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class ReportSerializationBenchmark {
+
+    static final int ROWS = 100;
+
+    @Param({"totals", "totals_by_payment_type", "list_totals",
+            "list_totals_by_payment_type", "figurants", "review"})
+    public String reportCode;
+
+    private ObjectMapper objectMapper;
+    private ReportDataDto legacyMaps;
+    private ReportDataDto rowsShape;
+    private ReportDataDto columnar;
+
+    @Setup
+    public void setUp() throws SQLException {
+        objectMapper = new ObjectMapper()
+                .registerModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE);
+
+        CachedRowSet resultSet = ReportFixtures.resultSet(reportCode, ROWS);
+        List<Map<String, Object>> maps =
+                new RowMapperResultSetExtractor<>(new ColumnMapRowMapper(), ROWS).extractData(resultSet);
+        ReportRowSet rowSet = toRowSet(maps, resultSet.getMetaData());
+
+        legacyMaps = page().data(maps).build();
+        rowsShape = page().data(rowSet.asMaps()).build();
+        columnar = page().columns(rowSet.columns()).rows(rowSet.rows()).build();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public byte[] legacyMaps() throws Exception {
+        return objectMapper.writeValueAsBytes(legacyMaps);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public byte[] rowsShape() throws Exception {
+        return objectMapper.writeValueAsBytes(rowsShape);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public byte[] columnar() throws Exception {
+        return objectMapper.writeValueAsBytes(columnar);
+    }
+
+    private ReportDataDto.ReportDataDtoBuilder page() {
+        return ReportDataDto.builder()
+                .reportCode(reportCode)
+                .date(LocalDate.of(2025, 12, 6))
+                .pagination(PaginationDto.builder()
+                        .limit(ROWS)
+                        .offset(0)
+                        .totalRecords(10_000L)
+                        .countMode("cached")
+                        .hasMore(true)
+                        .build());
+    }
+
+    /**
+     * Те же значения в ReportRowSet (ReportRowSetExtractor — package-private в repository)
+     */
+    private static ReportRowSet toRowSet(List<Map<String, Object>> maps, ResultSetMetaData meta) throws SQLException {
+        String[] columns = new String[meta.getColumnCount()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = meta.getColumnLabel(i + 1);
+        }
+        List<Object[]> rows = new ArrayList<>(maps.size());
+        for (Map<String, Object> map : maps) {
+            Object[] values = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                values[i] = map.get(columns[i]);
+            }
+            rows.add(values);
+        }
+        return new ReportRowSet(columns, rows);
+    }
+}
@@ -0,0 +1,77 @@
+-- ============================================================================
+-- ТАБЛИЦА: ksk_ingest_offset_state (ИДЕМПОТЕНТНАЯ ВЕРСИЯ)
+-- ОПИСАНИЕ: Состояние защиты от повторной загрузки сообщений Kafka (KskReplayFilter)
+--           Для каждой партиции входящей темы: watermark (всё ниже обработано)
+--           и битовая карта обработанных offset'ов выше watermark
+-- Дата: 2026-10-17
+-- ============================================================================
+
+BEGIN;
+
+-- ============================================================================
+-- 1. СОЗДАНИЕ ТАБЛИЦЫ (идемпотентно)
+-- ============================================================================
+
+DO $$
+BEGIN
+  IF NOT EXISTS (
+    SELECT 1 FROM information_schema.tables
+    WHERE table_schema = 'upoa_ksk_reports'
+    AND table_name = 'ksk_ingest_offset_state'
+  ) THEN
+
+    -- Создание таблицы состояния
+    CREATE TABLE upoa_ksk_reports.ksk_ingest_offset_state (
+      -- Партиция входящей темы (= ksk_result.input_kafka_partition)
+      kafka_partition INTEGER PRIMARY KEY,
+
+      -- Все offset'ы ниже watermark обработаны (в ksk_result или ksk_result_error)
+      watermark BIGINT NOT NULL,
+
+      -- Биты offset'ов watermark + i, обработанных не по порядку (java.util.BitSet.toByteArray)
+      seen_offsets BYTEA NOT NULL DEFAULT ''::BYTEA,
+
+      -- Время последнего сохранения
+      updated_datetime TIMESTAMP NOT NULL DEFAULT NOW()
+    );
+
+    -- Комментарии для документации
+    COMMENT ON TABLE upoa_ksk_reports.ksk_ingest_offset_state
+      IS 'Защита от повторной загрузки (rebalance, рестарт consumer). Пишется при каждом подтверждении offset''ов';
+    COMMENT ON COLUMN upoa_ksk_reports.ksk_ingest_offset_state.watermark
+      IS 'Подтверждённый offset партиции: всё ниже уже обработано';
+    COMMENT ON COLUMN upoa_ksk_reports.ksk_ingest_offset_state.seen_offsets
+      IS 'Битовая карта обработанных offset''ов начиная с watermark (бит i = offset watermark + i)';
+
+    RAISE NOTICE '[ksk_ingest_offset_state] ✅ Таблица создана';
+
+  ELSE
+    RAISE NOTICE '[ksk_ingest_offset_state] ℹ️  Таблица уже существует, пропуск создания';
+  END IF;
+END $$;
+
+-- ============================================================================
+-- 2. ДОБАВЛЕНИЕ НЕДОСТАЮЩИХ КОЛОНОК (для существующих таблиц)
+-- ============================================================================
+
+SELECT upoa_ksk_reports.add_column_if_not_exists('upoa_ksk_reports.ksk_ingest_offset_state', 'seen_offsets', 'BYTEA', '''''::BYTEA');
+SELECT upoa_ksk_reports.add_column_if_not_exists('upoa_ksk_reports.ksk_ingest_offset_state', 'updated_datetime', 'TIMESTAMP', 'now()');
+
+SELECT '[ksk_ingest_offset_state] ✅ Проверка и добавление колонок завершена';
+
+-- ============================================================================
+-- 3. ИНДЕКСЫ
+-- ============================================================================
+
+-- 3.1. PRIMARY KEY (kafka_partition)
+-- Применение: загрузка состояния партиции и UPSERT при подтверждении offset'ов.
+--   Строк — по числу партиций темы, других индексов не нужно
+--
+
+SELECT '[ksk_ingest_offset_state] ✅ Индексы созданы/проверены';
+
+COMMIT;
+
+-- ============================================================================
+-- КОНЕЦ СКРИПТА
+-- ============================================================================
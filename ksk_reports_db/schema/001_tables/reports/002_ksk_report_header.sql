@@ -45,6 +45,17 @@ BEGIN
       end_date DATE,
       parameters JSONB,
       
+      -- Кэш количества строк данных отчёта (заполняется при переходе в done)
+      row_count BIGINT,
+      
+      -- Очередь генерации (ReportJobEngine): какой узел API взял отчёт в работу
+      worker_id VARCHAR(100),
+      claimed_datetime TIMESTAMP,
+      attempts INTEGER NOT NULL DEFAULT 0,
+      
+      -- Отпечаток запроса (ksk_report_fingerprint): одинаковые отчёты переиспользуют данные
+      fingerprint VARCHAR(32),
+      
       -- Constraint для обязательного user_login при initiator='user'
       CONSTRAINT chk_user_login CHECK (
         (initiator = 'user' AND user_login IS NOT NULL) OR 
@@ -75,6 +86,16 @@ BEGIN
       IS 'Конец периода отчёта';
     COMMENT ON COLUMN upoa_ksk_reports.ksk_report_header.parameters 
       IS 'Дополнительные параметры отчёта в JSON формате';
+    COMMENT ON COLUMN upoa_ksk_reports.ksk_report_header.row_count 
+      IS 'Количество строк данных отчёта. Считается один раз при status=done, используется для пагинации вместо COUNT(*)';
+    COMMENT ON COLUMN upoa_ksk_reports.ksk_report_header.worker_id 
+      IS 'Узел API (ksk_report_worker), взявший отчёт в работу через ksk_report_claim_jobs. NULL — отчёт вне очереди';
+    COMMENT ON COLUMN upoa_ksk_reports.ksk_report_header.claimed_datetime 
+      IS 'Время захвата отчёта узлом (status created → in_progress)';
+    COMMENT ON COLUMN upoa_ksk_reports.ksk_report_header.attempts 
+      IS 'Число захватов из очереди. После ksk_report_requeue_orphaned_jobs(max_attempts) — status=error';
+    COMMENT ON COLUMN upoa_ksk_reports.ksk_report_header.fingerprint 
+      IS 'md5 нормализованного запроса (код, период, параметры) — триггер ksk_report_header_set_fingerprint. NULL — отчёт не переиспользуется';
     
     RAISE NOTICE '[ksk_report_header] ✅ Таблица создана';
     
@@ -99,6 +120,11 @@ SELECT upoa_ksk_reports.add_column_if_not_exists('upoa_ksk_reports.ksk_report_he
 SELECT upoa_ksk_reports.add_column_if_not_exists('upoa_ksk_reports.ksk_report_header', 'start_date', 'DATE');
 SELECT upoa_ksk_reports.add_column_if_not_exists('upoa_ksk_reports.ksk_report_header', 'end_date', 'DATE');
 SELECT upoa_ksk_reports.add_column_if_not_exists('upoa_ksk_reports.ksk_report_header', 'parameters', 'JSONB');
+SELECT upoa_ksk_reports.add_column_if_not_exists('upoa_ksk_reports.ksk_report_header', 'row_count', 'BIGINT');
+SELECT upoa_ksk_reports.add_column_if_not_exists('upoa_ksk_reports.ksk_report_header', 'worker_id', 'VARCHAR(100)');
+SELECT upoa_ksk_reports.add_column_if_not_exists('upoa_ksk_reports.ksk_report_header', 'claimed_datetime', 'TIMESTAMP');
+SELECT upoa_ksk_reports.add_column_if_not_exists('upoa_ksk_reports.ksk_report_header', 'attempts', 'INTEGER', '0');
+SELECT upoa_ksk_reports.add_column_if_not_exists('upoa_ksk_reports.ksk_report_header', 'fingerprint', 'VARCHAR(32)');
 
 SELECT '[ksk_report_header] ✅ Проверка и добавление колонок завершена';
 
@@ -113,7 +139,10 @@ DECLARE
         'idx_ksk_report_header_orchestrator',
         'idx_ksk_report_header_status',
         'idx_ksk_report_header_remove_date',
-        'idx_ksk_report_header_created'
+        'idx_ksk_report_header_created',
+        'idx_ksk_report_header_queue',
+        'idx_ksk_report_header_worker',
+        'idx_ksk_report_header_fingerprint'
     ];
     v_index_count integer := 0;
 BEGIN
@@ -178,6 +207,35 @@ CREATE INDEX IF NOT EXISTS idx_ksk_report_header_created
 COMMENT ON INDEX upoa_ksk_reports.idx_ksk_report_header_created 
   IS 'B-tree: Временная фильтрация и сортировка отчётов.';
 
+-- 4.5. Частичный индекс очереди генерации
+-- Применение: ksk_report_claim_jobs — WHERE status = 'created' ORDER BY created_datetime, id
+--   FOR UPDATE SKIP LOCKED LIMIT n
+-- Частичный: в индексе только ожидающие отчёты, размер не растёт с историей
+--
+CREATE INDEX IF NOT EXISTS idx_ksk_report_header_queue
+  ON upoa_ksk_reports.ksk_report_header (created_datetime, id)
+  WHERE status = 'created';
+COMMENT ON INDEX upoa_ksk_reports.idx_ksk_report_header_queue 
+  IS 'B-tree (partial status=created): очередь генерации отчётов, FIFO.';
+
+-- 4.6. Частичный индекс отчётов в работе у узлов
+-- Применение: ksk_report_requeue_orphaned_jobs — поиск in_progress отчётов умерших узлов
+--
+CREATE INDEX IF NOT EXISTS idx_ksk_report_header_worker
+  ON upoa_ksk_reports.ksk_report_header (worker_id)
+  WHERE status = 'in_progress' AND worker_id IS NOT NULL;
+COMMENT ON INDEX upoa_ksk_reports.idx_ksk_report_header_worker 
+  IS 'B-tree (partial in_progress): отчёты в работе у узлов API, возврат в очередь после падения узла.';
+
+-- 4.7. Частичный индекс готовых отчётов по отпечатку
+-- Применение: ksk_report_reuse — последний done-отчёт с тем же отпечатком
+--
+CREATE INDEX IF NOT EXISTS idx_ksk_report_header_fingerprint
+  ON upoa_ksk_reports.ksk_report_header (fingerprint, finished_datetime)
+  WHERE status = 'done' AND fingerprint IS NOT NULL;
+COMMENT ON INDEX upoa_ksk_reports.idx_ksk_report_header_fingerprint 
+  IS 'B-tree (partial done): поиск готового отчёта с тем же отпечатком запроса для переиспользования.';
+
 SELECT '[ksk_report_header] ✅ Индексы созданы/проверены';
 
 COMMIT;
@@ -164,7 +164,7 @@ DO $$
 DECLARE
     v_index_name text;
     v_needed_indexes text[] := ARRAY[
-        'idx_ksk_report_totals_by_payment_type_data_header'
+        'idx_ksk_report_totals_by_payment_type_data_header_id'
     ];
     v_index_count integer := 0;
 BEGIN
@@ -193,13 +193,15 @@ END $$;
 -- 4. СОЗДАНИЕ ОПТИМИЗИРОВАННЫХ ИНДЕКСОВ (идемпотентно)
 -- ============================================================================
 
--- 4.1. B-tree индекс на report_header_id (FK)
--- Применение: JOIN с ksk_report_header
+-- 4.1. Составной B-tree индекс (report_header_id, id)
+-- Применение: JOIN с ksk_report_header (FK) и keyset-пагинация:
+--   WHERE report_header_id = :headerId AND id > :lastId ORDER BY id LIMIT :limit
+-- Заменяет idx_ksk_report_totals_by_payment_type_data_header (report_header_id) — удаляется в разделе 3
 --
-CREATE INDEX IF NOT EXISTS idx_ksk_report_totals_by_payment_type_data_header
-  ON upoa_ksk_reports.ksk_report_totals_by_payment_type_data (report_header_id);
-COMMENT ON INDEX upoa_ksk_reports.idx_ksk_report_totals_by_payment_type_data_header 
-  IS 'B-tree: FK для JOIN с ksk_report_header.';
+CREATE INDEX IF NOT EXISTS idx_ksk_report_totals_by_payment_type_data_header_id
+  ON upoa_ksk_reports.ksk_report_totals_by_payment_type_data (report_header_id, id);
+COMMENT ON INDEX upoa_ksk_reports.idx_ksk_report_totals_by_payment_type_data_header_id 
+  IS 'B-tree: FK для JOIN с ksk_report_header + keyset-пагинация по id внутри отчёта.';
 
 SELECT '[ksk_report_totals_by_payment_type_data] ✅ Индексы созданы/проверены';
 
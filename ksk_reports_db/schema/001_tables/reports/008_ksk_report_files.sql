@@ -3,6 +3,9 @@
 -- ОПИСАНИЕ: Файлы отчётов в формате Excel XML (SpreadsheetML) и других форматах
 --           Универсальное хранилище для всех типов отчётов
 -- Дата: 2025-12-16
+-- 2026-10-17: 🆕 сжатое хранение — file_content_bytes (gzip) + content_codec,
+--             file_size_bytes BIGINT (размер до сжатия). Перевод старых файлов в gzip —
+--             StoredReportFileCompressor в API (в PostgreSQL нет gzip)
 -- ============================================================================
 
 BEGIN;
@@ -34,11 +37,13 @@ BEGIN
       -- Временные метки
       created_datetime TIMESTAMP NOT NULL DEFAULT NOW(),
 
-      -- Содержимое файла (унифицировано в TEXT)
-      file_content_text TEXT NOT NULL,
+      -- Содержимое файла: текст (identity) или сжатые байты (gzip)
+      file_content_text TEXT,
+      file_content_bytes BYTEA,
+      content_codec VARCHAR(20) NOT NULL DEFAULT 'identity',
 
       -- Метаданные файла
-      file_size_bytes INTEGER,
+      file_size_bytes BIGINT,
       sheet_count INTEGER DEFAULT 1,
       row_count INTEGER
     );
@@ -55,7 +60,7 @@ BEGIN
     COMMENT ON COLUMN upoa_ksk_reports.ksk_report_files.file_content_text
       IS 'Содержимое файла в текстовом формате (XML хранится как TEXT для производительности)';
     COMMENT ON COLUMN upoa_ksk_reports.ksk_report_files.file_size_bytes
-      IS 'Размер файла в байтах';
+      IS 'Размер файла в байтах (для gzip — до сжатия)';
     COMMENT ON COLUMN upoa_ksk_reports.ksk_report_files.sheet_count
       IS 'Количество листов в Excel-файле';
     COMMENT ON COLUMN upoa_ksk_reports.ksk_report_files.row_count
@@ -110,6 +115,8 @@ SELECT upoa_ksk_reports.add_column_if_not_exists('upoa_ksk_reports.ksk_report_fi
 SELECT upoa_ksk_reports.add_column_if_not_exists('upoa_ksk_reports.ksk_report_files', 'file_size_bytes', 'INTEGER');
 SELECT upoa_ksk_reports.add_column_if_not_exists('upoa_ksk_reports.ksk_report_files', 'sheet_count', 'INTEGER', '1');
 SELECT upoa_ksk_reports.add_column_if_not_exists('upoa_ksk_reports.ksk_report_files', 'row_count', 'INTEGER');
+SELECT upoa_ksk_reports.add_column_if_not_exists('upoa_ksk_reports.ksk_report_files', 'file_content_bytes', 'BYTEA');
+SELECT upoa_ksk_reports.add_column_if_not_exists('upoa_ksk_reports.ksk_report_files', 'content_codec', 'VARCHAR(20)', '''identity''');
 
 SELECT '[ksk_report_files] ✅ Проверка и добавление колонок завершена';
 
@@ -131,6 +138,58 @@ BEGIN
   END IF;
 END $$;
 
+-- ============================================================================
+-- 4a. 🆕 СЖАТОЕ ХРАНЕНИЕ (идемпотентно)
+-- ============================================================================
+-- file_content_bytes: STORAGE EXTERNAL — gzip повторно не сжимается (pglz впустую),
+--   substring() читает из TOAST только чанки своего диапазона (чтение порциями в API)
+-- file_content_text: NULL у сжатых файлов; заполнена ровно одна колонка содержимого
+-- file_size_bytes: BIGINT — несжатый SpreadsheetML больших отчётов не помещается в INTEGER
+
+ALTER TABLE upoa_ksk_reports.ksk_report_files ALTER COLUMN file_content_bytes SET STORAGE EXTERNAL;
+ALTER TABLE upoa_ksk_reports.ksk_report_files ALTER COLUMN file_content_text DROP NOT NULL;
+UPDATE upoa_ksk_reports.ksk_report_files SET content_codec = 'identity' WHERE content_codec IS NULL;
+ALTER TABLE upoa_ksk_reports.ksk_report_files ALTER COLUMN content_codec SET NOT NULL;
+
+DO $$
+BEGIN
+  IF EXISTS (
+    SELECT 1 FROM information_schema.columns
+    WHERE table_schema = 'upoa_ksk_reports'
+    AND table_name = 'ksk_report_files'
+    AND column_name = 'file_size_bytes'
+    AND data_type = 'integer'
+  ) THEN
+    ALTER TABLE upoa_ksk_reports.ksk_report_files ALTER COLUMN file_size_bytes TYPE BIGINT;
+    RAISE NOTICE '[ksk_report_files] ✅ file_size_bytes → BIGINT';
+  END IF;
+
+  IF NOT EXISTS (
+    SELECT 1 FROM information_schema.table_constraints
+    WHERE table_schema = 'upoa_ksk_reports'
+    AND table_name = 'ksk_report_files'
+    AND constraint_name = 'chk_ksk_report_files_content'
+  ) THEN
+    -- NOT VALID: существующие строки не перепроверяются под ACCESS EXCLUSIVE
+    ALTER TABLE upoa_ksk_reports.ksk_report_files
+      ADD CONSTRAINT chk_ksk_report_files_content CHECK (
+        (content_codec = 'identity' AND file_content_text IS NOT NULL AND file_content_bytes IS NULL)
+        OR (content_codec = 'gzip' AND file_content_bytes IS NOT NULL AND file_content_text IS NULL
+            AND file_size_bytes IS NOT NULL)
+      ) NOT VALID;
+    RAISE NOTICE '[ksk_report_files] ✅ Добавлен constraint chk_ksk_report_files_content';
+  END IF;
+END $$;
+
+COMMENT ON COLUMN upoa_ksk_reports.ksk_report_files.file_content_text
+  IS 'Несжатое содержимое (content_codec = identity), иначе NULL';
+COMMENT ON COLUMN upoa_ksk_reports.ksk_report_files.file_content_bytes
+  IS 'Сжатое содержимое (content_codec = gzip), STORAGE EXTERNAL. API отдаёт его как есть с Content-Encoding: gzip';
+COMMENT ON COLUMN upoa_ksk_reports.ksk_report_files.content_codec
+  IS 'Кодек содержимого: identity — file_content_text, gzip — file_content_bytes';
+
+SELECT '[ksk_report_files] ✅ Сжатое хранение настроено';
+
 -- ============================================================================
 -- 5. УДАЛЕНИЕ СТАРЫХ/НЕЭФФЕКТИВНЫХ ИНДЕКСОВ (ДИНАМИЧЕСКОЕ)
 -- ============================================================================
@@ -31,7 +31,11 @@ BEGIN
       -- Метаданные файла
       file_size_bytes INTEGER,
       row_count INTEGER,
-      transaction_resolution TEXT
+      transaction_resolution TEXT,
+
+      -- Снимок ksk_report_review (ksk_report_review_snapshot)
+      snapshot_datetime TIMESTAMP,
+      snapshot_row_count BIGINT
     );
 
     -- Комментарии для документации
@@ -47,6 +51,10 @@ BEGIN
       IS 'Количество строк данных в отчёте';
     COMMENT ON COLUMN upoa_ksk_reports.ksk_report_review_data.transaction_resolution
       IS 'Тип резолюции транзакций в отчёте (allow, review, deny, empty)';
+    COMMENT ON COLUMN upoa_ksk_reports.ksk_report_review_data.snapshot_datetime
+      IS 'Когда построен снимок в ksk_report_review_snapshot (NULL — снимка нет)';
+    COMMENT ON COLUMN upoa_ksk_reports.ksk_report_review_data.snapshot_row_count
+      IS 'Количество строк в снимке ksk_report_review_snapshot';
 
     RAISE NOTICE '[ksk_report_review_data] ✅ Таблица создана';
 
@@ -64,6 +72,8 @@ SELECT upoa_ksk_reports.add_column_if_not_exists('upoa_ksk_reports.ksk_report_re
 SELECT upoa_ksk_reports.add_column_if_not_exists('upoa_ksk_reports.ksk_report_review_data', 'file_size_bytes', 'INTEGER');
 SELECT upoa_ksk_reports.add_column_if_not_exists('upoa_ksk_reports.ksk_report_review_data', 'row_count', 'INTEGER');
 SELECT upoa_ksk_reports.add_column_if_not_exists('upoa_ksk_reports.ksk_report_review_data', 'transaction_resolution', 'TEXT');
+SELECT upoa_ksk_reports.add_column_if_not_exists('upoa_ksk_reports.ksk_report_review_data', 'snapshot_datetime', 'TIMESTAMP');
+SELECT upoa_ksk_reports.add_column_if_not_exists('upoa_ksk_reports.ksk_report_review_data', 'snapshot_row_count', 'BIGINT');
 
 SELECT '[ksk_report_review_data] ✅ Проверка и добавление колонок завершена';
 
@@ -0,0 +1,141 @@
+-- ============================================================================
+-- ТАБЛИЦА: ksk_report_review_snapshot (ИДЕМПОТЕНТНАЯ ВЕРСИЯ)
+-- ОПИСАНИЕ: Материализованный результат ksk_report_review(date) для отчёта Review
+--           Строится один раз на заголовок отчёта (закрытый день), после чего
+--           постраничное чтение API = диапазон по индексу (report_header_id, row_num)
+-- Дата: 2026-10-17
+-- ============================================================================
+
+BEGIN;
+
+-- ============================================================================
+-- 1. СОЗДАНИЕ ТАБЛИЦЫ (идемпотентно)
+-- ============================================================================
+
+DO $$
+BEGIN
+  IF NOT EXISTS (
+    SELECT 1 FROM information_schema.tables
+    WHERE table_schema = 'upoa_ksk_reports'
+    AND table_name = 'ksk_report_review_snapshot'
+  ) THEN
+
+    -- Создание таблицы снимка отчёта Review
+    CREATE TABLE upoa_ksk_reports.ksk_report_review_snapshot (
+      -- Связь с заголовком отчёта
+      report_header_id INTEGER NOT NULL REFERENCES upoa_ksk_reports.ksk_report_header(id) ON DELETE CASCADE,
+
+      -- Сквозной номер строки внутри отчёта (1..N), задаёт порядок страниц
+      row_num BIGINT NOT NULL,
+
+      -- Колонки ksk_report_review(date) — порядок и типы совпадают с функцией
+      corr_id                      TEXT,
+      message_timestamp            TIMESTAMP(3),
+      algorithm                    TEXT,
+      match_value                  TEXT,
+      match_payment_field          TEXT,
+      match_payment_value          TEXT,
+      list_code                    TEXT,
+      name_figurant                TEXT,
+      president_group              TEXT,
+      auto_login                   BOOLEAN,
+      has_exclusion                BOOLEAN,
+      exclusion_phrase             TEXT,
+      exclusion_name_list          TEXT,
+      is_bypass                    TEXT,
+      transaction_resolution       TEXT,
+      figurant_resolition          TEXT,
+      payment_id                   TEXT,
+      payment_purpose              TEXT,
+      account_debet                TEXT,
+      account_credit               TEXT,
+      payer_inn                    TEXT,
+      payer_name                   TEXT,
+      payer_account_number         TEXT,
+      payer_document_type          TEXT,
+      payer_bank_name              TEXT,
+      payer_bank_account_number    TEXT,
+      receiver_account_number      TEXT,
+      receiver_name                TEXT,
+      receiver_inn                 TEXT,
+      receiver_bank_name           TEXT,
+      receiver_bank_account_number TEXT,
+      receiver_document_type       TEXT,
+      amount                       TEXT,
+      currency                     TEXT,
+      currency_control             TEXT,
+      match_id                     BIGINT,
+      figurant_id                  BIGINT,
+      transaction_id               BIGINT,
+      rn                           INTEGER,
+
+      PRIMARY KEY (report_header_id, row_num)
+    );
+
+    -- Комментарии для документации
+    COMMENT ON TABLE upoa_ksk_reports.ksk_report_review_snapshot
+      IS 'Материализованный результат ksk_report_review(date) по заголовку отчёта. Строится ksk_report_review_build_snapshot() один раз для закрытого дня.';
+    COMMENT ON COLUMN upoa_ksk_reports.ksk_report_review_snapshot.report_header_id
+      IS 'Ссылка на заголовок отчёта (CASCADE DELETE — снимок живёт по TTL отчёта)';
+    COMMENT ON COLUMN upoa_ksk_reports.ksk_report_review_snapshot.row_num
+      IS 'Сквозной номер строки в отчёте (1..N). Пагинация: row_num > offset ORDER BY row_num';
+    COMMENT ON COLUMN upoa_ksk_reports.ksk_report_review_snapshot.rn
+      IS 'ROW_NUMBER() OVER (PARTITION BY match_id) из ksk_report_review — признак дубликата (rn > 1)';
+
+    RAISE NOTICE '[ksk_report_review_snapshot] ✅ Таблица создана';
+
+  ELSE
+    RAISE NOTICE '[ksk_report_review_snapshot] ℹ️  Таблица уже существует, пропуск создания';
+  END IF;
+END $$;
+
+-- ============================================================================
+-- 2. УДАЛЕНИЕ СТАРЫХ/НЕЭФФЕКТИВНЫХ ИНДЕКСОВ (ДИНАМИЧЕСКОЕ)
+-- ============================================================================
+
+DO $$
+DECLARE
+    v_index_name text;
+    v_needed_indexes text[] := ARRAY[
+        'ksk_report_review_snapshot_pkey'
+    ];
+    v_index_count integer := 0;
+BEGIN
+    FOR v_index_name IN
+        SELECT indexname
+        FROM pg_indexes
+        WHERE schemaname = 'upoa_ksk_reports'
+          AND tablename = 'ksk_report_review_snapshot'
+          AND indexname NOT LIKE '%_pkey'
+    LOOP
+        IF NOT v_index_name = ANY(v_needed_indexes) THEN
+            EXECUTE 'DROP INDEX IF EXISTS upoa_ksk_reports.' || quote_ident(v_index_name);
+            RAISE NOTICE '[ksk_report_review_snapshot] 🗑️  Удалён ненужный индекс: %', v_index_name;
+            v_index_count := v_index_count + 1;
+        END IF;
+    END LOOP;
+
+    IF v_index_count = 0 THEN
+        RAISE NOTICE '[ksk_report_review_snapshot] ℹ️  Ненужных индексов не найдено';
+    ELSE
+        RAISE NOTICE '[ksk_report_review_snapshot] ✅ Удалено % ненужных индексов', v_index_count;
+    END IF;
+END $$;
+
+-- ============================================================================
+-- 3. ИНДЕКСЫ
+-- ============================================================================
+
+-- 3.1. PRIMARY KEY (report_header_id, row_num)
+-- Применение: страница отчёта = диапазон по индексу
+--   WHERE report_header_id = :headerId AND row_num > :offset ORDER BY row_num LIMIT :limit
+-- Покрывает FK report_header_id (CASCADE DELETE), отдельный индекс не нужен
+--
+
+SELECT '[ksk_report_review_snapshot] ✅ Индексы созданы/проверены';
+
+COMMIT;
+
+-- ============================================================================
+-- КОНЕЦ СКРИПТА
+-- ============================================================================
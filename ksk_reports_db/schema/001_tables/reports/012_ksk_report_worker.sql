@@ -0,0 +1,78 @@
+-- ============================================================================
+-- ТАБЛИЦА: ksk_report_worker (ИДЕМПОТЕНТНАЯ ВЕРСИЯ)
+-- ОПИСАНИЕ: Узлы API, обрабатывающие очередь генерации отчётов (ReportJobEngine)
+--           Heartbeat узла подтверждает, что его отчёты in_progress ещё в работе;
+--           отчёты узла с устаревшим heartbeat возвращаются в очередь
+-- Дата: 2026-10-17
+-- ============================================================================
+
+BEGIN;
+
+-- ============================================================================
+-- 1. СОЗДАНИЕ ТАБЛИЦЫ (идемпотентно)
+-- ============================================================================
+
+DO $$
+BEGIN
+  IF NOT EXISTS (
+    SELECT 1 FROM information_schema.tables
+    WHERE table_schema = 'upoa_ksk_reports'
+    AND table_name = 'ksk_report_worker'
+  ) THEN
+
+    -- Создание таблицы узлов очереди
+    CREATE TABLE upoa_ksk_reports.ksk_report_worker (
+      -- Идентификатор узла (host:pid:uuid), уникален на каждый запуск
+      worker_id VARCHAR(100) PRIMARY KEY,
+
+      -- Временные метки
+      started_datetime TIMESTAMP NOT NULL DEFAULT NOW(),
+      heartbeat_datetime TIMESTAMP NOT NULL DEFAULT NOW(),
+
+      -- Число параллельных задач узла (для мониторинга)
+      concurrency INTEGER NOT NULL
+    );
+
+    -- Комментарии для документации
+    COMMENT ON TABLE upoa_ksk_reports.ksk_report_worker
+      IS 'Узлы API, обрабатывающие очередь генерации отчётов. Heartbeat — ksk_report_worker_heartbeat()';
+    COMMENT ON COLUMN upoa_ksk_reports.ksk_report_worker.worker_id
+      IS 'Идентификатор узла (host:pid:uuid). Совпадает с ksk_report_header.worker_id';
+    COMMENT ON COLUMN upoa_ksk_reports.ksk_report_worker.heartbeat_datetime
+      IS 'Последний heartbeat узла. Устаревший heartbeat = узел упал, его отчёты возвращаются в очередь';
+    COMMENT ON COLUMN upoa_ksk_reports.ksk_report_worker.concurrency
+      IS 'Максимум одновременно генерируемых отчётов на узле';
+
+    RAISE NOTICE '[ksk_report_worker] ✅ Таблица создана';
+
+  ELSE
+    RAISE NOTICE '[ksk_report_worker] ℹ️  Таблица уже существует, пропуск создания';
+  END IF;
+END $$;
+
+-- ============================================================================
+-- 2. ДОБАВЛЕНИЕ НЕДОСТАЮЩИХ КОЛОНОК (для существующих таблиц)
+-- ============================================================================
+
+SELECT upoa_ksk_reports.add_column_if_not_exists('upoa_ksk_reports.ksk_report_worker', 'started_datetime', 'TIMESTAMP', 'now()');
+SELECT upoa_ksk_reports.add_column_if_not_exists('upoa_ksk_reports.ksk_report_worker', 'heartbeat_datetime', 'TIMESTAMP', 'now()');
+SELECT upoa_ksk_reports.add_column_if_not_exists('upoa_ksk_reports.ksk_report_worker', 'concurrency', 'INTEGER', '1');
+
+SELECT '[ksk_report_worker] ✅ Проверка и добавление колонок завершена';
+
+-- ============================================================================
+-- 3. ИНДЕКСЫ
+-- ============================================================================
+
+-- 3.1. PRIMARY KEY (worker_id)
+-- Применение: heartbeat (UPDATE по PK), проверка живости узла в
+--   ksk_report_requeue_orphaned_jobs. Узлов единицы — других индексов не нужно
+--
+
+SELECT '[ksk_report_worker] ✅ Индексы созданы/проверены';
+
+COMMIT;
+
+-- ============================================================================
+-- КОНЕЦ СКРИПТА
+-- ============================================================================
@@ -0,0 +1,153 @@
+-- ============================================================================
+-- ТАБЛИЦЫ: ksk_rollup_day, ksk_rollup_result_daily, ksk_rollup_list_daily
+--          (ИДЕМПОТЕНТНАЯ ВЕРСИЯ)
+-- ОПИСАНИЕ: Дневные счётчики для отчётов totals, totals_by_payment_type,
+--           list_totals, list_totals_by_payment_type — отчёт за любой период
+--           суммирует строки rollup вместо сканирования ksk_result / ksk_figurant
+-- Дата: 2026-10-17
+-- ============================================================================
+--
+-- ГРАНУЛЯРНОСТЬ:
+--   ksk_rollup_result_daily — день × payment_type × resolution
+--     (totals, totals_by_payment_type: COUNT(*) ksk_result)
+--   ksk_rollup_list_daily   — день × list_code × payment_type
+--     (list_totals, list_totals_by_payment_type: транзакции с list_code и решения фигурантов,
+--      bypass — отдельный счётчик)
+--   Транзакция и её фигуранты лежат в одном дне (FK ksk_figurant → ksk_result(id, output_timestamp)),
+--   поэтому COUNT(DISTINCT транзакций) складывается по дням и типам платежей
+--
+-- СТРОКИ — ДЕЛЬТЫ:
+--   Триггеры загрузки (ksk_rollup_on_*_insert) только ДОБАВЛЯЮТ строки — по строке на
+--   группу в каждом INSERT / COPY; уникального ключа нет, параллельные загрузки не ждут
+--   друг друга на «горячей» строке счётчика. Значение счётчика дня = SUM по строкам дня.
+--   ksk_rollup_compact_day сворачивает дельты дня в одну строку на группу
+--
+-- ПОКРЫТИЕ (ksk_rollup_day):
+--   Отчёт берёт из rollup только дни, записанные в ksk_rollup_day; остальные — сканом
+--   - open  — день зарегистрирован до прихода данных (ksk_rollup_maintain, на 7 дней вперёд),
+--             счётчики ведут триггеры
+--   - final — день пересчитан из сырых данных (ksk_rollup_finalize_day) после закрытия суток
+--
+-- ============================================================================
+
+BEGIN;
+
+-- ============================================================================
+-- 1. СОЗДАНИЕ ТАБЛИЦ (идемпотентно)
+-- ============================================================================
+
+DO $$
+BEGIN
+  IF NOT EXISTS (
+    SELECT 1 FROM information_schema.tables
+    WHERE table_schema = 'upoa_ksk_reports'
+    AND table_name = 'ksk_rollup_day'
+  ) THEN
+
+    -- Дни, для которых rollup полон
+    CREATE TABLE upoa_ksk_reports.ksk_rollup_day (
+      day DATE PRIMARY KEY,
+
+      -- open | final
+      state VARCHAR(10) NOT NULL DEFAULT 'open',
+
+      -- Временные метки
+      opened_datetime TIMESTAMP NOT NULL DEFAULT NOW(),
+      finalized_datetime TIMESTAMP,
+
+      CONSTRAINT chk_ksk_rollup_day_state CHECK (state IN ('open', 'final'))
+    );
+
+    COMMENT ON TABLE upoa_ksk_reports.ksk_rollup_day
+      IS 'Дни с полным rollup. Отчёты берут из ksk_rollup_*_daily только эти дни, остальные считают сканом';
+    COMMENT ON COLUMN upoa_ksk_reports.ksk_rollup_day.state
+      IS 'open — счётчики ведут триггеры загрузки; final — день пересчитан из ksk_result / ksk_figurant';
+    COMMENT ON COLUMN upoa_ksk_reports.ksk_rollup_day.finalized_datetime
+      IS 'Время пересчёта дня (ksk_rollup_finalize_day)';
+
+    RAISE NOTICE '[ksk_rollup_day] ✅ Таблица создана';
+
+  ELSE
+    RAISE NOTICE '[ksk_rollup_day] ℹ️  Таблица уже существует, пропуск создания';
+  END IF;
+
+  IF NOT EXISTS (
+    SELECT 1 FROM information_schema.tables
+    WHERE table_schema = 'upoa_ksk_reports'
+    AND table_name = 'ksk_rollup_result_daily'
+  ) THEN
+
+    -- Транзакции по дню, типу платежа и резолюции
+    CREATE TABLE upoa_ksk_reports.ksk_rollup_result_daily (
+      day DATE NOT NULL,
+      payment_type VARCHAR(20) NOT NULL,
+      resolution VARCHAR(20) NOT NULL,
+      tx_count BIGINT NOT NULL
+    );
+
+    COMMENT ON TABLE upoa_ksk_reports.ksk_rollup_result_daily
+      IS 'Дельты счётчиков ksk_result: день × payment_type × resolution. Значение — SUM по строкам группы';
+    COMMENT ON COLUMN upoa_ksk_reports.ksk_rollup_result_daily.tx_count
+      IS 'Транзакций (строк ksk_result) в группе';
+
+    RAISE NOTICE '[ksk_rollup_result_daily] ✅ Таблица создана';
+
+  ELSE
+    RAISE NOTICE '[ksk_rollup_result_daily] ℹ️  Таблица уже существует, пропуск создания';
+  END IF;
+
+  IF NOT EXISTS (
+    SELECT 1 FROM information_schema.tables
+    WHERE table_schema = 'upoa_ksk_reports'
+    AND table_name = 'ksk_rollup_list_daily'
+  ) THEN
+
+    -- Транзакции и решения фигурантов по дню, списку и типу платежа
+    CREATE TABLE upoa_ksk_reports.ksk_rollup_list_daily (
+      day DATE NOT NULL,
+      list_code TEXT,
+      payment_type VARCHAR(20) NOT NULL,
+      tx_count BIGINT NOT NULL,
+      allow_count BIGINT NOT NULL,
+      review_count BIGINT NOT NULL,
+      deny_count BIGINT NOT NULL,
+      bypass_count BIGINT NOT NULL
+    );
+
+    COMMENT ON TABLE upoa_ksk_reports.ksk_rollup_list_daily
+      IS 'Дельты счётчиков ksk_figurant: день × list_code × payment_type. Значение — SUM по строкам группы';
+    COMMENT ON COLUMN upoa_ksk_reports.ksk_rollup_list_daily.list_code
+      IS 'Код списка фигуранта (NULL — группа фигурантов без списка, как в list_totals)';
+    COMMENT ON COLUMN upoa_ksk_reports.ksk_rollup_list_daily.tx_count
+      IS 'Транзакций с хотя бы одним фигурантом списка (COUNT(DISTINCT source_id))';
+    COMMENT ON COLUMN upoa_ksk_reports.ksk_rollup_list_daily.allow_count
+      IS 'Фигурантов с resolution = allow без bypass';
+    COMMENT ON COLUMN upoa_ksk_reports.ksk_rollup_list_daily.bypass_count
+      IS 'Фигурантов с is_bypass = yes';
+
+    RAISE NOTICE '[ksk_rollup_list_daily] ✅ Таблица создана';
+
+  ELSE
+    RAISE NOTICE '[ksk_rollup_list_daily] ℹ️  Таблица уже существует, пропуск создания';
+  END IF;
+END $$;
+
+-- ============================================================================
+-- 2. ИНДЕКСЫ
+-- ============================================================================
+
+-- 2.1. Строки дня: чтение отчётом за период, свёртка и пересчёт дня
+-- Строк на день — десятки после свёртки, BTREE по day достаточно
+CREATE INDEX IF NOT EXISTS idx_ksk_rollup_result_daily_day
+    ON upoa_ksk_reports.ksk_rollup_result_daily (day);
+
+CREATE INDEX IF NOT EXISTS idx_ksk_rollup_list_daily_day
+    ON upoa_ksk_reports.ksk_rollup_list_daily (day);
+
+SELECT '[ksk_rollup_daily] ✅ Индексы созданы/проверены';
+
+COMMIT;
+
+-- ============================================================================
+-- КОНЕЦ СКРИПТА
+-- ============================================================================
@@ -18,6 +18,8 @@
 -- ЛОГИКА РАБОТЫ:
 --   1. Если ВСЕ записи в партиции пустые → удаляет партицию целиком
 --   2. Если есть НЕпустые записи → удаляет только пустые записи
+--   3. 🆕 День партиции изменился → ksk_rollup_finalize_day(день): счётчики rollup
+--      пересчитываются, отчёты totals по rollup совпадают со сканом того же периода
 --
 -- ПРИМЕР ИСПОЛЬЗОВАНИЯ:
 --   SELECT * FROM ksk_cleanup_empty_records(14);
@@ -26,12 +28,15 @@
 -- ЗАМЕТКИ:
 --   - Обрабатывает только партиции старше cutoff_date
 --   - После удаления рекомендуется выполнить VACUUM ANALYZE
+--   - DELETE идёт в партицию напрямую, DROP TABLE триггеров не вызывает — поэтому
+--     rollup пересчитывается здесь, а не триггером удаления на ksk_result
 --     (см. документацию в README_cleanup_functions.md)
 --
 -- ИСТОРИЯ ИЗМЕНЕНИЙ:
 --   2025-10-25 - Переименование из cleanup_empty_ksk_records_fast
 --   2025-10-25 - Удалён параметр perform_vacuum
 --   2025-10-25 - Исправлено определение пустой партиции
+--   2026-10-17 - Пересчёт rollup (ksk_rollup_finalize_day) затронутых дней
 -- ============================================================================
 CREATE OR REPLACE FUNCTION ksk_cleanup_empty_records(
     days_old INTEGER DEFAULT 14
@@ -83,6 +88,7 @@ BEGIN
             dropped_partitions_list := ARRAY_APPEND(dropped_partitions_list, partition_record.partition_name);
             RAISE NOTICE '  ✓ Удалена партиция % (все записи пустые)', 
                 partition_record.partition_name;
+            deleted_count_var := 1;
         ELSE
             -- Иначе удаляем только пустые записи
             EXECUTE FORMAT(
@@ -97,6 +103,13 @@ BEGIN
                     deleted_count_var, partition_record.partition_name;
             END IF;
         END IF;
+
+        -- Счётчики rollup дня — без удалённых строк (имя партиции: part_ksk_result_YYYY_MM_DD)
+        IF deleted_count_var > 0 THEN
+            PERFORM upoa_ksk_reports.ksk_rollup_finalize_day(
+                TO_DATE(RIGHT(partition_record.partition_name, 10), 'YYYY_MM_DD')
+            );
+        END IF;
     END LOOP;
 
     -- Итоговое сообщение
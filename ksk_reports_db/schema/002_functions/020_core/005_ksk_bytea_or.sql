@@ -0,0 +1,48 @@
+-- ============================================================================
+-- ФУНКЦИЯ: ksk_bytea_or
+-- ============================================================================
+-- ОПИСАНИЕ:
+--   Побайтовое OR двух битовых карт (java.util.BitSet.toByteArray: бит i — байт i / 8,
+--   младший бит первым). Более короткая дополняется нулями в конце
+--
+-- ПАРАМЕТРЫ:
+--   @p_left  - Первая карта
+--   @p_right - Вторая карта
+--
+-- ВОЗВРАЩАЕТ:
+--   BYTEA - карта длиной в более длинную из двух ('' — обе пустые)
+--
+-- ЗАМЕТКИ:
+--   - ksk_ingest_offset_state: два узла сохраняют окно с одним watermark —
+--     обработанные offset'ы обоих остаются (KskIngestOffsetStateRepository.save)
+--
+-- ПРИМЕР ИСПОЛЬЗОВАНИЯ:
+--   SELECT ksk_bytea_or('\x0102'::BYTEA, '\x04'::BYTEA);  -- \x0502
+--
+-- ИСТОРИЯ ИЗМЕНЕНИЙ:
+--   2026-10-17 - Создание функции
+-- ============================================================================
+
+CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_bytea_or(
+    p_left  BYTEA,
+    p_right BYTEA
+)
+RETURNS BYTEA AS $$
+SELECT COALESCE(
+    DECODE(
+        STRING_AGG(
+            LPAD(TO_HEX(
+                CASE WHEN i < LENGTH(p_left) THEN GET_BYTE(p_left, i) ELSE 0 END
+                | CASE WHEN i < LENGTH(p_right) THEN GET_BYTE(p_right, i) ELSE 0 END
+            ), 2, '0'),
+            '' ORDER BY i
+        ),
+        'hex'
+    ),
+    ''::BYTEA
+)
+FROM GENERATE_SERIES(0, GREATEST(LENGTH(p_left), LENGTH(p_right)) - 1) AS i;
+$$ LANGUAGE sql IMMUTABLE STRICT;
+
+COMMENT ON FUNCTION upoa_ksk_reports.ksk_bytea_or(BYTEA, BYTEA) IS
+    'Побайтовое OR битовых карт BitSet.toByteArray (короткая дополняется нулями)';
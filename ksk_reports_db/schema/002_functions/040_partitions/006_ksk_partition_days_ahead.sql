@@ -0,0 +1,53 @@
+-- ============================================================================
+-- ФУНКЦИЯ: ksk_partition_days_ahead
+-- ============================================================================
+-- ОПИСАНИЕ:
+--   Сколько дней подряд, начиная с сегодняшнего, покрыто партициями
+--   во всех трёх таблицах КСК (ksk_result, ksk_figurant, ksk_figurant_match).
+--   Первый непокрытый день — строки за него уйдут в *_default
+--
+-- ПАРАМЕТРЫ:
+--   @p_max_days - Сколько дней вперёд проверять (по умолчанию: 60)
+--
+-- ВОЗВРАЩАЕТ:
+--   INTEGER - 0 — нет партиции на сегодня; p_max_days + 1 — покрыто всё окно проверки
+--
+-- ПРИМЕР ИСПОЛЬЗОВАНИЯ:
+--   SELECT ksk_partition_days_ahead();
+--
+-- ЗАМЕТКИ:
+--   - Учитываются только присоединённые партиции (pg_inherits): отсоединённая
+--     для архивации таблица с тем же именем день не покрывает
+--   - Используется PartitionLifecycleManager (запас партиций вперёд)
+--
+-- ИСТОРИЯ ИЗМЕНЕНИЙ:
+--   2026-10-17 - Создание функции
+-- ============================================================================
+
+CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_partition_days_ahead(
+    p_max_days INTEGER DEFAULT 60
+)
+RETURNS INTEGER AS $$
+SELECT COALESCE(MIN(d.day - CURRENT_DATE), p_max_days + 1)
+FROM (
+    SELECT CURRENT_DATE + g AS day
+    FROM generate_series(0, p_max_days) AS g
+) d
+WHERE EXISTS (
+    SELECT 1
+    FROM UNNEST(ARRAY['ksk_result', 'ksk_figurant', 'ksk_figurant_match']) AS t(table_name)
+    WHERE NOT EXISTS (
+        SELECT 1
+        FROM pg_inherits i
+        JOIN pg_class parent ON parent.oid = i.inhparent
+        JOIN pg_class child ON child.oid = i.inhrelid
+        JOIN pg_namespace n ON n.oid = parent.relnamespace
+        WHERE n.nspname = 'upoa_ksk_reports'
+          AND parent.relname = t.table_name
+          AND child.relname = 'part_' || t.table_name || '_' || TO_CHAR(d.day, 'YYYY_MM_DD')
+    )
+);
+$$ LANGUAGE sql STABLE;
+
+COMMENT ON FUNCTION upoa_ksk_reports.ksk_partition_days_ahead(INTEGER) IS
+    'Число дней подряд от сегодняшнего, покрытых партициями во всех таблицах КСК';
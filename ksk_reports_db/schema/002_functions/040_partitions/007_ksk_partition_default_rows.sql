@@ -0,0 +1,47 @@
+-- ============================================================================
+-- ФУНКЦИЯ: ksk_partition_default_rows
+-- ============================================================================
+-- ОПИСАНИЕ:
+--   Строки в партициях по умолчанию (part_ksk_*_default) по таблицам и дням.
+--   Строка попадает туда, если на её день не было партиции (пропущен запуск
+--   создания партиций) — запросы к такому дню перестают отсекать партиции
+--
+-- ПАРАМЕТРЫ:
+--   Нет
+--
+-- ВОЗВРАЩАЕТ:
+--   TABLE (table_name TEXT, day DATE, row_count BIGINT) — пусто, если всё в порядке
+--
+-- ПРИМЕР ИСПОЛЬЗОВАНИЯ:
+--   SELECT * FROM ksk_partition_default_rows();
+--
+-- ЗАМЕТКИ:
+--   - В норме партиции по умолчанию пусты — запрос дешёвый
+--   - Разбор — ksk_drain_default_partitions(day)
+--
+-- ИСТОРИЯ ИЗМЕНЕНИЙ:
+--   2026-10-17 - Создание функции
+-- ============================================================================
+
+CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_partition_default_rows()
+RETURNS TABLE (
+    table_name TEXT,
+    day        DATE,
+    row_count  BIGINT
+) AS $$
+SELECT 'ksk_result', output_timestamp::DATE, COUNT(*)
+FROM upoa_ksk_reports.part_ksk_result_default
+GROUP BY output_timestamp::DATE
+UNION ALL
+SELECT 'ksk_figurant', "timestamp"::DATE, COUNT(*)
+FROM upoa_ksk_reports.part_ksk_figurant_default
+GROUP BY "timestamp"::DATE
+UNION ALL
+SELECT 'ksk_figurant_match', "timestamp"::DATE, COUNT(*)
+FROM upoa_ksk_reports.part_ksk_figurant_match_default
+GROUP BY "timestamp"::DATE
+ORDER BY 2, 1;
+$$ LANGUAGE sql STABLE;
+
+COMMENT ON FUNCTION upoa_ksk_reports.ksk_partition_default_rows() IS
+    'Строки в партициях по умолчанию таблиц КСК по дням (в норме — пусто)';
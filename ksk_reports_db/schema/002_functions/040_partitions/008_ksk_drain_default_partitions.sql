@@ -0,0 +1,134 @@
+-- ============================================================================
+-- ФУНКЦИЯ: ksk_drain_default_partitions
+-- ============================================================================
+-- ОПИСАНИЕ:
+--   Переносит строки одного дня из партиций по умолчанию в дневные партиции:
+--   создаёт недостающие партиции дня и вставляет строки заново с теми же id
+--
+-- ПАРАМЕТРЫ:
+--   @p_day - День (по output_timestamp / timestamp)
+--
+-- ВОЗВРАЩАЕТ:
+--   TABLE (table_name TEXT, row_count BIGINT) - Перенесено строк по таблицам
+--
+-- ЛОГИКА:
+--   1. LOCK ONLY родительских таблиц (SHARE ROW EXCLUSIVE): загрузка ждёт до COMMIT,
+--      чтение отчётов продолжается
+--   2. Во временные таблицы: строки дня из *_default и всё, что удалится вместе с ними
+--      по ON DELETE CASCADE (фигуранты и совпадения транзакций из ksk_result_default,
+--      даже если их партиции уже есть)
+--   3. DELETE совпадения → фигуранты → результаты, ksk_create_partitions(table, p_day, 1)
+--   4. INSERT ... OVERRIDING SYSTEM VALUE в обратном порядке (FK проверяются по ходу)
+--
+-- ЗАМЕТКИ:
+--   - Партицию нельзя создать, пока в default есть строки её диапазона, — поэтому
+--     строки сначала удаляются, а потом вставляются заново
+--   - Дельты rollup при повторной вставке не пишутся (ksk.rollup_skip):
+--     строки уже посчитаны при загрузке, DELETE счётчики не уменьшал
+--   - Вызывать в отдельной транзакции на день (временные таблицы ON COMMIT DROP);
+--     lock_timeout задаёт вызывающий (PartitionLifecycleManager)
+--   - Результат записывается в ksk_system_operations_log
+--
+-- ПРИМЕР ИСПОЛЬЗОВАНИЯ:
+--   SELECT * FROM ksk_drain_default_partitions('2026-10-17');
+--
+-- ИСТОРИЯ ИЗМЕНЕНИЙ:
+--   2026-10-17 - Создание функции
+-- ============================================================================
+
+CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_drain_default_partitions(
+    p_day DATE
+)
+RETURNS TABLE (
+    table_name TEXT,
+    row_count  BIGINT
+) AS $$
+DECLARE
+    v_begin_time TIMESTAMP(3) := CLOCK_TIMESTAMP();
+    v_from       TIMESTAMP := p_day;
+    v_to         TIMESTAMP := p_day + 1;
+    v_result     BIGINT;
+    v_figurant   BIGINT;
+    v_match      BIGINT;
+BEGIN
+    LOCK TABLE ONLY upoa_ksk_reports.ksk_result,
+               ONLY upoa_ksk_reports.ksk_figurant,
+               ONLY upoa_ksk_reports.ksk_figurant_match
+        IN SHARE ROW EXCLUSIVE MODE;
+
+    DROP TABLE IF EXISTS tmp_drain_result, tmp_drain_figurant, tmp_drain_match;
+
+    CREATE TEMP TABLE tmp_drain_result ON COMMIT DROP AS
+    SELECT r.*
+    FROM upoa_ksk_reports.ksk_result r
+    WHERE r.output_timestamp >= v_from
+      AND r.output_timestamp < v_to
+      AND r.tableoid = 'upoa_ksk_reports.part_ksk_result_default'::REGCLASS;
+
+    CREATE TEMP TABLE tmp_drain_figurant ON COMMIT DROP AS
+    SELECT f.*
+    FROM upoa_ksk_reports.ksk_figurant f
+    WHERE f."timestamp" >= v_from
+      AND f."timestamp" < v_to
+      AND (f.tableoid = 'upoa_ksk_reports.part_ksk_figurant_default'::REGCLASS
+           OR (f.source_id, f."timestamp") IN (SELECT id, output_timestamp FROM tmp_drain_result));
+
+    CREATE TEMP TABLE tmp_drain_match ON COMMIT DROP AS
+    SELECT m.*
+    FROM upoa_ksk_reports.ksk_figurant_match m
+    WHERE m."timestamp" >= v_from
+      AND m."timestamp" < v_to
+      AND (m.tableoid = 'upoa_ksk_reports.part_ksk_figurant_match_default'::REGCLASS
+           OR (m.figurant_id, m."timestamp") IN (SELECT id, "timestamp" FROM tmp_drain_figurant));
+
+    DELETE FROM upoa_ksk_reports.ksk_figurant_match m
+    USING tmp_drain_match t
+    WHERE m.id = t.id AND m."timestamp" = t."timestamp";
+
+    DELETE FROM upoa_ksk_reports.ksk_figurant f
+    USING tmp_drain_figurant t
+    WHERE f.id = t.id AND f."timestamp" = t."timestamp";
+
+    DELETE FROM upoa_ksk_reports.ksk_result r
+    USING tmp_drain_result t
+    WHERE r.id = t.id AND r.output_timestamp = t.output_timestamp;
+
+    PERFORM upoa_ksk_reports.ksk_create_partitions('ksk_result', p_day, 1);
+    PERFORM upoa_ksk_reports.ksk_create_partitions('ksk_figurant', p_day, 1);
+    PERFORM upoa_ksk_reports.ksk_create_partitions('ksk_figurant_match', p_day, 1);
+
+    PERFORM SET_CONFIG('ksk.rollup_skip', 'on', TRUE);
+
+    INSERT INTO upoa_ksk_reports.ksk_result OVERRIDING SYSTEM VALUE
+    SELECT * FROM tmp_drain_result;
+    GET DIAGNOSTICS v_result = ROW_COUNT;
+
+    INSERT INTO upoa_ksk_reports.ksk_figurant OVERRIDING SYSTEM VALUE
+    SELECT * FROM tmp_drain_figurant;
+    GET DIAGNOSTICS v_figurant = ROW_COUNT;
+
+    INSERT INTO upoa_ksk_reports.ksk_figurant_match OVERRIDING SYSTEM VALUE
+    SELECT * FROM tmp_drain_match;
+    GET DIAGNOSTICS v_match = ROW_COUNT;
+
+    PERFORM SET_CONFIG('ksk.rollup_skip', 'off', TRUE);
+
+    PERFORM upoa_ksk_reports.ksk_log_operation(
+        'drain_default_partitions',
+        'Перенос строк из партиций по умолчанию',
+        v_begin_time,
+        'success',
+        FORMAT('День: %s. Перенесено ksk_result: %s, ksk_figurant: %s, ksk_figurant_match: %s',
+               p_day, v_result, v_figurant, v_match),
+        NULL
+    );
+
+    RETURN QUERY
+    VALUES ('ksk_result', v_result),
+           ('ksk_figurant', v_figurant),
+           ('ksk_figurant_match', v_match);
+END;
+$$ LANGUAGE plpgsql;
+
+COMMENT ON FUNCTION upoa_ksk_reports.ksk_drain_default_partitions(DATE) IS
+    'Переносит строки дня из партиций по умолчанию в созданные дневные партиции (те же id, без дельт rollup)';
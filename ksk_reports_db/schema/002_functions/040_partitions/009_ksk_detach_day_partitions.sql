@@ -0,0 +1,98 @@
+-- ============================================================================
+-- ФУНКЦИЯ: ksk_detach_day_partitions
+-- ============================================================================
+-- ОПИСАНИЕ:
+--   Отсоединяет партиции одного дня от ksk_figurant_match, ksk_figurant и ksk_result.
+--   Отсоединённые таблицы остаются в схеме с прежними именами — их выгружает
+--   в архив и удаляет PartitionLifecycleManager
+--
+-- ПАРАМЕТРЫ:
+--   @p_day - День партиций
+--
+-- ВОЗВРАЩАЕТ:
+--   TEXT[] - Имена отсоединённых таблиц (пусто — дня уже нет)
+--
+-- ПОРЯДОК:
+--   1. ksk_figurant_match (самая зависимая)
+--   2. ksk_figurant
+--   3. ksk_result
+--   После DETACH у таблицы снимаются внешние ключи: иначе отсоединённые совпадения
+--   ссылались бы на фигурантов и следующий DETACH не прошёл бы проверку FK
+--
+-- ЗАМЕТКИ:
+--   - DETACH берёт ACCESS EXCLUSIVE на родительскую таблицу (CONCURRENTLY недоступен
+--     при партиции по умолчанию) — lock_timeout задаёт вызывающий
+--   - Данные не удаляются: при сбое выгрузки таблицы подхватит следующий запуск
+--   - Результат записывается в ksk_system_operations_log
+--   - Отсоединённая таблица помечается COMMENT ON TABLE (ARCHIVE_MARK) в той же транзакции:
+--     PartitionLifecycleManager выгружает и удаляет только помеченные таблицы — вручную
+--     отсоединённая партиция (обслуживание, разбор) не удаляется
+--
+-- ПРИМЕР ИСПОЛЬЗОВАНИЯ:
+--   SELECT ksk_detach_day_partitions('2025-10-16');
+--
+-- ИСТОРИЯ ИЗМЕНЕНИЙ:
+--   2026-10-17 - Создание функции (архивация вместо ksk_drop_old_partitions)
+--   2026-10-17 - Метка ARCHIVE_MARK на отсоединённых таблицах
+-- ============================================================================
+
+CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_detach_day_partitions(
+    p_day DATE
+)
+RETURNS TEXT[] AS $$
+DECLARE
+    v_begin_time TIMESTAMP(3) := CLOCK_TIMESTAMP();
+    v_detached   TEXT[] := '{}';
+    v_table      TEXT;
+    v_partition  TEXT;
+    v_constraint TEXT;
+BEGIN
+    FOREACH v_table IN ARRAY ARRAY['ksk_figurant_match', 'ksk_figurant', 'ksk_result'] LOOP
+        v_partition := 'part_' || v_table || '_' || TO_CHAR(p_day, 'YYYY_MM_DD');
+
+        CONTINUE WHEN NOT EXISTS (
+            SELECT 1
+            FROM pg_inherits i
+            JOIN pg_class parent ON parent.oid = i.inhparent
+            JOIN pg_class child ON child.oid = i.inhrelid
+            JOIN pg_namespace n ON n.oid = parent.relnamespace
+            WHERE n.nspname = 'upoa_ksk_reports'
+              AND parent.relname = v_table
+              AND child.relname = v_partition
+        );
+
+        EXECUTE FORMAT('ALTER TABLE upoa_ksk_reports.%I DETACH PARTITION upoa_ksk_reports.%I',
+                       v_table, v_partition);
+
+        FOR v_constraint IN
+            SELECT conname
+            FROM pg_constraint
+            WHERE conrelid = ('upoa_ksk_reports.' || QUOTE_IDENT(v_partition))::REGCLASS
+              AND contype = 'f'
+        LOOP
+            EXECUTE FORMAT('ALTER TABLE upoa_ksk_reports.%I DROP CONSTRAINT %I',
+                           v_partition, v_constraint);
+        END LOOP;
+
+        -- Метка = PartitionRepository.ARCHIVE_MARK
+        EXECUTE FORMAT('COMMENT ON TABLE upoa_ksk_reports.%I IS %L',
+                       v_partition, 'ksk_detach_day_partitions: ожидает архивации');
+
+        v_detached := ARRAY_APPEND(v_detached, v_partition);
+    END LOOP;
+
+    PERFORM upoa_ksk_reports.ksk_log_operation(
+        'detach_day_partitions',
+        'Отсоединение партиций для архивации',
+        v_begin_time,
+        'success',
+        FORMAT('День: %s. Отсоединено: %s', p_day, ARRAY_TO_STRING(v_detached, ', ')),
+        NULL
+    );
+
+    RETURN v_detached;
+END;
+$$ LANGUAGE plpgsql;
+
+COMMENT ON FUNCTION upoa_ksk_reports.ksk_detach_day_partitions(DATE) IS
+    'Отсоединяет партиции дня от таблиц КСК для архивации (таблицы остаются в схеме)';
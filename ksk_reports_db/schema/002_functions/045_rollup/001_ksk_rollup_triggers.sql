@@ -0,0 +1,121 @@
+-- ============================================================================
+-- ФУНКЦИИ + ТРИГГЕРЫ: ksk_rollup_on_result_insert, ksk_rollup_on_figurant_insert
+-- ============================================================================
+-- ОПИСАНИЕ:
+--   Инкрементальное ведение дневных счётчиков при загрузке:
+--   после каждого INSERT / COPY в ksk_result и ksk_figurant добавляют по строке-дельте
+--   на группу в ksk_rollup_result_daily / ksk_rollup_list_daily
+--
+-- ЗАМЕТКИ:
+--   - FOR EACH STATEMENT + transition table (new_rows): один INSERT дельт на пакет COPY
+--     (KskResultCopyRepository), а не на строку; put_ksk_result — на каждую вставку
+--   - Дельты только добавляются (без UPSERT): параллельные загрузки не блокируют друг друга
+--     на строке счётчика; откат загрузки откатывает и её дельты
+--   - tx_count списка — транзакции, у которых это ПЕРВЫЙ фигурант списка: put_ksk_result
+--     вставляет фигурантов по одному, поэтому проверяется, нет ли уже фигуранта той же
+--     транзакции с тем же list_code вне текущей вставки (idx_ksk_figurant_source_id)
+--   - Условия счётчиков те же, что в ksk_report_list_totals*_scan (is_bypass != 'yes' и т.д.)
+--   - Триггеры DELETE нет: ksk_cleanup_empty_records удаляет из партиций напрямую и
+--     удаляет партиции целиком — сама пересчитывает затронутые дни (ksk_rollup_finalize_day)
+--   - SET LOCAL ksk.rollup_skip = 'on' — вставка без дельт: повторная вставка уже
+--     посчитанных строк (ksk_drain_default_partitions)
+--
+-- ИСТОРИЯ ИЗМЕНЕНИЙ:
+--   2026-10-17 - Создание (дневные счётчики отчётов totals / list_totals)
+--   2026-10-17 - ksk.rollup_skip для переноса строк из партиций по умолчанию
+--   2026-10-17 - Удаление пустых транзакций пересчитывает rollup (ksk_cleanup_empty_records)
+-- ============================================================================
+
+CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_rollup_on_result_insert()
+RETURNS TRIGGER AS $$
+BEGIN
+    IF CURRENT_SETTING('ksk.rollup_skip', TRUE) = 'on' THEN
+        RETURN NULL;
+    END IF;
+
+    INSERT INTO upoa_ksk_reports.ksk_rollup_result_daily (day, payment_type, resolution, tx_count)
+    SELECT output_timestamp::DATE, payment_type, resolution, COUNT(*)
+    FROM new_rows
+    GROUP BY output_timestamp::DATE, payment_type, resolution;
+
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+COMMENT ON FUNCTION upoa_ksk_reports.ksk_rollup_on_result_insert() IS
+    'Триггерная функция: дельты ksk_rollup_result_daily по вставленным строкам ksk_result';
+
+DROP TRIGGER IF EXISTS trg_ksk_rollup_result_insert ON upoa_ksk_reports.ksk_result;
+
+CREATE TRIGGER trg_ksk_rollup_result_insert
+    AFTER INSERT ON upoa_ksk_reports.ksk_result
+    REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT
+    EXECUTE FUNCTION upoa_ksk_reports.ksk_rollup_on_result_insert();
+
+
+CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_rollup_on_figurant_insert()
+RETURNS TRIGGER AS $$
+BEGIN
+    IF CURRENT_SETTING('ksk.rollup_skip', TRUE) = 'on' THEN
+        RETURN NULL;
+    END IF;
+
+    INSERT INTO upoa_ksk_reports.ksk_rollup_list_daily (
+        day, list_code, payment_type,
+        tx_count, allow_count, review_count, deny_count, bypass_count
+    )
+    SELECT
+        g."timestamp"::DATE,
+        g.list_code,
+        r.payment_type,
+        COUNT(*) FILTER (WHERE g.first_of_list),
+        SUM(g.allow_count),
+        SUM(g.review_count),
+        SUM(g.deny_count),
+        SUM(g.bypass_count)
+    FROM (
+        SELECT
+            n.*,
+            NOT EXISTS (
+                SELECT 1
+                FROM upoa_ksk_reports.ksk_figurant f
+                WHERE f.source_id = n.source_id
+                  AND f."timestamp" = n."timestamp"
+                  AND f.list_code IS NOT DISTINCT FROM n.list_code
+                  AND f.id <> ALL (n.ids)
+            ) AS first_of_list
+        FROM (
+            -- Фигуранты одной транзакции и одного списка в этой вставке
+            SELECT
+                source_id,
+                "timestamp",
+                list_code,
+                ARRAY_AGG(id) AS ids,
+                COUNT(*) FILTER (WHERE resolution = 'allow' AND is_bypass != 'yes') AS allow_count,
+                COUNT(*) FILTER (WHERE resolution = 'review' AND is_bypass != 'yes') AS review_count,
+                COUNT(*) FILTER (WHERE resolution = 'deny' AND is_bypass != 'yes') AS deny_count,
+                COUNT(*) FILTER (WHERE is_bypass = 'yes') AS bypass_count
+            FROM new_rows
+            GROUP BY source_id, "timestamp", list_code
+        ) n
+    ) g
+    INNER JOIN upoa_ksk_reports.ksk_result r
+        ON r.id = g.source_id
+        AND r.output_timestamp = g."timestamp"
+    GROUP BY g."timestamp"::DATE, g.list_code, r.payment_type;
+
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+COMMENT ON FUNCTION upoa_ksk_reports.ksk_rollup_on_figurant_insert() IS
+    'Триггерная функция: дельты ksk_rollup_list_daily по вставленным строкам ksk_figurant';
+
+DROP TRIGGER IF EXISTS trg_ksk_rollup_figurant_insert ON upoa_ksk_reports.ksk_figurant;
+
+CREATE TRIGGER trg_ksk_rollup_figurant_insert
+    AFTER INSERT ON upoa_ksk_reports.ksk_figurant
+    REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT
+    EXECUTE FUNCTION upoa_ksk_reports.ksk_rollup_on_figurant_insert();
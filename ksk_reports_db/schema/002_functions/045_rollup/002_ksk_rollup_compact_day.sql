@@ -0,0 +1,71 @@
+-- ============================================================================
+-- ФУНКЦИЯ: ksk_rollup_compact_day
+-- ============================================================================
+-- ОПИСАНИЕ:
+--   Сворачивает строки-дельты дня в ksk_rollup_result_daily / ksk_rollup_list_daily
+--   в одну строку на группу. Суммы не меняются — меньше строк читает отчёт
+--
+-- ПАРАМЕТРЫ:
+--   @p_day - День
+--
+-- ВОЗВРАЩАЕТ:
+--   INTEGER - Строк дельт свёрнуто (до свёртки, обе таблицы)
+--
+-- ЗАМЕТКИ:
+--   - DELETE ... RETURNING и INSERT свёрнутых строк — один оператор (один снимок):
+--     дельты загрузок, закоммиченных во время свёртки, не удаляются и не теряются
+--   - Загрузку не блокирует: триггеры только добавляют строки
+--   - Текущий день — pg_cron каждые 10 минут (099_cron), прошедшие дни сворачивает
+--     ksk_rollup_finalize_day
+--
+-- ПРИМЕР ИСПОЛЬЗОВАНИЯ:
+--   SELECT ksk_rollup_compact_day(CURRENT_DATE);
+--
+-- ИСТОРИЯ ИЗМЕНЕНИЙ:
+--   2026-10-17 - Создание функции
+-- ============================================================================
+
+CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_rollup_compact_day(
+    p_day DATE
+)
+RETURNS INTEGER AS $$
+DECLARE
+    v_result_rows INTEGER;
+    v_list_rows INTEGER;
+BEGIN
+    WITH deltas AS (
+        DELETE FROM upoa_ksk_reports.ksk_rollup_result_daily
+        WHERE day = p_day
+        RETURNING payment_type, resolution, tx_count
+    ),
+    compacted AS (
+        INSERT INTO upoa_ksk_reports.ksk_rollup_result_daily (day, payment_type, resolution, tx_count)
+        SELECT p_day, payment_type, resolution, SUM(tx_count)
+        FROM deltas
+        GROUP BY payment_type, resolution
+    )
+    SELECT COUNT(*) INTO v_result_rows FROM deltas;
+
+    WITH deltas AS (
+        DELETE FROM upoa_ksk_reports.ksk_rollup_list_daily
+        WHERE day = p_day
+        RETURNING list_code, payment_type, tx_count, allow_count, review_count, deny_count, bypass_count
+    ),
+    compacted AS (
+        INSERT INTO upoa_ksk_reports.ksk_rollup_list_daily (
+            day, list_code, payment_type,
+            tx_count, allow_count, review_count, deny_count, bypass_count
+        )
+        SELECT p_day, list_code, payment_type,
+               SUM(tx_count), SUM(allow_count), SUM(review_count), SUM(deny_count), SUM(bypass_count)
+        FROM deltas
+        GROUP BY list_code, payment_type
+    )
+    SELECT COUNT(*) INTO v_list_rows FROM deltas;
+
+    RETURN v_result_rows + v_list_rows;
+END;
+$$ LANGUAGE plpgsql;
+
+COMMENT ON FUNCTION upoa_ksk_reports.ksk_rollup_compact_day(DATE) IS
+    'Сворачивает дельты дня в ksk_rollup_*_daily в строку на группу (суммы не меняются)';
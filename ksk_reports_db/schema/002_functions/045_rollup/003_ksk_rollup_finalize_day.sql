@@ -0,0 +1,89 @@
+-- ============================================================================
+-- ФУНКЦИЯ: ksk_rollup_finalize_day
+-- ============================================================================
+-- ОПИСАНИЕ:
+--   Пересчитывает счётчики дня из ksk_result / ksk_figurant (скан одной дневной
+--   партиции) и отмечает день в ksk_rollup_day как final.
+--   Закрытие суток (ksk_rollup_maintain) и заполнение истории до появления rollup
+--
+-- ПАРАМЕТРЫ:
+--   @p_day - День
+--
+-- ВОЗВРАЩАЕТ:
+--   INTEGER - Строк rollup дня после пересчёта (обе таблицы)
+--
+-- ЗАМЕТКИ:
+--   - Замена строк дня — один оператор на обе таблицы (DELETE в CTE + INSERT ... SELECT, один
+--     снимок): дельты загрузок, не видимых пересчёту, остаются и досчитываются сверху —
+--     поздние сообщения за закрытый день учитываются и после final
+--   - Счётчики — ksk_report_totals_family_scan (один проход, условия те же, что в
+--     ksk_report_*_scan; 025_ksk_report_totals_family.sql)
+--   - ksk_cleanup_empty_records вызывает пересчёт для дней, из которых удалила строки:
+--     total_without_result уменьшается на удалённые пустые транзакции — как и скан
+--
+-- ПРИМЕР ИСПОЛЬЗОВАНИЯ:
+--   SELECT ksk_rollup_finalize_day(CURRENT_DATE - 1);
+--   -- История:
+--   SELECT ksk_rollup_finalize_day(d::DATE)
+--   FROM generate_series('2026-01-01'::DATE, CURRENT_DATE - 1, '1 day') d;
+--
+-- ИСТОРИЯ ИЗМЕНЕНИЙ:
+--   2026-10-17 - Создание функции
+--   2026-10-17 - Обе таблицы одним проходом (ksk_report_totals_family_scan): ksk_result
+--                читается один раз вместо двух
+-- ============================================================================
+
+CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_rollup_finalize_day(
+    p_day DATE
+)
+RETURNS INTEGER AS $$
+DECLARE
+    v_result_rows INTEGER;
+    v_list_rows INTEGER;
+BEGIN
+    -- Один проход по дневным партициям ksk_result / ksk_figurant на обе таблицы
+    WITH scan AS MATERIALIZED (
+        SELECT *
+        FROM upoa_ksk_reports.ksk_report_totals_family_scan(p_day, p_day + 1)
+    ),
+    removed_result AS (
+        DELETE FROM upoa_ksk_reports.ksk_rollup_result_daily
+        WHERE day = p_day
+    ),
+    removed_list AS (
+        DELETE FROM upoa_ksk_reports.ksk_rollup_list_daily
+        WHERE day = p_day
+    ),
+    result_rows AS (
+        INSERT INTO upoa_ksk_reports.ksk_rollup_result_daily (day, payment_type, resolution, tx_count)
+        SELECT p_day, payment_type, resolution, tx_count
+        FROM scan
+        WHERE grp = 'result'
+        RETURNING 1
+    ),
+    list_rows AS (
+        INSERT INTO upoa_ksk_reports.ksk_rollup_list_daily (
+            day, list_code, payment_type,
+            tx_count, allow_count, review_count, deny_count, bypass_count
+        )
+        SELECT p_day, list_code, payment_type,
+               tx_count, allow_count, review_count, deny_count, bypass_count
+        FROM scan
+        WHERE grp = 'list'
+        RETURNING 1
+    )
+    SELECT (SELECT COUNT(*) FROM result_rows), (SELECT COUNT(*) FROM list_rows)
+    INTO v_result_rows, v_list_rows;
+
+    INSERT INTO upoa_ksk_reports.ksk_rollup_day (day, state, finalized_datetime)
+    VALUES (p_day, 'final', NOW())
+    ON CONFLICT (day) DO UPDATE
+    SET state = 'final',
+        finalized_datetime = NOW();
+
+    RETURN v_result_rows + v_list_rows;
+END;
+$$ LANGUAGE plpgsql;
+
+COMMENT ON FUNCTION upoa_ksk_reports.ksk_rollup_finalize_day(DATE) IS
+    'Пересчитывает rollup дня из ksk_result / ksk_figurant и отмечает день как final';
@@ -0,0 +1,51 @@
+-- ============================================================================
+-- ФУНКЦИЯ: ksk_rollup_uncovered_ranges
+-- ============================================================================
+-- ОПИСАНИЕ:
+--   Непрерывные диапазоны дней периода, которых нет в ksk_rollup_day —
+--   их отчёт считает сканом сырых данных (ksk_report_*_scan)
+--
+-- ПАРАМЕТРЫ:
+--   @p_start_date - Начальная дата периода (включительно)
+--   @p_end_date   - Конечная дата периода (ИСКЛЮЧАЯ)
+--
+-- ВОЗВРАЩАЕТ:
+--   TABLE (range_start DATE, range_end DATE) - [range_start ... range_end), по возрастанию
+--
+-- ЗАМЕТКИ:
+--   - Диапазоны, а не отдельные дни: скан диапазона — один запрос с отсечением партиций
+--   - Обычно пусто или один-два диапазона (история до rollup, текущий день до его открытия)
+--
+-- ПРИМЕР ИСПОЛЬЗОВАНИЯ:
+--   SELECT * FROM ksk_rollup_uncovered_ranges('2026-09-01', '2026-10-01');
+--
+-- ИСТОРИЯ ИЗМЕНЕНИЙ:
+--   2026-10-17 - Создание функции
+-- ============================================================================
+
+CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_rollup_uncovered_ranges(
+    p_start_date DATE,
+    p_end_date   DATE
+)
+RETURNS TABLE (
+    range_start DATE,
+    range_end DATE
+) AS $$
+SELECT MIN(gaps.day), MAX(gaps.day) + 1
+FROM (
+    -- Подряд идущие дни без rollup получают одинаковый grp (day - номер по порядку)
+    SELECT g.ts::DATE AS day,
+           g.ts::DATE - (ROW_NUMBER() OVER (ORDER BY g.ts))::INTEGER AS grp
+    FROM generate_series(p_start_date, p_end_date - 1, INTERVAL '1 day') AS g(ts)
+    WHERE NOT EXISTS (
+        SELECT 1
+        FROM upoa_ksk_reports.ksk_rollup_day rd
+        WHERE rd.day = g.ts::DATE
+    )
+) gaps
+GROUP BY gaps.grp
+ORDER BY 1;
+$$ LANGUAGE sql STABLE;
+
+COMMENT ON FUNCTION upoa_ksk_reports.ksk_rollup_uncovered_ranges(DATE, DATE) IS
+    'Диапазоны дней [range_start..range_end) периода без rollup (считаются сканом)';
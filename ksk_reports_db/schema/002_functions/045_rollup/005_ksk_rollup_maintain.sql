@@ -0,0 +1,92 @@
+-- ============================================================================
+-- ФУНКЦИЯ: ksk_rollup_maintain
+-- ============================================================================
+-- ОПИСАНИЕ:
+--   Ежесуточное обслуживание rollup (pg_cron, до генерации системных отчётов):
+--   1. Открывает дни на p_days_ahead вперёд (state = 'open') — до прихода их данных,
+--      счётчики этих дней целиком ведут триггеры загрузки
+--   2. Закрывает прошедшие дни: ksk_rollup_finalize_day для open-дней раньше сегодня
+--      и для вчерашнего дня, если его нет (первый запуск после установки)
+--
+-- ПАРАМЕТРЫ:
+--   @p_days_ahead - Сколько дней вперёд открыть (по умолчанию: 7, как партиции)
+--
+-- ВОЗВРАЩАЕТ:
+--   TABLE (opened INTEGER, finalized INTEGER)
+--
+-- ЗАМЕТКИ:
+--   - Сегодняшний день не открывается задним числом: данные, загруженные до установки
+--     триггеров, в rollup не попали бы. До закрытия такой день считается сканом
+--   - История до установки — ksk_rollup_finalize_day по нужным дням
+--   - Результат — в ksk_system_operations_log (rollup_maintain)
+--
+-- ПРИМЕР ИСПОЛЬЗОВАНИЯ:
+--   SELECT * FROM ksk_rollup_maintain();
+--
+-- ИСТОРИЯ ИЗМЕНЕНИЙ:
+--   2026-10-17 - Создание функции
+-- ============================================================================
+
+CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_rollup_maintain(
+    p_days_ahead INTEGER DEFAULT 7
+)
+RETURNS TABLE (
+    opened INTEGER,
+    finalized INTEGER
+) AS $$
+DECLARE
+    v_begin_time TIMESTAMP(3) := CLOCK_TIMESTAMP();
+    v_opened INTEGER;
+    v_finalized INTEGER := 0;
+    v_day DATE;
+BEGIN
+    INSERT INTO upoa_ksk_reports.ksk_rollup_day (day)
+    SELECT g.ts::DATE
+    FROM generate_series(CURRENT_DATE + 1, CURRENT_DATE + p_days_ahead, INTERVAL '1 day') AS g(ts)
+    ON CONFLICT (day) DO NOTHING;
+
+    GET DIAGNOSTICS v_opened = ROW_COUNT;
+
+    FOR v_day IN
+        SELECT day
+        FROM upoa_ksk_reports.ksk_rollup_day
+        WHERE state = 'open'
+          AND day < CURRENT_DATE
+        UNION
+        SELECT CURRENT_DATE - 1
+        WHERE NOT EXISTS (
+            SELECT 1 FROM upoa_ksk_reports.ksk_rollup_day WHERE day = CURRENT_DATE - 1
+        )
+        ORDER BY 1
+    LOOP
+        PERFORM upoa_ksk_reports.ksk_rollup_finalize_day(v_day);
+        v_finalized := v_finalized + 1;
+    END LOOP;
+
+    PERFORM upoa_ksk_reports.ksk_log_operation(
+        'rollup_maintain',
+        'Обслуживание дневных счётчиков отчётов',
+        v_begin_time,
+        'success',
+        FORMAT('Открыто дней: %s, закрыто дней: %s', v_opened, v_finalized),
+        NULL
+    );
+
+    RETURN QUERY SELECT v_opened, v_finalized;
+
+EXCEPTION
+    WHEN OTHERS THEN
+        PERFORM upoa_ksk_reports.ksk_log_operation(
+            'rollup_maintain',
+            'Обслуживание дневных счётчиков отчётов',
+            v_begin_time,
+            'error',
+            NULL,
+            SQLERRM
+        );
+        RAISE;
+END;
+$$ LANGUAGE plpgsql;
+
+COMMENT ON FUNCTION upoa_ksk_reports.ksk_rollup_maintain(INTEGER) IS
+    'Ежесуточно: открывает дни rollup вперёд и пересчитывает закрытые дни (ksk_rollup_finalize_day)';
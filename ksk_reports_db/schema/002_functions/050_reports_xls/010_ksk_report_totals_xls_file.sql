@@ -18,6 +18,9 @@
 --
 -- ИСТОРИЯ ИЗМЕНЕНИЙ:
 --   2025-12-08 - Создание функции
+--   2026-10-17 - Отчёты её больше не вызывают: файл с той же раскладкой пишет API потоком строк
+--                (StoredReportFileRepository.render, SpreadsheetLayout). Оставлена для ручной
+--                генерации и ksk_report_generate_all_xls_files_in_period
 -- ============================================================================
 
 CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_report_totals_xls_file(
@@ -32,6 +32,8 @@
 -- ИСТОРИЯ ИЗМЕНЕНИЙ:
 --   2025-12-08 - Создание функции
 --   2025-12-08 - FIX: Исправлена неоднозначность report_date (rf.report_date)
+--   2026-10-17 - Файлы за период строит API (ReportBatchOrchestrator, задача FILE
+--                после отчёта). Функция оставлена для ручного запуска из psql
 -- ============================================================================
 
 CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_report_generate_all_xls_files_in_period(
@@ -0,0 +1,94 @@
+-- ============================================================================
+-- ФУНКЦИЯ: ksk_report_xls_file_by_header
+-- ============================================================================
+-- ОПИСАНИЕ:
+--   Возвращает ID Excel XML файла (ksk_report_files) для заголовка отчёта
+--   Если файла ещё нет - генерирует его соответствующей xls-функцией
+--   ⚠️ API больше не вызывает эту функцию: файл строит StoredReportFileRepository.render
+--   (поток строк курсором + COPY, тот же advisory lock). Оставлена для ручного вызова
+--   агрегатных отчётов; файл review строится только в API
+--
+-- ПАРАМЕТРЫ:
+--   @p_report_header_id - ID заголовка отчёта (status = 'done')
+--
+-- ВОЗВРАЩАЕТ:
+--   INTEGER - ID записи в ksk_report_files (file_format = 'excel_xml')
+--
+-- КОНКУРЕНТНОСТЬ:
+--   pg_advisory_xact_lock по header_id - параллельные запросы на скачивание
+--   не генерируют файл дважды: второй ждёт первого и получает готовый файл
+--
+-- ПРИМЕР ИСПОЛЬЗОВАНИЯ:
+--   SELECT ksk_report_xls_file_by_header(126);
+--
+-- ИСТОРИЯ ИЗМЕНЕНИЙ:
+--   2026-10-17 - Создание функции (экспорт xls из сохранённого файла)
+--   2026-10-17 - Генерация перенесена в API; review — исключение (ksk_report_review_create_report
+--                больше не строит файл)
+-- ============================================================================
+
+CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_report_xls_file_by_header(
+    p_report_header_id INTEGER
+)
+RETURNS INTEGER AS $$
+DECLARE
+    v_header RECORD;
+    v_file_id INTEGER;
+BEGIN
+    SELECT
+        h.id,
+        h.status,
+        h.start_date,
+        h.end_date,
+        h.parameters,
+        o.report_code
+    INTO v_header
+    FROM upoa_ksk_reports.ksk_report_header h
+    JOIN upoa_ksk_reports.ksk_report_orchestrator o ON h.orchestrator_id = o.id
+    WHERE h.id = p_report_header_id;
+
+    IF v_header.id IS NULL THEN
+        RAISE EXCEPTION 'Заголовок отчёта с id = % не найден', p_report_header_id;
+    END IF;
+
+    IF v_header.status != 'done' THEN
+        RAISE EXCEPTION 'Отчёт id = % ещё не готов (status = %)', p_report_header_id, v_header.status;
+    END IF;
+
+    -- Single-flight генерации файла
+    PERFORM pg_advisory_xact_lock(hashtext('ksk_report_xls_file'), p_report_header_id);
+
+    SELECT id INTO v_file_id
+    FROM upoa_ksk_reports.ksk_report_files
+    WHERE report_header_id = p_report_header_id
+      AND file_format = 'excel_xml'
+    ORDER BY created_datetime DESC, id DESC
+    LIMIT 1;
+
+    IF v_file_id IS NOT NULL THEN
+        RETURN v_file_id;
+    END IF;
+
+    CASE v_header.report_code
+        WHEN 'totals' THEN
+            SELECT upoa_ksk_reports.ksk_report_totals_xls_file(p_report_header_id) INTO v_file_id;
+        WHEN 'totals_by_payment_type' THEN
+            SELECT upoa_ksk_reports.ksk_report_totals_by_payment_type_xls_file(p_report_header_id) INTO v_file_id;
+        WHEN 'list_totals' THEN
+            SELECT upoa_ksk_reports.ksk_report_list_totals_xls_file(p_report_header_id) INTO v_file_id;
+        WHEN 'list_totals_by_payment_type' THEN
+            SELECT upoa_ksk_reports.ksk_report_list_totals_by_payment_type_xls_file(p_report_header_id) INTO v_file_id;
+        WHEN 'figurants' THEN
+            SELECT upoa_ksk_reports.ksk_report_figurants_xls_file(p_report_header_id) INTO v_file_id;
+        WHEN 'review' THEN
+            RAISE EXCEPTION 'Файл review строит API (StoredReportFileRepository.render), header_id = %', p_report_header_id;
+        ELSE
+            RAISE EXCEPTION 'Нет xls-функции для типа отчёта: %', v_header.report_code;
+    END CASE;
+
+    RETURN v_file_id;
+END;
+$$ LANGUAGE plpgsql;
+
+COMMENT ON FUNCTION upoa_ksk_reports.ksk_report_xls_file_by_header(INTEGER) IS
+    'ID Excel XML файла отчёта в ksk_report_files; генерирует файл xls-функцией, если его ещё нет. Single-flight через advisory lock.';
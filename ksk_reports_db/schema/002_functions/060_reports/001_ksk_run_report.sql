@@ -38,6 +38,8 @@
 -- ИСТОРИЯ ИЗМЕНЕНИЙ:
 --   2025-10-25 - Добавлено логирование через ksk_log_operation
 --   2025-11-26 - FIX: p_end_date исключающий, NULL = start_date + 1 day
+--   2026-10-17 - Кэш количества строк в ksk_report_header.row_count (ksk_report_count_rows)
+--   2026-10-17 - Блокировка отпечатка до расчёта (ksk_report_lock_fingerprint)
 -- ============================================================================
 
 CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_run_report(
@@ -113,6 +115,9 @@ BEGIN
     )
     RETURNING id INTO v_header_id;
 
+    -- Одинаковые отчёты — по одному (ksk_report_reuse ждёт этот донор до COMMIT)
+    PERFORM upoa_ksk_reports.ksk_report_lock_fingerprint(v_header_id);
+
     -- Вызов функции генерации отчёта
     BEGIN
         EXECUTE FORMAT('SELECT %I($1, $2, $3, $4)', v_report_function)
@@ -121,7 +126,8 @@ BEGIN
         -- Обновление статуса на 'done'
         UPDATE upoa_ksk_reports.ksk_report_header
         SET status = 'done',
-            finished_datetime = NOW()
+            finished_datetime = NOW(),
+            row_count = upoa_ksk_reports.ksk_report_count_rows(v_header_id)
         WHERE id = v_header_id;
 
         v_info := FORMAT(
@@ -26,6 +26,10 @@
 --   2025-11-26 - FIX: total_bypass теперь по resolution='bypass', не has_bypass
 --   2025-11-26 - FIX: p_end_date исключающий, убран +INTERVAL '1 day'
 --   2025-12-08 - Добавлен вызов генерации Excel-файла
+--   2026-10-17 - Агрегация вынесена в ksk_report_totals_partial (020_ksk_report_partial_aggregates.sql),
+--                её же по дневным срезам считает ParallelReportExecutor
+--   2026-10-17 - Excel-файл больше не строится в БД: его пишет API потоком строк
+--                (StoredReportFileRepository.render, SpreadsheetLayout)
 -- ============================================================================
 
 CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_report_totals(
@@ -46,21 +50,8 @@ BEGIN
         total_deny,
         total_bypass
     )
-    SELECT
-        p_header_id,
-        COUNT(*) AS total,
-        COUNT(*) FILTER (WHERE resolution = 'empty') AS total_without_result,
-        COUNT(*) FILTER (WHERE resolution != 'empty') AS total_with_result,
-        COUNT(*) FILTER (WHERE resolution = 'allow') AS total_allow,
-        COUNT(*) FILTER (WHERE resolution = 'review') AS total_review,
-        COUNT(*) FILTER (WHERE resolution = 'deny') AS total_deny,
-        COUNT(*) FILTER (WHERE resolution = 'bypass') AS total_bypass
-    FROM upoa_ksk_reports.ksk_result
-    WHERE output_timestamp >= p_start_date::TIMESTAMP(3)
-      AND output_timestamp < p_end_date::TIMESTAMP(3);
-
-    -- Генерация Excel-файла
-    PERFORM upoa_ksk_reports.ksk_report_totals_xls_file(p_header_id);
+    SELECT p_header_id, p.*
+    FROM upoa_ksk_reports.ksk_report_totals_partial(p_start_date, p_end_date, p_parameters) p;
 END;
 $$ LANGUAGE plpgsql;
 
@@ -27,6 +27,10 @@
 -- 2025-10-25 - Исправлено использование русских названий типов платежей
 -- 2025-11-26 - FIX: total_bypass теперь по resolution='bypass', не has_bypass
 -- 2025-12-08 - Добавлен вызов генерации Excel-файла
+-- 2026-10-17 - Агрегация вынесена в ksk_report_totals_by_payment_type_partial (020_ksk_report_partial_aggregates.sql),
+--              её же по дневным срезам считает ParallelReportExecutor
+-- 2026-10-17 - Excel-файл больше не строится в БД: его пишет API потоком строк
+--              (StoredReportFileRepository.render, SpreadsheetLayout)
 -- ============================================================================
 
 CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_report_totals_by_payment_type(
@@ -52,62 +56,8 @@ BEGIN
         v_total, v_total_without_result, v_total_with_result,
         v_total_allow, v_total_review, v_total_deny, v_total_bypass
     )
-    SELECT
-        p_header_id,
-        -- Общие счётчики
-        COUNT(*),
-        COUNT(*) FILTER (WHERE resolution = 'empty'),
-        COUNT(*) FILTER (WHERE resolution != 'empty'),                          -- FIX: != вместо вычитания
-        COUNT(*) FILTER (WHERE resolution = 'allow'),
-        COUNT(*) FILTER (WHERE resolution = 'review'),
-        COUNT(*) FILTER (WHERE resolution = 'deny'),
-        COUNT(*) FILTER (WHERE resolution = 'bypass'),                          -- FIX!
-        -- Входящий
-        COUNT(*) FILTER (WHERE payment_type = 'Входящий'),
-        COUNT(*) FILTER (WHERE payment_type = 'Входящий' AND resolution = 'empty'),
-        COUNT(*) FILTER (WHERE payment_type = 'Входящий' AND resolution != 'empty'),
-        COUNT(*) FILTER (WHERE payment_type = 'Входящий' AND resolution = 'allow'),
-        COUNT(*) FILTER (WHERE payment_type = 'Входящий' AND resolution = 'review'),
-        COUNT(*) FILTER (WHERE payment_type = 'Входящий' AND resolution = 'deny'),
-        COUNT(*) FILTER (WHERE payment_type = 'Входящий' AND resolution = 'bypass'),  -- FIX!
-        -- Исходящий
-        COUNT(*) FILTER (WHERE payment_type = 'Исходящий'),
-        COUNT(*) FILTER (WHERE payment_type = 'Исходящий' AND resolution = 'empty'),
-        COUNT(*) FILTER (WHERE payment_type = 'Исходящий' AND resolution != 'empty'),
-        COUNT(*) FILTER (WHERE payment_type = 'Исходящий' AND resolution = 'allow'),
-        COUNT(*) FILTER (WHERE payment_type = 'Исходящий' AND resolution = 'review'),
-        COUNT(*) FILTER (WHERE payment_type = 'Исходящий' AND resolution = 'deny'),
-        COUNT(*) FILTER (WHERE payment_type = 'Исходящий' AND resolution = 'bypass'),  -- FIX!
-        -- Транзитный
-        COUNT(*) FILTER (WHERE payment_type = 'Транзитный'),
-        COUNT(*) FILTER (WHERE payment_type = 'Транзитный' AND resolution = 'empty'),
-        COUNT(*) FILTER (WHERE payment_type = 'Транзитный' AND resolution != 'empty'),
-        COUNT(*) FILTER (WHERE payment_type = 'Транзитный' AND resolution = 'allow'),
-        COUNT(*) FILTER (WHERE payment_type = 'Транзитный' AND resolution = 'review'),
-        COUNT(*) FILTER (WHERE payment_type = 'Транзитный' AND resolution = 'deny'),
-        COUNT(*) FILTER (WHERE payment_type = 'Транзитный' AND resolution = 'bypass'),  -- FIX!
-        -- Межфилиальный
-        COUNT(*) FILTER (WHERE payment_type = 'Межфилиальный'),
-        COUNT(*) FILTER (WHERE payment_type = 'Межфилиальный' AND resolution = 'empty'),
-        COUNT(*) FILTER (WHERE payment_type = 'Межфилиальный' AND resolution != 'empty'),
-        COUNT(*) FILTER (WHERE payment_type = 'Межфилиальный' AND resolution = 'allow'),
-        COUNT(*) FILTER (WHERE payment_type = 'Межфилиальный' AND resolution = 'review'),
-        COUNT(*) FILTER (WHERE payment_type = 'Межфилиальный' AND resolution = 'deny'),
-        COUNT(*) FILTER (WHERE payment_type = 'Межфилиальный' AND resolution = 'bypass'),  -- FIX!
-        -- Внутрифилиальный
-        COUNT(*) FILTER (WHERE payment_type = 'Внутрифилиальный'),
-        COUNT(*) FILTER (WHERE payment_type = 'Внутрифилиальный' AND resolution = 'empty'),
-        COUNT(*) FILTER (WHERE payment_type = 'Внутрифилиальный' AND resolution != 'empty'),
-        COUNT(*) FILTER (WHERE payment_type = 'Внутрифилиальный' AND resolution = 'allow'),
-        COUNT(*) FILTER (WHERE payment_type = 'Внутрифилиальный' AND resolution = 'review'),
-        COUNT(*) FILTER (WHERE payment_type = 'Внутрифилиальный' AND resolution = 'deny'),
-        COUNT(*) FILTER (WHERE payment_type = 'Внутрифилиальный' AND resolution = 'bypass')  -- FIX!
-    FROM upoa_ksk_reports.ksk_result
-    WHERE output_timestamp >= p_start_date::TIMESTAMP(3)
-      AND output_timestamp < p_end_date::TIMESTAMP(3);
-
-    -- Генерация Excel-файла
-    PERFORM upoa_ksk_reports.ksk_report_totals_by_payment_type_xls_file(p_header_id);
+    SELECT p_header_id, p.*
+    FROM upoa_ksk_reports.ksk_report_totals_by_payment_type_partial(p_start_date, p_end_date, p_parameters) p;
 END;
 $$ LANGUAGE plpgsql;
 
@@ -40,6 +40,10 @@
 --   2025-10-25 - Добавлен UNNEST для оптимизации (v2)
 --   2025-11-26 - FIX: p_end_date исключающий, убран +INTERVAL '1 day', TIMESTAMP(3)
 --   2025-12-08 - Добавлен вызов генерации Excel-файла
+--   2026-10-17 - Агрегация вынесена в ksk_report_list_totals_by_payment_type_partial (020_ksk_report_partial_aggregates.sql),
+--                её же по дневным срезам считает ParallelReportExecutor
+--   2026-10-17 - Excel-файл больше не строится в БД: его пишет API потоком строк
+--                (StoredReportFileRepository.render, SpreadsheetLayout)
 -- ============================================================================
 
 CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_report_list_totals_by_payment_type(
@@ -65,81 +69,9 @@ BEGIN
         m_total_with_list, m_total_without_list, m_total_allow, m_total_review, m_total_deny, m_total_bypass,
         v_total_with_list, v_total_without_list, v_total_allow, v_total_review, v_total_deny, v_total_bypass
     )
-    SELECT
-        p_report_header_id,
-        f.list_code,
-        -- ========================================================================
-        -- ОБЩИЕ СЧЕТЧИКИ: по ТРАНЗАКЦИЯМ (не по фигурантам)
-        -- ========================================================================
-        COUNT(DISTINCT r.id) AS total_with_list,
-        0 AS total_without_list,
-        -- ========================================================================
-        -- СЧЕТЧИКИ РЕШЕНИЙ: по ФИГУРАНТАМ БЕЗ bypass
-        -- ========================================================================
-        COUNT(*) FILTER (WHERE f.resolution = 'allow' AND f.is_bypass != 'yes') AS total_allow,
-        COUNT(*) FILTER (WHERE f.resolution = 'review' AND f.is_bypass != 'yes') AS total_review,
-        COUNT(*) FILTER (WHERE f.resolution = 'deny' AND f.is_bypass != 'yes') AS total_deny,
-        -- ========================================================================
-        -- СЧЕТЧИК BYPASS: по ФИГУРАНТАМ с is_bypass='yes'
-        -- ========================================================================
-        COUNT(*) FILTER (WHERE f.is_bypass = 'yes') AS total_bypass,
-        -- ========================================================================
-        -- i_* - Входящий: ТРАНЗАКЦИИ для total_with_list, ФИГУРАНТЫ для решений
-        -- ========================================================================
-        COUNT(DISTINCT r.id) FILTER (WHERE r.payment_type = 'Входящий') AS i_total_with_list,
-        0 AS i_total_without_list,
-        COUNT(*) FILTER (WHERE r.payment_type = 'Входящий' AND f.resolution = 'allow' AND f.is_bypass != 'yes') AS i_total_allow,
-        COUNT(*) FILTER (WHERE r.payment_type = 'Входящий' AND f.resolution = 'review' AND f.is_bypass != 'yes') AS i_total_review,
-        COUNT(*) FILTER (WHERE r.payment_type = 'Входящий' AND f.resolution = 'deny' AND f.is_bypass != 'yes') AS i_total_deny,
-        COUNT(*) FILTER (WHERE r.payment_type = 'Входящий' AND f.is_bypass = 'yes') AS i_total_bypass,
-        -- ========================================================================
-        -- o_* - Исходящий
-        -- ========================================================================
-        COUNT(DISTINCT r.id) FILTER (WHERE r.payment_type = 'Исходящий') AS o_total_with_list,
-        0 AS o_total_without_list,
-        COUNT(*) FILTER (WHERE r.payment_type = 'Исходящий' AND f.resolution = 'allow' AND f.is_bypass != 'yes') AS o_total_allow,
-        COUNT(*) FILTER (WHERE r.payment_type = 'Исходящий' AND f.resolution = 'review' AND f.is_bypass != 'yes') AS o_total_review,
-        COUNT(*) FILTER (WHERE r.payment_type = 'Исходящий' AND f.resolution = 'deny' AND f.is_bypass != 'yes') AS o_total_deny,
-        COUNT(*) FILTER (WHERE r.payment_type = 'Исходящий' AND f.is_bypass = 'yes') AS o_total_bypass,
-        -- ========================================================================
-        -- t_* - Транзитный
-        -- ========================================================================
-        COUNT(DISTINCT r.id) FILTER (WHERE r.payment_type = 'Транзитный') AS t_total_with_list,
-        0 AS t_total_without_list,
-        COUNT(*) FILTER (WHERE r.payment_type = 'Транзитный' AND f.resolution = 'allow' AND f.is_bypass != 'yes') AS t_total_allow,
-        COUNT(*) FILTER (WHERE r.payment_type = 'Транзитный' AND f.resolution = 'review' AND f.is_bypass != 'yes') AS t_total_review,
-        COUNT(*) FILTER (WHERE r.payment_type = 'Транзитный' AND f.resolution = 'deny' AND f.is_bypass != 'yes') AS t_total_deny,
-        COUNT(*) FILTER (WHERE r.payment_type = 'Транзитный' AND f.is_bypass = 'yes') AS t_total_bypass,
-        -- ========================================================================
-        -- m_* - Межфилиальный
-        -- ========================================================================
-        COUNT(DISTINCT r.id) FILTER (WHERE r.payment_type = 'Межфилиальный') AS m_total_with_list,
-        0 AS m_total_without_list,
-        COUNT(*) FILTER (WHERE r.payment_type = 'Межфилиальный' AND f.resolution = 'allow' AND f.is_bypass != 'yes') AS m_total_allow,
-        COUNT(*) FILTER (WHERE r.payment_type = 'Межфилиальный' AND f.resolution = 'review' AND f.is_bypass != 'yes') AS m_total_review,
-        COUNT(*) FILTER (WHERE r.payment_type = 'Межфилиальный' AND f.resolution = 'deny' AND f.is_bypass != 'yes') AS m_total_deny,
-        COUNT(*) FILTER (WHERE r.payment_type = 'Межфилиальный' AND f.is_bypass = 'yes') AS m_total_bypass,
-        -- ========================================================================
-        -- v_* - Внутрифилиальный
-        -- ========================================================================
-        COUNT(DISTINCT r.id) FILTER (WHERE r.payment_type = 'Внутрифилиальный') AS v_total_with_list,
-        0 AS v_total_without_list,
-        COUNT(*) FILTER (WHERE r.payment_type = 'Внутрифилиальный' AND f.resolution = 'allow' AND f.is_bypass != 'yes') AS v_total_allow,
-        COUNT(*) FILTER (WHERE r.payment_type = 'Внутрифилиальный' AND f.resolution = 'review' AND f.is_bypass != 'yes') AS v_total_review,
-        COUNT(*) FILTER (WHERE r.payment_type = 'Внутрифилиальный' AND f.resolution = 'deny' AND f.is_bypass != 'yes') AS v_total_deny,
-        COUNT(*) FILTER (WHERE r.payment_type = 'Внутрифилиальный' AND f.is_bypass = 'yes') AS v_total_bypass
-    FROM upoa_ksk_reports.ksk_figurant f
-    INNER JOIN upoa_ksk_reports.ksk_result r
-        ON f.source_id = r.id
-        AND f.timestamp = r.output_timestamp
-    WHERE f.timestamp >= p_start_date::TIMESTAMP(3)
-      AND f.timestamp < p_end_date::TIMESTAMP(3)
-      AND f.list_code IS NOT NULL
-    GROUP BY f.list_code
-    ORDER BY f.list_code;
-
-    -- Генерация Excel-файла
-    PERFORM upoa_ksk_reports.ksk_report_list_totals_by_payment_type_xls_file(p_report_header_id);
+    SELECT p_report_header_id, p.*
+    FROM upoa_ksk_reports.ksk_report_list_totals_by_payment_type_partial(p_start_date, p_end_date, p_parameters) p
+    ORDER BY p.list_code;
 END;
 $$ LANGUAGE plpgsql;
 
@@ -44,6 +44,10 @@
 --   2025-11-25 - Переведена фильтрация на timestamp (вместо date) для оптимизации
 --   2025-11-26 - FIX: p_end_date исключающий, упрощено приведение типов
 --   2025-12-08 - Добавлен вызов генерации Excel-файла
+--   2026-10-17 - Агрегация вынесена в ksk_report_list_totals_partial (020_ksk_report_partial_aggregates.sql),
+--                её же по дневным срезам считает ParallelReportExecutor
+--   2026-10-17 - Excel-файл больше не строится в БД: его пишет API потоком строк
+--                (StoredReportFileRepository.render, SpreadsheetLayout)
 -- ============================================================================
 
 CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_report_list_totals(
@@ -64,23 +68,9 @@ BEGIN
         total_deny,
         total_bypass
     )
-    SELECT
-        p_report_header_id,
-        fig.list_code,
-        COUNT(DISTINCT fig.source_id) AS total_with_list,
-        0 AS total_without_list,
-        COUNT(*) FILTER (WHERE fig.resolution = 'allow' AND fig.is_bypass != 'yes') AS total_allow,
-        COUNT(*) FILTER (WHERE fig.resolution = 'review' AND fig.is_bypass != 'yes') AS total_review,
-        COUNT(*) FILTER (WHERE fig.resolution = 'deny' AND fig.is_bypass != 'yes') AS total_deny,
-        COUNT(*) FILTER (WHERE fig.is_bypass = 'yes') AS total_bypass
-    FROM upoa_ksk_reports.ksk_figurant fig
-    WHERE fig.timestamp >= p_start_date::TIMESTAMP(3)
-      AND fig.timestamp < p_end_date::TIMESTAMP(3)
-    GROUP BY fig.list_code
-    ORDER BY fig.list_code;
-
-    -- Генерация Excel-файла
-    PERFORM upoa_ksk_reports.ksk_report_list_totals_xls_file(p_report_header_id);
+    SELECT p_report_header_id, p.*
+    FROM upoa_ksk_reports.ksk_report_list_totals_partial(p_start_date, p_end_date, p_parameters) p
+    ORDER BY p.list_code;
 END;
 $$ LANGUAGE plpgsql;
 
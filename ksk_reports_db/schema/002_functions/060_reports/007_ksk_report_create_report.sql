@@ -4,6 +4,9 @@
 -- ИСТОРИЯ ИЗМЕНЕНИЙ:
 --   2025-10-25 - Создание функции
 --   2025-11-26 - FIX: end_date исключающий, валидация end_date >= start_date
+--   2026-10-17 - Кэш количества строк в ksk_report_header.row_count (ksk_report_count_rows)
+--   2026-10-17 - Блокировка отпечатка до расчёта (ksk_report_lock_fingerprint): одинаковый
+--                отчёт из очереди ждёт COMMIT и копирует результат (ksk_report_reuse)
 -- ============================================================================
 
 CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_report_create_report(p_header_id integer)
@@ -163,6 +166,9 @@ BEGIN
     SET status = 'in_progress'
     WHERE id = rec.id;
 
+    -- Одинаковые отчёты — по одному (ksk_report_reuse ждёт этот донор до COMMIT)
+    PERFORM upoa_ksk_reports.ksk_report_lock_fingerprint(rec.id);
+
     -- Вызов функции генерации отчёта
     BEGIN
         v_start_time := CLOCK_TIMESTAMP();
@@ -172,7 +178,8 @@ BEGIN
 
         UPDATE upoa_ksk_reports.ksk_report_header
         SET status = 'done',
-            finished_datetime = NOW()
+            finished_datetime = NOW(),
+            row_count = upoa_ksk_reports.ksk_report_count_rows(rec.id)
         WHERE id = rec.id;
 
         v_info := FORMAT(
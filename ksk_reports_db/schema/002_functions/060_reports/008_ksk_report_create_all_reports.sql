@@ -7,10 +7,14 @@ DECLARE
     v_error_ids INTEGER[] := '{}';
 BEGIN
     -- Обход всех записей в ksk_report_header со статусом 'in_progress'
+    -- (кроме захваченных узлами API из очереди — их генерирует ReportJobEngine)
+    -- Системные отчёты за день строит ReportBatchOrchestrator; для ручного разбора
+    -- зависших заголовков удобнее ksk_report_enqueue — тогда их подхватит ReportJobEngine
     FOR rec IN 
         SELECT id
         FROM upoa_ksk_reports.ksk_report_header
         WHERE status = 'in_progress'
+          AND worker_id IS NULL
     LOOP
         -- Вызов функции для создания отчета
         v_result := upoa_ksk_reports.ksk_report_create_report(rec.id);
@@ -28,9 +28,10 @@ BEGIN
     -- Удаление данных из таблицы отчета
     EXECUTE FORMAT('DELETE FROM upoa_ksk_reports.%I WHERE report_header_id = %L', v_report_table, p_header_id);
 
-    -- Обновление статуса на 'in_progress'
+    -- Обновление статуса на 'in_progress' (кэш row_count пересчитается в ksk_report_create_report)
     UPDATE upoa_ksk_reports.ksk_report_header
-    SET status = 'in_progress'
+    SET status = 'in_progress',
+        row_count = NULL
     WHERE id = p_header_id;
 
     -- Вызов функции ksk_report_create_report для регенерации отчета
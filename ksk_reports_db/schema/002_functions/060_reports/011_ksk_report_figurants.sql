@@ -43,6 +43,10 @@
 --   2025-11-26 - Bypass-фигуранты исключены из расчёта разрешений
 --   2025-11-26 - FIX: p_end_date исключающий, явное приведение к TIMESTAMP(3)
 --   2025-12-08 - Добавлен вызов генерации Excel-файла
+--   2026-10-17 - Агрегация вынесена в ksk_report_figurants_partial (020_ksk_report_partial_aggregates.sql),
+--                её же по дневным срезам считает ParallelReportExecutor
+--   2026-10-17 - Excel-файл больше не строится в БД: его пишет API потоком строк
+--                (StoredReportFileRepository.render, SpreadsheetLayout)
 -- ============================================================================
 
 CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_report_figurants(
@@ -52,16 +56,7 @@ CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_report_figurants(
     p_parameters  JSONB DEFAULT NULL
 )
 RETURNS VOID AS $$
-DECLARE
-    v_list_codes TEXT[];
 BEGIN
-    -- Извлечение фильтра по спискам из параметров
-    IF p_parameters IS NOT NULL AND p_parameters ? 'list_codes' THEN
-        SELECT ARRAY_AGG(value::TEXT)
-        INTO v_list_codes
-        FROM JSONB_ARRAY_ELEMENTS_TEXT(p_parameters->'list_codes');
-    END IF;
-
     INSERT INTO upoa_ksk_reports.ksk_report_figurants_data (
         report_header_id,
         list_code,
@@ -76,38 +71,9 @@ BEGIN
         total_deny,
         total_bypass
     )
-    SELECT
-        p_header_id,
-        -- Структурированные поля (прямой доступ без извлечения из JSON)
-        list_code,
-        name_figurant,
-        president_group,
-        auto_login::TEXT AS auto_login,
-        exclusion_phrase,
-        exclusion_name_list,
-        -- Агрегированные счётчики
-        COUNT(*) AS total,
-        -- Bypass-фигуранты исключены из расчёта разрешений
-        COUNT(*) FILTER (WHERE resolution = 'allow' AND is_bypass != 'yes') AS total_allow,
-        COUNT(*) FILTER (WHERE resolution = 'review' AND is_bypass != 'yes') AS total_review,
-        COUNT(*) FILTER (WHERE resolution = 'deny' AND is_bypass != 'yes') AS total_deny,
-        COUNT(*) FILTER (WHERE is_bypass = 'yes') AS total_bypass
-    FROM upoa_ksk_reports.ksk_figurant
-    WHERE "timestamp" >= p_start_date::TIMESTAMP(3)
-      AND "timestamp" < p_end_date::TIMESTAMP(3)
-      -- Фильтр по list_codes (если указан)
-      AND (v_list_codes IS NULL OR list_code = ANY(v_list_codes))
-    GROUP BY
-        list_code,
-        name_figurant,
-        president_group,
-        auto_login,
-        exclusion_phrase,
-        exclusion_name_list
-    ORDER BY total DESC;
-
-    -- Генерация Excel-файла
-    PERFORM upoa_ksk_reports.ksk_report_figurants_xls_file(p_header_id);
+    SELECT p_header_id, p.*
+    FROM upoa_ksk_reports.ksk_report_figurants_partial(p_start_date, p_end_date, p_parameters) p
+    ORDER BY p.total DESC;
 END;
 $$ LANGUAGE plpgsql;
 
@@ -19,6 +19,9 @@
 --
 -- ИСТОРИЯ ИЗМЕНЕНИЙ:
 --   2025-12-16 - Рефакторинг: типы отчётов из оркестратора, логика regenerate/run
+--   2026-10-17 - Догенерацию за период выполняет API (ReportBatchOrchestrator,
+--                actuator reportbatch): задачи параллельно, с повторами и файлами.
+--                Функция оставлена для ручного запуска из psql
 -- ============================================================================
 
 CREATE OR REPLACE FUNCTION upoa_ksk_reports.generate_all_reports_for_period(
@@ -0,0 +1,67 @@
+-- ============================================================================
+-- ФУНКЦИЯ: ksk_report_count_rows
+-- ============================================================================
+-- ОПИСАНИЕ:
+--   Считает количество строк данных отчёта по header_id
+--   Результат кэшируется в ksk_report_header.row_count при переходе в status = 'done'
+--   и используется API для пагинации вместо COUNT(*) на каждой странице
+--
+-- ПАРАМЕТРЫ:
+--   @p_header_id - ID заголовка отчёта
+--
+-- ВОЗВРАЩАЕТ:
+--   BIGINT - количество строк (NULL если заголовок не найден)
+--
+-- ИСТОЧНИК ДАННЫХ:
+--   - review        → ksk_report_review_data.snapshot_row_count, если снимок построен,
+--                     иначе ksk_report_review(start_date) (как отдаёт API)
+--   - остальные     → ksk_report_orchestrator.report_table WHERE report_header_id = p_header_id
+--
+-- ПРИМЕР ИСПОЛЬЗОВАНИЯ:
+--   SELECT ksk_report_count_rows(126);
+--
+-- ИСТОРИЯ ИЗМЕНЕНИЙ:
+--   2026-10-17 - Создание функции (кэш total_records для API)
+--   2026-10-17 - review: количество из снимка ksk_report_review_snapshot
+-- ============================================================================
+
+CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_report_count_rows(p_header_id INTEGER)
+RETURNS BIGINT AS $$
+DECLARE
+    v_report_code VARCHAR;
+    v_report_table VARCHAR;
+    v_start_date DATE;
+    v_row_count BIGINT;
+BEGIN
+    SELECT o.report_code, o.report_table, h.start_date
+    INTO v_report_code, v_report_table, v_start_date
+    FROM upoa_ksk_reports.ksk_report_header h
+    JOIN upoa_ksk_reports.ksk_report_orchestrator o ON o.id = h.orchestrator_id
+    WHERE h.id = p_header_id;
+
+    IF v_report_code IS NULL THEN
+        RETURN NULL;
+    END IF;
+
+    IF v_report_code = 'review' THEN
+        SELECT snapshot_row_count INTO v_row_count
+        FROM upoa_ksk_reports.ksk_report_review_data
+        WHERE report_header_id = p_header_id
+          AND snapshot_datetime IS NOT NULL;
+
+        IF v_row_count IS NULL THEN
+            SELECT COUNT(*) INTO v_row_count
+            FROM upoa_ksk_reports.ksk_report_review(v_start_date);
+        END IF;
+    ELSE
+        EXECUTE FORMAT('SELECT COUNT(*) FROM upoa_ksk_reports.%I WHERE report_header_id = $1', v_report_table)
+        INTO v_row_count
+        USING p_header_id;
+    END IF;
+
+    RETURN v_row_count;
+END;
+$$ LANGUAGE plpgsql STABLE;
+
+COMMENT ON FUNCTION upoa_ksk_reports.ksk_report_count_rows(INTEGER) IS
+    'Количество строк данных отчёта по header_id. Кэшируется в ksk_report_header.row_count при status=done';
@@ -0,0 +1,123 @@
+-- ============================================================================
+-- ФУНКЦИЯ: ksk_report_review_build_snapshot
+-- ============================================================================
+-- ОПИСАНИЕ:
+--   Материализует ksk_report_review(start_date) отчёта в ksk_report_review_snapshot
+--   Снимок строится один раз на заголовок, после чего API читает страницы
+--   диапазоном по PK (report_header_id, row_num) вместо повторного вызова
+--   ksk_report_review() на каждую страницу
+--
+-- ПАРАМЕТРЫ:
+--   @p_report_header_id - ID заголовка отчёта review
+--
+-- ВОЗВРАЩАЕТ:
+--   BIGINT - количество строк в снимке
+--
+-- ОГРАНИЧЕНИЯ:
+--   - Только закрытые дни (start_date < CURRENT_DATE): данные текущего дня ещё меняются
+--   - Повторный вызов не перестраивает снимок (ksk_report_review_data.snapshot_datetime)
+--
+-- КОНКУРЕНТНОСТЬ:
+--   pg_advisory_xact_lock по header_id — параллельные вызовы (несколько узлов API,
+--   генерация отчёта) ждут первого построителя и получают готовый снимок
+--
+-- ПОРЯДОК СТРОК:
+--   row_num = ROW_NUMBER() OVER (ORDER BY message_timestamp, transaction_id, figurant_id, match_id)
+--   rn функции сохраняется как есть (номер дубликата внутри match_id)
+--
+-- ПРИМЕР ИСПОЛЬЗОВАНИЯ:
+--   SELECT ksk_report_review_build_snapshot(126);
+--
+-- ИСТОРИЯ ИЗМЕНЕНИЙ:
+--   2026-10-17 - Создание функции (снимок review для постраничного чтения API)
+-- ============================================================================
+
+CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_report_review_build_snapshot(p_report_header_id INTEGER)
+RETURNS BIGINT AS $$
+DECLARE
+    v_start_date DATE;
+    v_snapshot_datetime TIMESTAMP;
+    v_row_count BIGINT;
+BEGIN
+    SELECT start_date INTO v_start_date
+    FROM upoa_ksk_reports.ksk_report_header
+    WHERE id = p_report_header_id;
+
+    IF NOT FOUND THEN
+        RAISE EXCEPTION 'Заголовок отчёта с id = % не найден', p_report_header_id;
+    END IF;
+
+    IF v_start_date >= CURRENT_DATE THEN
+        RAISE EXCEPTION 'Снимок review строится только для закрытых дней (start_date = %)', v_start_date;
+    END IF;
+
+    -- Single-flight: второй вызов ждёт завершения первого
+    PERFORM pg_advisory_xact_lock(hashtext('ksk_report_review_snapshot'), p_report_header_id);
+
+    SELECT snapshot_datetime, snapshot_row_count
+    INTO v_snapshot_datetime, v_row_count
+    FROM upoa_ksk_reports.ksk_report_review_data
+    WHERE report_header_id = p_report_header_id;
+
+    IF v_snapshot_datetime IS NOT NULL THEN
+        RETURN v_row_count;
+    END IF;
+
+    -- Остатки прерванного построения
+    DELETE FROM upoa_ksk_reports.ksk_report_review_snapshot
+    WHERE report_header_id = p_report_header_id;
+
+    INSERT INTO upoa_ksk_reports.ksk_report_review_snapshot (
+        report_header_id, row_num,
+        corr_id, message_timestamp,
+        algorithm, match_value, match_payment_field, match_payment_value,
+        list_code, name_figurant, president_group, auto_login, has_exclusion,
+        exclusion_phrase, exclusion_name_list, is_bypass,
+        transaction_resolution, figurant_resolition,
+        payment_id, payment_purpose, account_debet, account_credit,
+        payer_inn, payer_name, payer_account_number, payer_document_type,
+        payer_bank_name, payer_bank_account_number,
+        receiver_account_number, receiver_name, receiver_inn, receiver_bank_name,
+        receiver_bank_account_number, receiver_document_type,
+        amount, currency, currency_control,
+        match_id, figurant_id, transaction_id, rn
+    )
+    SELECT
+        p_report_header_id,
+        ROW_NUMBER() OVER (ORDER BY r.message_timestamp, r.transaction_id, r.figurant_id, r.match_id),
+        r.corr_id, r.message_timestamp,
+        r.algorithm, r.match_value, r.match_payment_field, r.match_payment_value,
+        r.list_code, r.name_figurant, r.president_group, r.auto_login, r.has_exclusion,
+        r.exclusion_phrase, r.exclusion_name_list, r.is_bypass,
+        r.transaction_resolution, r.figurant_resolition,
+        r.payment_id, r.payment_purpose, r.account_debet, r.account_credit,
+        r.payer_inn, r.payer_name, r.payer_account_number, r.payer_document_type,
+        r.payer_bank_name, r.payer_bank_account_number,
+        r.receiver_account_number, r.receiver_name, r.receiver_inn, r.receiver_bank_name,
+        r.receiver_bank_account_number, r.receiver_document_type,
+        r.amount, r.currency, r.currency_control,
+        r.match_id, r.figurant_id, r.transaction_id, r.rn
+    FROM upoa_ksk_reports.ksk_report_review(v_start_date) r;
+
+    GET DIAGNOSTICS v_row_count = ROW_COUNT;
+
+    INSERT INTO upoa_ksk_reports.ksk_report_review_data (
+        report_header_id,
+        snapshot_datetime,
+        snapshot_row_count
+    )
+    VALUES (
+        p_report_header_id,
+        NOW(),
+        v_row_count
+    )
+    ON CONFLICT (report_header_id) DO UPDATE SET
+        snapshot_datetime = EXCLUDED.snapshot_datetime,
+        snapshot_row_count = EXCLUDED.snapshot_row_count;
+
+    RETURN v_row_count;
+END;
+$$ LANGUAGE plpgsql;
+
+COMMENT ON FUNCTION upoa_ksk_reports.ksk_report_review_build_snapshot(INTEGER) IS
+    'Материализует ksk_report_review(start_date) в ksk_report_review_snapshot один раз на заголовок (только закрытые дни). Single-flight через advisory lock.';
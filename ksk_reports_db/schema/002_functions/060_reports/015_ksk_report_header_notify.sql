@@ -0,0 +1,49 @@
+-- ============================================================================
+-- ФУНКЦИЯ + ТРИГГЕР: ksk_report_header_notify
+-- ============================================================================
+-- ОПИСАНИЕ:
+--   Публикует изменение статуса / удаление заголовка отчёта в канал
+--   LISTEN/NOTIFY 'ksk_report_header_changed'
+--   API держит кэш метаданных (заголовки, ID системных отчётов, диапазон дат)
+--   и сбрасывает его по этому событию на всех узлах
+--
+-- PAYLOAD:
+--   '{id}:{status}'  — UPDATE status (created | in_progress | done | error)
+--   '{id}:deleted'   — DELETE (ksk_cleanup_old_reports, удаление пользователем)
+--
+-- ЗАМЕТКИ:
+--   - pg_notify доставляется только после COMMIT; при ROLLBACK событие не уходит
+--   - UPDATE без изменения status (например, row_count) событие не публикует
+--
+-- ПРИМЕР ИСПОЛЬЗОВАНИЯ:
+--   LISTEN ksk_report_header_changed;
+--
+-- ИСТОРИЯ ИЗМЕНЕНИЙ:
+--   2026-10-17 - Создание (инвалидация кэша метаданных API)
+-- ============================================================================
+
+CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_report_header_notify()
+RETURNS TRIGGER AS $$
+BEGIN
+    IF TG_OP = 'DELETE' THEN
+        PERFORM pg_notify('ksk_report_header_changed', OLD.id || ':deleted');
+        RETURN OLD;
+    END IF;
+
+    IF NEW.status IS DISTINCT FROM OLD.status THEN
+        PERFORM pg_notify('ksk_report_header_changed', NEW.id || ':' || NEW.status);
+    END IF;
+
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+COMMENT ON FUNCTION upoa_ksk_reports.ksk_report_header_notify() IS
+    'Триггерная функция: NOTIFY ksk_report_header_changed при смене статуса или удалении заголовка отчёта';
+
+DROP TRIGGER IF EXISTS trg_ksk_report_header_notify ON upoa_ksk_reports.ksk_report_header;
+
+CREATE TRIGGER trg_ksk_report_header_notify
+    AFTER UPDATE OF status OR DELETE ON upoa_ksk_reports.ksk_report_header
+    FOR EACH ROW
+    EXECUTE FUNCTION upoa_ksk_reports.ksk_report_header_notify();
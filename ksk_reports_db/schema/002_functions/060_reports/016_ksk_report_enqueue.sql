@@ -0,0 +1,57 @@
+-- ============================================================================
+-- ФУНКЦИЯ: ksk_report_enqueue
+-- ============================================================================
+-- ОПИСАНИЕ:
+--   Ставит заголовок отчёта в очередь генерации (status = 'created')
+--   Очередь разбирают узлы API (ReportJobEngine) через ksk_report_claim_jobs
+--
+-- ПАРАМЕТРЫ:
+--   @p_header_id - ID заголовка отчёта (status created или in_progress вне очереди,
+--                  например после ksk_report_register_header)
+--
+-- ВОЗВРАЩАЕТ:
+--   BOOLEAN - TRUE, если отчёт поставлен в очередь
+--             FALSE - отчёт уже готов, с ошибкой или в работе у узла
+--
+-- ЗАМЕТКИ:
+--   - NOTIFY ksk_report_header_changed '{id}:created' будит узлы сразу после COMMIT,
+--     не дожидаясь следующего опроса очереди
+--   - Вызывается в транзакции создания отчёта: до COMMIT запись не видна узлам
+--
+-- ПРИМЕР ИСПОЛЬЗОВАНИЯ:
+--   SELECT ksk_report_enqueue(ksk_report_register_header('figurants', 'user', 'ivanov', '2025-10-20', '2025-10-23'));
+--
+-- ИСТОРИЯ ИЗМЕНЕНИЙ:
+--   2026-10-17 - Создание функции (очередь генерации отчётов в API)
+-- ============================================================================
+
+CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_report_enqueue(
+    p_header_id INTEGER
+)
+RETURNS BOOLEAN AS $$
+DECLARE
+    v_updated INTEGER;
+BEGIN
+    UPDATE upoa_ksk_reports.ksk_report_header
+    SET status = 'created',
+        worker_id = NULL,
+        claimed_datetime = NULL
+    WHERE id = p_header_id
+      AND status IN ('created', 'in_progress')
+      AND worker_id IS NULL;
+
+    GET DIAGNOSTICS v_updated = ROW_COUNT;
+
+    IF v_updated = 0 THEN
+        RETURN FALSE;
+    END IF;
+
+    -- Триггер публикует событие только при смене статуса; 'created' → 'created' тоже должен будить узлы
+    PERFORM pg_notify('ksk_report_header_changed', p_header_id || ':created');
+
+    RETURN TRUE;
+END;
+$$ LANGUAGE plpgsql;
+
+COMMENT ON FUNCTION upoa_ksk_reports.ksk_report_enqueue(INTEGER) IS
+    'Ставит отчёт в очередь генерации узлов API (status = created) и будит их через NOTIFY ksk_report_header_changed';
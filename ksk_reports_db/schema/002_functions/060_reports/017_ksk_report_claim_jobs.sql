@@ -0,0 +1,59 @@
+-- ============================================================================
+-- ФУНКЦИЯ: ksk_report_claim_jobs
+-- ============================================================================
+-- ОПИСАНИЕ:
+--   Забирает из очереди до p_limit отчётов (status = 'created', FIFO по created_datetime)
+--   и переводит их в 'in_progress' за узлом p_worker_id
+--
+-- ПАРАМЕТРЫ:
+--   @p_worker_id - ID узла API (ksk_report_worker.worker_id)
+--   @p_limit     - Сколько отчётов взять (число свободных слотов узла)
+--
+-- ВОЗВРАЩАЕТ:
+--   SETOF INTEGER - ID захваченных заголовков
+--
+-- КОНКУРЕНТНОСТЬ:
+--   FOR UPDATE SKIP LOCKED - несколько узлов разбирают очередь параллельно,
+--   строку, которую уже захватывает другой узел, пропускают без ожидания.
+--   Один отчёт не достаётся двум узлам
+--
+-- ЗАМЕТКИ:
+--   - Вызывать отдельной короткой транзакцией: захват фиксируется до начала генерации,
+--     генерация (ksk_report_create_report) — своя транзакция на каждый отчёт
+--   - attempts + 1 на каждый захват, см. ksk_report_requeue_orphaned_jobs
+--
+-- ПРИМЕР ИСПОЛЬЗОВАНИЯ:
+--   SELECT * FROM ksk_report_claim_jobs('api-1:4211:9f3c2a1b', 4);
+--
+-- ИСТОРИЯ ИЗМЕНЕНИЙ:
+--   2026-10-17 - Создание функции (очередь генерации отчётов в API)
+-- ============================================================================
+
+CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_report_claim_jobs(
+    p_worker_id VARCHAR,
+    p_limit     INTEGER
+)
+RETURNS SETOF INTEGER AS $$
+BEGIN
+    RETURN QUERY
+    WITH next_jobs AS (
+        SELECT h.id
+        FROM upoa_ksk_reports.ksk_report_header h
+        WHERE h.status = 'created'
+        ORDER BY h.created_datetime, h.id
+        LIMIT p_limit
+        FOR UPDATE SKIP LOCKED
+    )
+    UPDATE upoa_ksk_reports.ksk_report_header h
+    SET status = 'in_progress',
+        worker_id = p_worker_id,
+        claimed_datetime = NOW(),
+        attempts = h.attempts + 1
+    FROM next_jobs n
+    WHERE h.id = n.id
+    RETURNING h.id;
+END;
+$$ LANGUAGE plpgsql;
+
+COMMENT ON FUNCTION upoa_ksk_reports.ksk_report_claim_jobs(VARCHAR, INTEGER) IS
+    'Захват до p_limit отчётов из очереди (status created → in_progress) за узлом API. FOR UPDATE SKIP LOCKED — без двойной обработки между узлами';
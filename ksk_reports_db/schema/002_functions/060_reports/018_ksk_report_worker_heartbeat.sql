@@ -0,0 +1,43 @@
+-- ============================================================================
+-- ФУНКЦИЯ: ksk_report_worker_heartbeat
+-- ============================================================================
+-- ОПИСАНИЕ:
+--   Heartbeat узла очереди генерации: регистрирует узел при первом вызове,
+--   далее обновляет heartbeat_datetime
+--   Живой heartbeat узла = его отчёты in_progress ещё в работе
+--
+-- ПАРАМЕТРЫ:
+--   @p_worker_id   - ID узла API (host:pid:uuid)
+--   @p_concurrency - Число параллельных задач узла
+--
+-- ВОЗВРАЩАЕТ:
+--   VOID
+--
+-- ЗАМЕТКИ:
+--   Heartbeat на узел, а не на строку ksk_report_header: строку отчёта в работе
+--   держит блокировка транзакции ksk_report_create_report, UPDATE строки ждал бы
+--   окончания генерации
+--
+-- ПРИМЕР ИСПОЛЬЗОВАНИЯ:
+--   SELECT ksk_report_worker_heartbeat('api-1:4211:9f3c2a1b', 4);
+--
+-- ИСТОРИЯ ИЗМЕНЕНИЙ:
+--   2026-10-17 - Создание функции (очередь генерации отчётов в API)
+-- ============================================================================
+
+CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_report_worker_heartbeat(
+    p_worker_id   VARCHAR,
+    p_concurrency INTEGER
+)
+RETURNS VOID AS $$
+BEGIN
+    INSERT INTO upoa_ksk_reports.ksk_report_worker (worker_id, heartbeat_datetime, concurrency)
+    VALUES (p_worker_id, NOW(), p_concurrency)
+    ON CONFLICT (worker_id) DO UPDATE
+    SET heartbeat_datetime = EXCLUDED.heartbeat_datetime,
+        concurrency = EXCLUDED.concurrency;
+END;
+$$ LANGUAGE plpgsql;
+
+COMMENT ON FUNCTION upoa_ksk_reports.ksk_report_worker_heartbeat(VARCHAR, INTEGER) IS
+    'Регистрация / heartbeat узла очереди генерации отчётов (ksk_report_worker)';
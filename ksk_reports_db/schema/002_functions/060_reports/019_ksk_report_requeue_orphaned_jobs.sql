@@ -0,0 +1,101 @@
+-- ============================================================================
+-- ФУНКЦИЯ: ksk_report_requeue_orphaned_jobs
+-- ============================================================================
+-- ОПИСАНИЕ:
+--   Возвращает в очередь отчёты, захваченные упавшими узлами API
+--   Отчёт осиротел, если он in_progress за узлом, у которого нет heartbeat
+--   свежее p_stale_after (узел упал или остановлен)
+--
+-- ПАРАМЕТРЫ:
+--   @p_stale_after  - Порог устаревания heartbeat узла
+--   @p_max_attempts - После стольких захватов отчёт не возвращается в очередь,
+--                     а переводится в 'error' (отчёт, роняющий узел, не крутится вечно)
+--
+-- ВОЗВРАЩАЕТ:
+--   TABLE (requeued INTEGER, failed INTEGER)
+--
+-- КОНКУРЕНТНОСТЬ:
+--   FOR UPDATE SKIP LOCKED - отчёт, который ещё генерируется (строка заблокирована
+--   транзакцией ksk_report_create_report), не трогается даже при устаревшем heartbeat.
+--   При падении узла его соединение закрывается, транзакция откатывается и
+--   блокировка снимается — только тогда отчёт возвращается в очередь
+--
+-- ЗАМЕТКИ:
+--   Вызывается периодически любым живым узлом; заодно удаляет записи
+--   ksk_report_worker без heartbeat и без отчётов в работе
+--
+-- ПРИМЕР ИСПОЛЬЗОВАНИЯ:
+--   SELECT * FROM ksk_report_requeue_orphaned_jobs(INTERVAL '1 minute', 3);
+--
+-- ИСТОРИЯ ИЗМЕНЕНИЙ:
+--   2026-10-17 - Создание функции (очередь генерации отчётов в API)
+-- ============================================================================
+
+CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_report_requeue_orphaned_jobs(
+    p_stale_after  INTERVAL,
+    p_max_attempts INTEGER DEFAULT 3
+)
+RETURNS TABLE (requeued INTEGER, failed INTEGER) AS $$
+DECLARE
+    v_start_time TIMESTAMP := CLOCK_TIMESTAMP();
+    v_requeued INTEGER := 0;
+    v_failed INTEGER := 0;
+    v_failed_ids INTEGER[];
+BEGIN
+    WITH orphaned AS (
+        SELECT h.id, h.attempts
+        FROM upoa_ksk_reports.ksk_report_header h
+        WHERE h.status = 'in_progress'
+          AND h.worker_id IS NOT NULL
+          AND NOT EXISTS (
+              SELECT 1
+              FROM upoa_ksk_reports.ksk_report_worker w
+              WHERE w.worker_id = h.worker_id
+                AND w.heartbeat_datetime > NOW() - p_stale_after
+          )
+        FOR UPDATE OF h SKIP LOCKED
+    ),
+    updated AS (
+        UPDATE upoa_ksk_reports.ksk_report_header h
+        SET status = CASE WHEN o.attempts >= p_max_attempts THEN 'error' ELSE 'created' END,
+            finished_datetime = CASE WHEN o.attempts >= p_max_attempts THEN NOW() END,
+            worker_id = NULL,
+            claimed_datetime = NULL
+        FROM orphaned o
+        WHERE h.id = o.id
+        RETURNING h.id, h.status
+    )
+    SELECT
+        COUNT(*) FILTER (WHERE u.status = 'created'),
+        COUNT(*) FILTER (WHERE u.status = 'error'),
+        ARRAY_AGG(u.id) FILTER (WHERE u.status = 'error')
+    INTO v_requeued, v_failed, v_failed_ids
+    FROM updated u;
+
+    -- Узлы без heartbeat и без отчётов в работе
+    DELETE FROM upoa_ksk_reports.ksk_report_worker w
+    WHERE w.heartbeat_datetime <= NOW() - p_stale_after
+      AND NOT EXISTS (
+          SELECT 1
+          FROM upoa_ksk_reports.ksk_report_header h
+          WHERE h.worker_id = w.worker_id
+            AND h.status = 'in_progress'
+      );
+
+    IF v_requeued > 0 OR v_failed > 0 THEN
+        PERFORM upoa_ksk_reports.ksk_log_operation(
+            'requeue_report_jobs',
+            'Возврат в очередь отчётов упавших узлов',
+            v_start_time,
+            CASE WHEN v_failed > 0 THEN 'error' ELSE 'success' END,
+            FORMAT('Возвращено в очередь: %s, превышен лимит попыток (%s): %s', v_requeued, p_max_attempts, v_failed),
+            CASE WHEN v_failed > 0 THEN FORMAT('Header ID: %s', ARRAY_TO_STRING(v_failed_ids, ', ')) END
+        );
+    END IF;
+
+    RETURN QUERY SELECT v_requeued, v_failed;
+END;
+$$ LANGUAGE plpgsql;
+
+COMMENT ON FUNCTION upoa_ksk_reports.ksk_report_requeue_orphaned_jobs(INTERVAL, INTEGER) IS
+    'Возвращает в очередь отчёты in_progress узлов без свежего heartbeat (SKIP LOCKED — генерируемые не трогает); после p_max_attempts — status error';
@@ -0,0 +1,368 @@
+-- ============================================================================
+-- ФУНКЦИИ: ksk_report_*_scan / ksk_report_figurants_partial — агрегация отчётов
+--          за период сканом сырых данных, без записи
+-- ============================================================================
+-- ОПИСАНИЕ:
+--   Счётчики отчётов totals, totals_by_payment_type, list_totals,
+--   list_totals_by_payment_type (ksk_report_<код>_scan) и figurants
+--   (ksk_report_figurants_partial) за [p_start_date ... p_end_date)
+--   в виде строк — без report_header_id и без записи в ksk_report_*_data.
+--   Единственное место, где описана агрегация каждого отчёта по ksk_result / ksk_figurant:
+--   - ksk_report_<код>_partial — дни без rollup считает этими функциями
+--     (022_ksk_report_rollup_aggregates.sql), figurants — всегда сканом
+--   - ksk_report_totals_family_scan (025_ksk_report_totals_family.sql) — те же условия
+--     для всех четырёх отчётов семейства totals одним проходом; меняются вместе
+--   - ksk_report_<код>(header_id, ...) — INSERT ... SELECT из _partial за весь период
+--   - ParallelReportExecutor (API) — _partial по дневным срезам параллельно,
+--     сумма срезов записывается в ksk_report_*_data
+--
+-- ПАРАМЕТРЫ:
+--   @p_start_date  - Начальная дата периода (включительно)
+--   @p_end_date    - Конечная дата периода (ИСКЛЮЧАЯ)
+--   @p_parameters  - Параметры отчёта (figurants: "list_codes"; остальные не используют)
+--
+-- АДДИТИВНОСТЬ (почему срезы можно складывать):
+--   - COUNT(*) / COUNT(*) FILTER — сумма по непересекающимся срезам
+--   - COUNT(DISTINCT source_id) / COUNT(DISTINCT r.id) — транзакция и её фигуранты лежат
+--     в одном дне: FK ksk_figurant(source_id, timestamp) → ksk_result(id, output_timestamp),
+--     поэтому одна транзакция не попадает в два дневных среза
+--   Срез должен быть кратен суткам — иначе это свойство не гарантируется
+--
+-- ЗАМЕТКИ:
+--   - LANGUAGE sql STABLE, один SELECT — планировщик встраивает функцию в вызывающий
+--     запрос, отсечение партиций по output_timestamp / timestamp сохраняется
+--   - Первые колонки — ключ группировки (TEXT), остальные — счётчики BIGINT
+--   - Порядок строк не задан — ORDER BY делает вызывающий (он определяет id строк данных)
+--
+-- ПРИМЕР ИСПОЛЬЗОВАНИЯ:
+--   SELECT * FROM ksk_report_list_totals_scan('2026-10-01', '2026-10-02');
+--
+-- ИСТОРИЯ ИЗМЕНЕНИЙ:
+--   2026-10-17 - Создание функций (агрегация вынесена из ksk_report_* для параллельного
+--                расчёта длинных периодов по дневным срезам)
+--   2026-10-17 - totals*, list_totals* переименованы в _scan: _partial теперь складывает
+--                rollup (ksk_rollup_*_daily) и скан дней без rollup
+--   2026-10-17 - Общий проход семейства totals (ksk_report_totals_family_scan) — условия
+--                счётчиков должны совпадать с этими
+-- ============================================================================
+
+-- ----------------------------------------------------------------------------
+-- totals: одна строка (счётчики ksk_result по резолюциям)
+-- ----------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_report_totals_scan(
+    p_start_date  DATE,
+    p_end_date    DATE,
+    p_parameters  JSONB DEFAULT NULL
+)
+RETURNS TABLE (
+    total BIGINT,
+    total_without_result BIGINT,
+    total_with_result BIGINT,
+    total_allow BIGINT,
+    total_review BIGINT,
+    total_deny BIGINT,
+    total_bypass BIGINT
+) AS $$
+SELECT
+    COUNT(*),
+    COUNT(*) FILTER (WHERE resolution = 'empty'),
+    COUNT(*) FILTER (WHERE resolution != 'empty'),
+    COUNT(*) FILTER (WHERE resolution = 'allow'),
+    COUNT(*) FILTER (WHERE resolution = 'review'),
+    COUNT(*) FILTER (WHERE resolution = 'deny'),
+    COUNT(*) FILTER (WHERE resolution = 'bypass')
+FROM upoa_ksk_reports.ksk_result
+WHERE output_timestamp >= p_start_date::TIMESTAMP(3)
+  AND output_timestamp < p_end_date::TIMESTAMP(3);
+$$ LANGUAGE sql STABLE;
+
+COMMENT ON FUNCTION upoa_ksk_reports.ksk_report_totals_scan(DATE, DATE, JSONB) IS
+    'Счётчики отчёта totals за [start_date..end_date) сканом, без записи (одна строка)';
+
+-- ----------------------------------------------------------------------------
+-- totals_by_payment_type: одна строка, общие счётчики + i_/o_/t_/m_/v_ по типам платежей
+-- ----------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_report_totals_by_payment_type_scan(
+    p_start_date  DATE,
+    p_end_date    DATE,
+    p_parameters  JSONB DEFAULT NULL
+)
+RETURNS TABLE (
+    total BIGINT,
+    total_without_result BIGINT,
+    total_with_result BIGINT,
+    total_allow BIGINT,
+    total_review BIGINT,
+    total_deny BIGINT,
+    total_bypass BIGINT,
+    i_total BIGINT,
+    i_total_without_result BIGINT,
+    i_total_with_result BIGINT,
+    i_total_allow BIGINT,
+    i_total_review BIGINT,
+    i_total_deny BIGINT,
+    i_total_bypass BIGINT,
+    o_total BIGINT,
+    o_total_without_result BIGINT,
+    o_total_with_result BIGINT,
+    o_total_allow BIGINT,
+    o_total_review BIGINT,
+    o_total_deny BIGINT,
+    o_total_bypass BIGINT,
+    t_total BIGINT,
+    t_total_without_result BIGINT,
+    t_total_with_result BIGINT,
+    t_total_allow BIGINT,
+    t_total_review BIGINT,
+    t_total_deny BIGINT,
+    t_total_bypass BIGINT,
+    m_total BIGINT,
+    m_total_without_result BIGINT,
+    m_total_with_result BIGINT,
+    m_total_allow BIGINT,
+    m_total_review BIGINT,
+    m_total_deny BIGINT,
+    m_total_bypass BIGINT,
+    v_total BIGINT,
+    v_total_without_result BIGINT,
+    v_total_with_result BIGINT,
+    v_total_allow BIGINT,
+    v_total_review BIGINT,
+    v_total_deny BIGINT,
+    v_total_bypass BIGINT
+) AS $$
+SELECT
+    COUNT(*),
+    COUNT(*) FILTER (WHERE resolution = 'empty'),
+    COUNT(*) FILTER (WHERE resolution != 'empty'),
+    COUNT(*) FILTER (WHERE resolution = 'allow'),
+    COUNT(*) FILTER (WHERE resolution = 'review'),
+    COUNT(*) FILTER (WHERE resolution = 'deny'),
+    COUNT(*) FILTER (WHERE resolution = 'bypass'),
+    COUNT(*) FILTER (WHERE payment_type = 'Входящий'),
+    COUNT(*) FILTER (WHERE payment_type = 'Входящий' AND resolution = 'empty'),
+    COUNT(*) FILTER (WHERE payment_type = 'Входящий' AND resolution != 'empty'),
+    COUNT(*) FILTER (WHERE payment_type = 'Входящий' AND resolution = 'allow'),
+    COUNT(*) FILTER (WHERE payment_type = 'Входящий' AND resolution = 'review'),
+    COUNT(*) FILTER (WHERE payment_type = 'Входящий' AND resolution = 'deny'),
+    COUNT(*) FILTER (WHERE payment_type = 'Входящий' AND resolution = 'bypass'),
+    COUNT(*) FILTER (WHERE payment_type = 'Исходящий'),
+    COUNT(*) FILTER (WHERE payment_type = 'Исходящий' AND resolution = 'empty'),
+    COUNT(*) FILTER (WHERE payment_type = 'Исходящий' AND resolution != 'empty'),
+    COUNT(*) FILTER (WHERE payment_type = 'Исходящий' AND resolution = 'allow'),
+    COUNT(*) FILTER (WHERE payment_type = 'Исходящий' AND resolution = 'review'),
+    COUNT(*) FILTER (WHERE payment_type = 'Исходящий' AND resolution = 'deny'),
+    COUNT(*) FILTER (WHERE payment_type = 'Исходящий' AND resolution = 'bypass'),
+    COUNT(*) FILTER (WHERE payment_type = 'Транзитный'),
+    COUNT(*) FILTER (WHERE payment_type = 'Транзитный' AND resolution = 'empty'),
+    COUNT(*) FILTER (WHERE payment_type = 'Транзитный' AND resolution != 'empty'),
+    COUNT(*) FILTER (WHERE payment_type = 'Транзитный' AND resolution = 'allow'),
+    COUNT(*) FILTER (WHERE payment_type = 'Транзитный' AND resolution = 'review'),
+    COUNT(*) FILTER (WHERE payment_type = 'Транзитный' AND resolution = 'deny'),
+    COUNT(*) FILTER (WHERE payment_type = 'Транзитный' AND resolution = 'bypass'),
+    COUNT(*) FILTER (WHERE payment_type = 'Межфилиальный'),
+    COUNT(*) FILTER (WHERE payment_type = 'Межфилиальный' AND resolution = 'empty'),
+    COUNT(*) FILTER (WHERE payment_type = 'Межфилиальный' AND resolution != 'empty'),
+    COUNT(*) FILTER (WHERE payment_type = 'Межфилиальный' AND resolution = 'allow'),
+    COUNT(*) FILTER (WHERE payment_type = 'Межфилиальный' AND resolution = 'review'),
+    COUNT(*) FILTER (WHERE payment_type = 'Межфилиальный' AND resolution = 'deny'),
+    COUNT(*) FILTER (WHERE payment_type = 'Межфилиальный' AND resolution = 'bypass'),
+    COUNT(*) FILTER (WHERE payment_type = 'Внутрифилиальный'),
+    COUNT(*) FILTER (WHERE payment_type = 'Внутрифилиальный' AND resolution = 'empty'),
+    COUNT(*) FILTER (WHERE payment_type = 'Внутрифилиальный' AND resolution != 'empty'),
+    COUNT(*) FILTER (WHERE payment_type = 'Внутрифилиальный' AND resolution = 'allow'),
+    COUNT(*) FILTER (WHERE payment_type = 'Внутрифилиальный' AND resolution = 'review'),
+    COUNT(*) FILTER (WHERE payment_type = 'Внутрифилиальный' AND resolution = 'deny'),
+    COUNT(*) FILTER (WHERE payment_type = 'Внутрифилиальный' AND resolution = 'bypass')
+FROM upoa_ksk_reports.ksk_result
+WHERE output_timestamp >= p_start_date::TIMESTAMP(3)
+  AND output_timestamp < p_end_date::TIMESTAMP(3);
+$$ LANGUAGE sql STABLE;
+
+COMMENT ON FUNCTION upoa_ksk_reports.ksk_report_totals_by_payment_type_scan(DATE, DATE, JSONB) IS
+    'Счётчики отчёта totals_by_payment_type за [start_date..end_date) сканом, без записи (одна строка)';
+
+-- ----------------------------------------------------------------------------
+-- list_totals: строка на list_code (транзакции — DISTINCT source_id, решения — по фигурантам без bypass)
+-- ----------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_report_list_totals_scan(
+    p_start_date  DATE,
+    p_end_date    DATE,
+    p_parameters  JSONB DEFAULT NULL
+)
+RETURNS TABLE (
+    list_code TEXT,
+    total_with_list BIGINT,
+    total_without_list BIGINT,
+    total_allow BIGINT,
+    total_review BIGINT,
+    total_deny BIGINT,
+    total_bypass BIGINT
+) AS $$
+SELECT
+    fig.list_code,
+    COUNT(DISTINCT fig.source_id),
+    0::BIGINT,
+    COUNT(*) FILTER (WHERE fig.resolution = 'allow' AND fig.is_bypass != 'yes'),
+    COUNT(*) FILTER (WHERE fig.resolution = 'review' AND fig.is_bypass != 'yes'),
+    COUNT(*) FILTER (WHERE fig.resolution = 'deny' AND fig.is_bypass != 'yes'),
+    COUNT(*) FILTER (WHERE fig.is_bypass = 'yes')
+FROM upoa_ksk_reports.ksk_figurant fig
+WHERE fig.timestamp >= p_start_date::TIMESTAMP(3)
+  AND fig.timestamp < p_end_date::TIMESTAMP(3)
+GROUP BY fig.list_code;
+$$ LANGUAGE sql STABLE;
+
+COMMENT ON FUNCTION upoa_ksk_reports.ksk_report_list_totals_scan(DATE, DATE, JSONB) IS
+    'Счётчики отчёта list_totals за [start_date..end_date) сканом, без записи (строка на list_code)';
+
+-- ----------------------------------------------------------------------------
+-- list_totals_by_payment_type: строка на list_code, общие счётчики + i_/o_/t_/m_/v_
+-- ----------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_report_list_totals_by_payment_type_scan(
+    p_start_date  DATE,
+    p_end_date    DATE,
+    p_parameters  JSONB DEFAULT NULL
+)
+RETURNS TABLE (
+    list_code TEXT,
+    total_with_list BIGINT,
+    total_without_list BIGINT,
+    total_allow BIGINT,
+    total_review BIGINT,
+    total_deny BIGINT,
+    total_bypass BIGINT,
+    i_total_with_list BIGINT,
+    i_total_without_list BIGINT,
+    i_total_allow BIGINT,
+    i_total_review BIGINT,
+    i_total_deny BIGINT,
+    i_total_bypass BIGINT,
+    o_total_with_list BIGINT,
+    o_total_without_list BIGINT,
+    o_total_allow BIGINT,
+    o_total_review BIGINT,
+    o_total_deny BIGINT,
+    o_total_bypass BIGINT,
+    t_total_with_list BIGINT,
+    t_total_without_list BIGINT,
+    t_total_allow BIGINT,
+    t_total_review BIGINT,
+    t_total_deny BIGINT,
+    t_total_bypass BIGINT,
+    m_total_with_list BIGINT,
+    m_total_without_list BIGINT,
+    m_total_allow BIGINT,
+    m_total_review BIGINT,
+    m_total_deny BIGINT,
+    m_total_bypass BIGINT,
+    v_total_with_list BIGINT,
+    v_total_without_list BIGINT,
+    v_total_allow BIGINT,
+    v_total_review BIGINT,
+    v_total_deny BIGINT,
+    v_total_bypass BIGINT
+) AS $$
+SELECT
+    f.list_code,
+    COUNT(DISTINCT r.id),
+    0::BIGINT,
+    COUNT(*) FILTER (WHERE f.resolution = 'allow' AND f.is_bypass != 'yes'),
+    COUNT(*) FILTER (WHERE f.resolution = 'review' AND f.is_bypass != 'yes'),
+    COUNT(*) FILTER (WHERE f.resolution = 'deny' AND f.is_bypass != 'yes'),
+    COUNT(*) FILTER (WHERE f.is_bypass = 'yes'),
+    COUNT(DISTINCT r.id) FILTER (WHERE r.payment_type = 'Входящий'),
+    0::BIGINT,
+    COUNT(*) FILTER (WHERE r.payment_type = 'Входящий' AND f.resolution = 'allow' AND f.is_bypass != 'yes'),
+    COUNT(*) FILTER (WHERE r.payment_type = 'Входящий' AND f.resolution = 'review' AND f.is_bypass != 'yes'),
+    COUNT(*) FILTER (WHERE r.payment_type = 'Входящий' AND f.resolution = 'deny' AND f.is_bypass != 'yes'),
+    COUNT(*) FILTER (WHERE r.payment_type = 'Входящий' AND f.is_bypass = 'yes'),
+    COUNT(DISTINCT r.id) FILTER (WHERE r.payment_type = 'Исходящий'),
+    0::BIGINT,
+    COUNT(*) FILTER (WHERE r.payment_type = 'Исходящий' AND f.resolution = 'allow' AND f.is_bypass != 'yes'),
+    COUNT(*) FILTER (WHERE r.payment_type = 'Исходящий' AND f.resolution = 'review' AND f.is_bypass != 'yes'),
+    COUNT(*) FILTER (WHERE r.payment_type = 'Исходящий' AND f.resolution = 'deny' AND f.is_bypass != 'yes'),
+    COUNT(*) FILTER (WHERE r.payment_type = 'Исходящий' AND f.is_bypass = 'yes'),
+    COUNT(DISTINCT r.id) FILTER (WHERE r.payment_type = 'Транзитный'),
+    0::BIGINT,
+    COUNT(*) FILTER (WHERE r.payment_type = 'Транзитный' AND f.resolution = 'allow' AND f.is_bypass != 'yes'),
+    COUNT(*) FILTER (WHERE r.payment_type = 'Транзитный' AND f.resolution = 'review' AND f.is_bypass != 'yes'),
+    COUNT(*) FILTER (WHERE r.payment_type = 'Транзитный' AND f.resolution = 'deny' AND f.is_bypass != 'yes'),
+    COUNT(*) FILTER (WHERE r.payment_type = 'Транзитный' AND f.is_bypass = 'yes'),
+    COUNT(DISTINCT r.id) FILTER (WHERE r.payment_type = 'Межфилиальный'),
+    0::BIGINT,
+    COUNT(*) FILTER (WHERE r.payment_type = 'Межфилиальный' AND f.resolution = 'allow' AND f.is_bypass != 'yes'),
+    COUNT(*) FILTER (WHERE r.payment_type = 'Межфилиальный' AND f.resolution = 'review' AND f.is_bypass != 'yes'),
+    COUNT(*) FILTER (WHERE r.payment_type = 'Межфилиальный' AND f.resolution = 'deny' AND f.is_bypass != 'yes'),
+    COUNT(*) FILTER (WHERE r.payment_type = 'Межфилиальный' AND f.is_bypass = 'yes'),
+    COUNT(DISTINCT r.id) FILTER (WHERE r.payment_type = 'Внутрифилиальный'),
+    0::BIGINT,
+    COUNT(*) FILTER (WHERE r.payment_type = 'Внутрифилиальный' AND f.resolution = 'allow' AND f.is_bypass != 'yes'),
+    COUNT(*) FILTER (WHERE r.payment_type = 'Внутрифилиальный' AND f.resolution = 'review' AND f.is_bypass != 'yes'),
+    COUNT(*) FILTER (WHERE r.payment_type = 'Внутрифилиальный' AND f.resolution = 'deny' AND f.is_bypass != 'yes'),
+    COUNT(*) FILTER (WHERE r.payment_type = 'Внутрифилиальный' AND f.is_bypass = 'yes')
+FROM upoa_ksk_reports.ksk_figurant f
+INNER JOIN upoa_ksk_reports.ksk_result r
+    ON f.source_id = r.id
+    AND f.timestamp = r.output_timestamp
+WHERE f.timestamp >= p_start_date::TIMESTAMP(3)
+  AND f.timestamp < p_end_date::TIMESTAMP(3)
+  AND f.list_code IS NOT NULL
+GROUP BY f.list_code;
+$$ LANGUAGE sql STABLE;
+
+COMMENT ON FUNCTION upoa_ksk_reports.ksk_report_list_totals_by_payment_type_scan(DATE, DATE, JSONB) IS
+    'Счётчики отчёта list_totals_by_payment_type за [start_date..end_date) сканом, без записи (строка на list_code)';
+
+-- ----------------------------------------------------------------------------
+-- figurants: строка на фигуранта (фильтр p_parameters.list_codes; bypass исключён из решений)
+-- ----------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_report_figurants_partial(
+    p_start_date  DATE,
+    p_end_date    DATE,
+    p_parameters  JSONB DEFAULT NULL
+)
+RETURNS TABLE (
+    list_code TEXT,
+    name_figurant TEXT,
+    president_group TEXT,
+    auto_login TEXT,
+    exclusion_phrase TEXT,
+    exclusion_name_list TEXT,
+    total BIGINT,
+    total_allow BIGINT,
+    total_review BIGINT,
+    total_deny BIGINT,
+    total_bypass BIGINT
+) AS $$
+SELECT
+    list_code,
+    name_figurant,
+    president_group,
+    auto_login::TEXT,
+    exclusion_phrase,
+    exclusion_name_list,
+    COUNT(*),
+    COUNT(*) FILTER (WHERE resolution = 'allow' AND is_bypass != 'yes'),
+    COUNT(*) FILTER (WHERE resolution = 'review' AND is_bypass != 'yes'),
+    COUNT(*) FILTER (WHERE resolution = 'deny' AND is_bypass != 'yes'),
+    COUNT(*) FILTER (WHERE is_bypass = 'yes')
+FROM upoa_ksk_reports.ksk_figurant
+WHERE "timestamp" >= p_start_date::TIMESTAMP(3)
+  AND "timestamp" < p_end_date::TIMESTAMP(3)
+  -- Фильтр по list_codes (если указан)
+  AND (p_parameters IS NULL
+       OR NOT p_parameters ? 'list_codes'
+       OR JSONB_ARRAY_LENGTH(p_parameters->'list_codes') = 0
+       OR list_code IN (SELECT JSONB_ARRAY_ELEMENTS_TEXT(p_parameters->'list_codes')))
+GROUP BY
+    list_code,
+    name_figurant,
+    president_group,
+    auto_login,
+    exclusion_phrase,
+    exclusion_name_list;
+$$ LANGUAGE sql STABLE;
+
+COMMENT ON FUNCTION upoa_ksk_reports.ksk_report_figurants_partial(DATE, DATE, JSONB) IS
+    'Счётчики отчёта figurants за [start_date..end_date) без записи (строка на фигуранта, фильтр list_codes)';
@@ -0,0 +1,81 @@
+-- ============================================================================
+-- ФУНКЦИЯ: ksk_report_finish_prepared
+-- ============================================================================
+-- ОПИСАНИЕ:
+--   Завершает отчёт, строки данных которого уже записаны вызывающим
+--   в той же транзакции (ParallelReportExecutor: агрегация по дневным срезам в API;
+--   ksk_report_reuse: копия готового отчёта с тем же отпечатком).
+--   Делает то же, что ksk_report_create_report после вызова функции отчёта:
+--   status = 'done', row_count, запись в ksk_system_operation_log
+--
+-- ПАРАМЕТРЫ:
+--   @p_header_id  - ID заголовка отчёта (status = 'in_progress')
+--   @p_begin_time - Начало генерации (для лога операции)
+--   @p_method     - Как получены строки (в текст лога операции)
+--
+-- ВОЗВРАЩАЕТ:
+--   INTEGER - p_header_id (как ksk_report_create_report при успехе)
+--
+-- ЗАМЕТКИ:
+--   - Excel-файл здесь не строится — его пишет API после завершения
+--     (ReportJobEngine → StoredReportFileRepository.render) или при первом скачивании xls
+--   - Ошибка не перехватывается: транзакция вызывающего откатывается вместе со строками
+--     данных, отчёт возвращается в очередь (ReportJobEngine → release)
+--
+-- ПРИМЕР ИСПОЛЬЗОВАНИЯ:
+--   SELECT ksk_report_finish_prepared(126, '2026-10-17 10:00:00');
+--
+-- ИСТОРИЯ ИЗМЕНЕНИЙ:
+--   2026-10-17 - Создание функции (параллельная генерация длинных периодов)
+--   2026-10-17 - Параметр p_method (переиспользование готовых отчётов, ksk_report_reuse)
+--   2026-10-17 - Без генерации Excel-файла (перенесена в API)
+-- ============================================================================
+
+DROP FUNCTION IF EXISTS upoa_ksk_reports.ksk_report_finish_prepared(INTEGER, TIMESTAMP);
+
+CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_report_finish_prepared(
+    p_header_id  INTEGER,
+    p_begin_time TIMESTAMP,
+    p_method     TEXT DEFAULT 'параллельно по дням'
+)
+RETURNS INTEGER AS $$
+DECLARE
+    rec RECORD;
+    v_info TEXT;
+BEGIN
+    SELECT h.id, h.status, h.start_date, h.end_date, o.name
+    INTO rec
+    FROM upoa_ksk_reports.ksk_report_header h
+    JOIN upoa_ksk_reports.ksk_report_orchestrator o ON o.id = h.orchestrator_id
+    WHERE h.id = p_header_id;
+
+    IF rec.id IS NULL OR rec.status != 'in_progress' THEN
+        RAISE EXCEPTION 'Отчёт % не найден или не в работе (status = %)', p_header_id, rec.status;
+    END IF;
+
+    UPDATE upoa_ksk_reports.ksk_report_header
+    SET status = 'done',
+        finished_datetime = NOW(),
+        row_count = upoa_ksk_reports.ksk_report_count_rows(p_header_id)
+    WHERE id = p_header_id;
+
+    v_info := FORMAT(
+        'Отчёт %s создан успешно (%s). Header ID: %s. Период: %s - %s',
+        rec.name, p_method, p_header_id, rec.start_date, rec.end_date
+    );
+
+    PERFORM upoa_ksk_reports.ksk_log_operation(
+        'create_report',
+        v_info,
+        p_begin_time,
+        'success',
+        v_info,
+        ''
+    );
+
+    RETURN p_header_id;
+END;
+$$ LANGUAGE plpgsql;
+
+COMMENT ON FUNCTION upoa_ksk_reports.ksk_report_finish_prepared(INTEGER, TIMESTAMP, TEXT) IS
+    'Завершает отчёт с уже записанными строками данных: status done, row_count, лог операции';
@@ -0,0 +1,437 @@
+-- ============================================================================
+-- ФУНКЦИИ: ksk_report_{totals,totals_by_payment_type,list_totals,
+--          list_totals_by_payment_type}_partial — счётчики отчёта за период из rollup
+-- ============================================================================
+-- ОПИСАНИЕ:
+--   Счётчики отчётов за [p_start_date ... p_end_date) без записи, как у ksk_report_*_scan,
+--   но дни из ksk_rollup_day берутся суммой дневных строк ksk_rollup_*_daily
+--   (десятки строк на день), а сканом ksk_result / ksk_figurant считаются только
+--   диапазоны без rollup (ksk_rollup_uncovered_ranges)
+--
+-- ПАРАМЕТРЫ:
+--   @p_start_date  - Начальная дата периода (включительно)
+--   @p_end_date    - Конечная дата периода (ИСКЛЮЧАЯ)
+--   @p_parameters  - Параметры отчёта (не используются, передаются в _scan)
+--
+-- ЗАМЕТКИ:
+--   - Колонки те же, что у _scan: ksk_report_<код>(header_id, ...) и ParallelReportExecutor
+--     вызывают _partial, не зная, откуда счётчики
+--   - Сумма rollup и скана складывается так же, как дневные срезы: транзакция и её
+--     фигуранты лежат в одном дне (см. 020_ksk_report_partial_aggregates.sql)
+--   - total_without_list — всегда 0, как в скане
+--   - Вызовы _scan — по непрерывным диапазонам, у каждого своё отсечение партиций
+--
+-- ПРИМЕР ИСПОЛЬЗОВАНИЯ:
+--   SELECT * FROM ksk_report_list_totals_partial('2026-09-01', '2026-10-01');
+--
+-- ИСТОРИЯ ИЗМЕНЕНИЙ:
+--   2026-10-17 - Создание функций (отчёты totals / list_totals по дневному rollup)
+-- ============================================================================
+
+-- ----------------------------------------------------------------------------
+-- totals: одна строка
+-- ----------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_report_totals_partial(
+    p_start_date  DATE,
+    p_end_date    DATE,
+    p_parameters  JSONB DEFAULT NULL
+)
+RETURNS TABLE (
+    total BIGINT,
+    total_without_result BIGINT,
+    total_with_result BIGINT,
+    total_allow BIGINT,
+    total_review BIGINT,
+    total_deny BIGINT,
+    total_bypass BIGINT
+) AS $$
+SELECT
+    SUM(u.total)::BIGINT,
+    SUM(u.total_without_result)::BIGINT,
+    SUM(u.total_with_result)::BIGINT,
+    SUM(u.total_allow)::BIGINT,
+    SUM(u.total_review)::BIGINT,
+    SUM(u.total_deny)::BIGINT,
+    SUM(u.total_bypass)::BIGINT
+FROM (
+    -- Дни с rollup
+    SELECT
+        COALESCE(SUM(tx_count), 0) AS total,
+        COALESCE(SUM(tx_count) FILTER (WHERE resolution = 'empty'), 0) AS total_without_result,
+        COALESCE(SUM(tx_count) FILTER (WHERE resolution != 'empty'), 0) AS total_with_result,
+        COALESCE(SUM(tx_count) FILTER (WHERE resolution = 'allow'), 0) AS total_allow,
+        COALESCE(SUM(tx_count) FILTER (WHERE resolution = 'review'), 0) AS total_review,
+        COALESCE(SUM(tx_count) FILTER (WHERE resolution = 'deny'), 0) AS total_deny,
+        COALESCE(SUM(tx_count) FILTER (WHERE resolution = 'bypass'), 0) AS total_bypass
+    FROM upoa_ksk_reports.ksk_rollup_result_daily r
+    INNER JOIN upoa_ksk_reports.ksk_rollup_day d ON d.day = r.day
+    WHERE r.day >= p_start_date
+      AND r.day < p_end_date
+
+    UNION ALL
+
+    -- Дни без rollup — сканом
+    SELECT s.total, s.total_without_result, s.total_with_result, s.total_allow, s.total_review, s.total_deny, s.total_bypass
+    FROM upoa_ksk_reports.ksk_rollup_uncovered_ranges(p_start_date, p_end_date) g
+    CROSS JOIN LATERAL upoa_ksk_reports.ksk_report_totals_scan(g.range_start, g.range_end, p_parameters) s
+) u;
+$$ LANGUAGE sql STABLE;
+
+COMMENT ON FUNCTION upoa_ksk_reports.ksk_report_totals_partial(DATE, DATE, JSONB) IS
+    'Счётчики отчёта totals за [start_date..end_date) без записи: rollup + скан дней без rollup (одна строка)';
+
+-- ----------------------------------------------------------------------------
+-- totals_by_payment_type: одна строка, общие счётчики + i_/o_/t_/m_/v_
+-- ----------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_report_totals_by_payment_type_partial(
+    p_start_date  DATE,
+    p_end_date    DATE,
+    p_parameters  JSONB DEFAULT NULL
+)
+RETURNS TABLE (
+    total BIGINT,
+    total_without_result BIGINT,
+    total_with_result BIGINT,
+    total_allow BIGINT,
+    total_review BIGINT,
+    total_deny BIGINT,
+    total_bypass BIGINT,
+    i_total BIGINT,
+    i_total_without_result BIGINT,
+    i_total_with_result BIGINT,
+    i_total_allow BIGINT,
+    i_total_review BIGINT,
+    i_total_deny BIGINT,
+    i_total_bypass BIGINT,
+    o_total BIGINT,
+    o_total_without_result BIGINT,
+    o_total_with_result BIGINT,
+    o_total_allow BIGINT,
+    o_total_review BIGINT,
+    o_total_deny BIGINT,
+    o_total_bypass BIGINT,
+    t_total BIGINT,
+    t_total_without_result BIGINT,
+    t_total_with_result BIGINT,
+    t_total_allow BIGINT,
+    t_total_review BIGINT,
+    t_total_deny BIGINT,
+    t_total_bypass BIGINT,
+    m_total BIGINT,
+    m_total_without_result BIGINT,
+    m_total_with_result BIGINT,
+    m_total_allow BIGINT,
+    m_total_review BIGINT,
+    m_total_deny BIGINT,
+    m_total_bypass BIGINT,
+    v_total BIGINT,
+    v_total_without_result BIGINT,
+    v_total_with_result BIGINT,
+    v_total_allow BIGINT,
+    v_total_review BIGINT,
+    v_total_deny BIGINT,
+    v_total_bypass BIGINT
+) AS $$
+SELECT
+    SUM(u.total)::BIGINT,
+    SUM(u.total_without_result)::BIGINT,
+    SUM(u.total_with_result)::BIGINT,
+    SUM(u.total_allow)::BIGINT,
+    SUM(u.total_review)::BIGINT,
+    SUM(u.total_deny)::BIGINT,
+    SUM(u.total_bypass)::BIGINT,
+    SUM(u.i_total)::BIGINT,
+    SUM(u.i_total_without_result)::BIGINT,
+    SUM(u.i_total_with_result)::BIGINT,
+    SUM(u.i_total_allow)::BIGINT,
+    SUM(u.i_total_review)::BIGINT,
+    SUM(u.i_total_deny)::BIGINT,
+    SUM(u.i_total_bypass)::BIGINT,
+    SUM(u.o_total)::BIGINT,
+    SUM(u.o_total_without_result)::BIGINT,
+    SUM(u.o_total_with_result)::BIGINT,
+    SUM(u.o_total_allow)::BIGINT,
+    SUM(u.o_total_review)::BIGINT,
+    SUM(u.o_total_deny)::BIGINT,
+    SUM(u.o_total_bypass)::BIGINT,
+    SUM(u.t_total)::BIGINT,
+    SUM(u.t_total_without_result)::BIGINT,
+    SUM(u.t_total_with_result)::BIGINT,
+    SUM(u.t_total_allow)::BIGINT,
+    SUM(u.t_total_review)::BIGINT,
+    SUM(u.t_total_deny)::BIGINT,
+    SUM(u.t_total_bypass)::BIGINT,
+    SUM(u.m_total)::BIGINT,
+    SUM(u.m_total_without_result)::BIGINT,
+    SUM(u.m_total_with_result)::BIGINT,
+    SUM(u.m_total_allow)::BIGINT,
+    SUM(u.m_total_review)::BIGINT,
+    SUM(u.m_total_deny)::BIGINT,
+    SUM(u.m_total_bypass)::BIGINT,
+    SUM(u.v_total)::BIGINT,
+    SUM(u.v_total_without_result)::BIGINT,
+    SUM(u.v_total_with_result)::BIGINT,
+    SUM(u.v_total_allow)::BIGINT,
+    SUM(u.v_total_review)::BIGINT,
+    SUM(u.v_total_deny)::BIGINT,
+    SUM(u.v_total_bypass)::BIGINT
+FROM (
+    -- Дни с rollup
+    SELECT
+        COALESCE(SUM(tx_count), 0) AS total,
+        COALESCE(SUM(tx_count) FILTER (WHERE resolution = 'empty'), 0) AS total_without_result,
+        COALESCE(SUM(tx_count) FILTER (WHERE resolution != 'empty'), 0) AS total_with_result,
+        COALESCE(SUM(tx_count) FILTER (WHERE resolution = 'allow'), 0) AS total_allow,
+        COALESCE(SUM(tx_count) FILTER (WHERE resolution = 'review'), 0) AS total_review,
+        COALESCE(SUM(tx_count) FILTER (WHERE resolution = 'deny'), 0) AS total_deny,
+        COALESCE(SUM(tx_count) FILTER (WHERE resolution = 'bypass'), 0) AS total_bypass,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Входящий'), 0) AS i_total,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Входящий' AND resolution = 'empty'), 0) AS i_total_without_result,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Входящий' AND resolution != 'empty'), 0) AS i_total_with_result,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Входящий' AND resolution = 'allow'), 0) AS i_total_allow,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Входящий' AND resolution = 'review'), 0) AS i_total_review,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Входящий' AND resolution = 'deny'), 0) AS i_total_deny,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Входящий' AND resolution = 'bypass'), 0) AS i_total_bypass,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Исходящий'), 0) AS o_total,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Исходящий' AND resolution = 'empty'), 0) AS o_total_without_result,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Исходящий' AND resolution != 'empty'), 0) AS o_total_with_result,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Исходящий' AND resolution = 'allow'), 0) AS o_total_allow,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Исходящий' AND resolution = 'review'), 0) AS o_total_review,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Исходящий' AND resolution = 'deny'), 0) AS o_total_deny,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Исходящий' AND resolution = 'bypass'), 0) AS o_total_bypass,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Транзитный'), 0) AS t_total,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Транзитный' AND resolution = 'empty'), 0) AS t_total_without_result,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Транзитный' AND resolution != 'empty'), 0) AS t_total_with_result,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Транзитный' AND resolution = 'allow'), 0) AS t_total_allow,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Транзитный' AND resolution = 'review'), 0) AS t_total_review,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Транзитный' AND resolution = 'deny'), 0) AS t_total_deny,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Транзитный' AND resolution = 'bypass'), 0) AS t_total_bypass,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Межфилиальный'), 0) AS m_total,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Межфилиальный' AND resolution = 'empty'), 0) AS m_total_without_result,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Межфилиальный' AND resolution != 'empty'), 0) AS m_total_with_result,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Межфилиальный' AND resolution = 'allow'), 0) AS m_total_allow,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Межфилиальный' AND resolution = 'review'), 0) AS m_total_review,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Межфилиальный' AND resolution = 'deny'), 0) AS m_total_deny,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Межфилиальный' AND resolution = 'bypass'), 0) AS m_total_bypass,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Внутрифилиальный'), 0) AS v_total,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Внутрифилиальный' AND resolution = 'empty'), 0) AS v_total_without_result,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Внутрифилиальный' AND resolution != 'empty'), 0) AS v_total_with_result,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Внутрифилиальный' AND resolution = 'allow'), 0) AS v_total_allow,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Внутрифилиальный' AND resolution = 'review'), 0) AS v_total_review,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Внутрифилиальный' AND resolution = 'deny'), 0) AS v_total_deny,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Внутрифилиальный' AND resolution = 'bypass'), 0) AS v_total_bypass
+    FROM upoa_ksk_reports.ksk_rollup_result_daily r
+    INNER JOIN upoa_ksk_reports.ksk_rollup_day d ON d.day = r.day
+    WHERE r.day >= p_start_date
+      AND r.day < p_end_date
+
+    UNION ALL
+
+    -- Дни без rollup — сканом
+    SELECT s.total, s.total_without_result, s.total_with_result, s.total_allow, s.total_review, s.total_deny, s.total_bypass, s.i_total, s.i_total_without_result, s.i_total_with_result, s.i_total_allow, s.i_total_review, s.i_total_deny, s.i_total_bypass, s.o_total, s.o_total_without_result, s.o_total_with_result, s.o_total_allow, s.o_total_review, s.o_total_deny, s.o_total_bypass, s.t_total, s.t_total_without_result, s.t_total_with_result, s.t_total_allow, s.t_total_review, s.t_total_deny, s.t_total_bypass, s.m_total, s.m_total_without_result, s.m_total_with_result, s.m_total_allow, s.m_total_review, s.m_total_deny, s.m_total_bypass, s.v_total, s.v_total_without_result, s.v_total_with_result, s.v_total_allow, s.v_total_review, s.v_total_deny, s.v_total_bypass
+    FROM upoa_ksk_reports.ksk_rollup_uncovered_ranges(p_start_date, p_end_date) g
+    CROSS JOIN LATERAL upoa_ksk_reports.ksk_report_totals_by_payment_type_scan(g.range_start, g.range_end, p_parameters) s
+) u;
+$$ LANGUAGE sql STABLE;
+
+COMMENT ON FUNCTION upoa_ksk_reports.ksk_report_totals_by_payment_type_partial(DATE, DATE, JSONB) IS
+    'Счётчики отчёта totals_by_payment_type за [start_date..end_date) без записи: rollup + скан дней без rollup (одна строка)';
+
+-- ----------------------------------------------------------------------------
+-- list_totals: строка на list_code (включая NULL — как в скане)
+-- ----------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_report_list_totals_partial(
+    p_start_date  DATE,
+    p_end_date    DATE,
+    p_parameters  JSONB DEFAULT NULL
+)
+RETURNS TABLE (
+    list_code TEXT,
+    total_with_list BIGINT,
+    total_without_list BIGINT,
+    total_allow BIGINT,
+    total_review BIGINT,
+    total_deny BIGINT,
+    total_bypass BIGINT
+) AS $$
+SELECT
+    u.list_code,
+    SUM(u.total_with_list)::BIGINT,
+    SUM(u.total_without_list)::BIGINT,
+    SUM(u.total_allow)::BIGINT,
+    SUM(u.total_review)::BIGINT,
+    SUM(u.total_deny)::BIGINT,
+    SUM(u.total_bypass)::BIGINT
+FROM (
+    -- Дни с rollup
+    SELECT
+        r.list_code,
+        COALESCE(SUM(tx_count), 0) AS total_with_list,
+        0::BIGINT AS total_without_list,
+        COALESCE(SUM(allow_count), 0) AS total_allow,
+        COALESCE(SUM(review_count), 0) AS total_review,
+        COALESCE(SUM(deny_count), 0) AS total_deny,
+        COALESCE(SUM(bypass_count), 0) AS total_bypass
+    FROM upoa_ksk_reports.ksk_rollup_list_daily r
+    INNER JOIN upoa_ksk_reports.ksk_rollup_day d ON d.day = r.day
+    WHERE r.day >= p_start_date
+      AND r.day < p_end_date
+    GROUP BY r.list_code
+
+    UNION ALL
+
+    -- Дни без rollup — сканом
+    SELECT s.list_code, s.total_with_list, s.total_without_list, s.total_allow, s.total_review, s.total_deny, s.total_bypass
+    FROM upoa_ksk_reports.ksk_rollup_uncovered_ranges(p_start_date, p_end_date) g
+    CROSS JOIN LATERAL upoa_ksk_reports.ksk_report_list_totals_scan(g.range_start, g.range_end, p_parameters) s
+) u
+GROUP BY u.list_code;
+$$ LANGUAGE sql STABLE;
+
+COMMENT ON FUNCTION upoa_ksk_reports.ksk_report_list_totals_partial(DATE, DATE, JSONB) IS
+    'Счётчики отчёта list_totals за [start_date..end_date) без записи: rollup + скан дней без rollup (строка на list_code)';
+
+-- ----------------------------------------------------------------------------
+-- list_totals_by_payment_type: строка на list_code (без NULL), общие счётчики + i_/o_/t_/m_/v_
+-- ----------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_report_list_totals_by_payment_type_partial(
+    p_start_date  DATE,
+    p_end_date    DATE,
+    p_parameters  JSONB DEFAULT NULL
+)
+RETURNS TABLE (
+    list_code TEXT,
+    total_with_list BIGINT,
+    total_without_list BIGINT,
+    total_allow BIGINT,
+    total_review BIGINT,
+    total_deny BIGINT,
+    total_bypass BIGINT,
+    i_total_with_list BIGINT,
+    i_total_without_list BIGINT,
+    i_total_allow BIGINT,
+    i_total_review BIGINT,
+    i_total_deny BIGINT,
+    i_total_bypass BIGINT,
+    o_total_with_list BIGINT,
+    o_total_without_list BIGINT,
+    o_total_allow BIGINT,
+    o_total_review BIGINT,
+    o_total_deny BIGINT,
+    o_total_bypass BIGINT,
+    t_total_with_list BIGINT,
+    t_total_without_list BIGINT,
+    t_total_allow BIGINT,
+    t_total_review BIGINT,
+    t_total_deny BIGINT,
+    t_total_bypass BIGINT,
+    m_total_with_list BIGINT,
+    m_total_without_list BIGINT,
+    m_total_allow BIGINT,
+    m_total_review BIGINT,
+    m_total_deny BIGINT,
+    m_total_bypass BIGINT,
+    v_total_with_list BIGINT,
+    v_total_without_list BIGINT,
+    v_total_allow BIGINT,
+    v_total_review BIGINT,
+    v_total_deny BIGINT,
+    v_total_bypass BIGINT
+) AS $$
+SELECT
+    u.list_code,
+    SUM(u.total_with_list)::BIGINT,
+    SUM(u.total_without_list)::BIGINT,
+    SUM(u.total_allow)::BIGINT,
+    SUM(u.total_review)::BIGINT,
+    SUM(u.total_deny)::BIGINT,
+    SUM(u.total_bypass)::BIGINT,
+    SUM(u.i_total_with_list)::BIGINT,
+    SUM(u.i_total_without_list)::BIGINT,
+    SUM(u.i_total_allow)::BIGINT,
+    SUM(u.i_total_review)::BIGINT,
+    SUM(u.i_total_deny)::BIGINT,
+    SUM(u.i_total_bypass)::BIGINT,
+    SUM(u.o_total_with_list)::BIGINT,
+    SUM(u.o_total_without_list)::BIGINT,
+    SUM(u.o_total_allow)::BIGINT,
+    SUM(u.o_total_review)::BIGINT,
+    SUM(u.o_total_deny)::BIGINT,
+    SUM(u.o_total_bypass)::BIGINT,
+    SUM(u.t_total_with_list)::BIGINT,
+    SUM(u.t_total_without_list)::BIGINT,
+    SUM(u.t_total_allow)::BIGINT,
+    SUM(u.t_total_review)::BIGINT,
+    SUM(u.t_total_deny)::BIGINT,
+    SUM(u.t_total_bypass)::BIGINT,
+    SUM(u.m_total_with_list)::BIGINT,
+    SUM(u.m_total_without_list)::BIGINT,
+    SUM(u.m_total_allow)::BIGINT,
+    SUM(u.m_total_review)::BIGINT,
+    SUM(u.m_total_deny)::BIGINT,
+    SUM(u.m_total_bypass)::BIGINT,
+    SUM(u.v_total_with_list)::BIGINT,
+    SUM(u.v_total_without_list)::BIGINT,
+    SUM(u.v_total_allow)::BIGINT,
+    SUM(u.v_total_review)::BIGINT,
+    SUM(u.v_total_deny)::BIGINT,
+    SUM(u.v_total_bypass)::BIGINT
+FROM (
+    -- Дни с rollup
+    SELECT
+        r.list_code,
+        COALESCE(SUM(tx_count), 0) AS total_with_list,
+        0::BIGINT AS total_without_list,
+        COALESCE(SUM(allow_count), 0) AS total_allow,
+        COALESCE(SUM(review_count), 0) AS total_review,
+        COALESCE(SUM(deny_count), 0) AS total_deny,
+        COALESCE(SUM(bypass_count), 0) AS total_bypass,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Входящий'), 0) AS i_total_with_list,
+        0::BIGINT AS i_total_without_list,
+        COALESCE(SUM(allow_count) FILTER (WHERE payment_type = 'Входящий'), 0) AS i_total_allow,
+        COALESCE(SUM(review_count) FILTER (WHERE payment_type = 'Входящий'), 0) AS i_total_review,
+        COALESCE(SUM(deny_count) FILTER (WHERE payment_type = 'Входящий'), 0) AS i_total_deny,
+        COALESCE(SUM(bypass_count) FILTER (WHERE payment_type = 'Входящий'), 0) AS i_total_bypass,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Исходящий'), 0) AS o_total_with_list,
+        0::BIGINT AS o_total_without_list,
+        COALESCE(SUM(allow_count) FILTER (WHERE payment_type = 'Исходящий'), 0) AS o_total_allow,
+        COALESCE(SUM(review_count) FILTER (WHERE payment_type = 'Исходящий'), 0) AS o_total_review,
+        COALESCE(SUM(deny_count) FILTER (WHERE payment_type = 'Исходящий'), 0) AS o_total_deny,
+        COALESCE(SUM(bypass_count) FILTER (WHERE payment_type = 'Исходящий'), 0) AS o_total_bypass,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Транзитный'), 0) AS t_total_with_list,
+        0::BIGINT AS t_total_without_list,
+        COALESCE(SUM(allow_count) FILTER (WHERE payment_type = 'Транзитный'), 0) AS t_total_allow,
+        COALESCE(SUM(review_count) FILTER (WHERE payment_type = 'Транзитный'), 0) AS t_total_review,
+        COALESCE(SUM(deny_count) FILTER (WHERE payment_type = 'Транзитный'), 0) AS t_total_deny,
+        COALESCE(SUM(bypass_count) FILTER (WHERE payment_type = 'Транзитный'), 0) AS t_total_bypass,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Межфилиальный'), 0) AS m_total_with_list,
+        0::BIGINT AS m_total_without_list,
+        COALESCE(SUM(allow_count) FILTER (WHERE payment_type = 'Межфилиальный'), 0) AS m_total_allow,
+        COALESCE(SUM(review_count) FILTER (WHERE payment_type = 'Межфилиальный'), 0) AS m_total_review,
+        COALESCE(SUM(deny_count) FILTER (WHERE payment_type = 'Межфилиальный'), 0) AS m_total_deny,
+        COALESCE(SUM(bypass_count) FILTER (WHERE payment_type = 'Межфилиальный'), 0) AS m_total_bypass,
+        COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Внутрифилиальный'), 0) AS v_total_with_list,
+        0::BIGINT AS v_total_without_list,
+        COALESCE(SUM(allow_count) FILTER (WHERE payment_type = 'Внутрифилиальный'), 0) AS v_total_allow,
+        COALESCE(SUM(review_count) FILTER (WHERE payment_type = 'Внутрифилиальный'), 0) AS v_total_review,
+        COALESCE(SUM(deny_count) FILTER (WHERE payment_type = 'Внутрифилиальный'), 0) AS v_total_deny,
+        COALESCE(SUM(bypass_count) FILTER (WHERE payment_type = 'Внутрифилиальный'), 0) AS v_total_bypass
+    FROM upoa_ksk_reports.ksk_rollup_list_daily r
+    INNER JOIN upoa_ksk_reports.ksk_rollup_day d ON d.day = r.day
+    WHERE r.day >= p_start_date
+      AND r.day < p_end_date
+      AND r.list_code IS NOT NULL
+    GROUP BY r.list_code
+
+    UNION ALL
+
+    -- Дни без rollup — сканом
+    SELECT s.list_code, s.total_with_list, s.total_without_list, s.total_allow, s.total_review, s.total_deny, s.total_bypass, s.i_total_with_list, s.i_total_without_list, s.i_total_allow, s.i_total_review, s.i_total_deny, s.i_total_bypass, s.o_total_with_list, s.o_total_without_list, s.o_total_allow, s.o_total_review, s.o_total_deny, s.o_total_bypass, s.t_total_with_list, s.t_total_without_list, s.t_total_allow, s.t_total_review, s.t_total_deny, s.t_total_bypass, s.m_total_with_list, s.m_total_without_list, s.m_total_allow, s.m_total_review, s.m_total_deny, s.m_total_bypass, s.v_total_with_list, s.v_total_without_list, s.v_total_allow, s.v_total_review, s.v_total_deny, s.v_total_bypass
+    FROM upoa_ksk_reports.ksk_rollup_uncovered_ranges(p_start_date, p_end_date) g
+    CROSS JOIN LATERAL upoa_ksk_reports.ksk_report_list_totals_by_payment_type_scan(g.range_start, g.range_end, p_parameters) s
+) u
+GROUP BY u.list_code;
+$$ LANGUAGE sql STABLE;
+
+COMMENT ON FUNCTION upoa_ksk_reports.ksk_report_list_totals_by_payment_type_partial(DATE, DATE, JSONB) IS
+    'Счётчики отчёта list_totals_by_payment_type за [start_date..end_date) без записи: rollup + скан дней без rollup (строка на list_code)';
@@ -0,0 +1,84 @@
+-- ============================================================================
+-- ФУНКЦИЯ + ТРИГГЕР: ksk_report_fingerprint, ksk_report_header_set_fingerprint
+-- ============================================================================
+-- ОПИСАНИЕ:
+--   Отпечаток нормализованного запроса отчёта: одинаковый у отчётов, которые
+--   дают одинаковые строки данных. Пишется в ksk_report_header.fingerprint при
+--   вставке заголовка (любой путь: ksk_report_register_header, ksk_run_report),
+--   по нему ksk_report_reuse находит готовый отчёт
+--
+-- ПАРАМЕТРЫ:
+--   @p_report_code - Код отчёта
+--   @p_start_date  - Начало периода (включительно)
+--   @p_end_date    - Конец периода (ИСКЛЮЧАЯ, уже нормализованный)
+--   @p_parameters  - Параметры отчёта
+--
+-- ВОЗВРАЩАЕТ:
+--   VARCHAR(32) - md5 или NULL (отчёт не переиспользуется)
+--
+-- НОРМАЛИЗАЦИЯ:
+--   - totals, totals_by_payment_type, list_totals, list_totals_by_payment_type —
+--     параметры не используются и в отпечаток не входят
+--   - figurants — list_codes без повторов, отсортированы; отсутствует / [] = без фильтра
+--     (как в ksk_report_figurants_partial); list_codes не массив — NULL.
+--     Коды входят JSON-массивом: код с запятой ["a,b"] не совпадает с ["a", "b"]
+--   - review и неизвестные коды — NULL (снимок review строится своим путём)
+--   - Даты — TO_CHAR(YYYY-MM-DD): отпечаток не зависит от DateStyle сессии
+--
+-- ПРИМЕР ИСПОЛЬЗОВАНИЯ:
+--   SELECT ksk_report_fingerprint('figurants', '2026-10-01', '2026-10-16', '{"list_codes": ["4204", "4200"]}');
+--
+-- ИСТОРИЯ ИЗМЕНЕНИЙ:
+--   2026-10-17 - Создание (переиспользование одинаковых отчётов)
+--   2026-10-17 - list_codes JSON-массивом вместо STRING_AGG через ',' (коллизия кодов
+--                с запятой); отпечатки пересчитать — 100_complete_scripts/040
+-- ============================================================================
+
+CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_report_fingerprint(
+    p_report_code VARCHAR,
+    p_start_date  DATE,
+    p_end_date    DATE,
+    p_parameters  JSONB
+)
+RETURNS VARCHAR AS $$
+SELECT CASE
+    WHEN p_report_code IN ('totals', 'totals_by_payment_type', 'list_totals', 'list_totals_by_payment_type') THEN
+        MD5(p_report_code || '|' || TO_CHAR(p_start_date, 'YYYY-MM-DD') || '|' || TO_CHAR(p_end_date, 'YYYY-MM-DD'))
+    WHEN p_report_code = 'figurants'
+         AND (p_parameters IS NULL
+              OR NOT p_parameters ? 'list_codes'
+              OR JSONB_TYPEOF(p_parameters->'list_codes') = 'array') THEN
+        MD5(p_report_code || '|' || TO_CHAR(p_start_date, 'YYYY-MM-DD') || '|' || TO_CHAR(p_end_date, 'YYYY-MM-DD') || '|' || COALESCE((
+            SELECT JSONB_AGG(DISTINCT code ORDER BY code)::TEXT
+            FROM JSONB_ARRAY_ELEMENTS_TEXT(p_parameters->'list_codes') AS code
+        ), '[]'))
+END;
+$$ LANGUAGE sql STABLE;
+
+COMMENT ON FUNCTION upoa_ksk_reports.ksk_report_fingerprint(VARCHAR, DATE, DATE, JSONB) IS
+    'Отпечаток нормализованного запроса отчёта (md5) для переиспользования готовых отчётов; NULL — не переиспользуется';
+
+
+CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_report_header_set_fingerprint()
+RETURNS TRIGGER AS $$
+BEGIN
+    NEW.fingerprint := upoa_ksk_reports.ksk_report_fingerprint(
+        (SELECT report_code FROM upoa_ksk_reports.ksk_report_orchestrator WHERE id = NEW.orchestrator_id),
+        NEW.start_date,
+        NEW.end_date,
+        NEW.parameters
+    );
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+COMMENT ON FUNCTION upoa_ksk_reports.ksk_report_header_set_fingerprint() IS
+    'Триггерная функция: ksk_report_header.fingerprint по коду отчёта, периоду и параметрам';
+
+DROP TRIGGER IF EXISTS trg_ksk_report_header_set_fingerprint ON upoa_ksk_reports.ksk_report_header;
+
+CREATE TRIGGER trg_ksk_report_header_set_fingerprint
+    BEFORE INSERT OR UPDATE OF orchestrator_id, start_date, end_date, parameters
+    ON upoa_ksk_reports.ksk_report_header
+    FOR EACH ROW
+    EXECUTE FUNCTION upoa_ksk_reports.ksk_report_header_set_fingerprint();
@@ -0,0 +1,140 @@
+-- ============================================================================
+-- ФУНКЦИИ: ksk_report_reuse / ksk_report_lock_fingerprint
+-- ============================================================================
+-- ОПИСАНИЕ:
+--   Завершает отчёт копией строк готового отчёта с тем же отпечатком запроса
+--   (ksk_report_header.fingerprint) вместо повторного расчёта.
+--   Вызывается узлом очереди (ReportJobRepository) в транзакции генерации до расчёта
+--
+-- ПАРАМЕТРЫ:
+--   @p_header_id  - ID заголовка отчёта (status = 'in_progress')
+--   @p_begin_time - Начало генерации (для лога операции)
+--
+-- ВОЗВРАЩАЕТ:
+--   INTEGER - p_header_id, если отчёт завершён копией;
+--             NULL — считать как обычно (блокировка отпечатка остаётся до конца транзакции)
+--
+-- ЛОГИКА:
+--   1. Отпечатка нет или период не закрыт (end_date > CURRENT_DATE) — NULL без блокировки
+--   2. ksk_report_lock_fingerprint: одинаковые отчёты на всех узлах генерируются
+--      по одному — второй ждёт COMMIT первого и затем копирует его результат
+--   3. Донор: status = 'done', тот же отпечаток, завершён после конца периода
+--      (считал уже закрытые дни), самый свежий
+--   4. Копия строк ksk_report_*_data в порядке id + ksk_report_finish_prepared
+--
+-- ЗАМЕТКИ:
+--   - 🔄 Донор в статусе in_progress: блокировку отпечатка (ksk_report_lock_fingerprint) берёт
+--     каждый путь генерации до расчёта — очередь (здесь), ksk_report_create_report (cron,
+--     ksk_report_create_all_reports, ksk_regenerate_report), ksk_run_report,
+--     ksk_report_totals_family (ReportBatchOrchestrator). Отчёт, пришедший во время расчёта
+--     донора, ждёт его COMMIT и копирует результат, а не считает заново.
+--     Не ждут только доноры, чья транзакция ещё не дошла до блокировки (заголовок создан,
+--     генерация не началась), — тогда первым считает пришедший, а донор копирует его
+--   - Копия, а не ссылка: донор удаляется по своему TTL (CASCADE на строки данных)
+--   - Колонки таблицы данных — из pg_attribute (кроме id, report_header_id, created_date_time)
+--   - Ожидающий отчёт занимает слот узла и соединение до COMMIT первого
+--   - Пути, блокирующие несколько отпечатков в одной транзакции (ksk_report_totals_family —
+--     в порядке totals, totals_by_payment_type, list_totals, list_totals_by_payment_type;
+--     ksk_report_create_all_reports — в порядке заголовков), могут встретиться во взаимной
+--     блокировке — PostgreSQL прервёт одну транзакцию (deadlock detected)
+--
+-- ПРИМЕР ИСПОЛЬЗОВАНИЯ:
+--   SELECT ksk_report_reuse(126, '2026-10-17 10:00:00');
+--   SELECT ksk_report_lock_fingerprint(126);  -- отпечаток или NULL (не блокируется)
+--
+-- ИСТОРИЯ ИЗМЕНЕНИЙ:
+--   2026-10-17 - Создание функции
+--   2026-10-17 - ksk_report_lock_fingerprint: блокировка отпечатка во всех путях генерации
+--                (донор in_progress вне очереди не блокировал отпечаток — отчёт считался повторно)
+-- ============================================================================
+
+-- ----------------------------------------------------------------------------
+-- Блокировка отпечатка до конца транзакции (закрытый период)
+-- ----------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_report_lock_fingerprint(
+    p_header_id INTEGER
+)
+RETURNS VARCHAR AS $$
+DECLARE
+    v_fingerprint VARCHAR;
+    v_end_date DATE;
+BEGIN
+    SELECT fingerprint, end_date
+    INTO v_fingerprint, v_end_date
+    FROM upoa_ksk_reports.ksk_report_header
+    WHERE id = p_header_id;
+
+    IF v_fingerprint IS NULL OR v_end_date > CURRENT_DATE THEN
+        RETURN NULL;
+    END IF;
+
+    PERFORM pg_advisory_xact_lock(HASHTEXTEXTENDED('ksk_report_fingerprint:' || v_fingerprint, 0));
+    RETURN v_fingerprint;
+END;
+$$ LANGUAGE plpgsql;
+
+COMMENT ON FUNCTION upoa_ksk_reports.ksk_report_lock_fingerprint(INTEGER) IS
+    'Блокирует отпечаток отчёта до конца транзакции (закрытый период) — одинаковые отчёты генерируются по одному; NULL — не блокируется';
+
+-- ----------------------------------------------------------------------------
+-- Завершение копией готового отчёта
+-- ----------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_report_reuse(
+    p_header_id  INTEGER,
+    p_begin_time TIMESTAMP
+)
+RETURNS INTEGER AS $$
+DECLARE
+    rec RECORD;
+    v_donor_id INTEGER;
+    v_columns TEXT;
+BEGIN
+    SELECT h.fingerprint, h.end_date, o.report_table
+    INTO rec
+    FROM upoa_ksk_reports.ksk_report_header h
+    JOIN upoa_ksk_reports.ksk_report_orchestrator o ON o.id = h.orchestrator_id
+    WHERE h.id = p_header_id;
+
+    IF upoa_ksk_reports.ksk_report_lock_fingerprint(p_header_id) IS NULL THEN
+        RETURN NULL;
+    END IF;
+
+    SELECT id
+    INTO v_donor_id
+    FROM upoa_ksk_reports.ksk_report_header
+    WHERE fingerprint = rec.fingerprint
+      AND status = 'done'
+      AND id <> p_header_id
+      AND finished_datetime >= rec.end_date::TIMESTAMP
+    ORDER BY finished_datetime DESC
+    LIMIT 1;
+
+    IF v_donor_id IS NULL THEN
+        RETURN NULL;
+    END IF;
+
+    SELECT STRING_AGG(QUOTE_IDENT(attname), ', ' ORDER BY attnum)
+    INTO v_columns
+    FROM pg_attribute
+    WHERE attrelid = ('upoa_ksk_reports.' || QUOTE_IDENT(rec.report_table))::REGCLASS
+      AND attnum > 0
+      AND NOT attisdropped
+      AND attname NOT IN ('id', 'report_header_id', 'created_date_time');
+
+    EXECUTE FORMAT(
+        'INSERT INTO upoa_ksk_reports.%I (report_header_id, %s) ' ||
+        'SELECT $1, %s FROM upoa_ksk_reports.%I WHERE report_header_id = $2 ORDER BY id',
+        rec.report_table, v_columns, v_columns, rec.report_table
+    )
+    USING p_header_id, v_donor_id;
+
+    RETURN upoa_ksk_reports.ksk_report_finish_prepared(
+        p_header_id,
+        p_begin_time,
+        FORMAT('копия отчёта %s', v_donor_id)
+    );
+END;
+$$ LANGUAGE plpgsql;
+
+COMMENT ON FUNCTION upoa_ksk_reports.ksk_report_reuse(INTEGER, TIMESTAMP) IS
+    'Завершает отчёт копией готового отчёта с тем же отпечатком (закрытый период); NULL — считать, отпечаток заблокирован до конца транзакции';
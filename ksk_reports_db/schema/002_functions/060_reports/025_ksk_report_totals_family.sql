@@ -0,0 +1,359 @@
+-- ============================================================================
+-- ФУНКЦИИ: ksk_report_totals_family_scan / ksk_report_totals_family —
+--          отчёты totals, totals_by_payment_type, list_totals,
+--          list_totals_by_payment_type одним проходом по данным
+-- ============================================================================
+-- ОПИСАНИЕ:
+--   Четыре отчёта семейства totals считаются из одних и тех же строк периода:
+--   по отдельности (ksk_report_<код>_scan) ksk_result читается трижды, ksk_figurant — дважды.
+--   ksk_report_totals_family_scan — один проход (ksk_result LEFT JOIN ksk_figurant,
+--   GROUPING SETS) с результатом в форме строк rollup:
+--   - grp = 'result' — payment_type × resolution, tx_count (как ksk_rollup_result_daily)
+--   - grp = 'list'   — list_code × payment_type, tx_count и решения фигурантов
+--                      (как ksk_rollup_list_daily)
+--   ksk_report_totals_family — строки данных всех четырёх отчётов за период под их
+--   заголовками: rollup за закрытые дни + один проход по дням без rollup,
+--   затем ksk_report_finish_prepared для каждого заголовка
+--
+-- ПАРАМЕТРЫ:
+--   @p_start_date  - Начальная дата периода (включительно)
+--   @p_end_date    - Конечная дата периода (ИСКЛЮЧАЯ)
+--   @p_header_ids  - {"<report_code>": header_id, ...} — заголовки (status = 'in_progress');
+--                    отчёты без заголовка не пишутся, прежние строки данных заголовка
+--                    удаляются (перегенерация)
+--
+-- ВОЗВРАЩАЕТ:
+--   ksk_report_totals_family_scan - TABLE (grp, list_code, payment_type, resolution,
+--                                   tx_count, allow_count, review_count, deny_count, bypass_count)
+--   ksk_report_totals_family      - INTEGER, количество записанных отчётов
+--
+-- ЗАМЕТКИ:
+--   - Условия счётчиков те же, что в ksk_report_*_scan; строки данных те же, что у
+--     ksk_report_<код>(header_id, ...) — отчёты не отличаются от построенных по одному
+--   - tx_count: 'result' — COUNT(DISTINCT r.id) (строки ksk_result размножены фигурантами),
+--     'list' — COUNT(DISTINCT f.source_id); в строках 'result' счётчики решений не используются
+--   - Транзакции без фигурантов в набор 'list' не попадают (f.source_id IS NOT NULL) —
+--     группа list_code = NULL остаётся только для фигурантов без списка, как в скане
+--   - Таблицы читаются один раз; два набора группировки — две сортировки уже
+--     соединённых строк (work_mem / временные файлы), а не повторное чтение партиций
+--   - Ошибка не перехватывается: транзакция вызывающего откатывается целиком,
+--     ни один из четырёх отчётов не остаётся наполовину записанным
+--   - Отпечатки всех заголовков блокируются до расчёта (ksk_report_lock_fingerprint) в порядке
+--     totals, totals_by_payment_type, list_totals, list_totals_by_payment_type — одинаковый
+--     отчёт из очереди ждёт COMMIT и копирует результат (ksk_report_reuse)
+--   - Используют: ksk_rollup_finalize_day (пересчёт дня), ReportBatchRepository.runReportFamily
+--     (пакет отчётов API — одна задача на семейство за день)
+--
+-- ПРИМЕР ИСПОЛЬЗОВАНИЯ:
+--   SELECT * FROM ksk_report_totals_family_scan('2026-10-01', '2026-10-02');
+--   SELECT ksk_report_totals_family('2026-10-01', '2026-10-02',
+--                                   '{"totals": 201, "list_totals": 202}'::JSONB);
+--
+-- ИСТОРИЯ ИЗМЕНЕНИЙ:
+--   2026-10-17 - Создание функций (общий проход для отчётов семейства totals)
+--   2026-10-17 - Блокировка отпечатков заголовков до расчёта (ksk_report_lock_fingerprint)
+-- ============================================================================
+
+-- ----------------------------------------------------------------------------
+-- Один проход: строки в форме rollup
+-- ----------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_report_totals_family_scan(
+    p_start_date  DATE,
+    p_end_date    DATE
+)
+RETURNS TABLE (
+    grp TEXT,
+    list_code TEXT,
+    payment_type VARCHAR(20),
+    resolution VARCHAR(20),
+    tx_count BIGINT,
+    allow_count BIGINT,
+    review_count BIGINT,
+    deny_count BIGINT,
+    bypass_count BIGINT
+) AS $$
+SELECT
+    CASE WHEN GROUPING(r.resolution) = 0 THEN 'result' ELSE 'list' END,
+    f.list_code,
+    r.payment_type,
+    r.resolution,
+    CASE
+        WHEN GROUPING(r.resolution) = 0 THEN COUNT(DISTINCT r.id)
+        ELSE COUNT(DISTINCT f.source_id)
+    END,
+    COUNT(*) FILTER (WHERE f.resolution = 'allow' AND f.is_bypass != 'yes'),
+    COUNT(*) FILTER (WHERE f.resolution = 'review' AND f.is_bypass != 'yes'),
+    COUNT(*) FILTER (WHERE f.resolution = 'deny' AND f.is_bypass != 'yes'),
+    COUNT(*) FILTER (WHERE f.is_bypass = 'yes')
+FROM upoa_ksk_reports.ksk_result r
+LEFT JOIN upoa_ksk_reports.ksk_figurant f
+    ON f.source_id = r.id
+    AND f.timestamp = r.output_timestamp
+    AND f.timestamp >= p_start_date::TIMESTAMP(3)
+    AND f.timestamp < p_end_date::TIMESTAMP(3)
+WHERE r.output_timestamp >= p_start_date::TIMESTAMP(3)
+  AND r.output_timestamp < p_end_date::TIMESTAMP(3)
+GROUP BY GROUPING SETS (
+    (r.payment_type, r.resolution),
+    (f.source_id IS NOT NULL, f.list_code, r.payment_type)
+)
+HAVING GROUPING(r.resolution) = 0
+    OR f.source_id IS NOT NULL;
+$$ LANGUAGE sql STABLE;
+
+COMMENT ON FUNCTION upoa_ksk_reports.ksk_report_totals_family_scan(DATE, DATE) IS
+    'Счётчики отчётов семейства totals за [start_date..end_date) одним проходом: строки в форме ksk_rollup_result_daily (grp = result) и ksk_rollup_list_daily (grp = list)';
+
+-- ----------------------------------------------------------------------------
+-- Четыре отчёта под своими заголовками
+-- ----------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_report_totals_family(
+    p_start_date  DATE,
+    p_end_date    DATE,
+    p_header_ids  JSONB
+)
+RETURNS INTEGER AS $$
+DECLARE
+    v_begin_time TIMESTAMP := CLOCK_TIMESTAMP();
+    v_totals_id INTEGER := (p_header_ids ->> 'totals')::INTEGER;
+    v_totals_by_payment_type_id INTEGER := (p_header_ids ->> 'totals_by_payment_type')::INTEGER;
+    v_list_totals_id INTEGER := (p_header_ids ->> 'list_totals')::INTEGER;
+    v_list_totals_by_payment_type_id INTEGER := (p_header_ids ->> 'list_totals_by_payment_type')::INTEGER;
+    v_reports INTEGER := 0;
+BEGIN
+    -- Одинаковые отчёты — по одному; порядок блокировок постоянный
+    PERFORM upoa_ksk_reports.ksk_report_lock_fingerprint(v_totals_id);
+    PERFORM upoa_ksk_reports.ksk_report_lock_fingerprint(v_totals_by_payment_type_id);
+    PERFORM upoa_ksk_reports.ksk_report_lock_fingerprint(v_list_totals_id);
+    PERFORM upoa_ksk_reports.ksk_report_lock_fingerprint(v_list_totals_by_payment_type_id);
+
+    -- Строки в форме rollup за весь период: закрытые дни — из rollup, остальные — одним проходом
+    DROP TABLE IF EXISTS pg_temp.ksk_totals_family_rows;
+    CREATE TEMP TABLE ksk_totals_family_rows ON COMMIT DROP AS
+    SELECT 'result'::TEXT AS grp, NULL::TEXT AS list_code, r.payment_type, r.resolution, r.tx_count,
+           0::BIGINT AS allow_count, 0::BIGINT AS review_count, 0::BIGINT AS deny_count, 0::BIGINT AS bypass_count
+    FROM upoa_ksk_reports.ksk_rollup_result_daily r
+    INNER JOIN upoa_ksk_reports.ksk_rollup_day d ON d.day = r.day
+    WHERE r.day >= p_start_date
+      AND r.day < p_end_date
+
+    UNION ALL
+
+    SELECT 'list', l.list_code, l.payment_type, NULL, l.tx_count,
+           l.allow_count, l.review_count, l.deny_count, l.bypass_count
+    FROM upoa_ksk_reports.ksk_rollup_list_daily l
+    INNER JOIN upoa_ksk_reports.ksk_rollup_day d ON d.day = l.day
+    WHERE l.day >= p_start_date
+      AND l.day < p_end_date
+
+    UNION ALL
+
+    SELECT s.grp, s.list_code, s.payment_type, s.resolution, s.tx_count,
+           s.allow_count, s.review_count, s.deny_count, s.bypass_count
+    FROM upoa_ksk_reports.ksk_rollup_uncovered_ranges(p_start_date, p_end_date) g
+    CROSS JOIN LATERAL upoa_ksk_reports.ksk_report_totals_family_scan(g.range_start, g.range_end) s;
+
+    IF v_totals_id IS NOT NULL THEN
+        DELETE FROM upoa_ksk_reports.ksk_report_totals_data WHERE report_header_id = v_totals_id;
+
+        INSERT INTO upoa_ksk_reports.ksk_report_totals_data (
+            report_header_id,
+            total,
+            total_without_result,
+            total_with_result,
+            total_allow,
+            total_review,
+            total_deny,
+            total_bypass
+        )
+        SELECT
+            v_totals_id,
+            COALESCE(SUM(tx_count), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE resolution = 'empty'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE resolution != 'empty'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE resolution = 'allow'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE resolution = 'review'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE resolution = 'deny'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE resolution = 'bypass'), 0)
+        FROM ksk_totals_family_rows
+        WHERE grp = 'result';
+
+        PERFORM upoa_ksk_reports.ksk_report_finish_prepared(v_totals_id, v_begin_time, 'общим проходом totals');
+        v_reports := v_reports + 1;
+    END IF;
+
+    IF v_totals_by_payment_type_id IS NOT NULL THEN
+        DELETE FROM upoa_ksk_reports.ksk_report_totals_by_payment_type_data WHERE report_header_id = v_totals_by_payment_type_id;
+
+        INSERT INTO upoa_ksk_reports.ksk_report_totals_by_payment_type_data (
+            report_header_id,
+            total, total_without_result, total_with_result,
+            total_allow, total_review, total_deny, total_bypass,
+            i_total, i_total_without_result, i_total_with_result,
+            i_total_allow, i_total_review, i_total_deny, i_total_bypass,
+            o_total, o_total_without_result, o_total_with_result,
+            o_total_allow, o_total_review, o_total_deny, o_total_bypass,
+            t_total, t_total_without_result, t_total_with_result,
+            t_total_allow, t_total_review, t_total_deny, t_total_bypass,
+            m_total, m_total_without_result, m_total_with_result,
+            m_total_allow, m_total_review, m_total_deny, m_total_bypass,
+            v_total, v_total_without_result, v_total_with_result,
+            v_total_allow, v_total_review, v_total_deny, v_total_bypass
+        )
+        SELECT
+            v_totals_by_payment_type_id,
+            COALESCE(SUM(tx_count), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE resolution = 'empty'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE resolution != 'empty'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE resolution = 'allow'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE resolution = 'review'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE resolution = 'deny'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE resolution = 'bypass'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Входящий'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Входящий' AND resolution = 'empty'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Входящий' AND resolution != 'empty'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Входящий' AND resolution = 'allow'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Входящий' AND resolution = 'review'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Входящий' AND resolution = 'deny'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Входящий' AND resolution = 'bypass'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Исходящий'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Исходящий' AND resolution = 'empty'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Исходящий' AND resolution != 'empty'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Исходящий' AND resolution = 'allow'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Исходящий' AND resolution = 'review'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Исходящий' AND resolution = 'deny'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Исходящий' AND resolution = 'bypass'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Транзитный'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Транзитный' AND resolution = 'empty'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Транзитный' AND resolution != 'empty'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Транзитный' AND resolution = 'allow'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Транзитный' AND resolution = 'review'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Транзитный' AND resolution = 'deny'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Транзитный' AND resolution = 'bypass'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Межфилиальный'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Межфилиальный' AND resolution = 'empty'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Межфилиальный' AND resolution != 'empty'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Межфилиальный' AND resolution = 'allow'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Межфилиальный' AND resolution = 'review'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Межфилиальный' AND resolution = 'deny'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Межфилиальный' AND resolution = 'bypass'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Внутрифилиальный'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Внутрифилиальный' AND resolution = 'empty'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Внутрифилиальный' AND resolution != 'empty'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Внутрифилиальный' AND resolution = 'allow'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Внутрифилиальный' AND resolution = 'review'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Внутрифилиальный' AND resolution = 'deny'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Внутрифилиальный' AND resolution = 'bypass'), 0)
+        FROM ksk_totals_family_rows
+        WHERE grp = 'result';
+
+        PERFORM upoa_ksk_reports.ksk_report_finish_prepared(v_totals_by_payment_type_id, v_begin_time, 'общим проходом totals');
+        v_reports := v_reports + 1;
+    END IF;
+
+    IF v_list_totals_id IS NOT NULL THEN
+        DELETE FROM upoa_ksk_reports.ksk_report_list_totals_data WHERE report_header_id = v_list_totals_id;
+
+        INSERT INTO upoa_ksk_reports.ksk_report_list_totals_data (
+            report_header_id,
+            list_code,
+            total_with_list,
+            total_without_list,
+            total_allow,
+            total_review,
+            total_deny,
+            total_bypass
+        )
+        SELECT
+            v_list_totals_id,
+            list_code,
+            SUM(tx_count),
+            0,
+            SUM(allow_count),
+            SUM(review_count),
+            SUM(deny_count),
+            SUM(bypass_count)
+        FROM ksk_totals_family_rows
+        WHERE grp = 'list'
+        GROUP BY list_code
+        ORDER BY list_code;
+
+        PERFORM upoa_ksk_reports.ksk_report_finish_prepared(v_list_totals_id, v_begin_time, 'общим проходом totals');
+        v_reports := v_reports + 1;
+    END IF;
+
+    IF v_list_totals_by_payment_type_id IS NOT NULL THEN
+        DELETE FROM upoa_ksk_reports.ksk_report_list_totals_by_payment_type_data WHERE report_header_id = v_list_totals_by_payment_type_id;
+
+        INSERT INTO upoa_ksk_reports.ksk_report_list_totals_by_payment_type_data (
+            report_header_id,
+            list_code,
+            total_with_list,
+            total_without_list,
+            total_allow,
+            total_review,
+            total_deny,
+            total_bypass,
+            i_total_with_list, i_total_without_list, i_total_allow, i_total_review, i_total_deny, i_total_bypass,
+            o_total_with_list, o_total_without_list, o_total_allow, o_total_review, o_total_deny, o_total_bypass,
+            t_total_with_list, t_total_without_list, t_total_allow, t_total_review, t_total_deny, t_total_bypass,
+            m_total_with_list, m_total_without_list, m_total_allow, m_total_review, m_total_deny, m_total_bypass,
+            v_total_with_list, v_total_without_list, v_total_allow, v_total_review, v_total_deny, v_total_bypass
+        )
+        SELECT
+            v_list_totals_by_payment_type_id,
+            list_code,
+            SUM(tx_count),
+            0,
+            SUM(allow_count),
+            SUM(review_count),
+            SUM(deny_count),
+            SUM(bypass_count),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Входящий'), 0),
+            0,
+            COALESCE(SUM(allow_count) FILTER (WHERE payment_type = 'Входящий'), 0),
+            COALESCE(SUM(review_count) FILTER (WHERE payment_type = 'Входящий'), 0),
+            COALESCE(SUM(deny_count) FILTER (WHERE payment_type = 'Входящий'), 0),
+            COALESCE(SUM(bypass_count) FILTER (WHERE payment_type = 'Входящий'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Исходящий'), 0),
+            0,
+            COALESCE(SUM(allow_count) FILTER (WHERE payment_type = 'Исходящий'), 0),
+            COALESCE(SUM(review_count) FILTER (WHERE payment_type = 'Исходящий'), 0),
+            COALESCE(SUM(deny_count) FILTER (WHERE payment_type = 'Исходящий'), 0),
+            COALESCE(SUM(bypass_count) FILTER (WHERE payment_type = 'Исходящий'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Транзитный'), 0),
+            0,
+            COALESCE(SUM(allow_count) FILTER (WHERE payment_type = 'Транзитный'), 0),
+            COALESCE(SUM(review_count) FILTER (WHERE payment_type = 'Транзитный'), 0),
+            COALESCE(SUM(deny_count) FILTER (WHERE payment_type = 'Транзитный'), 0),
+            COALESCE(SUM(bypass_count) FILTER (WHERE payment_type = 'Транзитный'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Межфилиальный'), 0),
+            0,
+            COALESCE(SUM(allow_count) FILTER (WHERE payment_type = 'Межфилиальный'), 0),
+            COALESCE(SUM(review_count) FILTER (WHERE payment_type = 'Межфилиальный'), 0),
+            COALESCE(SUM(deny_count) FILTER (WHERE payment_type = 'Межфилиальный'), 0),
+            COALESCE(SUM(bypass_count) FILTER (WHERE payment_type = 'Межфилиальный'), 0),
+            COALESCE(SUM(tx_count) FILTER (WHERE payment_type = 'Внутрифилиальный'), 0),
+            0,
+            COALESCE(SUM(allow_count) FILTER (WHERE payment_type = 'Внутрифилиальный'), 0),
+            COALESCE(SUM(review_count) FILTER (WHERE payment_type = 'Внутрифилиальный'), 0),
+            COALESCE(SUM(deny_count) FILTER (WHERE payment_type = 'Внутрифилиальный'), 0),
+            COALESCE(SUM(bypass_count) FILTER (WHERE payment_type = 'Внутрифилиальный'), 0)
+        FROM ksk_totals_family_rows
+        WHERE grp = 'list'
+          AND list_code IS NOT NULL
+        GROUP BY list_code
+        ORDER BY list_code;
+
+        PERFORM upoa_ksk_reports.ksk_report_finish_prepared(v_list_totals_by_payment_type_id, v_begin_time, 'общим проходом totals');
+        v_reports := v_reports + 1;
+    END IF;
+
+    DROP TABLE ksk_totals_family_rows;
+
+    RETURN v_reports;
+END;
+$$ LANGUAGE plpgsql;
+
+COMMENT ON FUNCTION upoa_ksk_reports.ksk_report_totals_family(DATE, DATE, JSONB) IS
+    'Отчёты totals, totals_by_payment_type, list_totals, list_totals_by_payment_type за [start_date..end_date) одним проходом: строки данных под заголовками из p_header_ids, status done';
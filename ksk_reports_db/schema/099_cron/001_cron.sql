@@ -71,9 +71,38 @@ SELECT cron.schedule(
     $$
 );
 
+-- ============================================================================
+-- ЗАДАЧА #2a: Закрытие дня в rollup отчётов (00:45, до системных отчётов)
+-- ============================================================================
+SELECT cron.schedule(
+    'ksk_rollup_maintain',
+    '45 0 * * *',
+    $$
+    SELECT * FROM upoa_ksk_reports.ksk_rollup_maintain(7);
+    $$
+);
+
+-- ============================================================================
+-- ЗАДАЧА #2b: Свёртка дельт rollup текущего дня (каждые 10 минут)
+-- ============================================================================
+SELECT cron.schedule(
+    'ksk_rollup_compact_today',
+    '*/10 * * * *',
+    $$
+    SELECT upoa_ksk_reports.ksk_rollup_compact_day(CURRENT_DATE);
+    $$
+);
+
 -- ============================================================================
 -- ЗАДАЧА #3: Генерация системных отчётов (01:30)
 -- ============================================================================
+-- Ночной прогон выполняет API (ReportBatchOrchestrator, ksk.reports.batch.*): отчёты
+-- параллельно, с повторами и Excel-файлами, по умолчанию в 01:10 — раньше этой задачи.
+-- Задача остаётся страховкой на случай, если API не запущено: отчёт, уже готовый за вчера
+-- или который сейчас строит API (тот же ключ pg_try_advisory_xact_lock), пропускается.
+-- Отчёт, который первой взяла эта задача, API повторяет через retry-delay (BUSY) —
+-- находит готовым и строит по нему Excel-файл.
+-- При работающем API её можно снять: SELECT cron.unschedule('ksk_generate_system_reports');
 SELECT cron.schedule(
     'ksk_generate_system_reports',
     '30 1 * * *',
@@ -82,17 +111,39 @@ SELECT cron.schedule(
     DECLARE
         rec RECORD;
         v_report_id INTEGER;
+        v_date DATE := CURRENT_DATE - 1;
     BEGIN
         FOR rec IN 
             SELECT report_code 
             FROM upoa_ksk_reports.ksk_report_orchestrator
             ORDER BY report_code
         LOOP
+            -- Отчёт строит API — пропуск (блокировка до конца задачи)
+            IF NOT pg_try_advisory_xact_lock(
+                hashtext('ksk_report_batch:report:' || rec.report_code || ':' || v_date::TEXT)
+            ) THEN
+                CONTINUE;
+            END IF;
+
+            IF EXISTS (
+                SELECT 1
+                FROM upoa_ksk_reports.ksk_report_header h
+                JOIN upoa_ksk_reports.ksk_report_orchestrator o ON o.id = h.orchestrator_id
+                WHERE o.report_code = rec.report_code
+                  AND h.initiator = 'system'
+                  AND h.start_date = v_date
+                  AND h.end_date = v_date + 1
+                  AND h.parameters IS NULL
+                  AND h.status = 'done'
+            ) THEN
+                CONTINUE;
+            END IF;
+
             BEGIN
                 -- Генерация отчёта
                 v_report_id := upoa_ksk_reports.ksk_run_report(
                     rec.report_code, 
-                    'system', null, (CURRENT_DATE - 1)::date
+                    'system', null, v_date
                 );
                 
                 -- Логирование успеха
@@ -124,6 +175,10 @@ SELECT cron.schedule(
 -- ============================================================================
 -- ЗАДАЧА #4: Удаление прошлогодних партиций (02:00)
 -- ============================================================================
+-- Если в API задан ksk.partitions.archive-dir, старые партиции выгружает в архив
+-- и удаляет PartitionLifecycleManager — эту задачу снять, иначе она удалит партиции
+-- раньше выгрузки: SELECT cron.unschedule('ksk_drop_old_partitions');
+-- Задача #2 остаётся страховкой на случай, если API не запущено (существующие партиции пропускаются)
 SELECT cron.schedule(
     'ksk_drop_old_partitions',
     '0 2 * * *',
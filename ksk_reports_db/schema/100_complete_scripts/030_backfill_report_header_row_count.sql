@@ -0,0 +1,15 @@
+-- ============================================================================
+-- РАЗОВЫЙ СКРИПТ: заполнение ksk_report_header.row_count для готовых отчётов
+-- ============================================================================
+-- Новые отчёты получают row_count в ksk_report_create_report / ksk_run_report.
+-- Для отчётов, созданных до появления колонки, кэш заполняется здесь.
+-- Пока row_count = NULL, API считает COUNT(*) на каждой странице (countMode=cached).
+--
+-- review считается через ksk_report_review(date) — на больших днях выполнять
+-- в окно обслуживания.
+-- ============================================================================
+
+UPDATE upoa_ksk_reports.ksk_report_header
+SET row_count = upoa_ksk_reports.ksk_report_count_rows(id)
+WHERE status = 'done'
+  AND row_count IS NULL;
@@ -0,0 +1,18 @@
+-- ============================================================================
+-- РАЗОВЫЙ СКРИПТ: заполнение ksk_report_header.fingerprint для существующих отчётов
+-- ============================================================================
+-- Новые заголовки получают fingerprint триггером trg_ksk_report_header_set_fingerprint.
+-- Для отчётов, созданных до появления колонки, отпечаток считается здесь —
+-- после этого ksk_report_reuse может использовать их как доноров.
+-- Пока fingerprint = NULL, отчёт просто считается заново.
+-- Повторный запуск пересчитывает отпечатки после смены нормализации
+-- в ksk_report_fingerprint (list_codes JSON-массивом вместо списка через ',').
+-- ============================================================================
+
+UPDATE upoa_ksk_reports.ksk_report_header h
+SET fingerprint = upoa_ksk_reports.ksk_report_fingerprint(o.report_code, h.start_date, h.end_date, h.parameters)
+FROM upoa_ksk_reports.ksk_report_orchestrator o
+WHERE o.id = h.orchestrator_id
+  AND h.status = 'done'
+  AND h.fingerprint IS DISTINCT FROM
+      upoa_ksk_reports.ksk_report_fingerprint(o.report_code, h.start_date, h.end_date, h.parameters);
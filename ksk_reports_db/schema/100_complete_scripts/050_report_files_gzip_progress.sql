@@ -0,0 +1,26 @@
+-- ============================================================================
+-- РАЗОВЫЙ СКРИПТ: перевод ksk_report_files в сжатое хранение (gzip)
+-- ============================================================================
+-- Колонки file_content_bytes / content_codec добавляет 001_tables/reports/008_ksk_report_files.sql
+-- (file_size_bytes INTEGER → BIGINT переписывает таблицу — выполнять в тихое время).
+-- Сами файлы сжимает API (StoredReportFileCompressor, ksk.reports.files.compress.*):
+-- в PostgreSQL нет gzip, а pglz/lz4 TOAST не дают байт, которые можно отдать клиенту
+-- с Content-Encoding: gzip. Каждый файл переписывается новой строкой с тем же
+-- report_header_id и created_datetime, старая удаляется.
+--
+-- Скрипт показывает ход миграции; после неё место в TOAST освобождает autovacuum,
+-- вернуть его ОС — VACUUM FULL upoa_ksk_reports.ksk_report_files (ACCESS EXCLUSIVE).
+-- Когда identity-строк не осталось, constraint можно провалидировать (последний запрос).
+-- ============================================================================
+
+SELECT content_codec,
+       count(*) AS files,
+       pg_size_pretty(sum(COALESCE(octet_length(file_content_bytes), octet_length(file_content_text)))) AS stored,
+       pg_size_pretty(sum(COALESCE(file_size_bytes, octet_length(file_content_text)))) AS uncompressed
+FROM upoa_ksk_reports.ksk_report_files
+GROUP BY content_codec
+ORDER BY content_codec;
+
+SELECT pg_size_pretty(pg_total_relation_size('upoa_ksk_reports.ksk_report_files')) AS table_with_toast;
+
+-- ALTER TABLE upoa_ksk_reports.ksk_report_files VALIDATE CONSTRAINT chk_ksk_report_files_content;
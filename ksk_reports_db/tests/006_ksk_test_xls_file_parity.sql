@@ -0,0 +1,215 @@
+-- ============================================================================
+-- ТЕСТ: ksk_test_xls_file_parity
+-- ============================================================================
+-- ОПИСАНИЕ:
+--   Побайтное сравнение Excel XML файла, построенного API (StoredReportFileRepository.render,
+--   SpreadsheetMlWriter), с файлом прежней функции БД для того же заголовка:
+--   - COMPACT (totals, totals_by_payment_type, list_totals, list_totals_by_payment_type,
+--     figurants) — ksk_report_*_xls_file целиком; её строка ksk_report_files откатывается
+--   - LINES (review) — строки данных собираются string_agg + escape_xml, как в прежней
+--     ksk_report_review_create_report (до переноса генерации в API), и сравниваются
+--     с концом файла API: заголовки — константы SpreadsheetLayout
+--
+-- ПАРАМЕТРЫ:
+--   @p_report_header_id - Заголовок отчёта (status = 'done') с файлом API
+--
+-- ВОЗВРАЩАЕТ:
+--   TABLE: check_name, passed, details (первое расхождение: позиция и фрагменты)
+--
+-- ПОДГОТОВКА:
+--   - Файл API в ksk_report_files с content_codec = 'identity' (ksk.reports.files.codec=identity
+--     на стенде): gzip в SQL не распаковать
+--   - Данные с управляющими символами (\u000B, \f, \r\n) и & < > " ' — проверка
+--     экранирования; фрагменты xls_examples/ — XLSX (POI), побайтно с ними не сравнить,
+--     раскладка колонок сверяется по SpreadsheetLayout
+--
+-- ПРИМЕР ИСПОЛЬЗОВАНИЯ:
+--   SELECT * FROM upoa_ksk_reports.ksk_test_xls_file_parity(126);
+--   -- Все готовые отчёты с файлами:
+--   SELECT f.report_header_id, t.*
+--   FROM (SELECT DISTINCT report_header_id FROM upoa_ksk_reports.ksk_report_files
+--         WHERE file_format = 'excel_xml' AND content_codec = 'identity') f
+--   CROSS JOIN LATERAL upoa_ksk_reports.ksk_test_xls_file_parity(f.report_header_id) t;
+--
+-- ИСТОРИЯ ИЗМЕНЕНИЙ:
+--   2026-10-17 - Создание (паритет генерации файлов в API с функциями БД)
+-- ============================================================================
+
+CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_test_xls_file_parity(
+    p_report_header_id INTEGER
+)
+RETURNS TABLE(check_name TEXT, passed BOOLEAN, details TEXT)
+LANGUAGE plpgsql
+AS $function$
+DECLARE
+    v_header     RECORD;
+    v_api_file   RECORD;
+    v_expected   TEXT;
+    v_actual     TEXT;
+    v_old_id     INTEGER;
+    v_resolution TEXT;
+    v_rows       TEXT;
+    v_chunk      INTEGER := 1000;
+    v_pos        INTEGER;
+BEGIN
+    -- Источник строк — как StoredReportFileRepository.renderHeader
+    SELECT h.id, h.status, h.start_date, o.report_code,
+           COALESCE(h.parameters->>'resolution', 'review') AS resolution,
+           rd.snapshot_datetime IS NOT NULL AS has_snapshot
+    INTO v_header
+    FROM upoa_ksk_reports.ksk_report_header h
+    JOIN upoa_ksk_reports.ksk_report_orchestrator o ON o.id = h.orchestrator_id
+    LEFT JOIN upoa_ksk_reports.ksk_report_review_data rd ON rd.report_header_id = h.id
+    WHERE h.id = p_report_header_id;
+
+    IF v_header.id IS NULL OR v_header.status != 'done' THEN
+        RAISE EXCEPTION 'Заголовок % не найден или не готов', p_report_header_id;
+    END IF;
+
+    SELECT id, content_codec, file_content_text
+    INTO v_api_file
+    FROM upoa_ksk_reports.ksk_report_files
+    WHERE report_header_id = p_report_header_id
+      AND file_format = 'excel_xml'
+    ORDER BY created_datetime DESC, id DESC
+    LIMIT 1;
+
+    IF v_api_file.id IS NULL THEN
+        RAISE EXCEPTION 'У заголовка % нет файла API — скачайте xls или постройте render', p_report_header_id;
+    END IF;
+    IF v_api_file.content_codec != 'identity' THEN
+        RAISE EXCEPTION 'Файл % в %: для сравнения нужен ksk.reports.files.codec=identity',
+            v_api_file.id, v_api_file.content_codec;
+    END IF;
+    v_actual := v_api_file.file_content_text;
+
+    IF v_header.report_code != 'review' THEN
+        -- Прежняя функция вставляет свою строку ksk_report_files — откат подтранзакцией
+        BEGIN
+            v_old_id := CASE v_header.report_code
+                WHEN 'totals' THEN upoa_ksk_reports.ksk_report_totals_xls_file(p_report_header_id)
+                WHEN 'totals_by_payment_type' THEN upoa_ksk_reports.ksk_report_totals_by_payment_type_xls_file(p_report_header_id)
+                WHEN 'list_totals' THEN upoa_ksk_reports.ksk_report_list_totals_xls_file(p_report_header_id)
+                WHEN 'list_totals_by_payment_type' THEN upoa_ksk_reports.ksk_report_list_totals_by_payment_type_xls_file(p_report_header_id)
+                WHEN 'figurants' THEN upoa_ksk_reports.ksk_report_figurants_xls_file(p_report_header_id)
+            END;
+            SELECT file_content_text INTO v_expected
+            FROM upoa_ksk_reports.ksk_report_files
+            WHERE id = v_old_id;
+            RAISE EXCEPTION 'ksk_test_rollback';
+        EXCEPTION WHEN raise_exception THEN
+            IF SQLERRM != 'ksk_test_rollback' THEN
+                RAISE;
+            END IF;
+        END;
+        check_name := v_header.report_code || ': файл API = ksk_report_' || v_header.report_code || '_xls_file';
+    ELSE
+        v_resolution := v_header.resolution;
+
+        IF v_header.has_snapshot THEN
+            SELECT string_agg(r.row_xml, E'\n' ORDER BY r.row_num)
+            INTO v_rows
+            FROM (
+                SELECT row_num, upoa_ksk_reports.ksk_test_review_row_xml(s) AS row_xml
+                FROM upoa_ksk_reports.ksk_report_review_snapshot s
+                WHERE s.report_header_id = p_report_header_id
+                  AND s.rn = 1
+                  AND (v_resolution = 'all' OR s.transaction_resolution = v_resolution)
+            ) r;
+        ELSE
+            -- Порядок ksk_report_review(date) не задан ни в API, ни в прежней функции
+            SELECT string_agg(upoa_ksk_reports.ksk_test_review_row_xml(
+                       ROW(NULL, NULL, r.*)::upoa_ksk_reports.ksk_report_review_snapshot), E'\n')
+            INTO v_rows
+            FROM upoa_ksk_reports.ksk_report_review(v_header.start_date) r
+            WHERE r.rn = 1
+              AND (v_resolution = 'all' OR r.transaction_resolution = v_resolution);
+        END IF;
+
+        -- Конец файла после второй строки заголовков (LINES: string_agg(..., E'\n') + '\n</Table>...')
+        v_expected := E'</Row>\n' || COALESCE(v_rows, '') || E'\n</Table>\n</Worksheet>\n</Workbook>';
+        v_actual := RIGHT(v_actual, LENGTH(v_expected));
+        check_name := 'review: строки данных файла API = string_agg(escape_xml(...))';
+    END IF;
+
+    passed := v_expected IS NOT DISTINCT FROM v_actual;
+    IF passed THEN
+        details := 'совпадает, ' || OCTET_LENGTH(v_actual) || ' байт';
+    ELSE
+        -- Первое расхождение: сначала блок по v_chunk символов, затем символ в нём
+        SELECT MIN(i) INTO v_pos
+        FROM GENERATE_SERIES(1, GREATEST(LENGTH(v_expected), LENGTH(v_actual)), v_chunk) AS i
+        WHERE SUBSTR(v_expected, i, v_chunk) IS DISTINCT FROM SUBSTR(v_actual, i, v_chunk);
+        SELECT MIN(i) INTO v_pos
+        FROM GENERATE_SERIES(v_pos, v_pos + v_chunk - 1) AS i
+        WHERE SUBSTR(v_expected, i, 1) IS DISTINCT FROM SUBSTR(v_actual, i, 1);
+        details := FORMAT('символ %s: ожидалось %L, в файле API %L (длина %s / %s)',
+            v_pos,
+            SUBSTR(v_expected, GREATEST(v_pos - 40, 1), 80),
+            SUBSTR(v_actual, GREATEST(v_pos - 40, 1), 80),
+            LENGTH(v_expected), LENGTH(v_actual));
+    END IF;
+    RETURN NEXT;
+
+    -- escape_xml на граничных значениях — те же правила в SpreadsheetMlWriter (LINES)
+    check_name := 'escape_xml: управляющие символы и спецсимволы';
+    v_expected := ' a &amp; &lt;b&gt; &quot;c&quot; &apos;d&apos; ' || CHR(11) || CHR(12) || 'e f';
+    v_actual := upoa_ksk_reports.escape_xml(
+        E'\r\n' || 'a & <b> "c" ''d''' || CHR(1) || E'\t' || CHR(11) || CHR(12) || 'e' || E'\n\n' || 'f'
+    );
+    passed := v_expected = v_actual;
+    details := CASE WHEN passed THEN 'совпадает' ELSE FORMAT('ожидалось %L, получено %L', v_expected, v_actual) END;
+    RETURN NEXT;
+END;
+$function$;
+
+
+-- Строка данных review в разметке прежней ksk_report_review_create_report
+-- (колонки и порядок — SpreadsheetLayout.REVIEW; строка ksk_report_review(date) приводится
+-- к типу снимка — колонки снимка повторяют функцию)
+CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_test_review_row_xml(
+    r upoa_ksk_reports.ksk_report_review_snapshot
+)
+RETURNS TEXT
+LANGUAGE plpgsql
+AS $function$
+BEGIN
+    RETURN '<Row>' ||
+        '<Cell><Data ss:Type="String">' || upoa_ksk_reports.escape_xml(r.corr_id) || '</Data></Cell>' ||
+        '<Cell><Data ss:Type="String">' || upoa_ksk_reports.escape_xml(r.message_timestamp::TEXT) || '</Data></Cell>' ||
+        '<Cell><Data ss:Type="String">' || upoa_ksk_reports.escape_xml(r.algorithm) || '</Data></Cell>' ||
+        '<Cell><Data ss:Type="String">' || upoa_ksk_reports.escape_xml(r.match_value) || '</Data></Cell>' ||
+        '<Cell><Data ss:Type="String">' || upoa_ksk_reports.escape_xml(r.match_payment_field) || '</Data></Cell>' ||
+        '<Cell><Data ss:Type="String">' || upoa_ksk_reports.escape_xml(r.match_payment_value) || '</Data></Cell>' ||
+        '<Cell><Data ss:Type="String">' || upoa_ksk_reports.escape_xml(r.list_code) || '</Data></Cell>' ||
+        '<Cell><Data ss:Type="String">' || upoa_ksk_reports.escape_xml(r.name_figurant) || '</Data></Cell>' ||
+        '<Cell><Data ss:Type="String">' || upoa_ksk_reports.escape_xml(r.president_group) || '</Data></Cell>' ||
+        '<Cell><Data ss:Type="String">' || upoa_ksk_reports.escape_xml(r.auto_login::TEXT) || '</Data></Cell>' ||
+        '<Cell><Data ss:Type="String">' || upoa_ksk_reports.escape_xml(r.has_exclusion::TEXT) || '</Data></Cell>' ||
+        '<Cell><Data ss:Type="String">' || upoa_ksk_reports.escape_xml(r.exclusion_phrase) || '</Data></Cell>' ||
+        '<Cell><Data ss:Type="String">' || upoa_ksk_reports.escape_xml(r.exclusion_name_list) || '</Data></Cell>' ||
+        '<Cell><Data ss:Type="String">' || upoa_ksk_reports.escape_xml(r.is_bypass) || '</Data></Cell>' ||
+        '<Cell><Data ss:Type="String">' || upoa_ksk_reports.escape_xml(r.transaction_resolution) || '</Data></Cell>' ||
+        '<Cell><Data ss:Type="String">' || upoa_ksk_reports.escape_xml(r.figurant_resolition) || '</Data></Cell>' ||
+        '<Cell><Data ss:Type="String">' || upoa_ksk_reports.escape_xml(r.payment_id) || '</Data></Cell>' ||
+        '<Cell><Data ss:Type="String">' || upoa_ksk_reports.escape_xml(r.payment_purpose) || '</Data></Cell>' ||
+        '<Cell><Data ss:Type="String">' || upoa_ksk_reports.escape_xml(r.account_debet) || '</Data></Cell>' ||
+        '<Cell><Data ss:Type="String">' || upoa_ksk_reports.escape_xml(r.account_credit) || '</Data></Cell>' ||
+        '<Cell><Data ss:Type="String">' || upoa_ksk_reports.escape_xml(r.payer_inn) || '</Data></Cell>' ||
+        '<Cell><Data ss:Type="String">' || upoa_ksk_reports.escape_xml(r.payer_name) || '</Data></Cell>' ||
+        '<Cell><Data ss:Type="String">' || upoa_ksk_reports.escape_xml(r.payer_account_number) || '</Data></Cell>' ||
+        '<Cell><Data ss:Type="String">' || upoa_ksk_reports.escape_xml(r.payer_document_type) || '</Data></Cell>' ||
+        '<Cell><Data ss:Type="String">' || upoa_ksk_reports.escape_xml(r.payer_bank_name) || '</Data></Cell>' ||
+        '<Cell><Data ss:Type="String">' || upoa_ksk_reports.escape_xml(r.payer_bank_account_number) || '</Data></Cell>' ||
+        '<Cell><Data ss:Type="String">' || upoa_ksk_reports.escape_xml(r.receiver_account_number) || '</Data></Cell>' ||
+        '<Cell><Data ss:Type="String">' || upoa_ksk_reports.escape_xml(r.receiver_name) || '</Data></Cell>' ||
+        '<Cell><Data ss:Type="String">' || upoa_ksk_reports.escape_xml(r.receiver_inn) || '</Data></Cell>' ||
+        '<Cell><Data ss:Type="String">' || upoa_ksk_reports.escape_xml(r.receiver_bank_name) || '</Data></Cell>' ||
+        '<Cell><Data ss:Type="String">' || upoa_ksk_reports.escape_xml(r.receiver_bank_account_number) || '</Data></Cell>' ||
+        '<Cell><Data ss:Type="String">' || upoa_ksk_reports.escape_xml(r.receiver_document_type) || '</Data></Cell>' ||
+        '<Cell><Data ss:Type="String">' || upoa_ksk_reports.escape_xml(r.amount) || '</Data></Cell>' ||
+        '<Cell><Data ss:Type="String">' || upoa_ksk_reports.escape_xml(r.currency) || '</Data></Cell>' ||
+        '<Cell><Data ss:Type="String">' || upoa_ksk_reports.escape_xml(r.currency_control) || '</Data></Cell>' ||
+        '</Row>';
+END;
+$function$;
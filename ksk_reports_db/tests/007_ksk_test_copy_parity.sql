@@ -0,0 +1,151 @@
+-- ============================================================================
+-- ТЕСТ: ksk_test_copy_parity
+-- ============================================================================
+-- ОПИСАНИЕ:
+--   Паритет записи через COPY (KskResultIngestService → KskResultCopyRepository,
+--   разбор в KskResultMapper) с прежним путём put_ksk_result_batch → put_ksk_result.
+--   Для каждой записи ksk_result за день put_ksk_result вызывается заново с её же
+--   входными данными (метки времени, JSON, Kafka метаданные) в подтранзакции, строки
+--   ksk_result / ksk_figurant / ksk_figurant_match сравниваются без суррогатных ключей,
+--   подтранзакция откатывается — данные не меняются
+--
+-- ПАРАМЕТРЫ:
+--   @p_date  - День (партиция ksk_result), записанный сервисом через COPY
+--   @p_limit - Сколько записей дня проверить (по id), по умолчанию 1000
+--
+-- ВОЗВРАЩАЕТ:
+--   TABLE: metric, value — проверено, совпало, расхождения по таблицам, первые id с расхождением
+--
+-- ЗАМЕТКИ:
+--   - Не сравниваются: id, source_id, figurant_id (новые значения последовательностей),
+--     created_date (время вставки)
+--   - Записи, которые KskResultMapper отдал в put_ksk_result (NotCopyable), совпадут
+--     тривиально — для проверки COPY нужен день, загруженный KskResultIngestService
+--   - Триггеры rollup срабатывают и в подтранзакции и откатываются вместе с ней
+--
+-- ПРИМЕР ИСПОЛЬЗОВАНИЯ:
+--   SELECT * FROM upoa_ksk_reports.ksk_test_copy_parity(CURRENT_DATE);
+--   SELECT * FROM upoa_ksk_reports.ksk_test_copy_parity('2026-10-16', 100000);
+--
+-- ИСТОРИЯ ИЗМЕНЕНИЙ:
+--   2026-10-17 - Создание (паритет COPY с put_ksk_result_batch)
+-- ============================================================================
+
+CREATE OR REPLACE FUNCTION upoa_ksk_reports.ksk_test_copy_parity(
+    p_date DATE,
+    p_limit INTEGER DEFAULT 1000
+)
+RETURNS TABLE(metric TEXT, value TEXT)
+LANGUAGE plpgsql
+AS $function$
+DECLARE
+    v_row             RECORD;
+    v_new_id          INTEGER;
+    v_expected        JSONB;
+    v_actual          JSONB;
+    v_checked         INTEGER := 0;
+    v_matched         INTEGER := 0;
+    v_result_diff     INTEGER := 0;
+    v_figurant_diff   INTEGER := 0;
+    v_match_diff      INTEGER := 0;
+    v_rejected        INTEGER := 0;
+    v_diff_ids        INTEGER[] := '{}';
+    v_has_diff        BOOLEAN;
+BEGIN
+    FOR v_row IN
+        SELECT r.*
+        FROM upoa_ksk_reports.ksk_result r
+        WHERE r.date = p_date
+        ORDER BY r.id
+        LIMIT p_limit
+    LOOP
+        v_checked := v_checked + 1;
+        v_has_diff := FALSE;
+
+        BEGIN
+            v_new_id := upoa_ksk_reports.put_ksk_result(
+                v_row.input_timestamp,
+                v_row.output_timestamp,
+                v_row.input_json,
+                v_row.output_json,
+                v_row.input_kafka_partition,
+                v_row.input_kafka_offset,
+                v_row.input_kafka_headers,
+                v_row.output_kafka_headers
+            );
+
+            IF v_new_id <= 0 THEN
+                -- Запись, принятая COPY, put_ksk_result отклонил бы (строка ksk_result_error откатится)
+                v_rejected := v_rejected + 1;
+                v_has_diff := TRUE;
+            ELSE
+                -- ksk_result
+                SELECT TO_JSONB(r) - 'id' - 'created_date' INTO v_expected
+                FROM upoa_ksk_reports.ksk_result r
+                WHERE r.id = v_new_id AND r.date = p_date;
+                v_actual := TO_JSONB(v_row) - 'id' - 'created_date';
+                IF v_expected IS DISTINCT FROM v_actual THEN
+                    v_result_diff := v_result_diff + 1;
+                    v_has_diff := TRUE;
+                END IF;
+
+                -- ksk_figurant
+                SELECT COALESCE(JSONB_AGG(TO_JSONB(f) - 'id' - 'source_id' ORDER BY f.figurant_index), '[]')
+                INTO v_expected
+                FROM upoa_ksk_reports.ksk_figurant f
+                WHERE f.source_id = v_new_id AND f.date = p_date;
+                SELECT COALESCE(JSONB_AGG(TO_JSONB(f) - 'id' - 'source_id' ORDER BY f.figurant_index), '[]')
+                INTO v_actual
+                FROM upoa_ksk_reports.ksk_figurant f
+                WHERE f.source_id = v_row.id AND f.date = p_date;
+                IF v_expected IS DISTINCT FROM v_actual THEN
+                    v_figurant_diff := v_figurant_diff + 1;
+                    v_has_diff := TRUE;
+                END IF;
+
+                -- ksk_figurant_match
+                SELECT COALESCE(JSONB_AGG(TO_JSONB(m) - 'id' - 'figurant_id'
+                                          ORDER BY f.figurant_index, m.match_index), '[]')
+                INTO v_expected
+                FROM upoa_ksk_reports.ksk_figurant f
+                JOIN upoa_ksk_reports.ksk_figurant_match m ON m.figurant_id = f.id AND m.date = f.date
+                WHERE f.source_id = v_new_id AND f.date = p_date;
+                SELECT COALESCE(JSONB_AGG(TO_JSONB(m) - 'id' - 'figurant_id'
+                                          ORDER BY f.figurant_index, m.match_index), '[]')
+                INTO v_actual
+                FROM upoa_ksk_reports.ksk_figurant f
+                JOIN upoa_ksk_reports.ksk_figurant_match m ON m.figurant_id = f.id AND m.date = f.date
+                WHERE f.source_id = v_row.id AND f.date = p_date;
+                IF v_expected IS DISTINCT FROM v_actual THEN
+                    v_match_diff := v_match_diff + 1;
+                    v_has_diff := TRUE;
+                END IF;
+            END IF;
+
+            RAISE EXCEPTION 'ksk_test_rollback';
+        EXCEPTION WHEN raise_exception THEN
+            IF SQLERRM != 'ksk_test_rollback' THEN
+                RAISE;
+            END IF;
+        END;
+
+        IF NOT v_has_diff THEN
+            v_matched := v_matched + 1;
+        ELSIF CARDINALITY(v_diff_ids) < 20 THEN
+            v_diff_ids := v_diff_ids || v_row.id;
+        END IF;
+    END LOOP;
+
+    metric := 'Проверено записей';             value := v_checked::TEXT;  RETURN NEXT;
+    metric := 'Совпало';                       value := v_matched::TEXT;  RETURN NEXT;
+    metric := 'Расхождения ksk_result';        value := v_result_diff::TEXT;   RETURN NEXT;
+    metric := 'Расхождения ksk_figurant';      value := v_figurant_diff::TEXT; RETURN NEXT;
+    metric := 'Расхождения ksk_figurant_match'; value := v_match_diff::TEXT;   RETURN NEXT;
+    metric := 'Отклонено put_ksk_result';      value := v_rejected::TEXT;      RETURN NEXT;
+    metric := 'ID с расхождением (до 20)';     value := v_diff_ids::TEXT;      RETURN NEXT;
+    metric := 'Результат';
+    value := CASE WHEN v_result_diff + v_figurant_diff + v_match_diff + v_rejected = 0
+                  THEN 'PASSED' ELSE 'FAILED' END;
+    RETURN NEXT;
+END;
+$function$;